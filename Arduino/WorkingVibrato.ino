@@ -67,11 +67,58 @@ float vibratoDepthSemitones = 0.0f; // Semitones
 ReverbTank reverb;
 byte reverbAmount = 100; // 0-255
 
+// Binary link protocol v2 (see SynthProtocol.java in the app). Opcodes have the
+// high bit set so they can never be confused with the ASCII text commands.
+// From v2 on, a note frame may be followed by frames without an opcode that reuse it
+// (running status); a phone that says hello with v1 never does that.
+const byte OP_NOTE_OFF = 0x80; // | 0x01 velocity follows, | 0x02 channel follows
+const byte OP_NOTE_ON  = 0x90;
+const byte OP_PANIC    = 0xB0;
+const byte OP_PARAM    = 0xC0; // | parameter index, one value byte
+const byte OP_AT       = 0xD0; // micros() at which to play the next frame, big-endian
+const byte OP_PATCH    = 0xE0; // values of PARAM_ATTACK..PARAM_SUB_WAVE, applied together
+const byte OP_HELLO    = 0xF0;
+const byte OP_PING     = 0xF1; // 4-byte sequence number, answered with OP_PONG
+const byte OP_PONG     = 0xF2; // sequence number, then our micros(), big-endian
+
+// Parameter indices carried in the low nibble of OP_PARAM
+enum {
+  PARAM_ATTACK, PARAM_DECAY, PARAM_SUSTAIN, PARAM_RELEASE, PARAM_FILTER, PARAM_DETUNE,
+  PARAM_VIB_RATE, PARAM_VIB_DEPTH, PARAM_MAIN_WAVE, PARAM_SUB_WAVE, PARAM_OCTAVE,
+  PARAM_TRANSPOSE, PARAM_REVERB, PARAM_COUNT
+};
+const byte PATCH_PARAMS = PARAM_SUB_WAVE + 1;
+
+byte frame[1 + PATCH_PARAMS];
+byte frameLength = 0;
+byte frameExpected = 0;
+byte protocolVersion = 0;
+byte runningOp = 0; // opcode that data bytes continue with, 0 if none
+
+// Jitter buffer: frames sent ahead of time wait here until micros() reaches their time.
+// Kept sorted by due time; when it is full a frame plays as soon as it arrives.
+const byte SCHEDULE_SIZE = 64;
+struct ScheduledFrame {
+  unsigned long due;
+  byte data[4];
+};
+ScheduledFrame schedule[SCHEDULE_SIZE];
+byte scheduled = 0;
+bool haveDue = false;
+unsigned long nextDue = 0;
+
 // Function prototypes
-void playNote(byte note);
+void playNote(byte note, byte velocity = 127);
 void stopNote(byte note);
 void panicAllNotes();
 void processCommand(String command);
+void processFrame();
+void executeFrame(const byte *f);
+void scheduleFrame(unsigned long due, const byte *f);
+void playDueFrames();
+void sendPong(const byte *sequence);
+void applyParam(byte index, int value);
+void applyPatch(const byte *values);
 void updateSynthParameters();
 
 void setup() {
@@ -116,7 +163,7 @@ void updateWaveforms() {
   }
 }
 
-void playNote(byte note) {
+void playNote(byte note, byte velocity) {
   note += transpose;
   float baseFreq = mtof(note + 12 * octaveShift);
 
@@ -140,7 +187,7 @@ void playNote(byte note) {
     voices[voiceIndex].active = true;
     voices[voiceIndex].releasing = false;
     voices[voiceIndex].startTime = mozziMicros();
-    voices[voiceIndex].velocity = 127;
+    voices[voiceIndex].velocity = velocity;
     voices[voiceIndex].releaseStartTime = 0; // Initialize the release time
 
     // Set oscillator frequencies
@@ -187,6 +234,8 @@ void stopNote(byte note) {
 
 void panicAllNotes() {
   Serial.println("PANIC: All notes off");
+  scheduled = 0;
+  haveDue = false;
   for (int i = 0; i < NUM_VOICES; i++) {
     envelopes[i].noteOff();
     voices[i].active = false;
@@ -197,9 +246,51 @@ void panicAllNotes() {
 void updateControl() {
   static String command = "";
 
+  // A new phone starts from scratch; it may not even speak binary
+  if (!SerialBT.hasClient()) {
+    runningOp = 0;
+    protocolVersion = 0;
+  }
+
   // Process Bluetooth messages
   while (SerialBT.available()) {
-    char receivedChar = SerialBT.read();
+    byte b = SerialBT.read();
+
+    // Inside a binary frame every byte belongs to it, whatever its value
+    if (frameExpected > 0) {
+      frame[frameLength++] = b;
+      if (frameLength == frameExpected) {
+        processFrame();
+      }
+      continue;
+    }
+
+    if (b & 0x80) {
+      runningOp = 0;
+      frameExpected = binaryFrameLength(b);
+      if (frameExpected > 0) {
+        frame[0] = b;
+        frameLength = 1;
+        if (frameLength == frameExpected) {
+          processFrame();
+        }
+      }
+      continue;
+    }
+
+    // Running status: the opcode of the previous note frame, then this byte as its note
+    if (runningOp) {
+      frame[0] = runningOp;
+      frame[1] = b;
+      frameLength = 2;
+      frameExpected = binaryFrameLength(runningOp);
+      if (frameLength == frameExpected) {
+        processFrame();
+      }
+      continue;
+    }
+
+    char receivedChar = (char) b;
     if (receivedChar == '\n') {
       processCommand(command);
       command = "";
@@ -207,6 +298,7 @@ void updateControl() {
       command += receivedChar;
     }
   }
+  playDueFrames();
 
 
   if (vibratoDepthSemitones > 0.1f) {
@@ -247,6 +339,15 @@ void updateControl() {
 }
 
 void processCommand(String command) {
+  if (command.startsWith("PING:")) {
+    SerialBT.print("PONG:");
+    SerialBT.print(command.substring(5));
+    SerialBT.print(':');
+    SerialBT.print(micros());
+    SerialBT.print('\n');
+    return;
+  }
+
   Serial.print("Command received: ");
   Serial.println(command);
 
@@ -305,6 +406,192 @@ void processCommand(String command) {
   }
 }
 
+byte binaryFrameLength(byte op) {
+  switch (op & 0xF0) {
+    case OP_NOTE_OFF:
+    case OP_NOTE_ON:
+      if (op & 0x0C) return 0;
+      return 2 + (op & 0x01) + ((op & 0x02) >> 1);
+    case OP_PANIC:
+      return op == OP_PANIC ? 1 : 0;
+    case OP_PARAM:
+      return (op & 0x0F) < PARAM_COUNT ? 2 : 0;
+    case OP_AT:
+      return op == OP_AT ? 5 : 0;
+    case OP_PATCH:
+      return op == OP_PATCH ? 1 + PATCH_PARAMS : 0;
+    case 0xF0:
+      if (op == OP_HELLO) return 2;
+      if (op == OP_PING) return 5;
+      return 0;
+  }
+  return 0;
+}
+
+void processFrame() {
+  byte op = frame[0];
+  frameExpected = 0;
+  runningOp = (protocolVersion >= 2 && (op & 0xE0) == OP_NOTE_OFF) ? op : 0;
+
+  if (op == OP_AT) {
+    nextDue = ((unsigned long) frame[1] << 24) | ((unsigned long) frame[2] << 16)
+        | ((unsigned long) frame[3] << 8) | frame[4];
+    haveDue = true;
+    return;
+  }
+  if (haveDue) {
+    haveDue = false;
+    // A patch doesn't fit a schedule slot; it is never sent ahead anyway
+    if (op != OP_PANIC && op != OP_PATCH && (op & 0xF0) != 0xF0) {
+      scheduleFrame(nextDue, frame);
+      return;
+    }
+  }
+  executeFrame(frame);
+}
+
+void scheduleFrame(unsigned long due, const byte *f) {
+  if (scheduled == SCHEDULE_SIZE || (long) (micros() - due) >= 0) {
+    executeFrame(f);
+    return;
+  }
+  byte i = scheduled++;
+  while (i > 0 && (long) (schedule[i - 1].due - due) > 0) {
+    schedule[i] = schedule[i - 1];
+    i--;
+  }
+  schedule[i].due = due;
+  memcpy(schedule[i].data, f, sizeof(schedule[i].data));
+}
+
+void playDueFrames() {
+  byte played = 0;
+  unsigned long now = micros();
+  while (played < scheduled && (long) (now - schedule[played].due) >= 0) {
+    executeFrame(schedule[played].data);
+    played++;
+  }
+  if (played > 0) {
+    memmove(schedule, schedule + played, (scheduled - played) * sizeof(ScheduledFrame));
+    scheduled -= played;
+  }
+}
+
+void executeFrame(const byte *f) {
+  byte op = f[0];
+
+  switch (op & 0xF0) {
+    case OP_NOTE_ON:
+      playNote(f[1], (op & 0x01) ? f[2] : 127);
+      break;
+    case OP_NOTE_OFF:
+      stopNote(f[1]);
+      break;
+    case OP_PANIC:
+      panicAllNotes();
+      break;
+    case OP_PARAM:
+      applyParam(op & 0x0F, f[1]);
+      break;
+    case OP_PATCH:
+      applyPatch(f + 1);
+      break;
+    case 0xF0:
+      if (op == OP_PING) {
+        sendPong(f + 1);
+        break;
+      }
+      protocolVersion = f[1];
+      Serial.print("Binary protocol v");
+      Serial.println(protocolVersion);
+      break;
+  }
+}
+
+// Answer as soon as the ping is parsed so the phone measures the link, not the audio loop
+void sendPong(const byte *sequence) {
+  unsigned long now = micros();
+  byte pong[9];
+  pong[0] = OP_PONG;
+  for (int i = 0; i < 4; i++) {
+    pong[1 + i] = sequence[i];
+    pong[5 + i] = (now >> (24 - 8 * i)) & 0xFF;
+  }
+  SerialBT.write(pong, sizeof(pong));
+}
+
+void applyParam(byte index, int value) {
+  switch (index) {
+    case PARAM_ATTACK:
+      attackTime = map(value, 0, 255, 10, 1000);
+      updateSynthParameters();
+      break;
+    case PARAM_DECAY:
+      decayTime = map(value, 0, 255, 10, 1000);
+      updateSynthParameters();
+      break;
+    case PARAM_SUSTAIN:
+      sustainLevel = value;
+      updateSynthParameters();
+      break;
+    case PARAM_RELEASE:
+      releaseTime = map(value, 0, 255, 10, 2000);
+      updateSynthParameters();
+      break;
+    case PARAM_FILTER:
+      filterCutoff = value;
+      updateSynthParameters();
+      break;
+    case PARAM_DETUNE:
+      detune = value;
+      updateSynthParameters();
+      break;
+    case PARAM_VIB_RATE:
+      vibratoRateHz = value;
+      vibratoLFO.setFreq(vibratoRateHz);
+      break;
+    case PARAM_VIB_DEPTH:
+      vibratoDepthSemitones = value / 127.5f;
+      break;
+    case PARAM_MAIN_WAVE:
+      mainWaveform = value % 4;
+      updateWaveforms();
+      break;
+    case PARAM_SUB_WAVE:
+      subWaveform = value % 4;
+      updateWaveforms();
+      break;
+    case PARAM_OCTAVE:
+      octaveShift = (int8_t) value;
+      break;
+    case PARAM_TRANSPOSE:
+      transpose = (int8_t) value;
+      break;
+    case PARAM_REVERB:
+      reverbAmount = value;
+      reverb.setFeebackLevel(reverbAmount);
+      break;
+  }
+}
+
+// Sets every value first and rebuilds envelopes, filters and wavetables once, all within
+// this control tick, so no note ever sounds with half the new preset
+void applyPatch(const byte *values) {
+  attackTime = map(values[PARAM_ATTACK], 0, 255, 10, 1000);
+  decayTime = map(values[PARAM_DECAY], 0, 255, 10, 1000);
+  sustainLevel = values[PARAM_SUSTAIN];
+  releaseTime = map(values[PARAM_RELEASE], 0, 255, 10, 2000);
+  filterCutoff = values[PARAM_FILTER];
+  detune = values[PARAM_DETUNE];
+  vibratoRateHz = values[PARAM_VIB_RATE];
+  vibratoLFO.setFreq(vibratoRateHz);
+  vibratoDepthSemitones = values[PARAM_VIB_DEPTH] / 127.5f;
+  mainWaveform = values[PARAM_MAIN_WAVE] % 4;
+  subWaveform = values[PARAM_SUB_WAVE] % 4;
+  updateSynthParameters();
+  updateWaveforms();
+}
+
 void updateSynthParameters() {
   // Update all envelopes with new settings
   for (int i = 0; i < NUM_VOICES; i++) {
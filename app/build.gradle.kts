@@ -30,6 +30,10 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // Lets the send pipeline run in plain JVM tests, where android.util.Log is a stub
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 
@@ -97,25 +97,25 @@ public class AdsrFragment extends Fragment {
 
     public void sendSustainCommand(int value) {
         if (isActivityInstanceOf(PerformActivity.class)) {
-            ((PerformActivity) getActivity()).sendCommand("SUSTAIN:", value);
+            ((PerformActivity) getActivity()).sendCommand(SynthCommand.SUSTAIN, value);
         }
     }
 
     public void sendReleaseCommand(int value) {
         if (isActivityInstanceOf(PerformActivity.class)) {
-            ((PerformActivity) getActivity()).sendCommand("RELEASE:", value);
+            ((PerformActivity) getActivity()).sendCommand(SynthCommand.RELEASE, value);
         }
     }
 
     public void sendAttackCommand(int value) {
         if (isActivityInstanceOf(PerformActivity.class)) {
-            ((PerformActivity) getActivity()).sendCommand("ATTACK:", value);
+            ((PerformActivity) getActivity()).sendCommand(SynthCommand.ATTACK, value);
         }
     }
 
     public void sendDecayCommand(int value) {
         if (isActivityInstanceOf(PerformActivity.class)) {
-            ((PerformActivity) getActivity()).sendCommand("DECAY:", value);
+            ((PerformActivity) getActivity()).sendCommand(SynthCommand.DECAY, value);
         }
     }
 }
\ No newline at end of file
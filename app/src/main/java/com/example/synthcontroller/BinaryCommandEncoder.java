@@ -0,0 +1,102 @@
+package com.example.synthcontroller;
+
+/**
+ * Encodes commands as {@link SynthProtocol} frames of one to five bytes. With running status
+ * on, a note frame with the same opcode as the frame before it leaves the opcode out; the
+ * state starts over with every handshake, i.e. on every connection.
+ */
+public class BinaryCommandEncoder implements CommandEncoder {
+    private final boolean runningStatus;
+    // Opcode of the last frame written if it can be repeated without, else 0
+    private int runningOpcode;
+
+    public BinaryCommandEncoder() {
+        this(false);
+    }
+
+    /** Running status needs a synth that speaks {@link SynthProtocol#VERSION_RUNNING_STATUS}. */
+    public BinaryCommandEncoder(boolean runningStatus) {
+        this.runningStatus = runningStatus;
+    }
+
+    @Override
+    public int encodeHandshake(byte[] buffer, int offset) {
+        runningOpcode = 0;
+        buffer[offset] = (byte) SynthProtocol.OP_HELLO;
+        // A version 1 hello tells the synth not to expect running status
+        buffer[offset + 1] = (byte) (runningStatus ? SynthProtocol.VERSION : 1);
+        return 2;
+    }
+
+    @Override
+    public int encode(long packed, byte[] buffer, int offset) {
+        int command = SynthCommand.command(packed);
+        int value = SynthCommand.value(packed);
+
+        if (!SynthCommand.isNote(command) && command != SynthCommand.PONG) {
+            runningOpcode = 0; // every other frame ends a run
+        }
+        switch (command) {
+            case SynthCommand.NOTE_ON:
+            case SynthCommand.NOTE_OFF:
+                return encodeNote(command, value, buffer, offset);
+            case SynthCommand.PANIC:
+                buffer[offset] = (byte) SynthProtocol.OP_PANIC;
+                return 1;
+            case SynthCommand.PING:
+                buffer[offset] = (byte) SynthProtocol.OP_PING;
+                SynthProtocol.writeInt(value, buffer, offset + 1);
+                return SynthProtocol.PING_LENGTH;
+            case SynthCommand.AT:
+                buffer[offset] = (byte) SynthProtocol.OP_AT;
+                SynthProtocol.writeInt(value, buffer, offset + 1);
+                return SynthProtocol.AT_LENGTH;
+            case SynthCommand.PONG:
+                return 0; // only ever sent by the synth
+            case SynthCommand.PATCH:
+                return 0; // the values don't fit a packed command, see encodePatch
+            default:
+                buffer[offset] = (byte) (SynthProtocol.OP_PARAM | SynthProtocol.parameterIndex(command));
+                buffer[offset + 1] = (byte) value;
+                return 2;
+        }
+    }
+
+    @Override
+    public int encodePatch(int[] values, byte[] buffer, int offset) {
+        runningOpcode = 0;
+        buffer[offset] = (byte) SynthProtocol.OP_PATCH;
+        for (int i = 0; i < SynthProtocol.PATCH_PARAMETERS; i++) {
+            buffer[offset + 1 + i] = (byte) values[SynthProtocol.commandForParameter(i)];
+        }
+        return SynthProtocol.PATCH_LENGTH;
+    }
+
+    private int encodeNote(int command, int value, byte[] buffer, int offset) {
+        int velocity = SynthCommand.velocity(value);
+        int channel = SynthCommand.channel(value);
+        int opcode = command == SynthCommand.NOTE_ON ? SynthProtocol.OP_NOTE_ON : SynthProtocol.OP_NOTE_OFF;
+        if (velocity >= 0) {
+            opcode |= SynthProtocol.FLAG_VELOCITY;
+        }
+        if (channel >= 0) {
+            opcode |= SynthProtocol.FLAG_CHANNEL;
+        }
+        int pos = offset;
+
+        if (opcode != runningOpcode) {
+            buffer[pos++] = (byte) opcode;
+            if (runningStatus) {
+                runningOpcode = opcode;
+            }
+        }
+        buffer[pos++] = (byte) SynthCommand.note(value);
+        if (velocity >= 0) {
+            buffer[pos++] = (byte) velocity;
+        }
+        if (channel >= 0) {
+            buffer[pos++] = (byte) channel;
+        }
+        return pos - offset;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.synthcontroller;
+
+import java.util.Arrays;
+
+/**
+ * Unpacks BLE-MIDI packets back into complete MIDI messages with their 13-bit millisecond
+ * timestamps: the receiving side of {@link BleMidiPacketizer}, and what a BLE-MIDI synth does
+ * with our writes. Running status is expanded, real-time bytes may sit anywhere, and SysEx
+ * may continue over several packets. Malformed packets are dropped.
+ */
+public class BleMidiDepacketizer {
+
+    public interface Listener {
+        /** {@code message} is only valid during the call. */
+        void onMessage(byte[] message, int length, int timestampMillis);
+    }
+
+    private static final int MAX_SYSEX_LENGTH = 1024;
+
+    private final byte[] message = new byte[3];
+    private byte[] sysEx = new byte[64];
+    private int sysExLength;
+    private boolean inSysEx;
+
+    private long packets;
+    private long malformed;
+
+    public void feed(byte[] packet, int offset, int count, Listener listener) {
+        int end = offset + count;
+        if (count < 2 || (packet[offset] & 0xC0) != 0x80) {
+            malformed++;
+            return;
+        }
+        packets++;
+        int high = packet[offset] & 0x3F;
+        int lastLow = -1;
+        int time = 0;
+        int status = 0;
+        int i = offset + 1;
+
+        if (inSysEx) {
+            // A continuation packet carries data straight after the header
+            while (i < end && (packet[i] & 0x80) == 0) {
+                appendSysEx(packet[i++]);
+            }
+        }
+        while (i < end) {
+            int b = packet[i] & 0xFF;
+            if ((b & 0x80) != 0) {
+                // Timestamp byte, then a status byte or running-status data
+                int low = b & 0x7F;
+                if (lastLow >= 0 && low < lastLow) {
+                    high = (high + 1) & 0x3F;
+                }
+                lastLow = low;
+                time = (high << 7) | low;
+                if (++i == end) {
+                    malformed++;
+                    return;
+                }
+                b = packet[i] & 0xFF;
+                if ((b & 0x80) != 0) {
+                    i++;
+                    if (b == 0xF7 && inSysEx) {
+                        appendSysEx((byte) 0xF7);
+                        inSysEx = false;
+                        listener.onMessage(sysEx, sysExLength, time);
+                        continue;
+                    }
+                    if (b >= 0xF8) {
+                        message[0] = (byte) b;
+                        listener.onMessage(message, 1, time);
+                        continue;
+                    }
+                    inSysEx = false;
+                    if (b == 0xF0) {
+                        inSysEx = true;
+                        sysExLength = 0;
+                        appendSysEx((byte) 0xF0);
+                        while (i < end && (packet[i] & 0x80) == 0) {
+                            appendSysEx(packet[i++]);
+                        }
+                        continue;
+                    }
+                    status = b;
+                    int dataLength = BleMidiPacketizer.dataLength(status);
+                    if (dataLength == 0) {
+                        message[0] = (byte) status;
+                        listener.onMessage(message, 1, time);
+                        status = 0;
+                        continue;
+                    }
+                }
+            }
+            if (status == 0) {
+                malformed++;
+                return;
+            }
+            // Data bytes of one message under the current status
+            int dataLength = BleMidiPacketizer.dataLength(status);
+            if (end - i < dataLength) {
+                malformed++;
+                return;
+            }
+            message[0] = (byte) status;
+            for (int d = 0; d < dataLength; d++) {
+                if ((packet[i] & 0x80) != 0) {
+                    malformed++;
+                    return;
+                }
+                message[1 + d] = packet[i++];
+            }
+            listener.onMessage(message, 1 + dataLength, time);
+            if (status >= 0xF0) {
+                status = 0;
+            }
+        }
+    }
+
+    private void appendSysEx(byte b) {
+        if (sysExLength == sysEx.length) {
+            if (sysEx.length == MAX_SYSEX_LENGTH) {
+                return;
+            }
+            sysEx = Arrays.copyOf(sysEx, Math.min(MAX_SYSEX_LENGTH, sysEx.length * 2));
+        }
+        sysEx[sysExLength++] = b;
+    }
+
+    public long getPacketCount() {
+        return packets;
+    }
+
+    public long getMalformedCount() {
+        return malformed;
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.synthcontroller;
+
+import java.io.IOException;
+
+/**
+ * Packs MIDI messages into BLE-MIDI packets (Bluetooth LE MIDI spec 1.0). Each packet starts
+ * with a header byte holding the upper 6 bits of a 13-bit millisecond timestamp; every message
+ * is preceded by a timestamp byte with the lower 7 bits. Within a packet a message with the
+ * same status as the one before leaves its status out (running status), and leaves out its
+ * timestamp byte too if the time is also the same. As many messages as fit go into one
+ * packet, up to the connection's MTU less the 3 byte ATT header.
+ *
+ * Pure Java and allocation free once constructed; {@link BleMidiDepacketizer} is the inverse.
+ */
+public class BleMidiPacketizer {
+
+    /** Where finished packets go, e.g. a GATT characteristic write. */
+    public interface PacketSink {
+        void onPacket(byte[] packet, int length) throws IOException;
+    }
+
+    public static final int DEFAULT_MTU = 23;
+    public static final int ATT_HEADER_LENGTH = 3;
+    /** Largest packet any MTU allows (512 byte attribute limit). */
+    public static final int MAX_PACKET_LENGTH = 512;
+
+    private final byte[] packet = new byte[MAX_PACKET_LENGTH];
+    private int maxPacketLength = DEFAULT_MTU - ATT_HEADER_LENGTH;
+    private int length;
+    private int runningStatus;
+    private int lastTimestamp;
+    private int timestampHigh;
+
+    // Framing state for addStream
+    private final byte[] message = new byte[3];
+    private int messageLength;
+    private int messageExpected;
+    private int streamStatus;
+    private boolean inSysEx;
+
+    /** The negotiated ATT MTU; packets are kept to MTU - 3 bytes. Flush first. */
+    public void setMtu(int mtu) {
+        maxPacketLength = Math.max(5, Math.min(MAX_PACKET_LENGTH, mtu - ATT_HEADER_LENGTH));
+    }
+
+    public int getMaxPacketLength() {
+        return maxPacketLength;
+    }
+
+    /**
+     * Adds one complete channel, system common or real-time message. {@code timestampMillis}
+     * is the sender's millisecond clock; only its low 13 bits are sent.
+     */
+    public void add(byte[] data, int offset, int count, int timestampMillis, PacketSink sink) throws IOException {
+        int status = data[offset] & 0xFF;
+        if (status == 0xF0) {
+            addSysEx(data, offset, count, timestampMillis, sink);
+            return;
+        }
+        int time = timestampMillis & 0x1FFF;
+        boolean realTime = status >= 0xF8;
+        boolean running = !realTime && length > 0 && status == runningStatus && fitsTimestamp(time);
+        boolean sameTime = running && time == lastTimestamp;
+        int needed = count - (running ? 1 : 0) + (sameTime ? 0 : 1);
+        if (length > 0 && (length + needed > maxPacketLength || !fitsTimestamp(time))) {
+            flush(sink);
+            running = false;
+            sameTime = false;
+        }
+        if (length == 0) {
+            startPacket(time);
+        }
+        if (!sameTime) {
+            putTimestamp(time);
+        }
+        int start = running ? offset + 1 : offset;
+        System.arraycopy(data, start, packet, length, offset + count - start);
+        length += offset + count - start;
+        if (!realTime) {
+            // Channel messages may run on; system common ones end the run
+            runningStatus = status < 0xF0 ? status : 0;
+        }
+    }
+
+    /**
+     * Adds a raw MIDI byte stream, splitting it into messages. Data bytes without a status
+     * byte continue the last channel status, as in a MIDI file or on a DIN cable.
+     */
+    public void addStream(byte[] data, int offset, int count, int timestampMillis, PacketSink sink)
+            throws IOException {
+        for (int i = offset; i < offset + count; i++) {
+            int b = data[i] & 0xFF;
+            if (inSysEx) {
+                // Sent as one message: find its end
+                if (b == 0xF7 || (b >= 0x80 && b < 0xF8)) {
+                    inSysEx = false;
+                }
+                continue;
+            }
+            if (b == 0xF0) {
+                int end = i + 1;
+                while (end < offset + count && (data[end] & 0xFF) != 0xF7) {
+                    end++;
+                }
+                if (end < offset + count) {
+                    add(data, i, end - i + 1, timestampMillis, sink);
+                    i = end;
+                } else {
+                    inSysEx = true; // split across writes; dropped rather than guessed at
+                }
+                continue;
+            }
+            if (b >= 0xF8) {
+                message[0] = (byte) b;
+                add(message, 0, 1, timestampMillis, sink);
+                continue;
+            }
+            if (b >= 0x80) {
+                streamStatus = b < 0xF0 ? b : 0;
+                message[0] = (byte) b;
+                messageLength = 1;
+                messageExpected = 1 + dataLength(b);
+            } else if (messageLength == 0) {
+                if (streamStatus == 0) {
+                    continue; // stray data byte
+                }
+                message[0] = (byte) streamStatus;
+                message[1] = (byte) b;
+                messageLength = 2;
+                messageExpected = 1 + dataLength(streamStatus);
+            } else {
+                message[messageLength++] = (byte) b;
+            }
+            if (messageLength == messageExpected) {
+                add(message, 0, messageLength, timestampMillis, sink);
+                messageLength = 0;
+            }
+        }
+    }
+
+    // SysEx goes out with a timestamp before the F0 and before the F7; if it does not fit it
+    // continues in further packets that start with just a header
+    private void addSysEx(byte[] data, int offset, int count, int timestampMillis, PacketSink sink)
+            throws IOException {
+        int time = timestampMillis & 0x1FFF;
+        if (length > 0 && (length + 2 > maxPacketLength || !fitsTimestamp(time))) {
+            flush(sink);
+        }
+        if (length == 0) {
+            startPacket(time);
+        }
+        putTimestamp(time);
+        int end = offset + count - 1; // the F7
+        for (int i = offset; i < end; i++) {
+            if (length == maxPacketLength) {
+                sink.onPacket(packet, length);
+                length = 0;
+                startPacket(time);
+            }
+            packet[length++] = data[i];
+        }
+        if (length + 2 > maxPacketLength) {
+            sink.onPacket(packet, length);
+            length = 0;
+            startPacket(time);
+        }
+        putTimestamp(time);
+        packet[length++] = (byte) 0xF7;
+        runningStatus = 0;
+    }
+
+    /** Sends the packet being filled, if any. */
+    public void flush(PacketSink sink) throws IOException {
+        if (length > 0) {
+            sink.onPacket(packet, length);
+            length = 0;
+        }
+    }
+
+    /** Drops anything not yet sent, e.g. when the connection goes. */
+    public void reset() {
+        length = 0;
+        messageLength = 0;
+        streamStatus = 0;
+        inSysEx = false;
+    }
+
+    private void startPacket(int time) {
+        timestampHigh = time >> 7;
+        packet[length++] = (byte) (0x80 | timestampHigh);
+        runningStatus = 0;
+        lastTimestamp = time;
+    }
+
+    // A receiver follows the header's upper bits and bumps them when the lower 7 bits go down,
+    // so a later time fits if it has the same upper bits, or the next ones with lower bits
+    // that visibly wrapped
+    private boolean fitsTimestamp(int time) {
+        if (length == 0) {
+            return true;
+        }
+        if (time < lastTimestamp) {
+            return false;
+        }
+        int high = time >> 7;
+        return high == timestampHigh
+                || (high == timestampHigh + 1 && (time & 0x7F) < (lastTimestamp & 0x7F));
+    }
+
+    private void putTimestamp(int time) {
+        timestampHigh = time >> 7;
+        packet[length++] = (byte) (0x80 | (time & 0x7F));
+        lastTimestamp = time;
+    }
+
+    /** Data bytes that follow a status byte; 0 for SysEx, whose length is open. */
+    static int dataLength(int status) {
+        switch (status & 0xF0) {
+            case 0x80:
+            case 0x90:
+            case 0xA0:
+            case 0xB0:
+            case 0xE0:
+                return 2;
+            case 0xC0:
+            case 0xD0:
+                return 1;
+            default:
+                switch (status) {
+                    case 0xF1:
+                    case 0xF3:
+                        return 1;
+                    case 0xF2:
+                        return 2;
+                    default:
+                        return 0;
+                }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.synthcontroller;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bluetooth LE MIDI link to a synth advertising the standard BLE-MIDI service. Writes are
+ * plain MIDI from {@link MidiCommandEncoder}; each flush of the writer thread is packed by
+ * {@link BleMidiPacketizer} into as few write-without-response packets as the negotiated MTU
+ * allows, with the connection interval set to the shortest the phone will give.
+ *
+ * The synth's notifications are not subscribed: nothing it could send is used, and the link
+ * has no pings (see {@link SynthTransport#carriesMidi}).
+ */
+public class BleMidiTransport implements SynthTransport {
+    private static final String TAG = "BleMidiTransport";
+    public static final UUID SERVICE_UUID = UUID.fromString("03B80E5A-EDE8-4B33-A751-6CE34EC4C700");
+    public static final UUID CHARACTERISTIC_UUID = UUID.fromString("7772E5DB-3868-4112-A1A9-F2669D106BF3");
+
+    private static final int REQUESTED_MTU = 247;
+    private static final long SCAN_TIMEOUT_MS = 5000;
+    private static final long CONNECT_TIMEOUT_MS = 10000;
+    private static final long GATT_TIMEOUT_MS = 3000;
+    private static final long WRITE_TIMEOUT_MS = 1000;
+
+    private final Context context;
+    private final String deviceName;
+    private final BluetoothAdapter bluetoothAdapter;
+    private final BleMidiPacketizer packetizer = new BleMidiPacketizer();
+    private final BleMidiPacketizer.PacketSink packetSink = this::writePacket;
+
+    private volatile BluetoothGatt gatt;
+    private volatile BluetoothGattCharacteristic characteristic;
+    private volatile boolean connected;
+    private volatile PacketOutputStream outputStream;
+    private volatile int mtu = BleMidiPacketizer.DEFAULT_MTU;
+
+    // Released by the GATT callbacks; only one request may be outstanding at a time
+    private final Semaphore gattEvent = new Semaphore(0);
+    private final Semaphore writeSlot = new Semaphore(1);
+
+    public BleMidiTransport(Context context) {
+        this(context, RfcommTransport.DEFAULT_DEVICE_NAME);
+    }
+
+    public BleMidiTransport(Context context, String deviceName) {
+        this.context = context.getApplicationContext();
+        this.deviceName = deviceName;
+        bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            throw new IOException("Bluetooth not available or not enabled");
+        }
+        try {
+            BluetoothDevice device = findDevice();
+            gattEvent.drainPermits();
+            writeSlot.drainPermits();
+            writeSlot.release();
+            gatt = device.connectGatt(context, false, callback, BluetoothDevice.TRANSPORT_LE);
+            if (!awaitGatt(CONNECT_TIMEOUT_MS) || !connected) {
+                throw new IOException("Could not connect to " + deviceName);
+            }
+            // A bigger MTU fits whole chords in one packet; if refused, 20 bytes it is
+            if (gatt.requestMtu(REQUESTED_MTU)) {
+                awaitGatt(GATT_TIMEOUT_MS);
+            }
+            gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+            if (!gatt.discoverServices() || !awaitGatt(GATT_TIMEOUT_MS)) {
+                throw new IOException("Service discovery failed on " + deviceName);
+            }
+            BluetoothGattService service = gatt.getService(SERVICE_UUID);
+            if (service == null || service.getCharacteristic(CHARACTERISTIC_UUID) == null) {
+                throw new IOException(deviceName + " has no BLE-MIDI service");
+            }
+            characteristic = service.getCharacteristic(CHARACTERISTIC_UUID);
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            packetizer.reset();
+            packetizer.setMtu(mtu);
+            outputStream = new PacketOutputStream();
+            Log.d(TAG, "BLE-MIDI up, MTU " + mtu);
+        } catch (SecurityException e) {
+            close();
+            throw new IOException("Bluetooth permission missing", e);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Paired devices first; BLE-MIDI synths usually are not paired, so then a short scan
+    private BluetoothDevice findDevice() throws IOException {
+        for (BluetoothDevice device : bluetoothAdapter.getBondedDevices()) {
+            if (deviceName.equals(device.getName())) {
+                return device;
+            }
+        }
+        BluetoothLeScanner scanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (scanner == null) {
+            throw new IOException("Bluetooth LE scanning not available");
+        }
+        CountDownLatch found = new CountDownLatch(1);
+        BluetoothDevice[] result = new BluetoothDevice[1];
+        ScanCallback scan = new ScanCallback() {
+            @Override
+            public void onScanResult(int callbackType, ScanResult scanResult) {
+                BluetoothDevice device = scanResult.getDevice();
+                if (deviceName.equals(device.getName())) {
+                    result[0] = device;
+                    found.countDown();
+                }
+            }
+        };
+        ScanFilter filter = new ScanFilter.Builder().setServiceUuid(new ParcelUuid(SERVICE_UUID)).build();
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
+        scanner.startScan(Collections.singletonList(filter), settings, scan);
+        try {
+            found.await(SCAN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            scanner.stopScan(scan);
+        }
+        if (result[0] == null) {
+            throw new IOException("Device " + deviceName + " not found");
+        }
+        return result[0];
+    }
+
+    private boolean awaitGatt(long timeoutMs) {
+        try {
+            return gattEvent.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private final BluetoothGattCallback callback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt g, int status, int newState) {
+            connected = status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED;
+            if (!connected) {
+                Log.d(TAG, "Disconnected, status " + status);
+                writeSlot.release(); // a writer waiting for a slot finds out
+            }
+            gattEvent.release();
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt g, int newMtu, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mtu = newMtu;
+            }
+            gattEvent.release();
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt g, int status) {
+            gattEvent.release();
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt g, BluetoothGattCharacteristic c, int status) {
+            writeSlot.release();
+        }
+    };
+
+    // Sends one packet; Android takes a single GATT write at a time, so this waits for the
+    // previous one to be handed to the controller
+    @SuppressWarnings("deprecation")
+    private void writePacket(byte[] packet, int length) throws IOException {
+        try {
+            if (!writeSlot.tryAcquire(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("BLE write timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        BluetoothGatt g = gatt;
+        BluetoothGattCharacteristic c = characteristic;
+        if (!connected || g == null || c == null) {
+            throw new IOException("BLE-MIDI link closed");
+        }
+        c.setValue(Arrays.copyOf(packet, length));
+        boolean queued;
+        try {
+            queued = g.writeCharacteristic(c);
+        } catch (SecurityException e) {
+            queued = false;
+        }
+        if (!queued) {
+            writeSlot.release();
+            throw new IOException("BLE write refused");
+        }
+    }
+
+    /** Collects one batch of MIDI bytes and packs it on flush. Writer thread only. */
+    private final class PacketOutputStream extends OutputStream {
+        private final byte[] pending = new byte[CommandEncoder.MAX_FRAME_LENGTH * 128];
+        private int length;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == pending.length) {
+                pack();
+            }
+            pending[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (length == pending.length) {
+                    pack();
+                }
+                int n = Math.min(len, pending.length - length);
+                System.arraycopy(b, off, pending, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            pack();
+            packetizer.flush(packetSink);
+        }
+
+        private void pack() throws IOException {
+            packetizer.addStream(pending, 0, length, (int) SystemClock.uptimeMillis(),
+                    packetSink);
+            length = 0;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        connected = false;
+        outputStream = null;
+        characteristic = null;
+        BluetoothGatt g = gatt;
+        gatt = null;
+        if (g != null) {
+            try {
+                g.disconnect();
+                g.close();
+            } catch (SecurityException e) {
+                Log.e(TAG, "Error closing GATT connection", e);
+            }
+        }
+        writeSlot.release();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return connected && gatt != null && outputStream != null;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return deviceName;
+    }
+
+    @Override
+    public boolean carriesMidi() {
+        return true;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+}
@@ -1,127 +1,863 @@
 package com.example.synthcontroller;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.util.Log;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Send pipeline to the synth. Owns the command queue and writer thread; the bytes go out
+ * over a {@link SynthTransport}, RFCOMM to the ESP32 unless another one is set.
+ */
 public class BluetoothManager {
     private static final String TAG = "BluetoothManager";
-    private static final UUID BT_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-    private static final String BT_DEVICE_NAME = "ESP32Synth";
+
+    private static final long WRITER_JOIN_TIMEOUT_MS = 500;
+    private static final int DEFAULT_PARAMETER_FLUSH_INTERVAL_MS = 20;
+    private static final int BATCH_BUFFER_SIZE = 1024;
+    private static final int DEFAULT_PING_INTERVAL_MS = 1000;
+    private static final int RECEIVE_BUFFER_SIZE = 256;
+    // How long parameters wait after a reconnect for a pong to vouch for the shadow
+    private static final long SHADOW_CONFIRM_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
 
     private static BluetoothManager instance;
-    private BluetoothAdapter bluetoothAdapter;
-    private BluetoothSocket bluetoothSocket;
-    private OutputStream outputStream;
-    private volatile boolean isConnected = false; // Volatile for thread safety
+    private volatile SynthTransport transport;
+    private final ConnectionManager connectionManager;
+    // Number of the live connection, 0 while down. Each connect takes the next number, so a
+    // writer can only ever mark its own connection as lost
+    private final AtomicInteger liveConnection = new AtomicInteger();
+    private volatile int lastConnection;
+
+    // Callers enqueue here; only the writer thread touches the output stream
+    private final PrioritySendQueue sendQueue = new PrioritySendQueue();
+    // Knob sweeps only need their latest value, so parameters bypass the note queue and
+    // form its lowest-priority lane
+    private final ParameterCoalescer pendingParameters = new ParameterCoalescer();
+    // What the synth already holds; pending values equal to it are not sent again
+    private final DeviceShadow deviceShadow = new DeviceShadow();
+    private volatile long unchangedParameters;
+    // Set by sendPreset: the next parameter flush sends the preset as one patch frame
+    private final AtomicBoolean patchRequested = new AtomicBoolean();
+    private volatile long parameterFlushIntervalNanos =
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_PARAMETER_FLUSH_INTERVAL_MS);
+    private volatile SendThread sendThread;
+    private volatile ReceiveThread receiveThread;
+    private volatile boolean binaryProtocol = false;
+    private volatile boolean sendingBinary = false;
+    private volatile boolean sendingMidi = false;
+    private volatile boolean runningStatus = false;
+
+    // Batching: commands that arrive together are written with a single write + flush
+    private final AtomicInteger openBatches = new AtomicInteger();
+    private volatile long batchWindowNanos = 0;
+
+    // Round-trip probing; pings ride the normal send path so they see the same queueing
+    private final LatencyProbe latencyProbe = new LatencyProbe();
+    private volatile long pingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_PING_INTERVAL_MS);
+    private volatile boolean textPings = false;
+    private volatile boolean pongSeen = false;
+
+    // Written by the writer thread only
+    private volatile int lastFlushBytes;
+    private volatile int lastFlushCommands;
+    private volatile int maxFlushCommands;
+
+    // Link statistics for the debug overlay and JSON dumps; updated without locks
+    private final LinkMetrics metrics = new LinkMetrics();
+    private final LinkMetrics.Counter bytesWritten = metrics.counter("bytes_written");
+    private final LinkMetrics.Counter commandsWritten = metrics.counter("commands_written");
+    private final LinkMetrics.Counter flushes = metrics.counter("flushes");
+    private final LinkMetrics.Counter writeFailures = metrics.counter("write_failures");
+    private final LinkMetrics.Counter connects = metrics.counter("connects");
+    private final LinkMetrics.Counter reconnects = metrics.counter("reconnects");
+    private final LinkMetrics.Counter patchesWritten = metrics.counter("patches_written");
+    private final LinkMetrics.Histogram flushLatency = metrics.histogram("flush_latency");
+    private final LinkMetrics.Histogram roundTrip = metrics.histogram("round_trip");
+
+    public BluetoothManager(SynthTransport transport) {
+        this.transport = transport;
+        connectionManager = new ConnectionManager(this);
+        registerGauges();
+    }
 
-    private BluetoothManager() {
-        bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    private void registerGauges() {
+        metrics.gauge("connected", () -> isConnected() ? 1 : 0);
+        metrics.gauge("queue_depth", this::getQueueDepth);
+        metrics.gauge("lane_emergency", () -> getLaneDepth(PrioritySendQueue.LANE_EMERGENCY));
+        metrics.gauge("lane_note_off", () -> getLaneDepth(PrioritySendQueue.LANE_NOTE_OFF));
+        metrics.gauge("lane_note_on", () -> getLaneDepth(PrioritySendQueue.LANE_NOTE_ON));
+        metrics.gauge("lane_scheduled", () -> getLaneDepth(PrioritySendQueue.LANE_SCHEDULED));
+        metrics.gauge("lane_parameter", () -> getLaneDepth(PrioritySendQueue.LANE_PARAMETER));
+        metrics.gauge("max_flush_commands", this::getMaxFlushCommands);
+        metrics.gauge("parameters_superseded", pendingParameters::getSupersededCount);
+        metrics.gauge("parameters_unchanged", this::getUnchangedParameterCount);
+        metrics.gauge("cancelled_by_panic", this::getNotesCancelledByPanic);
+        metrics.gauge("pings_sent", latencyProbe::getPingsSent);
+        metrics.gauge("pongs_received", latencyProbe::getPongsReceived);
     }
 
     public static BluetoothManager getInstance() {
         if (instance == null) {
             synchronized (BluetoothManager.class) {
                 if (instance == null) {
-                    instance = new BluetoothManager();
+                    instance = new BluetoothManager(new RfcommTransport());
                 }
             }
         }
         return instance;
     }
 
+    /** Background connect/reconnect with backoff; what UI code should use. */
+    public ConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    /** Connects on the calling thread, which may block for seconds. */
     public synchronized boolean connect() {
-        if (isConnected && isSocketValid()) {
-            Log.d(TAG, "Already connected to " + BT_DEVICE_NAME);
+        if (liveConnection.get() != 0 && isLinkValid()) {
+            Log.d(TAG, "Already connected to " + transport.getName());
             return true;
         }
 
-        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
-            Log.e(TAG, "Bluetooth not available or not enabled");
-            return false;
-        }
-
         disconnect(); // Clean up any stale connections
 
-        Set<BluetoothDevice> pairedDevices = bluetoothAdapter.getBondedDevices();
-        BluetoothDevice device = null;
-        for (BluetoothDevice pairedDevice : pairedDevices) {
-            if (BT_DEVICE_NAME.equals(pairedDevice.getName())) {
-                device = pairedDevice;
-                break;
+        try {
+            transport.open();
+            int connection = ++lastConnection;
+            liveConnection.set(connection);
+            if (connects.get() > 0) {
+                reconnects.increment();
             }
+            connects.increment();
+            // Whatever the synth lost while we were away goes out with the handshake. It may
+            // have been power-cycled, so the shadow is cleared unless pings will tell; then
+            // the replay waits for the first pong, and values the synth kept are skipped
+            boolean midi = transport.carriesMidi();
+            deviceShadow.onConnect(pingsPeriodically(midi, binaryProtocol && !midi));
+            pendingParameters.replayKnown();
+            latencyProbe.reset();
+            startSendThread(transport.getOutputStream(), connection);
+            InputStream in = transport.getInputStream();
+            if (in != null) {
+                startReceiveThread(in);
+            }
+            Log.d(TAG, "Successfully connected to " + transport.getName());
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to connect to " + transport.getName(), e);
+            disconnect();
+            return false;
         }
+    }
+
+    public synchronized void disconnect() {
+        // Closing first unblocks a writer stalled in write()
+        transport.close();
+        stopSendThread();
+        stopReceiveThread();
+        liveConnection.set(0);
+    }
+
+    /** Switches to another link. Drops the current connection; call connect() afterwards. */
+    public synchronized void setTransport(SynthTransport transport) {
+        disconnect();
+        this.transport = transport;
+        pongSeen = false;
+    }
+
+    public synchronized SynthTransport getTransport() {
+        return transport;
+    }
 
-        if (device == null) {
-            Log.e(TAG, "Device " + BT_DEVICE_NAME + " not found in paired devices");
+    /**
+     * Queues a text command such as "DOWN:60" for the writer thread. Never blocks on the
+     * socket; returns false if the command is unknown, the link is down or the queue is full.
+     * Parameter changes made while the link is down are kept and sent once it is back.
+     */
+    public boolean sendCommand(String command) {
+        long packed = SynthCommand.parse(command);
+        if (packed < 0) {
+            Log.e(TAG, "Unknown command: " + command);
             return false;
         }
+        return sendCommand(SynthCommand.command(packed), SynthCommand.value(packed));
+    }
 
-        try {
-            bluetoothSocket = device.createRfcommSocketToServiceRecord(BT_UUID);
-            bluetoothSocket.connect();
-            outputStream = bluetoothSocket.getOutputStream();
-            isConnected = true;
-            Log.d(TAG, "Successfully connected to " + BT_DEVICE_NAME);
+    public boolean sendCommand(int command, int value) {
+        if (SynthCommand.isParameter(command)) {
+            pendingParameters.offer(command, value);
+            ensureConnected();
+            wakeWriter();
             return true;
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to connect", e);
-            disconnect();
+        }
+        if (!ensureConnected()) {
             return false;
         }
+        offer(SynthCommand.pack(command, value));
+        wakeWriter();
+        return true;
     }
 
-    public synchronized void disconnect() {
+    /**
+     * Sends every sound parameter of a preset. On a binary link they go out as one
+     * {@link SynthProtocol#OP_PATCH} frame that the synth applies in a single step, so it never
+     * plays a half-loaded preset; values it already has are still skipped, and a preset that
+     * changes only one of them is sent as that parameter alone. Text links get the separate
+     * parameter commands in one write.
+     */
+    public boolean sendPreset(SynthPreset preset) {
+        openBatches.incrementAndGet();
         try {
-            if (outputStream != null) {
-                outputStream.close();
-                outputStream = null;
-            }
-            if (bluetoothSocket != null) {
-                bluetoothSocket.close();
-                bluetoothSocket = null;
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Error closing Bluetooth resources", e);
+            pendingParameters.offer(SynthCommand.ATTACK, preset.getAttack());
+            pendingParameters.offer(SynthCommand.DECAY, preset.getDecay());
+            pendingParameters.offer(SynthCommand.SUSTAIN, preset.getSustain());
+            pendingParameters.offer(SynthCommand.RELEASE, preset.getRelease());
+            pendingParameters.offer(SynthCommand.FILTER, preset.getFilter());
+            pendingParameters.offer(SynthCommand.DETUNE, preset.getDetune());
+            pendingParameters.offer(SynthCommand.VIB_RATE, preset.getVibRate());
+            pendingParameters.offer(SynthCommand.VIB_DEPTH, preset.getVibDepth());
+            pendingParameters.offer(SynthCommand.MAIN_WAVE, preset.getMainWaveform());
+            pendingParameters.offer(SynthCommand.SUB_WAVE, preset.getSubWaveform());
+            patchRequested.set(true);
         } finally {
-            isConnected = false;
+            endBatch();
         }
+        ensureConnected();
+        return true;
     }
 
-    public boolean sendCommand(String command) {
-        if (!isConnected || !isSocketValid()) {
-            Log.w(TAG, "Not connected or socket invalid, attempting to reconnect");
-            if (!connect()) {
-                Log.e(TAG, "Reconnection failed, cannot send command: " + command);
-                return false;
+    /**
+     * Queues packed commands that belong to the same moment, e.g. the notes of a chord.
+     * The writer sends them in one write + flush so their onsets are not staggered.
+     * Returns false if the link is down.
+     */
+    public boolean sendCommands(long[] commands, int offset, int count) {
+        if (!ensureConnected()) {
+            return false;
+        }
+        openBatches.incrementAndGet();
+        try {
+            for (int i = offset; i < offset + count; i++) {
+                offer(commands[i]);
             }
+        } finally {
+            endBatch();
+        }
+        return true;
+    }
+
+    /**
+     * Queues commands for the synth to play when its clock reaches the given local time,
+     * converted with the clock offset estimated from pings. Lets playback send ahead so the
+     * synth can absorb link jitter in its buffer. Returns false if the link is down, is not
+     * using the binary protocol, or no pong has been received yet to map the clock.
+     */
+    public boolean sendScheduled(long[] commands, int offset, int count, long playAtNanos) {
+        if (!ensureConnected() || !sendingBinary || !latencyProbe.getClock().hasEstimate()) {
+            return false;
         }
+        int deviceMicros = (int) latencyProbe.getClock().toDeviceMicros(playAtNanos);
+        openBatches.incrementAndGet();
         try {
-            outputStream.write((command + "\n").getBytes());
-            outputStream.flush();
-            Log.d(TAG, "Sent command: " + command);
+            for (int i = offset; i < offset + count; i++) {
+                sendQueue.offerScheduled(commands[i], deviceMicros);
+            }
+        } finally {
+            endBatch();
+        }
+        return true;
+    }
+
+    /** Whether {@link #sendScheduled} can be used on the current connection. */
+    public boolean canSchedule() {
+        return isConnected() && sendingBinary && latencyProbe.getClock().hasEstimate();
+    }
+
+    // Never connects inline: a dead link is handed to the connection manager
+    private boolean ensureConnected() {
+        if (liveConnection.get() != 0 && isLinkValid()) {
             return true;
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to send command: " + command, e);
-            isConnected = false; // Mark as disconnected on failure
-            return false;
         }
+        connectionManager.start();
+        return false;
+    }
+
+    private void offer(long packed) {
+        int command = SynthCommand.command(packed);
+        if (SynthCommand.isParameter(command)) {
+            pendingParameters.offer(command, SynthCommand.value(packed));
+        } else {
+            sendQueue.offer(packed);
+        }
+    }
+
+    // The writer may be parked waiting for this batch to be complete
+    private void endBatch() {
+        openBatches.decrementAndGet();
+        wakeWriter();
+    }
+
+    private void wakeWriter() {
+        SendThread writer = sendThread;
+        if (writer != null) {
+            writer.wake();
+        }
+    }
+
+    /**
+     * Resends every known parameter even if the synth should already have it, for when its
+     * state is in doubt.
+     */
+    public void forceFullResync() {
+        deviceShadow.invalidateAll();
+        pendingParameters.replayKnown();
+        ensureConnected();
+        wakeWriter();
+    }
+
+    public DeviceShadow getDeviceShadow() {
+        return deviceShadow;
+    }
+
+    /** Parameter changes left out because the synth already had that value. */
+    public long getUnchangedParameterCount() {
+        return unchangedParameters;
+    }
+
+    /**
+     * Selects the compact binary framing instead of text commands. Only firmware that
+     * understands {@link SynthProtocol} should be driven in binary; takes effect on the
+     * next connect.
+     */
+    public void setBinaryProtocol(boolean enabled) {
+        binaryProtocol = enabled;
+    }
+
+    public boolean isBinaryProtocol() {
+        return binaryProtocol;
+    }
+
+    /**
+     * Lets the binary encoder leave out repeated note opcodes, see {@link SynthProtocol}.
+     * Needs firmware that speaks protocol version 2; takes effect on the next connect.
+     */
+    public void setRunningStatus(boolean enabled) {
+        runningStatus = enabled;
+    }
+
+    public boolean isRunningStatus() {
+        return runningStatus;
+    }
+
+    /**
+     * Sets how often coalesced parameter changes are written. Notes are never delayed by
+     * this; 0 sends parameters as soon as the writer is free.
+     */
+    public void setParameterFlushInterval(int millis) {
+        parameterFlushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    /**
+     * Makes the writer wait this long after the first command of a batch for more to
+     * arrive before writing. 0 (the default) only batches what is already queued.
+     */
+    public void setBatchWindow(long micros) {
+        batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, micros));
+    }
+
+    /**
+     * Sends a ping every {@code millis} while connected; 0 stops the periodic pings. Text
+     * links only get them once the synth has answered a ping, or with {@link #setTextPings}.
+     */
+    public void setPingInterval(int millis) {
+        pingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+        wakeWriter();
+    }
+
+    /**
+     * Pings text links periodically before the synth has answered one. Off by default: the
+     * stock WorkingESP32code.ino does not know "PING:" and would only log it.
+     */
+    public void setTextPings(boolean enabled) {
+        textPings = enabled;
+        wakeWriter();
+    }
+
+    // Binary firmware always answers pings; on a text link they wait for proof it does
+    private boolean pingsPeriodically(boolean midi, boolean binary) {
+        return pingIntervalNanos > 0 && !midi && (binary || textPings || pongSeen);
+    }
+
+    /** Queues a single ping now. Returns false if the link is down. */
+    public boolean ping() {
+        return sendCommand(SynthCommand.PING, latencyProbe.nextSequence());
+    }
+
+    public LatencyProbe getLatencyProbe() {
+        return latencyProbe;
+    }
+
+    public int getQueueDepth() {
+        return sendQueue.size();
+    }
+
+    /** Commands waiting in one of the {@link PrioritySendQueue} lanes. */
+    public int getLaneDepth(int lane) {
+        if (lane == PrioritySendQueue.LANE_PARAMETER) {
+            return pendingParameters.pendingCount();
+        }
+        return sendQueue.laneDepth(lane);
+    }
+
+    /**
+     * Commands a lane has discarded. Only stale parameter values are ever dropped; note and
+     * panic lanes spill into an overflow list instead (see {@link #getLaneOverflowCount}).
+     */
+    public long getLaneDropCount(int lane) {
+        return lane == PrioritySendQueue.LANE_PARAMETER ? pendingParameters.getSupersededCount() : 0;
+    }
+
+    public long getLaneOverflowCount(int lane) {
+        return sendQueue.laneOverflowCount(lane);
+    }
+
+    /** Queued note events that a PANIC made unnecessary. */
+    public long getNotesCancelledByPanic() {
+        return sendQueue.getCancelledByPanic();
+    }
+
+    public int getLastFlushBytes() {
+        return lastFlushBytes;
     }
 
+    public int getLastFlushCommands() {
+        return lastFlushCommands;
+    }
+
+    public int getMaxFlushCommands() {
+        return maxFlushCommands;
+    }
 
+    public long getFlushCount() {
+        return flushes.get();
+    }
 
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /** Everything above and more, for the debug overlay or {@link LinkMetrics#toJson}. */
+    public LinkMetrics getMetrics() {
+        return metrics;
+    }
 
     public boolean isConnected() {
-        return isConnected && isSocketValid();
+        return liveConnection.get() != 0 && isLinkValid();
+    }
+
+    /** The number of the latest connection, live or not; 0 before the first. */
+    int getConnectionNumber() {
+        return lastConnection;
+    }
+
+    private boolean isLinkValid() {
+        return transport.isOpen();
+    }
+
+    private void startSendThread(OutputStream out, int connection) {
+        sendingMidi = transport.carriesMidi();
+        sendingBinary = binaryProtocol && !sendingMidi;
+        CommandEncoder encoder;
+        if (sendingMidi) {
+            encoder = new MidiCommandEncoder();
+        } else if (sendingBinary) {
+            encoder = new BinaryCommandEncoder(runningStatus);
+        } else {
+            encoder = new TextCommandEncoder();
+        }
+        SendThread writer = new SendThread(out, encoder, connection);
+        sendThread = writer;
+        writer.start();
     }
 
-    private boolean isSocketValid() {
-        return bluetoothSocket != null && bluetoothSocket.isConnected() && outputStream != null;
+    private void stopSendThread() {
+        SendThread writer = sendThread;
+        if (writer == null) {
+            return;
+        }
+        sendThread = null;
+        writer.shutdown();
+        // The transport is closed before this, which unblocks a stalled write
+        if (Thread.currentThread() != writer) {
+            try {
+                writer.join(WRITER_JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void startReceiveThread(InputStream in) {
+        ReceiveThread reader = new ReceiveThread(in);
+        receiveThread = reader;
+        reader.start();
+    }
+
+    private void stopReceiveThread() {
+        ReceiveThread reader = receiveThread;
+        if (reader == null) {
+            return;
+        }
+        receiveThread = null;
+        // Closing the transport ends the blocking read
+        if (Thread.currentThread() != reader) {
+            try {
+                reader.join(WRITER_JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private class SendThread extends Thread {
+        private final OutputStream out;
+        private final CommandEncoder encoder;
+        private final int connection;
+        private final byte[] buffer = new byte[BATCH_BUFFER_SIZE];
+        private final int[] patch = new int[SynthCommand.COUNT];
+        private volatile boolean running = true;
+        private volatile boolean parked = false;
+        private long lastParameterFlush;
+        private long shadowDeadline;
+        private long lastPing;
+        private int batchLength;
+        private int batchCommands;
+        private int batchParameters;
+
+        SendThread(OutputStream out, CommandEncoder encoder, int connection) {
+            super("SynthSendThread");
+            this.out = out;
+            this.encoder = encoder;
+            this.connection = connection;
+            setDaemon(true);
+        }
+
+        void wake() {
+            if (parked) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            batchLength = encoder.encodeHandshake(buffer, 0);
+            lastParameterFlush = System.nanoTime() - parameterFlushIntervalNanos;
+            shadowDeadline = System.nanoTime() + SHADOW_CONFIRM_TIMEOUT_NANOS;
+            // Ping right away so a rebooted synth is noticed before long
+            lastPing = System.nanoTime() - pingIntervalNanos;
+            while (running) {
+                if (!drainQueue()) {
+                    break;
+                }
+                if (batchCommands > 0) {
+                    if (!collectBatch()) {
+                        break;
+                    }
+                }
+
+                long parameterWait = 0;
+                if (pendingParameters.hasPending()) {
+                    parameterWait = lastParameterFlush + parameterFlushIntervalNanos - System.nanoTime();
+                    if (deviceShadow.isInDoubt()) {
+                        long confirmWait = shadowDeadline - System.nanoTime();
+                        if (confirmWait > 0) {
+                            parameterWait = Math.max(parameterWait, confirmWait);
+                        } else {
+                            deviceShadow.onDoubtExpired();
+                        }
+                    }
+                    if (parameterWait <= 0) {
+                        if (!appendParameters()) {
+                            break;
+                        }
+                        parameterWait = 0;
+                    }
+                }
+
+                long pingWait = 0;
+                long pingInterval = pingsPeriodically(sendingMidi, sendingBinary)
+                        ? pingIntervalNanos : 0;
+                if (pingInterval > 0) {
+                    pingWait = lastPing + pingInterval - System.nanoTime();
+                    if (pingWait <= 0) {
+                        if (!ensureRoom()) {
+                            break;
+                        }
+                        append(SynthCommand.pack(SynthCommand.PING, latencyProbe.nextSequence()));
+                        lastPing = System.nanoTime();
+                        pingWait = pingInterval;
+                    }
+                }
+
+                if (batchLength > 0) {
+                    if (!flush()) {
+                        break;
+                    }
+                    continue;
+                }
+
+                long wakeIn = parameterWait > 0 ? parameterWait : Long.MAX_VALUE;
+                if (pingWait > 0) {
+                    wakeIn = Math.min(wakeIn, pingWait);
+                }
+                parked = true;
+                if (running && sendQueue.isEmpty()
+                        && (parameterWait > 0 || !pendingParameters.hasPending())) {
+                    if (wakeIn == Long.MAX_VALUE) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this, wakeIn);
+                    }
+                }
+                parked = false;
+            }
+            // Anything still queued was meant for this connection only
+            sendQueue.clear();
+            pendingParameters.takePending();
+        }
+
+        // Keeps gathering commands that belong to the same slot before the batch goes out:
+        // an in-progress sendCommands() call, then the optional micro-window
+        private boolean collectBatch() {
+            while (openBatches.get() > 0 && running) {
+                awaitOpenBatch();
+                if (!drainQueue()) {
+                    return false;
+                }
+            }
+            long window = batchWindowNanos;
+            if (window > 0) {
+                long deadline = System.nanoTime() + window;
+                long remaining = window;
+                while (remaining > 0 && running) {
+                    parked = true;
+                    if (sendQueue.isEmpty()) {
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                    parked = false;
+                    if (!drainQueue()) {
+                        return false;
+                    }
+                    remaining = deadline - System.nanoTime();
+                }
+            }
+            return true;
+        }
+
+        // Parks until a batch being offered is done, or anything else wakes the writer. Every
+        // batch wakes the writer once it is complete; parked is set before openBatches is
+        // checked again, so that wake cannot be missed
+        private void awaitOpenBatch() {
+            parked = true;
+            if (openBatches.get() > 0 && running) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+
+        private boolean drainQueue() {
+            while (true) {
+                if (!ensureRoom()) {
+                    return false;
+                }
+                long packed = sendQueue.poll();
+                if (packed == CommandRingBuffer.EMPTY) {
+                    return true;
+                }
+                if (sendQueue.isPolledScheduled()) {
+                    // Written together, so nothing can slip between the time and its command
+                    batchLength += encoder.encode(SynthCommand.pack(SynthCommand.AT, sendQueue.getPolledTime()),
+                            buffer, batchLength);
+                }
+                append(packed);
+            }
+        }
+
+        private boolean appendParameters() {
+            // Don't split a preset that is still being offered
+            while (openBatches.get() > 0 && running) {
+                awaitOpenBatch();
+            }
+            lastParameterFlush = System.nanoTime();
+            int pending = pendingParameters.takePending();
+            if (patchRequested.getAndSet(false)) {
+                if (!ensureRoom()) {
+                    return false;
+                }
+                pending = appendPatch(pending);
+            }
+            while (pending != 0) {
+                if (!ensureRoom()) {
+                    return false;
+                }
+                int command = Integer.numberOfTrailingZeros(pending);
+                pending &= pending - 1;
+                int value = pendingParameters.value(command);
+                if (deviceShadow.matches(command, value)) {
+                    unchangedParameters++;
+                    continue;
+                }
+                append(SynthCommand.pack(command, value));
+                deviceShadow.record(command, value);
+                batchParameters |= 1 << command;
+            }
+            return true;
+        }
+
+        // Returns the pending parameters the patch did not cover
+        private int appendPatch(int pending) {
+            int mask = SynthProtocol.patchMask();
+            if ((pendingParameters.getKnownMask() & mask) != mask) {
+                return pending;
+            }
+            int changed = 0;
+            for (int i = 0; i < SynthProtocol.PATCH_PARAMETERS; i++) {
+                int command = SynthProtocol.commandForParameter(i);
+                patch[command] = pendingParameters.value(command);
+                if (!deviceShadow.matches(command, patch[command])) {
+                    changed++;
+                }
+            }
+            // A single change is cheaper as its own frame and just as atomic
+            if (changed < 2) {
+                return pending;
+            }
+            int length = encoder.encodePatch(patch, buffer, batchLength);
+            if (length == 0) {
+                return pending;
+            }
+            batchLength += length;
+            batchCommands++;
+            for (int i = 0; i < SynthProtocol.PATCH_PARAMETERS; i++) {
+                int command = SynthProtocol.commandForParameter(i);
+                deviceShadow.record(command, patch[command]);
+            }
+            batchParameters |= mask;
+            patchesWritten.increment();
+            return pending & ~mask;
+        }
+
+        // Flushes early if the next frame might not fit
+        private boolean ensureRoom() {
+            return batchLength + CommandEncoder.MAX_FRAME_LENGTH <= buffer.length || flush();
+        }
+
+        private void append(long packed) {
+            if (SynthCommand.command(packed) == SynthCommand.PING) {
+                latencyProbe.onPingSent(SynthCommand.value(packed), System.nanoTime());
+            }
+            batchLength += encoder.encode(packed, buffer, batchLength);
+            batchCommands++;
+        }
+
+        // One write and one flush for everything gathered so far
+        private boolean flush() {
+            int length = batchLength;
+            int commands = batchCommands;
+            int parameters = batchParameters;
+            batchLength = 0;
+            batchCommands = 0;
+            batchParameters = 0;
+            long started = System.nanoTime();
+            try {
+                out.write(buffer, 0, length);
+                out.flush();
+            } catch (IOException e) {
+                // Only if this is still the live connection: a writer that was slow to stop
+                // must not mark its replacement as down
+                boolean live = liveConnection.compareAndSet(connection, 0);
+                writeFailures.increment();
+                // These may never have arrived
+                deviceShadow.invalidate(parameters);
+                if (live && running) {
+                    Log.e(TAG, "Failed to send " + commands + " commands", e);
+                    connectionManager.onConnectionLost(connection);
+                }
+                return false;
+            }
+            lastFlushBytes = length;
+            lastFlushCommands = commands;
+            if (commands > maxFlushCommands) {
+                maxFlushCommands = commands;
+            }
+            flushLatency.recordNanos(System.nanoTime() - started);
+            flushes.increment();
+            bytesWritten.add(length);
+            commandsWritten.add(commands);
+            return true;
+        }
+    }
+
+    private void onPong(int sequence, int deviceMicros, long receivedNanos) {
+        if (!pongSeen) {
+            pongSeen = true;
+            wakeWriter();
+        }
+        long before = latencyProbe.getPongsReceived();
+        latencyProbe.onPong(sequence, deviceMicros, receivedNanos);
+        if (latencyProbe.getPongsReceived() != before) {
+            roundTrip.recordNanos(latencyProbe.getLastRoundTripNanos());
+        }
+        boolean settling = deviceShadow.isInDoubt();
+        if (deviceShadow.onDeviceClock(deviceMicros, receivedNanos)) {
+            Log.d(TAG, "Synth restarted, resending all parameters");
+            pendingParameters.replayKnown();
+            wakeWriter();
+        } else if (settling) {
+            // Parameters held back since the reconnect can go now
+            wakeWriter();
+        }
+    }
+
+    // Reads what the synth sends back; for now only pongs are acted on
+    private class ReceiveThread extends Thread {
+        private final InputStream in;
+        private final SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        private final byte[] buffer = new byte[RECEIVE_BUFFER_SIZE];
+
+        ReceiveThread(InputStream in) {
+            super("SynthReceiveThread");
+            this.in = in;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    long receivedNanos = System.nanoTime();
+                    for (int i = 0; i < count; i++) {
+                        long packed = decoder.feed(buffer[i]);
+                        if (packed != SynthProtocolDecoder.NONE
+                                && SynthCommand.command(packed) == SynthCommand.PONG) {
+                            onPong(SynthCommand.value(packed), decoder.getPongMicros(), receivedNanos);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // The link went away; the writer notices and reports it
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+package com.example.synthcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Bounded in-memory byte channel with one writing and one reading side. Unlike
+ * java.io.PipedInputStream it does not care which threads use it. Writes block while the
+ * buffer is full, like a stalled socket.
+ */
+public class BytePipe {
+    private final byte[] buffer;
+    private int readPos;
+    private int count;
+    private boolean closed;
+
+    private final InputStream input = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return BytePipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            synchronized (BytePipe.this) {
+                return count;
+            }
+        }
+
+        @Override
+        public void close() {
+            BytePipe.this.close();
+        }
+    };
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            BytePipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            BytePipe.this.close();
+        }
+    };
+
+    public BytePipe(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            while (count == 0 && !closed) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading", e);
+        }
+        if (count == 0) {
+            return -1;
+        }
+        int n = Math.min(len, count);
+        for (int i = 0; i < n; i++) {
+            b[off + i] = buffer[(readPos + i) % buffer.length];
+        }
+        readPos = (readPos + n) % buffer.length;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    private synchronized void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            try {
+                while (count == buffer.length && !closed) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing", e);
+            }
+            if (closed) {
+                throw new IOException("Pipe closed");
+            }
+            int n = Math.min(len, buffer.length - count);
+            int writePos = (readPos + count) % buffer.length;
+            for (int i = 0; i < n; i++) {
+                buffer[(writePos + i) % buffer.length] = b[off + i];
+            }
+            count += n;
+            off += n;
+            len -= n;
+            notifyAll();
+        }
+    }
+}
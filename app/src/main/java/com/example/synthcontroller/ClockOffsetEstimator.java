@@ -0,0 +1,121 @@
+package com.example.synthcontroller;
+
+/**
+ * Estimates how the synth's micros() clock relates to System.nanoTime() on the phone from
+ * ping round trips. Each pong is assumed to have been stamped halfway through its round trip;
+ * the offset comes from the fastest of the recent exchanges, where that assumption is least
+ * wrong, and the drift from a least-squares fit over the whole window.
+ */
+public class ClockOffsetEstimator {
+    private static final int WINDOW = 32;
+    private static final int MIN_FILTER = 8;
+
+    private final long[] localNanos = new long[WINDOW];
+    private final long[] offsetNanos = new long[WINDOW];
+    private final long[] roundTripNanos = new long[WINDOW];
+    private int next;
+    private int size;
+
+    // The synth's clock is 32 bits of microseconds and wraps every ~71 minutes
+    private boolean haveDeviceTime;
+    private int lastDeviceMicros;
+    private long deviceMicrosExtended;
+
+    private long offset;
+    private double driftPpm;
+
+    /**
+     * @param sentNanos     local time the ping was written
+     * @param receivedNanos local time the pong was read
+     * @param deviceMicros  the synth's micros() in the pong
+     */
+    public synchronized void addSample(long sentNanos, long receivedNanos, int deviceMicros) {
+        if (!haveDeviceTime) {
+            deviceMicrosExtended = deviceMicros & 0xFFFFFFFFL;
+            haveDeviceTime = true;
+        } else {
+            deviceMicrosExtended += deviceMicros - lastDeviceMicros;
+        }
+        lastDeviceMicros = deviceMicros;
+
+        long roundTrip = receivedNanos - sentNanos;
+        long midpoint = sentNanos + roundTrip / 2;
+        localNanos[next] = midpoint;
+        offsetNanos[next] = deviceMicrosExtended * 1000 - midpoint;
+        roundTripNanos[next] = roundTrip;
+        next = (next + 1) % WINDOW;
+        if (size < WINDOW) {
+            size++;
+        }
+        update();
+    }
+
+    public synchronized boolean hasEstimate() {
+        return size > 0;
+    }
+
+    /** Synth clock minus phone clock, in nanoseconds. */
+    public synchronized long getOffsetNanos() {
+        return offset;
+    }
+
+    /** How fast the synth's clock runs relative to the phone's, in parts per million. */
+    public synchronized double getDriftPpm() {
+        return driftPpm;
+    }
+
+    /** Converts a System.nanoTime() value to the synth's (unwrapped) micros() clock. */
+    public synchronized long toDeviceMicros(long localTimeNanos) {
+        long latest = localNanos[(next + WINDOW - 1) % WINDOW];
+        double drift = driftPpm * 1e-6 * (localTimeNanos - latest);
+        return (localTimeNanos + offset + (long) drift) / 1000;
+    }
+
+    public synchronized void reset() {
+        next = 0;
+        size = 0;
+        haveDeviceTime = false;
+        offset = 0;
+        driftPpm = 0;
+    }
+
+    private void update() {
+        int latest = (next - 1 + WINDOW) % WINDOW;
+        if (size >= 2) {
+            driftPpm = fitDriftPpm(latest);
+        }
+
+        int best = latest;
+        int recent = Math.min(size, MIN_FILTER);
+        for (int i = 2; i <= recent; i++) {
+            int index = (next - i + WINDOW) % WINDOW;
+            if (roundTripNanos[index] < roundTripNanos[best]) {
+                best = index;
+            }
+        }
+        // Project the best sample's offset forward to the latest one using the drift
+        offset = offsetNanos[best] + (long) (driftPpm * 1e-6 * (localNanos[latest] - localNanos[best]));
+    }
+
+    private double fitDriftPpm(int latest) {
+        // Relative to the latest sample so the sums stay well within double precision
+        long originX = localNanos[latest];
+        long originY = offsetNanos[latest];
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < size; i++) {
+            meanX += localNanos[i] - originX;
+            meanY += offsetNanos[i] - originY;
+        }
+        meanX /= size;
+        meanY /= size;
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < size; i++) {
+            double dx = localNanos[i] - originX - meanX;
+            covariance += dx * (offsetNanos[i] - originY - meanY);
+            variance += dx * dx;
+        }
+        return variance > 0 ? covariance / variance * 1e6 : driftPpm;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.synthcontroller;
+
+/**
+ * Turns packed commands (see {@link SynthCommand#pack}) into wire bytes. Implementations
+ * write straight into the caller's buffer and must not allocate.
+ */
+public interface CommandEncoder {
+    /** Upper bound on the bytes written by a single encode call: a MIDI PANIC, the longest. */
+    int MAX_FRAME_LENGTH = 96;
+
+    /** Writes whatever must precede the first command on a fresh connection. */
+    int encodeHandshake(byte[] buffer, int offset);
+
+    int encode(long packed, byte[] buffer, int offset);
+
+    /**
+     * Writes the patch parameters (see {@link SynthProtocol#patchMask}) taken from
+     * {@code values}, indexed by command id, as one frame. Returns 0 if the format has none.
+     */
+    int encodePatch(int[] values, byte[] buffer, int offset);
+}
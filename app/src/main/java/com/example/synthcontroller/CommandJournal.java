@@ -0,0 +1,260 @@
+package com.example.synthcontroller;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Append-only record of outbound synth commands with their send times, for replaying a real
+ * session offline (benchmarking encoders and batching, reproducing a glitch) with
+ * {@link JournalReplayer}.
+ *
+ * The journal is written into a buffer sized up front: a memory-mapped file from
+ * {@link #create}, or memory from the constructor. Recording never allocates or blocks on
+ * I/O; once the buffer is full further commands are counted as dropped. Because the header
+ * holds the length written so far, a mapped journal is readable even if the app dies.
+ *
+ * Layout: a 16 byte header (magic, version, length of the records) followed by one record per
+ * command: the command id byte, the nanoseconds since the previous record and then the value
+ * (unsigned 32 bit), both as base-128 varints. A note is typically 6-8 bytes.
+ */
+public class CommandJournal implements Closeable {
+
+    /** Where {@link JournalReplayer} sends commands, e.g. {@code link::sendCommand}. */
+    public interface Sink {
+        boolean send(int command, int value);
+    }
+
+    public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+    static final int MAGIC = 0x534A4E4C; // "SJNL"
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 16;
+    private static final int LENGTH_OFFSET = 8;
+    private static final int MAX_RECORD_LENGTH = 1 + 10 + 5;
+
+    private final ByteBuffer buffer;
+    private final FileChannel channel;
+    private final long startNanos;
+    private long lastNanos;
+    private int records;
+    private long dropped;
+    private boolean closed;
+
+    /** A journal in memory with room for {@code capacity} bytes. */
+    public CommandJournal(int capacity) {
+        this(ByteBuffer.allocate(capacity), null);
+    }
+
+    private CommandJournal(ByteBuffer buffer, FileChannel channel) {
+        this.buffer = buffer;
+        this.channel = channel;
+        this.startNanos = System.nanoTime();
+        this.lastNanos = startNanos;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(LENGTH_OFFSET, 0);
+        buffer.putInt(12, 0);
+        buffer.position(HEADER_LENGTH);
+    }
+
+    /** A journal written through a memory-mapped file of {@code capacity} bytes. */
+    public static CommandJournal create(File file, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new CommandJournal(mapped, channel);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /** A new journal file named after the current time in {@code directory}. */
+    public static CommandJournal createIn(File directory, String prefix) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        return create(new File(directory, prefix + "-" + stamp + ".journal"), DEFAULT_CAPACITY);
+    }
+
+    /** Records a command sent now. Returns false if the journal is full or closed. */
+    public boolean record(int command, int value) {
+        return record(command, value, System.nanoTime());
+    }
+
+    /** Records a command sent at {@code nanos} on the System.nanoTime() clock. */
+    public synchronized boolean record(int command, int value, long nanos) {
+        if (closed || buffer.remaining() < MAX_RECORD_LENGTH) {
+            dropped++;
+            return false;
+        }
+        // Recorders on different threads can race by a few nanoseconds; never go backwards
+        long delta = Math.max(0, nanos - lastNanos);
+        lastNanos += delta;
+        buffer.put((byte) command);
+        putVarint(delta);
+        putVarint(value & 0xFFFFFFFFL);
+        buffer.putInt(LENGTH_OFFSET, buffer.position() - HEADER_LENGTH);
+        records++;
+        return true;
+    }
+
+    /** Records {@code count} packed commands handed over together at {@code nanos}. */
+    public synchronized void record(long[] commands, int offset, int count, long nanos) {
+        for (int i = offset; i < offset + count; i++) {
+            record(SynthCommand.command(commands[i]), SynthCommand.value(commands[i]), nanos);
+        }
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public synchronized int getRecordCount() {
+        return records;
+    }
+
+    /** Commands that did not fit. */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /** Bytes used, header included. */
+    public synchronized int getLength() {
+        return buffer.position();
+    }
+
+    /** The journal as it would be stored, e.g. to write out an in-memory journal. */
+    public synchronized byte[] toByteArray() {
+        byte[] bytes = new byte[buffer.position()];
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /** Reads the records written so far; recording may carry on meanwhile. */
+    public synchronized Reader reader() {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(view.position());
+        view.position(HEADER_LENGTH);
+        return new Reader(view);
+    }
+
+    /** Reads a journal stored by {@link #create} or {@link #toByteArray}. */
+    public static Reader read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static Reader read(byte[] bytes) throws IOException {
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    private static Reader read(ByteBuffer bytes) throws IOException {
+        if (bytes.limit() < HEADER_LENGTH || bytes.getInt(0) != MAGIC) {
+            throw new IOException("Not a command journal");
+        }
+        if (bytes.getInt(4) != VERSION) {
+            throw new IOException("Unsupported journal version " + bytes.getInt(4));
+        }
+        int length = bytes.getInt(LENGTH_OFFSET);
+        if (length < 0 || HEADER_LENGTH + length > bytes.limit()) {
+            throw new IOException("Journal truncated");
+        }
+        bytes.limit(HEADER_LENGTH + length);
+        bytes.position(HEADER_LENGTH);
+        return new Reader(bytes);
+    }
+
+    /**
+     * Stops recording and, for a mapped journal, flushes it and trims the file to what was
+     * written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (channel != null) {
+            ((MappedByteBuffer) buffer).force();
+            channel.truncate(buffer.position());
+            channel.close();
+        }
+    }
+
+    /** Walks the records in order. Times are relative to when the journal was started. */
+    public static final class Reader {
+        private final ByteBuffer bytes;
+        private long nanos;
+        private int command;
+        private int value;
+
+        Reader(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        /** Moves to the next record; false at the end. */
+        public boolean next() throws IOException {
+            if (!bytes.hasRemaining()) {
+                return false;
+            }
+            try {
+                command = bytes.get() & 0xFF;
+                nanos += getVarint();
+                value = (int) getVarint();
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Journal truncated");
+            }
+            return true;
+        }
+
+        private long getVarint() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = bytes.get();
+                result |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Bad varint in journal");
+        }
+
+        /** Nanoseconds from the start of the journal. */
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getCommand() {
+            return command;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        public long getPacked() {
+            return SynthCommand.pack(command, value);
+        }
+    }
+}
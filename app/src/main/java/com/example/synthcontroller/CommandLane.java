@@ -0,0 +1,111 @@
+package com.example.synthcontroller;
+
+/**
+ * One priority lane of the send pipeline: a lock-free {@link CommandRingBuffer} for the normal
+ * case, backed by a locked overflow list so that note events are never dropped when the link
+ * stalls. Once anything has overflowed, new commands queue behind it until the overflow has
+ * drained, so a producer's commands stay in order. Any thread may offer, only the writer polls.
+ */
+class CommandLane {
+    private static final int INITIAL_OVERFLOW_CAPACITY = 64;
+
+    private final CommandRingBuffer ring;
+    private final Object overflowLock = new Object();
+    private long[] overflowCommands = new long[INITIAL_OVERFLOW_CAPACITY];
+    private long[] overflowTags = new long[INITIAL_OVERFLOW_CAPACITY];
+    private int overflowHead;
+    private int overflowSize;
+    private volatile boolean overflowing;
+    private volatile long overflowCount;
+    private long polledTag;
+
+    CommandLane(int capacity) {
+        ring = new CommandRingBuffer(capacity);
+    }
+
+    void offer(long command, long tag) {
+        if (!overflowing && ring.offer(command, tag)) {
+            return;
+        }
+        synchronized (overflowLock) {
+            if (overflowSize == overflowCommands.length) {
+                grow();
+            }
+            int index = (overflowHead + overflowSize) % overflowCommands.length;
+            overflowCommands[index] = command;
+            overflowTags[index] = tag;
+            overflowSize++;
+            overflowCount++;
+            overflowing = true;
+        }
+    }
+
+    /** Writer only. Returns {@link CommandRingBuffer#EMPTY} if the lane is empty. */
+    long poll() {
+        long command = ring.poll();
+        if (command != CommandRingBuffer.EMPTY) {
+            polledTag = ring.polledTag();
+            return command;
+        }
+        if (!overflowing) {
+            return CommandRingBuffer.EMPTY;
+        }
+        synchronized (overflowLock) {
+            if (overflowSize == 0) {
+                return CommandRingBuffer.EMPTY;
+            }
+            command = overflowCommands[overflowHead];
+            polledTag = overflowTags[overflowHead];
+            overflowHead = (overflowHead + 1) % overflowCommands.length;
+            overflowSize--;
+            if (overflowSize == 0) {
+                overflowing = false;
+            }
+            return command;
+        }
+    }
+
+    /** Writer only. Tag of the command last returned by {@link #poll}. */
+    long polledTag() {
+        return polledTag;
+    }
+
+    boolean isEmpty() {
+        return ring.isEmpty() && !overflowing;
+    }
+
+    int size() {
+        int size = ring.size();
+        if (overflowing) {
+            synchronized (overflowLock) {
+                size += overflowSize;
+            }
+        }
+        return size;
+    }
+
+    /** How many commands have had to wait in the overflow list. */
+    long getOverflowCount() {
+        return overflowCount;
+    }
+
+    /** Writer only. */
+    void clear() {
+        while (poll() != CommandRingBuffer.EMPTY) {
+            // drop
+        }
+    }
+
+    private void grow() {
+        int capacity = overflowCommands.length;
+        long[] commands = new long[capacity * 2];
+        long[] tags = new long[capacity * 2];
+        for (int i = 0; i < overflowSize; i++) {
+            commands[i] = overflowCommands[(overflowHead + i) % capacity];
+            tags[i] = overflowTags[(overflowHead + i) % capacity];
+        }
+        overflowCommands = commands;
+        overflowTags = tags;
+        overflowHead = 0;
+    }
+}
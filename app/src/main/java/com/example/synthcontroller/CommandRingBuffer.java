@@ -0,0 +1,100 @@
+package com.example.synthcontroller;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of packed commands (see {@link SynthCommand#pack}).
+ * Any number of threads may offer; exactly one thread (the writer) may poll.
+ * Each slot carries a sequence number so producers claim slots with a single CAS
+ * and the consumer never sees a half-written entry. An entry may carry a tag alongside
+ * the command, read back with {@link #polledTag()}.
+ */
+public class CommandRingBuffer {
+    public static final long EMPTY = -1;
+
+    private final int mask;
+    private final long[] values;
+    private final long[] tags;
+    private long polledTag;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    public CommandRingBuffer(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        values = new long[size];
+        tags = new long[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /** Returns false without blocking if the queue is full. */
+    public boolean offer(long command) {
+        return offer(command, 0);
+    }
+
+    public boolean offer(long command, long tag) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long seq = sequences.get(index);
+            long diff = seq - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    values[index] = command;
+                    tags[index] = tag;
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /** Single consumer only. Returns {@link #EMPTY} if nothing is ready. */
+    public long poll() {
+        long pos = head.get();
+        int index = (int) (pos & mask);
+        if (sequences.get(index) != pos + 1) {
+            return EMPTY;
+        }
+        long command = values[index];
+        polledTag = tags[index];
+        head.lazySet(pos + 1);
+        sequences.lazySet(index, pos + mask + 1);
+        return command;
+    }
+
+    /** Single consumer only. Tag of the command last returned by {@link #poll}. */
+    public long polledTag() {
+        return polledTag;
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** Single consumer only. */
+    public void clear() {
+        while (poll() != EMPTY) {
+            // drop
+        }
+    }
+}
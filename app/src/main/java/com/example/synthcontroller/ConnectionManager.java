@@ -0,0 +1,155 @@
+package com.example.synthcontroller;
+
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the synth link up from a background thread so the UI never waits on a socket.
+ * Failed attempts are retried with exponential backoff; a dropped link is retried at once.
+ * Listeners may be called from any thread, so UI code has to post to the main thread.
+ */
+public class ConnectionManager {
+    private static final String TAG = "ConnectionManager";
+
+    public static final int STATE_DISCONNECTED = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_CONNECTED = 2;
+    public static final int STATE_BACKING_OFF = 3;
+
+    private static final long DEFAULT_INITIAL_BACKOFF_MS = 250;
+    private static final long DEFAULT_MAX_BACKOFF_MS = 8000;
+
+    public interface LinkStateListener {
+        void onLinkStateChanged(int state);
+    }
+
+    private final BluetoothManager link;
+    private final CopyOnWriteArrayList<LinkStateListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "SynthConnectThread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile int state = STATE_DISCONNECTED;
+    private long initialBackoffMs = DEFAULT_INITIAL_BACKOFF_MS;
+    private long maxBackoffMs = DEFAULT_MAX_BACKOFF_MS;
+    private long backoffMs = DEFAULT_INITIAL_BACKOFF_MS;
+    private boolean wanted;
+    private ScheduledFuture<?> pendingAttempt;
+
+    ConnectionManager(BluetoothManager link) {
+        this.link = link;
+    }
+
+    public static String stateName(int state) {
+        switch (state) {
+            case STATE_DISCONNECTED: return "disconnected";
+            case STATE_CONNECTING: return "connecting";
+            case STATE_CONNECTED: return "connected";
+            case STATE_BACKING_OFF: return "backing off";
+            default: return "unknown";
+        }
+    }
+
+    /** Starts connecting in the background if not already connected or trying. Never blocks. */
+    public synchronized void start() {
+        wanted = true;
+        if (state == STATE_CONNECTED && !link.isConnected()) {
+            // Dropped without a failed write to tell us, e.g. a closed socket
+            onConnectionLost(link.getConnectionNumber());
+        } else if (state == STATE_DISCONNECTED) {
+            backoffMs = initialBackoffMs;
+            setState(STATE_CONNECTING);
+            schedule(0);
+        }
+    }
+
+    /** Stops retrying and closes the link in the background. */
+    public synchronized void stop() {
+        wanted = false;
+        if (pendingAttempt != null) {
+            pendingAttempt.cancel(false);
+            pendingAttempt = null;
+        }
+        setState(STATE_DISCONNECTED);
+        executor.execute(link::disconnect);
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public void addListener(LinkStateListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(LinkStateListener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized void setBackoff(long initialMillis, long maxMillis) {
+        initialBackoffMs = Math.max(1, initialMillis);
+        maxBackoffMs = Math.max(initialBackoffMs, maxMillis);
+        backoffMs = initialBackoffMs;
+    }
+
+    /**
+     * Called by the writer thread when a write fails on the given connection. A report about
+     * a connection that has since been replaced is ignored, so one outage makes one reconnect
+     * however many threads notice it.
+     */
+    synchronized void onConnectionLost(int connection) {
+        if (!wanted || state != STATE_CONNECTED || connection != link.getConnectionNumber()) {
+            return;
+        }
+        Log.w(TAG, "Link lost, reconnecting");
+        backoffMs = initialBackoffMs;
+        setState(STATE_CONNECTING);
+        schedule(0);
+    }
+
+    private void schedule(long delayMs) {
+        pendingAttempt = executor.schedule(this::attempt, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs on the connection thread; connect() may block for seconds
+    private void attempt() {
+        synchronized (this) {
+            if (!wanted) {
+                return;
+            }
+            setState(STATE_CONNECTING);
+        }
+        boolean connected = link.connect();
+        synchronized (this) {
+            if (!wanted) {
+                link.disconnect();
+                setState(STATE_DISCONNECTED);
+            } else if (connected) {
+                backoffMs = initialBackoffMs;
+                setState(STATE_CONNECTED);
+            } else {
+                Log.d(TAG, "Connect failed, retrying in " + backoffMs + " ms");
+                setState(STATE_BACKING_OFF);
+                schedule(backoffMs);
+                backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+            }
+        }
+    }
+
+    private void setState(int newState) {
+        if (state == newState) {
+            return;
+        }
+        state = newState;
+        for (LinkStateListener listener : listeners) {
+            listener.onLinkStateChanged(newState);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.synthcontroller;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The parameter values the synth is believed to hold: the last value of each parameter that
+ * went out in a successful write. The writer compares pending values against it and leaves out
+ * the ones the synth already has, so preset loads and screen rotations only cost the parameters
+ * that actually changed.
+ *
+ * The synth forgets everything when it reboots. That shows up as its micros() clock having
+ * restarted, which {@link #onDeviceClock} checks on every pong. A reconnect may hide a power
+ * cycle, so the values are only kept across one if a pong can vouch for the clock; see
+ * {@link #onConnect}.
+ */
+public class DeviceShadow {
+    // A clock that moved this much less than ours did has restarted
+    private static final long RESTART_SLACK_MICROS = TimeUnit.MILLISECONDS.toMicros(500);
+
+    private final AtomicIntegerArray values = new AtomicIntegerArray(SynthCommand.COUNT);
+    private final AtomicInteger valid = new AtomicInteger();
+
+    // Set by a reconnect until the first pong, or the writer's patience, settles it
+    private volatile boolean inDoubt;
+
+    // Guarded by this
+    private boolean haveDeviceTime;
+    private int lastDeviceMicros;
+    private long lastLocalNanos;
+
+    /** Whether the synth is known to hold this value already. */
+    public boolean matches(int command, int value) {
+        return (valid.get() & (1 << command)) != 0 && values.get(command) == value;
+    }
+
+    /** Writer only. */
+    public void record(int command, int value) {
+        values.set(command, value);
+        int bit = 1 << command;
+        int mask;
+        do {
+            mask = valid.get();
+        } while ((mask & bit) == 0 && !valid.compareAndSet(mask, mask | bit));
+    }
+
+    /** Forgets what the synth holds for the parameters in {@code mask}. */
+    public void invalidate(int mask) {
+        int current;
+        do {
+            current = valid.get();
+        } while ((current & mask) != 0 && !valid.compareAndSet(current, current & ~mask));
+    }
+
+    public void invalidateAll() {
+        valid.set(0);
+    }
+
+    public int getValidMask() {
+        return valid.get();
+    }
+
+    public int value(int command) {
+        return values.get(command);
+    }
+
+    /**
+     * Called on every connect. If a pong is expected and an earlier one left a clock to compare
+     * with, the values are put in doubt: the writer holds parameters back until a pong shows
+     * whether the synth kept running. Otherwise there is no telling whether it was power-cycled
+     * while we were away, so everything is forgotten. Returns whether the values are in doubt.
+     */
+    public synchronized boolean onConnect(boolean pongExpected) {
+        if (pongExpected && haveDeviceTime && valid.get() != 0) {
+            inDoubt = true;
+            return true;
+        }
+        forget();
+        return false;
+    }
+
+    /** Whether parameters should wait for a pong before being compared against the shadow. */
+    public boolean isInDoubt() {
+        return inDoubt;
+    }
+
+    /** No pong came in time to vouch for the values, so they are forgotten. */
+    public synchronized void onDoubtExpired() {
+        if (inDoubt) {
+            forget();
+        }
+    }
+
+    // The clock goes too, or the first pong after the gap would look like a reboot
+    private void forget() {
+        inDoubt = false;
+        haveDeviceTime = false;
+        invalidateAll();
+    }
+
+    /**
+     * Feeds the synth's clock from a pong. Returns true, after forgetting every value, if the
+     * clock ran noticeably slower than ours since the last pong, i.e. the synth rebooted.
+     * A gap of more than half the 32-bit wrap period cannot be told apart and also counts.
+     */
+    public synchronized boolean onDeviceClock(int deviceMicros, long localNanos) {
+        inDoubt = false;
+        if (!haveDeviceTime) {
+            haveDeviceTime = true;
+            lastDeviceMicros = deviceMicros;
+            lastLocalNanos = localNanos;
+            return false;
+        }
+        long localElapsed = TimeUnit.NANOSECONDS.toMicros(localNanos - lastLocalNanos);
+        long deviceElapsed = deviceMicros - lastDeviceMicros; // int math undoes a wrap
+        lastDeviceMicros = deviceMicros;
+        lastLocalNanos = localNanos;
+        if (localElapsed >= Integer.MAX_VALUE
+                || deviceElapsed < localElapsed - RESTART_SLACK_MICROS - localElapsed / 100) {
+            invalidateAll();
+            return true;
+        }
+        return false;
+    }
+}
@@ -25,7 +25,7 @@ public class EffectsFragment extends Fragment {
             filterKnob.setMax(255);
             filterKnob.setCurrentProgress(255);
             filterKnob.setProgressChangeListener(progress ->
-                    ((PerformActivity)getActivity()).sendCommand("FILTER:", progress));
+                    ((PerformActivity)getActivity()).sendCommand(SynthCommand.FILTER, progress));
         }
 
         // Configure detune knob
@@ -34,7 +34,7 @@ public class EffectsFragment extends Fragment {
             detuneKnob.setMax(255);
             detuneKnob.setCurrentProgress(0);
             detuneKnob.setProgressChangeListener(progress ->
-                    ((PerformActivity)getActivity()).sendCommand("DETUNE:", progress));
+                    ((PerformActivity)getActivity()).sendCommand(SynthCommand.DETUNE, progress));
         }
 
         // Configure vibrato rate knob
@@ -43,7 +43,7 @@ public class EffectsFragment extends Fragment {
             vibRateKnob.setMax(255);
             vibRateKnob.setCurrentProgress(0);
             vibRateKnob.setProgressChangeListener(progress ->
-                    ((PerformActivity)getActivity()).sendCommand("VIB_RATE:", progress));
+                    ((PerformActivity)getActivity()).sendCommand(SynthCommand.VIB_RATE, progress));
         }
 
         // Configure vibrato depth knob
@@ -52,7 +52,7 @@ public class EffectsFragment extends Fragment {
             vibDepthKnob.setMax(255);
             vibDepthKnob.setCurrentProgress(0);
             vibDepthKnob.setProgressChangeListener(progress ->
-                    ((PerformActivity)getActivity()).sendCommand("VIB_DEPTH:", progress));
+                    ((PerformActivity)getActivity()).sendCommand(SynthCommand.VIB_DEPTH, progress));
         }
 
         return view;
@@ -0,0 +1,76 @@
+package com.example.synthcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Transport backed by two {@link BytePipe}s. The phone side is what the pipeline uses; the
+ * device side ({@link #getDeviceInputStream()}, {@link #getDeviceOutputStream()}) is for
+ * whatever stands in for the synth.
+ */
+public class InMemoryTransport implements SynthTransport {
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final int capacity;
+    private volatile BytePipe toDevice;
+    private volatile BytePipe fromDevice;
+
+    public InMemoryTransport() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public InMemoryTransport(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        toDevice = new BytePipe(capacity);
+        fromDevice = new BytePipe(capacity);
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (toDevice != null) {
+            toDevice.close();
+        }
+        if (fromDevice != null) {
+            fromDevice.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        BytePipe pipe = toDevice;
+        return pipe != null && !pipe.isClosed();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return toDevice.getOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return fromDevice.getInputStream();
+    }
+
+    /** Bytes the phone sent, as the synth would read them. Null until opened. */
+    public InputStream getDeviceInputStream() {
+        BytePipe pipe = toDevice;
+        return pipe != null ? pipe.getInputStream() : null;
+    }
+
+    /** Bytes written here arrive on {@link #getInputStream()}. Null until opened. */
+    public OutputStream getDeviceOutputStream() {
+        BytePipe pipe = fromDevice;
+        return pipe != null ? pipe.getOutputStream() : null;
+    }
+
+    @Override
+    public String getName() {
+        return "in-memory";
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.synthcontroller;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Model of what the synth does with scheduled playback, so the phone side can be tested and
+ * tuned in the JVM. Bytes are fed in with the device time they arrived at; a command that
+ * follows an AT frame waits in a buffer sorted by play time until {@link #advance} reaches it,
+ * anything else plays on arrival. Mirrors the sketch: a full buffer or a late command plays
+ * immediately, and a PANIC drops everything that is waiting.
+ */
+public class JitterBufferReceiver {
+
+    /** Receives every command as it would sound on the synth. */
+    public interface Player {
+        void play(long packed, long deviceMicros);
+    }
+
+    private final SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+    private final long[] due;
+    private final long[] commands;
+    private final Player player;
+    private final LatencyHistogram lateness = new LatencyHistogram(4096);
+    private int size;
+
+    private boolean haveDue;
+    private int nextDue;
+    private long nowMicros;
+
+    private long played;
+    private long late;
+    private long overflowed;
+
+    public JitterBufferReceiver(int capacity, Player player) {
+        due = new long[capacity];
+        commands = new long[capacity];
+        this.player = player;
+    }
+
+    /** Decodes bytes that reached the synth at {@code arrivalMicros}, playing what is due. */
+    public void receive(byte[] data, int offset, int length, long arrivalMicros) {
+        advance(arrivalMicros);
+        for (int i = offset; i < offset + length; i++) {
+            long packed = decoder.feed(data[i] & 0xFF);
+            if (packed != SynthProtocolDecoder.NONE) {
+                onCommand(packed);
+            }
+        }
+    }
+
+    /** Plays every buffered command due at or before {@code deviceMicros}. */
+    public void advance(long deviceMicros) {
+        nowMicros = Math.max(nowMicros, deviceMicros);
+        int taken = 0;
+        while (taken < size && due[taken] <= nowMicros) {
+            play(commands[taken], due[taken]);
+            taken++;
+        }
+        if (taken > 0) {
+            System.arraycopy(due, taken, due, 0, size - taken);
+            System.arraycopy(commands, taken, commands, 0, size - taken);
+            size -= taken;
+        }
+    }
+
+    private void onCommand(long packed) {
+        int command = SynthCommand.command(packed);
+        if (command == SynthCommand.AT) {
+            nextDue = SynthCommand.value(packed);
+            haveDue = true;
+            return;
+        }
+        boolean scheduled = haveDue;
+        haveDue = false;
+        if (command == SynthCommand.PANIC) {
+            size = 0;
+            play(packed, nowMicros);
+            return;
+        }
+        if (!scheduled || command == SynthCommand.PING) {
+            play(packed, nowMicros);
+            return;
+        }
+
+        // The AT value is 32 bits of micros(); place it relative to the current time
+        long at = nowMicros + (nextDue - (int) nowMicros);
+        if (at <= nowMicros) {
+            late++;
+            lateness.recordNanos(TimeUnit.MICROSECONDS.toNanos(nowMicros - at));
+            play(packed, nowMicros);
+        } else if (size == due.length) {
+            overflowed++;
+            play(packed, nowMicros);
+        } else {
+            insert(at, packed);
+        }
+    }
+
+    private void insert(long at, long packed) {
+        int i = size++;
+        while (i > 0 && due[i - 1] > at) {
+            due[i] = due[i - 1];
+            commands[i] = commands[i - 1];
+            i--;
+        }
+        due[i] = at;
+        commands[i] = packed;
+    }
+
+    private void play(long packed, long deviceMicros) {
+        played++;
+        player.play(packed, deviceMicros);
+    }
+
+    /** The decoder the bytes go through, e.g. for patch values or the hello's version. */
+    public SynthProtocolDecoder getDecoder() {
+        return decoder;
+    }
+
+    public int getBuffered() {
+        return size;
+    }
+
+    public long getPlayedCount() {
+        return played;
+    }
+
+    /** Scheduled commands that arrived after their play time. */
+    public long getLateCount() {
+        return late;
+    }
+
+    /** How late those commands were. */
+    public LatencyHistogram getLateness() {
+        return lateness;
+    }
+
+    /** Scheduled commands played on arrival because the buffer was full. */
+    public long getOverflowCount() {
+        return overflowed;
+    }
+}
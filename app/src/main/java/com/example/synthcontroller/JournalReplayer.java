@@ -0,0 +1,77 @@
+package com.example.synthcontroller;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes a {@link CommandJournal} through a {@link CommandJournal.Sink}: a single link, the
+ * whole {@link SynthEnsemble}, or a test double in front of any transport. At speed 1 the
+ * original timing is reproduced; {@link #AS_FAST_AS_POSSIBLE} sends back to back, for
+ * throughput benchmarks.
+ */
+public class JournalReplayer {
+
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    private volatile double speed = 1;
+
+    private long sent;
+    private long rejected;
+    private long maxLateNanos;
+
+    /** 1 replays in real time, 2 twice as fast, {@link #AS_FAST_AS_POSSIBLE} without pauses. */
+    public void setSpeed(double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("speed " + speed);
+        }
+        this.speed = speed;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Replays every record until the end or until {@code playing} is cleared. Returns the
+     * number of commands the sink took.
+     */
+    public long replay(CommandJournal.Reader journal, CommandJournal.Sink sink, AtomicBoolean playing)
+            throws IOException, InterruptedException {
+        sent = 0;
+        rejected = 0;
+        maxLateNanos = 0;
+        double pace = speed;
+        long origin = System.nanoTime();
+        while (playing.get() && journal.next()) {
+            if (pace > 0) {
+                long due = origin + (long) (journal.getNanos() / pace);
+                long remaining = due - System.nanoTime();
+                if (remaining > 0) {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
+                }
+                maxLateNanos = Math.max(maxLateNanos, System.nanoTime() - due);
+            }
+            if (sink.send(journal.getCommand(), journal.getValue())) {
+                sent++;
+            } else {
+                rejected++;
+            }
+        }
+        return sent;
+    }
+
+    public long getSentCount() {
+        return sent;
+    }
+
+    /** Commands the sink refused, e.g. because the link was down. */
+    public long getRejectedCount() {
+        return rejected;
+    }
+
+    /** How far behind its original time the latest command went out, at speeds above 0. */
+    public long getMaxLateNanos() {
+        return maxLateNanos;
+    }
+}
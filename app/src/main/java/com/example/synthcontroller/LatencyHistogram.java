@@ -0,0 +1,105 @@
+package com.example.synthcontroller;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling histogram of the most recent latency samples, in microseconds. Buckets are exact
+ * below 32 us and about 3% wide above that. Recording does not allocate.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final long MAX_MICROS = (1L << 31) - 1;
+    static final int BUCKET_COUNT = bucketFor(MAX_MICROS) + 1;
+
+    private final int[] counts = new int[BUCKET_COUNT];
+    private final long[] window;
+    private int windowStart;
+    private int size;
+
+    /** Keeps the last {@code windowSize} samples. */
+    public LatencyHistogram(int windowSize) {
+        window = new long[windowSize];
+    }
+
+    public synchronized void recordNanos(long nanos) {
+        long micros = Math.min(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)), MAX_MICROS);
+        if (size == window.length) {
+            counts[bucketFor(window[windowStart])]--;
+            window[windowStart] = micros;
+            windowStart = (windowStart + 1) % window.length;
+        } else {
+            window[(windowStart + size) % window.length] = micros;
+            size++;
+        }
+        counts[bucketFor(micros)]++;
+    }
+
+    public synchronized int getCount() {
+        return size;
+    }
+
+    /** Value at percentile {@code p} (0-100) in microseconds, or 0 if there are no samples. */
+    public synchronized long percentileMicros(double p) {
+        if (size == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * size));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketMidpoint(i), getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    public synchronized long getMaxMicros() {
+        long max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, window[(windowStart + i) % window.length]);
+        }
+        return max;
+    }
+
+    public long getP50Micros() {
+        return percentileMicros(50);
+    }
+
+    public long getP95Micros() {
+        return percentileMicros(95);
+    }
+
+    public long getP99Micros() {
+        return percentileMicros(99);
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(counts, 0);
+        windowStart = 0;
+        size = 0;
+    }
+
+    // Below SUB_BUCKETS one bucket per microsecond, then SUB_BUCKETS per power of two
+    static int bucketFor(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (micros >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    static long bucketMidpoint(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long low = (long) (SUB_BUCKETS + sub) << shift;
+        return low + ((1L << shift) >> 1);
+    }
+}
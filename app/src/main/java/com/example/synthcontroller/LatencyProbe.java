@@ -0,0 +1,81 @@
+package com.example.synthcontroller;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Matches pings to pongs. The writer thread stamps each ping as it goes out and the reader
+ * thread completes it when the pong comes back, feeding the round trip into a
+ * {@link LatencyHistogram} and the synth's timestamp into a {@link ClockOffsetEstimator}.
+ */
+public class LatencyProbe {
+    private static final int MAX_IN_FLIGHT = 64;
+    private static final int HISTOGRAM_WINDOW = 512;
+
+    private final AtomicInteger nextSequence = new AtomicInteger();
+    private final int[] inFlightSequence = new int[MAX_IN_FLIGHT];
+    private final long[] inFlightSentNanos = new long[MAX_IN_FLIGHT];
+    private final LatencyHistogram roundTrips = new LatencyHistogram(HISTOGRAM_WINDOW);
+    private final ClockOffsetEstimator clock = new ClockOffsetEstimator();
+
+    private volatile long pingsSent;
+    private volatile long pongsReceived;
+    private volatile long lastRoundTripNanos;
+
+    /** Sequence numbers stay non-negative so they read naturally in the text protocol. */
+    public int nextSequence() {
+        return nextSequence.getAndIncrement() & Integer.MAX_VALUE;
+    }
+
+    /** Called by the writer thread. */
+    public synchronized void onPingSent(int sequence, long nanos) {
+        int slot = sequence % MAX_IN_FLIGHT;
+        inFlightSequence[slot] = sequence;
+        inFlightSentNanos[slot] = nanos;
+        pingsSent++;
+    }
+
+    /** Called by the reader thread; pongs for unknown or overwritten pings are ignored. */
+    public void onPong(int sequence, int deviceMicros, long receivedNanos) {
+        long sentNanos;
+        synchronized (this) {
+            int slot = (sequence & Integer.MAX_VALUE) % MAX_IN_FLIGHT;
+            if (inFlightSequence[slot] != sequence || inFlightSentNanos[slot] == 0) {
+                return;
+            }
+            sentNanos = inFlightSentNanos[slot];
+            inFlightSentNanos[slot] = 0;
+            pongsReceived++;
+        }
+        lastRoundTripNanos = receivedNanos - sentNanos;
+        roundTrips.recordNanos(lastRoundTripNanos);
+        clock.addSample(sentNanos, receivedNanos, deviceMicros);
+    }
+
+    public LatencyHistogram getRoundTrips() {
+        return roundTrips;
+    }
+
+    public ClockOffsetEstimator getClock() {
+        return clock;
+    }
+
+    public long getPingsSent() {
+        return pingsSent;
+    }
+
+    public long getPongsReceived() {
+        return pongsReceived;
+    }
+
+    public long getLastRoundTripNanos() {
+        return lastRoundTripNanos;
+    }
+
+    /** Forgets everything; the synth's clock restarts when it reboots. */
+    public synchronized void reset() {
+        Arrays.fill(inFlightSentNanos, 0);
+        roundTrips.clear();
+        clock.reset();
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.synthcontroller;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Named counters, gauges and latency histograms for one link. The send pipeline updates them
+ * without locks or allocation; a reader (the debug overlay, a JSON dump) calls {@link #sample}
+ * now and then to turn counters into per-second rates.
+ */
+public class LinkMetrics {
+
+    /** A monotonically increasing count. */
+    public static final class Counter {
+        private final String name;
+        private final AtomicLong value = new AtomicLong();
+        // Sampler only
+        private long sampledValue;
+        private volatile double rate;
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        /** Increase per second between the last two {@link LinkMetrics#sample} calls. */
+        public double getRatePerSecond() {
+            return rate;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /** A value read on demand, e.g. a queue depth. */
+    public interface Gauge {
+        long get();
+    }
+
+    /**
+     * Latency distribution since the last reset, with the bucket layout of
+     * {@link LatencyHistogram}. Unlike that rolling window it is safe to record from any thread.
+     */
+    public static final class Histogram {
+        private final String name;
+        private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        public void recordNanos(long nanos) {
+            long micros = Math.min(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)),
+                    LatencyHistogram.MAX_MICROS);
+            counts.incrementAndGet(LatencyHistogram.bucketFor(micros));
+            count.incrementAndGet();
+            long current;
+            while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+                // retry
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMaxMicros() {
+            return max.get();
+        }
+
+        /** Value at percentile {@code p} (0-100) in microseconds, or 0 if nothing was recorded. */
+        public long percentileMicros(double p) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(LatencyHistogram.bucketMidpoint(i), getMaxMicros());
+                }
+            }
+            return getMaxMicros();
+        }
+
+        public void reset() {
+            for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+                counts.set(i, 0);
+            }
+            count.set(0);
+            max.set(0);
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static final class NamedGauge {
+        final String name;
+        final Gauge gauge;
+
+        NamedGauge(String name, Gauge gauge) {
+            this.name = name;
+            this.gauge = gauge;
+        }
+    }
+
+    private final List<Counter> counters = new CopyOnWriteArrayList<>();
+    private final List<NamedGauge> gauges = new CopyOnWriteArrayList<>();
+    private final List<Histogram> histograms = new CopyOnWriteArrayList<>();
+    private long lastSampleNanos = System.nanoTime();
+
+    /** Registers a counter, or returns the one already registered under this name. */
+    public synchronized Counter counter(String name) {
+        for (Counter counter : counters) {
+            if (counter.name.equals(name)) {
+                return counter;
+            }
+        }
+        Counter counter = new Counter(name);
+        counters.add(counter);
+        return counter;
+    }
+
+    public synchronized void gauge(String name, Gauge gauge) {
+        gauges.add(new NamedGauge(name, gauge));
+    }
+
+    /** Registers a histogram, or returns the one already registered under this name. */
+    public synchronized Histogram histogram(String name) {
+        for (Histogram histogram : histograms) {
+            if (histogram.name.equals(name)) {
+                return histogram;
+            }
+        }
+        Histogram histogram = new Histogram(name);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    /** Updates every counter's rate from the change since the previous call. */
+    public synchronized void sample() {
+        long now = System.nanoTime();
+        double seconds = (now - lastSampleNanos) / 1e9;
+        lastSampleNanos = now;
+        for (Counter counter : counters) {
+            long value = counter.get();
+            if (seconds > 0) {
+                counter.rate = (value - counter.sampledValue) / seconds;
+            }
+            counter.sampledValue = value;
+        }
+    }
+
+    public long gaugeValue(String name) {
+        for (NamedGauge gauge : gauges) {
+            if (gauge.name.equals(name)) {
+                return gauge.gauge.get();
+            }
+        }
+        throw new IllegalArgumentException("No gauge " + name);
+    }
+
+    /**
+     * Everything as one JSON object: counters with their rates, gauges, and histograms as
+     * count/p50/p95/p99/max in microseconds.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"counters\":{");
+        String separator = "";
+        for (Counter counter : counters) {
+            json.append(separator).append('"').append(counter.name).append("\":{\"value\":")
+                    .append(counter.get()).append(",\"perSecond\":")
+                    .append(String.format(Locale.US, "%.1f", counter.getRatePerSecond())).append('}');
+            separator = ",";
+        }
+        json.append("},\"gauges\":{");
+        separator = "";
+        for (NamedGauge gauge : gauges) {
+            json.append(separator).append('"').append(gauge.name).append("\":").append(gauge.gauge.get());
+            separator = ",";
+        }
+        json.append("},\"histograms\":{");
+        separator = "";
+        for (Histogram histogram : histograms) {
+            json.append(separator).append('"').append(histogram.name).append("\":{\"count\":")
+                    .append(histogram.getCount())
+                    .append(",\"p50\":").append(histogram.percentileMicros(50))
+                    .append(",\"p95\":").append(histogram.percentileMicros(95))
+                    .append(",\"p99\":").append(histogram.percentileMicros(99))
+                    .append(",\"max\":").append(histogram.getMaxMicros()).append('}');
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    /** A few lines for the debug overlay. */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        for (Counter counter : counters) {
+            text.append(String.format(Locale.US, "%-22s %10d %8.1f/s%n",
+                    counter.name, counter.get(), counter.getRatePerSecond()));
+        }
+        for (NamedGauge gauge : gauges) {
+            text.append(String.format(Locale.US, "%-22s %10d%n", gauge.name, gauge.gauge.get()));
+        }
+        for (Histogram histogram : histograms) {
+            text.append(String.format(Locale.US, "%-22s p50 %d p99 %d max %d us%n", histogram.name,
+                    histogram.percentileMicros(50), histogram.percentileMicros(99),
+                    histogram.getMaxMicros()));
+        }
+        return text.toString();
+    }
+}
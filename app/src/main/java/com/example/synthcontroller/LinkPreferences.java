@@ -0,0 +1,231 @@
+package com.example.synthcontroller;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Persisted settings for the synth link, applied to {@link BluetoothManager} on startup. */
+public class LinkPreferences {
+    private static final String TAG = "LinkPreferences";
+    private static final String PREF_NAME = "synth_link";
+    private static final String KEY_BINARY_PROTOCOL = "binary_protocol";
+    private static final String KEY_RUNNING_STATUS = "running_status";
+    private static final String KEY_SCHEDULED_PLAYBACK = "scheduled_playback";
+    private static final String KEY_EXTRA_BOARDS = "extra_boards";
+    private static final String KEY_ALLOCATION_MODE = "allocation_mode";
+    private static final String KEY_SPLIT_POINTS = "split_points";
+    private static final String KEY_METRICS_OVERLAY = "metrics_overlay";
+    private static final String KEY_RECORD_JOURNAL = "record_journal";
+    private static final String KEY_BLE_MIDI = "ble_midi";
+
+    private LinkPreferences() {
+    }
+
+    public static void apply(Context context) {
+        boolean binary = isBinaryProtocol(context);
+        boolean runningStatus = isRunningStatus(context);
+        BluetoothManager.getInstance().setBinaryProtocol(binary);
+        BluetoothManager.getInstance().setRunningStatus(runningStatus);
+        applyBleMidi(context, isBleMidi(context));
+        applyExtraBoards(context, getExtraBoards(context));
+        SynthEnsemble.getInstance().setAllocationMode(getAllocationMode(context));
+        SynthEnsemble.getInstance().setSplitPoints(getSplitPoints(context));
+    }
+
+    // Adds the boards that are new to the ensemble and drops the ones no longer listed; the
+    // first board is the default device and always stays
+    private static void applyExtraBoards(Context context, String[] names) {
+        SynthEnsemble ensemble = SynthEnsemble.getInstance();
+        List<String> wanted = Arrays.asList(names);
+        for (int i = ensemble.getLinkCount() - 1; i > 0; i--) {
+            if (!wanted.contains(ensemble.getLink(i).getTransport().getName())) {
+                ensemble.removeLink(i);
+            }
+        }
+        for (String name : names) {
+            if (ensemble.indexOf(name) < 0) {
+                BluetoothManager link = new BluetoothManager(transportFor(context, name));
+                link.setBinaryProtocol(isBinaryProtocol(context));
+                link.setRunningStatus(isRunningStatus(context));
+                ensemble.addLink(link, SynthEnsemble.DEFAULT_VOICES);
+            }
+        }
+    }
+
+    /**
+     * Whether boards are reached as standard BLE-MIDI devices, see {@link BleMidiTransport},
+     * rather than over Bluetooth Classic. Takes effect on the next connect.
+     */
+    public static boolean isBleMidi(Context context) {
+        return prefs(context).getBoolean(KEY_BLE_MIDI, false);
+    }
+
+    public static void setBleMidi(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_BLE_MIDI, enabled).apply();
+        applyBleMidi(context, enabled);
+    }
+
+    private static void applyBleMidi(Context context, boolean enabled) {
+        SynthEnsemble ensemble = SynthEnsemble.getInstance();
+        for (int i = 0; i < ensemble.getLinkCount(); i++) {
+            BluetoothManager link = ensemble.getLink(i);
+            SynthTransport transport = link.getTransport();
+            if (transport.carriesMidi() != enabled) {
+                link.setTransport(transportFor(context, transport.getName()));
+            }
+        }
+    }
+
+    private static SynthTransport transportFor(Context context, String name) {
+        return isBleMidi(context) ? new BleMidiTransport(context, name) : new RfcommTransport(name);
+    }
+
+    /** Whether the Perform and MIDI screens show the {@link MetricsOverlay}. */
+    public static boolean isMetricsOverlay(Context context) {
+        return prefs(context).getBoolean(KEY_METRICS_OVERLAY, false);
+    }
+
+    public static void setMetricsOverlay(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_METRICS_OVERLAY, enabled).apply();
+    }
+
+    /** Whether the Perform and MIDI screens record what they send, see {@link CommandJournal}. */
+    public static boolean isRecordJournal(Context context) {
+        return prefs(context).getBoolean(KEY_RECORD_JOURNAL, false);
+    }
+
+    public static void setRecordJournal(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_RECORD_JOURNAL, enabled).apply();
+    }
+
+    /**
+     * Starts a journal under files/journals if recording is enabled; null if it is not or
+     * the file could not be created.
+     */
+    public static CommandJournal startJournal(Context context, String prefix) {
+        if (!isRecordJournal(context)) {
+            return null;
+        }
+        try {
+            return CommandJournal.createIn(new File(context.getFilesDir(), "journals"), prefix);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot start command journal: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Paired device names of further synth boards to play alongside the default one; notes
+     * are spread across all of them by {@link SynthEnsemble}.
+     */
+    public static String[] getExtraBoards(Context context) {
+        String names = prefs(context).getString(KEY_EXTRA_BOARDS, "");
+        return names.isEmpty() ? new String[0] : names.split(",");
+    }
+
+    /** Saves the names and adds or removes boards to match; do this while nothing is playing. */
+    public static void setExtraBoards(Context context, String[] names) {
+        List<String> trimmed = new ArrayList<>();
+        for (String name : names) {
+            if (!name.trim().isEmpty() && !trimmed.contains(name.trim())) {
+                trimmed.add(name.trim());
+            }
+        }
+        String[] boards = trimmed.toArray(new String[0]);
+        prefs(context).edit().putString(KEY_EXTRA_BOARDS, String.join(",", boards)).apply();
+        applyExtraBoards(context, boards);
+    }
+
+    /** How notes are spread across the boards, one of the {@code VoiceAllocator.MODE_} constants. */
+    public static int getAllocationMode(Context context) {
+        return prefs(context).getInt(KEY_ALLOCATION_MODE, VoiceAllocator.MODE_ROUND_ROBIN);
+    }
+
+    public static void setAllocationMode(Context context, int mode) {
+        prefs(context).edit().putInt(KEY_ALLOCATION_MODE, mode).apply();
+        SynthEnsemble.getInstance().setAllocationMode(mode);
+    }
+
+    /**
+     * Notes where {@link VoiceAllocator#MODE_KEY_SPLIT} hands over to the next board, one
+     * fewer than there are boards; null for an even split.
+     */
+    public static int[] getSplitPoints(Context context) {
+        return parseSplitPoints(prefs(context).getString(KEY_SPLIT_POINTS, ""));
+    }
+
+    /** Saves and applies the points; false, saving nothing, if they are not valid. */
+    public static boolean setSplitPoints(Context context, String points) {
+        int[] parsed = parseSplitPoints(points);
+        if (parsed == null && !points.trim().isEmpty()) {
+            return false;
+        }
+        prefs(context).edit().putString(KEY_SPLIT_POINTS, points.trim()).apply();
+        SynthEnsemble.getInstance().setSplitPoints(parsed);
+        return true;
+    }
+
+    /**
+     * Reads comma-separated MIDI note numbers, rising, e.g. "48, 72". Null if there are none
+     * or they are not valid.
+     */
+    static int[] parseSplitPoints(String text) {
+        String[] parts = text.split(",");
+        int[] points = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                points[i] = Integer.parseInt(parts[i].trim());
+                if (points[i] < 1 || points[i] > 127 || (i > 0 && points[i] <= points[i - 1])) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return points;
+    }
+
+    public static boolean isBinaryProtocol(Context context) {
+        return prefs(context).getBoolean(KEY_BINARY_PROTOCOL, false);
+    }
+
+    public static void setBinaryProtocol(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_BINARY_PROTOCOL, enabled).apply();
+        SynthEnsemble ensemble = SynthEnsemble.getInstance();
+        for (int i = 0; i < ensemble.getLinkCount(); i++) {
+            ensemble.getLink(i).setBinaryProtocol(enabled);
+        }
+    }
+
+    /** Whether binary links leave out repeated note opcodes; needs protocol v2 firmware. */
+    public static boolean isRunningStatus(Context context) {
+        return prefs(context).getBoolean(KEY_RUNNING_STATUS, false);
+    }
+
+    public static void setRunningStatus(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_RUNNING_STATUS, enabled).apply();
+        SynthEnsemble ensemble = SynthEnsemble.getInstance();
+        for (int i = 0; i < ensemble.getLinkCount(); i++) {
+            ensemble.getLink(i).setRunningStatus(enabled);
+        }
+    }
+
+    /** Whether MIDI playback sends ahead into the synth's jitter buffer, see {@link PlaybackScheduler}. */
+    public static boolean isScheduledPlayback(Context context) {
+        return prefs(context).getBoolean(KEY_SCHEDULED_PLAYBACK, false);
+    }
+
+    public static void setScheduledPlayback(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_SCHEDULED_PLAYBACK, enabled).apply();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -25,6 +25,8 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        LinkPreferences.apply(this);
+
         // Correct the type from Button to MaterialCardView
         MaterialCardView performCard = findViewById(R.id.row_perform);
         MaterialCardView midiCard = findViewById(R.id.row_midi);
@@ -72,7 +74,7 @@ public class MainActivity extends AppCompatActivity {
 
         if (killBluetoothCard != null) {
             killBluetoothCard.setOnClickListener(v -> {
-                BluetoothManager.getInstance().disconnect();
+                SynthEnsemble.getInstance().disconnectAll();
                 Toast.makeText(this, "Bluetooth disconnected", Toast.LENGTH_SHORT).show();
             });
         }
@@ -136,12 +138,6 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void connectBluetooth() {
-        new Thread(() -> {
-            if (BluetoothManager.getInstance().connect()) {
-                runOnUiThread(() -> Toast.makeText(this, "Connected to ESP32Synth", Toast.LENGTH_SHORT).show());
-            } else {
-                runOnUiThread(() -> Toast.makeText(this, "Failed to connect to ESP32Synth", Toast.LENGTH_LONG).show());
-            }
-        }).start();
+        SynthEnsemble.getInstance().connectAll();
     }
 }
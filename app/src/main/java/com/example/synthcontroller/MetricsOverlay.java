@@ -0,0 +1,112 @@
+package com.example.synthcontroller;
+
+import android.app.Activity;
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * Debug overlay with the live {@link LinkMetrics} of every board, refreshed twice a second on
+ * top of the current screen. Tapping it copies the metrics as JSON to the clipboard (and the
+ * log), for comparing rehearsals afterwards. Enabled in Settings.
+ */
+public class MetricsOverlay {
+    private static final String TAG = "MetricsOverlay";
+    private static final long REFRESH_MS = 500;
+
+    private final Activity activity;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private TextView view;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            if (view == null) {
+                return;
+            }
+            view.setText(describe());
+            handler.postDelayed(this, REFRESH_MS);
+        }
+    };
+
+    public MetricsOverlay(Activity activity) {
+        this.activity = activity;
+    }
+
+    /** Shows the overlay if it is enabled in the link preferences. Call from onResume. */
+    public void attachIfEnabled() {
+        if (view != null || !LinkPreferences.isMetricsOverlay(activity)) {
+            return;
+        }
+        view = new TextView(activity);
+        view.setTypeface(Typeface.MONOSPACE);
+        view.setTextSize(9);
+        view.setTextColor(Color.WHITE);
+        view.setBackgroundColor(0xB0000000);
+        view.setPadding(12, 12, 12, 12);
+        view.setOnClickListener(v -> copyJson());
+
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT,
+                Gravity.TOP | Gravity.END);
+        ViewGroup root = activity.findViewById(android.R.id.content);
+        root.addView(view, params);
+        handler.post(refresh);
+    }
+
+    /** Call from onPause. */
+    public void detach() {
+        handler.removeCallbacks(refresh);
+        if (view != null) {
+            ((ViewGroup) view.getParent()).removeView(view);
+            view = null;
+        }
+    }
+
+    private String describe() {
+        SynthEnsemble ensemble = SynthEnsemble.getInstance();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < ensemble.getLinkCount(); i++) {
+            BluetoothManager link = ensemble.getLink(i);
+            LinkMetrics metrics = link.getMetrics();
+            metrics.sample();
+            text.append(link.getTransport().getName()).append('\n').append(metrics.toText());
+        }
+        return text.toString();
+    }
+
+    private void copyJson() {
+        String json = dumpJson();
+        Log.d(TAG, json);
+        ClipboardManager clipboard = (ClipboardManager) activity.getSystemService(Context.CLIPBOARD_SERVICE);
+        if (clipboard != null) {
+            clipboard.setPrimaryClip(ClipData.newPlainText("Link metrics", json));
+            Toast.makeText(activity, "Link metrics copied", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /** Metrics of every board as a JSON array. */
+    public static String dumpJson() {
+        SynthEnsemble ensemble = SynthEnsemble.getInstance();
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < ensemble.getLinkCount(); i++) {
+            BluetoothManager link = ensemble.getLink(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"link\":\"").append(link.getTransport().getName())
+                    .append("\",\"metrics\":").append(link.getMetrics().toJson()).append('}');
+        }
+        return json.append(']').toString();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.synthcontroller;
+
+/**
+ * Plain MIDI for synths reached over BLE-MIDI. Notes become note on/off (velocity 127 or 64
+ * when the command has none, channel 1 unless it names one), PANIC is All Notes Off and All
+ * Sound Off on all 16 channels, since notes may have been sent on any of them, and each
+ * parameter goes out as a control change:
+ *
+ * <pre>
+ * ATTACK 73  DECAY 75  SUSTAIN 102  RELEASE 72  FILTER 74  DETUNE 94  VIB_RATE 76
+ * VIB_DEPTH 77  MAIN_WAVE 70  SUB_WAVE 103  OCTAVE 104  TRANSPOSE 105  REVERB 91
+ * </pre>
+ *
+ * Values the firmware takes as 0-255 are halved, OCTAVE and TRANSPOSE are offset by 64 so
+ * that 64 means no shift. MIDI has no ping, schedule or patch message, so those write nothing.
+ */
+public class MidiCommandEncoder implements CommandEncoder {
+
+    public static final int DEFAULT_VELOCITY = 127;
+    public static final int NOTE_OFF_VELOCITY = 64;
+    public static final int CC_ALL_SOUND_OFF = 120;
+    public static final int CC_ALL_NOTES_OFF = 123;
+    public static final int CENTER = 64;
+
+    // Controller numbers indexed by command id - ATTACK
+    private static final int[] CONTROLLERS = {73, 75, 102, 72, 74, 94, 76, 77, 70, 103, 104, 105, 91};
+
+    private static final int STATUS_NOTE_OFF = 0x80;
+    private static final int STATUS_NOTE_ON = 0x90;
+    private static final int STATUS_CONTROL_CHANGE = 0xB0;
+
+    private final int defaultChannel;
+
+    public MidiCommandEncoder() {
+        this(0);
+    }
+
+    /** {@code channel} 0-15 is used for everything that does not carry its own. */
+    public MidiCommandEncoder(int channel) {
+        this.defaultChannel = channel & 0x0F;
+    }
+
+    @Override
+    public int encodeHandshake(byte[] buffer, int offset) {
+        return 0;
+    }
+
+    @Override
+    public int encode(long packed, byte[] buffer, int offset) {
+        int command = SynthCommand.command(packed);
+        int value = SynthCommand.value(packed);
+        if (SynthCommand.isNote(command)) {
+            int channel = SynthCommand.channel(value);
+            int velocity = SynthCommand.velocity(value);
+            boolean on = command == SynthCommand.NOTE_ON;
+            if (velocity < 0) {
+                velocity = on ? DEFAULT_VELOCITY : NOTE_OFF_VELOCITY;
+            }
+            buffer[offset] = (byte) ((on ? STATUS_NOTE_ON : STATUS_NOTE_OFF)
+                    | (channel >= 0 ? channel : defaultChannel));
+            buffer[offset + 1] = (byte) SynthCommand.note(value);
+            buffer[offset + 2] = (byte) velocity;
+            return 3;
+        }
+        if (command == SynthCommand.PANIC) {
+            int length = 0;
+            for (int channel = 0; channel < 16; channel++) {
+                length += controlChange(channel, CC_ALL_NOTES_OFF, 0, buffer, offset + length);
+                length += controlChange(channel, CC_ALL_SOUND_OFF, 0, buffer, offset + length);
+            }
+            return length;
+        }
+        if (SynthCommand.isParameter(command)) {
+            return controlChange(defaultChannel, CONTROLLERS[command - SynthCommand.ATTACK],
+                    controllerValue(command, value), buffer, offset);
+        }
+        return 0; // PING, PONG, AT and PATCH have no MIDI equivalent
+    }
+
+    @Override
+    public int encodePatch(int[] values, byte[] buffer, int offset) {
+        return 0; // sent as separate control changes instead
+    }
+
+    static int controllerValue(int command, int value) {
+        switch (command) {
+            case SynthCommand.VIB_RATE:
+            case SynthCommand.MAIN_WAVE:
+            case SynthCommand.SUB_WAVE:
+                break;
+            case SynthCommand.OCTAVE:
+            case SynthCommand.TRANSPOSE:
+                value += CENTER;
+                break;
+            default:
+                value >>= 1;
+                break;
+        }
+        return Math.max(0, Math.min(127, value));
+    }
+
+    private static int controlChange(int channel, int controller, int value, byte[] buffer, int offset) {
+        buffer[offset] = (byte) (STATUS_CONTROL_CHANGE | channel);
+        buffer[offset + 1] = (byte) controller;
+        buffer[offset + 2] = (byte) value;
+        return 3;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.synthcontroller;
 
 import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
@@ -19,16 +20,15 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
 import com.google.android.material.bottomnavigation.BottomNavigationView;
-import com.leff.midi.MidiFile;
-import com.leff.midi.MidiTrack;
-import com.leff.midi.event.MidiEvent;
-import com.leff.midi.event.NoteOff;
-import com.leff.midi.event.NoteOn;
-import com.leff.midi.event.meta.Tempo;
+import com.leff.midi.ColumnarMidiFile;
+import com.leff.midi.ColumnarTrack;
+import com.leff.midi.event.ChannelEvent;
 import com.rejowan.rotaryknob.RotaryKnob;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -36,10 +36,12 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MidiFilePlaybackActivity extends AppCompatActivity {
     private static final String TAG = "MidiPlaybackActivity";
+    private static final boolean VERBOSE = false;
 
     private AtomicBoolean isPlaying = new AtomicBoolean(false);
     private Thread playbackThread = null;
     private PresetManager presetManager;
+    private final MetricsOverlay metricsOverlay = new MetricsOverlay(this);
     private Uri selectedMidiFileUri;
 
     private final ActivityResultLauncher<String> openFileLauncher = registerForActivityResult(
@@ -69,25 +71,12 @@ public class MidiFilePlaybackActivity extends AppCompatActivity {
         backButton.setOnClickListener(v -> finish());
 
         if (!BluetoothManager.getInstance().isConnected()) {
-            Toast.makeText(this, "Bluetooth not connected", Toast.LENGTH_LONG).show();
-            new Thread(() -> {
-                if (BluetoothManager.getInstance().connect()) {
-                    runOnUiThread(() -> {
-                        Toast.makeText(this, "Reconnected", Toast.LENGTH_SHORT).show();
-                        initializeSynthParameters();
-                        setupSynthControls();
-                    });
-                } else {
-                    runOnUiThread(() -> {
-                        Toast.makeText(this, "Failed to reconnect", Toast.LENGTH_LONG).show();
-                        finish();
-                    });
-                }
-            }).start();
-        } else {
-            initializeSynthParameters();
-            setupSynthControls();
+            // Parameters set while connecting are sent as soon as the link is up
+            Toast.makeText(this, "Connecting to synthesizer", Toast.LENGTH_SHORT).show();
+            BluetoothManager.getInstance().getConnectionManager().start();
         }
+        initializeSynthParameters();
+        setupSynthControls();
 
         presetManager = new PresetManager(this);
         setupPresetControls();
@@ -177,14 +166,7 @@ public class MidiFilePlaybackActivity extends AppCompatActivity {
             return;
         }
 
-        sendCommand("ATTACK:", preset.getAttack());
-        sendCommand("DECAY:", preset.getDecay());
-        sendCommand("SUSTAIN:", preset.getSustain());
-        sendCommand("RELEASE:", preset.getRelease());
-        sendCommand("FILTER:", preset.getFilter());
-        sendCommand("DETUNE:", preset.getDetune());
-        sendCommand("VIB_RATE:", preset.getVibRate());
-        sendCommand("VIB_DEPTH:", preset.getVibDepth());
+        SynthEnsemble.getInstance().sendPreset(preset);
 
         updateUIFromPreset(preset);
 
@@ -264,54 +246,57 @@ public class MidiFilePlaybackActivity extends AppCompatActivity {
     }
 
     private void setupAdsrControls() {
-        setupKnob(R.id.attackKnob, "ATTACK:", 0);
-        setupKnob(R.id.decayKnob, "DECAY:", 255);
-        setupKnob(R.id.sustainKnob, "SUSTAIN:", 0);
-        setupKnob(R.id.releaseKnob, "RELEASE:", 0);
+        setupKnob(R.id.attackKnob, SynthCommand.ATTACK, 0);
+        setupKnob(R.id.decayKnob, SynthCommand.DECAY, 255);
+        setupKnob(R.id.sustainKnob, SynthCommand.SUSTAIN, 0);
+        setupKnob(R.id.releaseKnob, SynthCommand.RELEASE, 0);
     }
 
     private void setupEffectsControls() {
-        setupKnob(R.id.filterKnob, "FILTER:", 255);
-        setupKnob(R.id.detuneKnob, "DETUNE:", 0);
-        setupKnob(R.id.vibRateKnob, "VIB_RATE:", 0);
-        setupKnob(R.id.vibDepthKnob, "VIB_DEPTH:", 0);
+        setupKnob(R.id.filterKnob, SynthCommand.FILTER, 255);
+        setupKnob(R.id.detuneKnob, SynthCommand.DETUNE, 0);
+        setupKnob(R.id.vibRateKnob, SynthCommand.VIB_RATE, 0);
+        setupKnob(R.id.vibDepthKnob, SynthCommand.VIB_DEPTH, 0);
     }
 
-    private void setupKnob(int id, String commandPrefix, int defaultValue) {
+    private void setupKnob(int id, int command, int defaultValue) {
         RotaryKnob knob = findViewById(id);
         if (knob != null) {
             knob.setMin(0);
             knob.setMax(255);
             knob.setCurrentProgress(defaultValue);
-            knob.setProgressChangeListener(progress -> sendCommand(commandPrefix, progress));
+            knob.setProgressChangeListener(progress -> sendCommand(command, progress));
         }
     }
 
     private void initializeSynthParameters() {
         Log.d(TAG, "Setting synth parameters for MIDI playback");
-        BluetoothManager btManager = BluetoothManager.getInstance();
-        btManager.sendCommand("DECAY:255");
-        btManager.sendCommand("FILTER:255");
-        btManager.sendCommand("ATTACK:0");
-        btManager.sendCommand("SUSTAIN:0");
-        btManager.sendCommand("RELEASE:0");
-        btManager.sendCommand("DETUNE:0");
+        sendCommand(SynthCommand.DECAY, 255);
+        sendCommand(SynthCommand.FILTER, 255);
+        sendCommand(SynthCommand.ATTACK, 0);
+        sendCommand(SynthCommand.SUSTAIN, 0);
+        sendCommand(SynthCommand.RELEASE, 0);
+        sendCommand(SynthCommand.DETUNE, 0);
         Toast.makeText(this, "Synth parameters initialized for MIDI playback", Toast.LENGTH_SHORT).show();
     }
 
-    public void sendCommand(String prefix, int value) {
-        String command = prefix + value;
-        Log.d(TAG, "Sending command: " + command);
-        BluetoothManager.getInstance().sendCommand(command);
+    public void sendCommand(int command, int value) {
+        if (VERBOSE) {
+            Log.d(TAG, "Sending command: " + SynthCommand.prefix(command) + value);
+        }
+        // Through the ensemble, which records it while a playback journal is open
+        SynthEnsemble.getInstance().sendCommand(command, value);
     }
 
     private void stopPlayback() {
         if (isPlaying.get()) {
             isPlaying.set(false);
             if (playbackThread != null && playbackThread.isAlive()) {
+                // It releases the notes itself, while its journal still records
                 playbackThread.interrupt();
+            } else {
+                sendAllNotesOff();
             }
-            sendAllNotesOff();
             Toast.makeText(this, "Playback stopped", Toast.LENGTH_SHORT).show();
             Log.d(TAG, "Playback stopped by user");
         } else {
@@ -320,11 +305,8 @@ public class MidiFilePlaybackActivity extends AppCompatActivity {
     }
 
     private void sendAllNotesOff() {
-        for (int note = 0; note < 128; note++) {
-            BluetoothManager.getInstance().sendCommand("UP:" + note);
-        }
+        SynthEnsemble.getInstance().allNotesOff();
         Log.d(TAG, "Sent all notes off");
-        sendCommand("PANIC:", 1);
     }
 
     private void playMidiFile(Uri uri) {
@@ -333,57 +315,25 @@ public class MidiFilePlaybackActivity extends AppCompatActivity {
         }
         isPlaying.set(true);
         playbackThread = new Thread(() -> {
-            try (InputStream inputStream = getContentResolver().openInputStream(uri)) {
-                MidiFile midiFile = new MidiFile(inputStream);
-
-                List<Command> commands = new ArrayList<>();
-                int ticksPerQuarterNote = midiFile.getResolution();
-
-                List<TempoEvent> tempoEvents = new ArrayList<>();
-                for (MidiTrack track : midiFile.getTracks()) {
-                    long currentTick = 0;
-                    for (MidiEvent event : track.getEvents()) {
-                        currentTick += event.getDelta();
-                        if (event instanceof Tempo) {
-                            Tempo tempo = (Tempo) event;
-                            tempoEvents.add(new TempoEvent(currentTick, tempo.getMpqn()));
-                        }
-                    }
-                }
-                tempoEvents.sort((a, b) -> Long.compare(a.tick, b.tick));
-
-                for (MidiTrack track : midiFile.getTracks()) {
-                    long currentTick = 0;
-                    for (MidiEvent event : track.getEvents()) {
-                        currentTick += event.getDelta();
-                        long ms = ticksToMs(currentTick, tempoEvents, ticksPerQuarterNote);
-                        if (event instanceof NoteOn) {
-                            NoteOn noteOn = (NoteOn) event;
-                            String command = (noteOn.getVelocity() > 0) ? "DOWN:" + noteOn.getNoteValue() : "UP:" + noteOn.getNoteValue();
-                            commands.add(new Command(ms, command));
-                        } else if (event instanceof NoteOff) {
-                            NoteOff noteOff = (NoteOff) event;
-                            String command = "UP:" + noteOff.getNoteValue();
-                            commands.add(new Command(ms, command));
-                        }
-                    }
-                }
-                commands.sort((a, b) -> Long.compare(a.timestamp, b.timestamp));
-
-                long startTime = System.currentTimeMillis();
-                for (Command cmd : commands) {
-                    if (!isPlaying.get()) return;
-                    long elapsedTime = System.currentTimeMillis() - startTime;
-                    long delay = cmd.timestamp - elapsedTime;
-                    if (delay > 0) Thread.sleep(delay);
-                    if (!isPlaying.get()) return;
-                    if (!BluetoothManager.getInstance().sendCommand(cmd.command)) {
-                        runOnUiThread(() -> Toast.makeText(this, "Playback interrupted", Toast.LENGTH_SHORT).show());
-                        isPlaying.set(false);
-                        return;
+            PlaybackScheduler scheduler = new PlaybackScheduler(SynthEnsemble.getInstance());
+            if (!LinkPreferences.isScheduledPlayback(this)) {
+                scheduler.setLeadTime(0);
+            }
+            try (CommandJournal journal = LinkPreferences.startJournal(this, "midi")) {
+                // The song goes through the scheduler, knob turns and the panic through the
+                // ensemble; both record into the journal until it is closed
+                scheduler.setJournal(journal);
+                SynthEnsemble.getInstance().setJournal(journal);
+                boolean finished = false;
+                try {
+                    finished = playCommands(uri, scheduler);
+                } finally {
+                    if (!finished) {
+                        sendAllNotesOff();
                     }
+                    scheduler.setJournal(null);
+                    SynthEnsemble.getInstance().clearJournal(journal);
                 }
-                runOnUiThread(() -> Toast.makeText(this, "MIDI playback completed", Toast.LENGTH_SHORT).show());
             } catch (IOException | InterruptedException e) {
                 Log.e(TAG, "Error during playback: " + e.getMessage());
                 runOnUiThread(() -> Toast.makeText(this, "Playback failed: " + e.getMessage(), Toast.LENGTH_LONG).show());
@@ -394,6 +344,84 @@ public class MidiFilePlaybackActivity extends AppCompatActivity {
         playbackThread.start();
     }
 
+    // Returns whether the song played to the end
+    private boolean playCommands(Uri uri, PlaybackScheduler scheduler) throws IOException, InterruptedException {
+        // Only notes and tempo matter here, so skip building an object per event
+        ColumnarMidiFile midiFile = readMidiFile(uri);
+
+        List<Command> commands = new ArrayList<>();
+        int ticksPerQuarterNote = midiFile.getResolution();
+
+        List<TempoEvent> tempoEvents = new ArrayList<>();
+        for (ColumnarTrack track : midiFile.getTracks()) {
+            for (int i = 0; i < track.getEventCount(); i++) {
+                int mpqn = track.getTempoMpqn(i);
+                if (mpqn > 0) {
+                    tempoEvents.add(new TempoEvent(track.getTick(i), mpqn));
+                }
+            }
+        }
+        tempoEvents.sort((a, b) -> Long.compare(a.tick, b.tick));
+
+        for (ColumnarTrack track : midiFile.getTracks()) {
+            for (int i = 0; i < track.getEventCount(); i++) {
+                if (!track.isChannelEvent(i)) {
+                    continue;
+                }
+                int type = track.getType(i);
+                if (type == ChannelEvent.NOTE_ON || type == ChannelEvent.NOTE_OFF) {
+                    long ms = ticksToMs(track.getTick(i), tempoEvents, ticksPerQuarterNote);
+                    int command = (type == ChannelEvent.NOTE_ON && track.getData2(i) > 0)
+                            ? SynthCommand.NOTE_ON : SynthCommand.NOTE_OFF;
+                    commands.add(new Command(ms, SynthCommand.pack(command, track.getData1(i))));
+                }
+            }
+        }
+        commands.sort((a, b) -> Long.compare(a.timestamp, b.timestamp));
+
+        // Everything due at the same millisecond goes out as one batch
+        long[] times = new long[commands.size()];
+        long[] packed = new long[commands.size()];
+        for (int i = 0; i < commands.size(); i++) {
+            times[i] = commands.get(i).timestamp;
+            packed[i] = commands.get(i).command;
+        }
+        if (!scheduler.play(times, packed, packed.length, isPlaying)) {
+            runOnUiThread(() -> Toast.makeText(this, "Playback interrupted", Toast.LENGTH_SHORT).show());
+            isPlaying.set(false);
+            return false;
+        }
+        if (!isPlaying.get()) return false;
+        runOnUiThread(() -> Toast.makeText(this, "MIDI playback completed", Toast.LENGTH_SHORT).show());
+        return true;
+    }
+
+    // Maps the file when the provider hands out a real one, or the part of it holding the
+    // asset when it serves one from inside a larger file; pipes and the like are streamed
+    private ColumnarMidiFile readMidiFile(Uri uri) throws IOException {
+        AssetFileDescriptor asset = getContentResolver().openAssetFileDescriptor(uri, "r");
+        if (asset != null && asset.getParcelFileDescriptor().getStatSize() >= 0) {
+            // Closing the stream closes the descriptor
+            try (FileInputStream in = asset.createInputStream()) {
+                FileChannel channel = in.getChannel();
+                long length = asset.getDeclaredLength() != AssetFileDescriptor.UNKNOWN_LENGTH
+                        ? asset.getDeclaredLength()
+                        : channel.size() - asset.getStartOffset();
+                return new ColumnarMidiFile(
+                        channel.map(FileChannel.MapMode.READ_ONLY, asset.getStartOffset(), length));
+            }
+        }
+        if (asset != null) {
+            asset.close();
+        }
+        try (InputStream in = getContentResolver().openInputStream(uri)) {
+            if (in == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            return new ColumnarMidiFile(in);
+        }
+    }
+
     private long ticksToMs(long tick, List<TempoEvent> tempoEvents, int ticksPerQuarterNote) {
         if (tempoEvents.isEmpty()) {
             return (long)((tick * 500000.0f) / (ticksPerQuarterNote * 1000.0f));
@@ -414,6 +442,18 @@ public class MidiFilePlaybackActivity extends AppCompatActivity {
         return ms;
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        metricsOverlay.attachIfEnabled();
+    }
+
+    @Override
+    protected void onPause() {
+        metricsOverlay.detach();
+        super.onPause();
+    }
+
     @Override
     protected void onDestroy() {
         if (isPlaying.get()) {
@@ -424,8 +464,8 @@ public class MidiFilePlaybackActivity extends AppCompatActivity {
 
     private static class Command {
         long timestamp;
-        String command;
-        Command(long timestamp, String command) {
+        long command; // packed, see SynthCommand.pack
+        Command(long timestamp, long command) {
             this.timestamp = timestamp;
             this.command = command;
         }
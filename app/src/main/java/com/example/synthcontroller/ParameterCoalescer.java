@@ -0,0 +1,73 @@
+package com.example.synthcontroller;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One pending slot per synth parameter; a newer value simply overwrites an older one that
+ * has not been sent yet. Any thread may offer, only the writer thread drains.
+ */
+public class ParameterCoalescer {
+    private final AtomicIntegerArray values = new AtomicIntegerArray(SynthCommand.COUNT);
+    private final AtomicInteger dirty = new AtomicInteger();
+    // Every parameter that has ever been offered, i.e. the state the synth should be in
+    private final AtomicInteger known = new AtomicInteger();
+    private final AtomicLong superseded = new AtomicLong();
+
+    public void offer(int command, int value) {
+        values.set(command, value);
+        int bit = 1 << command;
+        setBits(known, bit);
+        if (!setBits(dirty, bit)) {
+            superseded.incrementAndGet();
+        }
+    }
+
+    /** Flags every known parameter for sending again, e.g. after the synth reconnects. */
+    public void replayKnown() {
+        setBits(dirty, known.get());
+    }
+
+    /** Number of pending values that were overwritten before they could be sent. */
+    public long getSupersededCount() {
+        return superseded.get();
+    }
+
+    /** Bits (1 << command) of every parameter ever offered. */
+    public int getKnownMask() {
+        return known.get();
+    }
+
+    public int pendingCount() {
+        return Integer.bitCount(dirty.get());
+    }
+
+    // Returns false if all the bits were already set
+    private static boolean setBits(AtomicInteger target, int bits) {
+        int mask;
+        do {
+            mask = target.get();
+            if ((mask & bits) == bits) {
+                return false;
+            }
+        } while (!target.compareAndSet(mask, mask | bits));
+        return true;
+    }
+
+    public boolean hasPending() {
+        return dirty.get() != 0;
+    }
+
+    /**
+     * Hands the pending mask to the caller and clears it. Read each flagged value with
+     * {@link #value}; a value offered after this call is flagged again for the next drain.
+     */
+    public int takePending() {
+        return dirty.getAndSet(0);
+    }
+
+    public int value(int command) {
+        return values.get(command);
+    }
+}
@@ -29,14 +29,19 @@ import com.google.android.material.tabs.TabLayout;
 import com.google.android.material.tabs.TabLayoutMediator;
 import com.rejowan.rotaryknob.RotaryKnob;
 
+import java.io.IOException;
 import java.util.List;
 
 public class PerformActivity extends AppCompatActivity {
     private static final String TAG = "PerformActivity";
+    // Per-note logging builds strings on every key press; keep it compiled out
+    private static final boolean VERBOSE = false;
     private PianoView pianoView;
     private TextView octaveTextView;
 
     private PresetManager presetManager;
+    private final MetricsOverlay metricsOverlay = new MetricsOverlay(this);
+    private CommandJournal journal;
     private Spinner presetSpinner;
     private Button savePresetButton;
     private Button loadPresetButton;
@@ -45,6 +50,12 @@ public class PerformActivity extends AppCompatActivity {
     private int midiNoteOffset = 48; // C3
     private int currentOctave = 3;
 
+    private final ConnectionManager.LinkStateListener linkStateListener = state -> runOnUiThread(() -> {
+        if (state == ConnectionManager.STATE_CONNECTED) {
+            Toast.makeText(this, "Connected to synthesizer", Toast.LENGTH_SHORT).show();
+        }
+    });
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -74,12 +85,13 @@ public class PerformActivity extends AppCompatActivity {
             });
         }
 
-        // Initialize Bluetooth
-        if (BluetoothManager.getInstance().connect()) {
-            Toast.makeText(this, "Connected to synthesizer", Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, "Failed to connect", Toast.LENGTH_LONG).show();
+        // Connect in the background; the UI stays usable while the link comes up
+        ConnectionManager connectionManager = BluetoothManager.getInstance().getConnectionManager();
+        connectionManager.addListener(linkStateListener);
+        if (!BluetoothManager.getInstance().isConnected()) {
+            Toast.makeText(this, "Connecting to synthesizer", Toast.LENGTH_SHORT).show();
         }
+        SynthEnsemble.getInstance().connectAll();
 
         setupTabLayout();
 
@@ -127,15 +139,19 @@ public class PerformActivity extends AppCompatActivity {
             @Override
             public void onKeyDown(PianoView piano, int key) {
                 int midiNote = midiNoteOffset + key;
-                sendCommand("DOWN:", midiNote);
-                Log.d(TAG, "Key down: " + key + " -> MIDI: " + midiNote);
+                sendCommand(SynthCommand.NOTE_ON, midiNote);
+                if (VERBOSE) {
+                    Log.d(TAG, "Key down: " + key + " -> MIDI: " + midiNote);
+                }
             }
 
             @Override
             public void onKeyUp(PianoView piano, int key) {
                 int midiNote = midiNoteOffset + key;
-                sendCommand("UP:", midiNote);
-                Log.d(TAG, "Key up: " + key + " -> MIDI: " + midiNote);
+                sendCommand(SynthCommand.NOTE_OFF, midiNote);
+                if (VERBOSE) {
+                    Log.d(TAG, "Key up: " + key + " -> MIDI: " + midiNote);
+                }
             }
 
             @Override
@@ -157,17 +173,15 @@ public class PerformActivity extends AppCompatActivity {
     }
 
     private void sendAllNotesOff() {
-        sendCommand("PANIC:", 1);
+        sendCommand(SynthCommand.PANIC, 1);
     }
 
     // Single implementation of sendCommand
-    public void sendCommand(String command, int value) {
-        String fullCommand = command + value;
-        Log.d(TAG, "Sending command: " + fullCommand);
-
-        if (BluetoothManager.getInstance().isConnected()) {
-            BluetoothManager.getInstance().sendCommand(fullCommand);
-        } else {
+    public void sendCommand(int command, int value) {
+        if (VERBOSE) {
+            Log.d(TAG, "Sending command: " + SynthCommand.prefix(command) + value);
+        }
+        if (!SynthEnsemble.getInstance().sendCommand(command, value)) {
             Toast.makeText(this, "Failed to send command", Toast.LENGTH_SHORT).show();
         }
     }
@@ -189,7 +203,7 @@ public class PerformActivity extends AppCompatActivity {
         midiNoteOffset = (currentOctave + 1) * 12; // C(octave+1)
 
         updateOctaveDisplay(currentOctave); // Pass currentOctave as an argument
-        sendCommand("OCTAVE:", currentOctave - 4); // Octave offset from middle C
+        sendCommand(SynthCommand.OCTAVE, currentOctave - 4); // Octave offset from middle C
     }
 
     private void updatePresetSpinner() {
@@ -303,17 +317,8 @@ public class PerformActivity extends AppCompatActivity {
             return;
         }
 
-        // Send parameters to the synth
-        sendCommand("MAIN_WAVE:", preset.getMainWaveform());
-        sendCommand("SUB_WAVE:", preset.getSubWaveform());
-        sendCommand("ATTACK:", preset.getAttack());
-        sendCommand("DECAY:", preset.getDecay());
-        sendCommand("SUSTAIN:", preset.getSustain());
-        sendCommand("RELEASE:", preset.getRelease());
-        sendCommand("FILTER:", preset.getFilter());
-        sendCommand("DETUNE:", preset.getDetune());
-        sendCommand("VIB_RATE:", preset.getVibRate());
-        sendCommand("VIB_DEPTH:", preset.getVibDepth());
+        // One patch the synth applies at once; values it already has are left out (see DeviceShadow)
+        SynthEnsemble.getInstance().sendPreset(preset);
 
         // Update UI to reflect loaded values
         updateUIFromPreset(preset);
@@ -406,17 +411,8 @@ public class PerformActivity extends AppCompatActivity {
             return;
         }
 
-        // Send parameters to the synth
-        sendCommand("MAIN_WAVE:", preset.getMainWaveform());
-        sendCommand("SUB_WAVE:", preset.getSubWaveform());
-        sendCommand("ATTACK:", preset.getAttack());
-        sendCommand("DECAY:", preset.getDecay());
-        sendCommand("SUSTAIN:", preset.getSustain());
-        sendCommand("RELEASE:", preset.getRelease());
-        sendCommand("FILTER:", preset.getFilter());
-        sendCommand("DETUNE:", preset.getDetune());
-        sendCommand("VIB_RATE:", preset.getVibRate());
-        sendCommand("VIB_DEPTH:", preset.getVibDepth());
+        // One patch the synth applies at once; values it already has are left out (see DeviceShadow)
+        SynthEnsemble.getInstance().sendPreset(preset);
 
         // Update UI to reflect loaded values
         updateUIFromPreset(preset);
@@ -572,7 +568,7 @@ public class PerformActivity extends AppCompatActivity {
 
             mainWaveSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
                 public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                    sendCommand("MAIN_WAVE:", position);
+                    sendCommand(SynthCommand.MAIN_WAVE, position);
                 }
 
                 @Override
@@ -591,7 +587,7 @@ public class PerformActivity extends AppCompatActivity {
             subWaveSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
                 @Override
                 public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                    sendCommand("SUB_WAVE:", position);
+                    sendCommand(SynthCommand.SUB_WAVE, position);
                 }
 
                 @Override
@@ -613,7 +609,7 @@ public class PerformActivity extends AppCompatActivity {
             attackKnob.setMax(255);
             attackKnob.setCurrentProgress(50);
             attackKnob.setProgressChangeListener(progress ->
-                    sendCommand("ATTACK:", progress));
+                    sendCommand(SynthCommand.ATTACK, progress));
         }
 
         if (decayKnob != null) {
@@ -621,7 +617,7 @@ public class PerformActivity extends AppCompatActivity {
             decayKnob.setMax(255);
             decayKnob.setCurrentProgress(100);
             decayKnob.setProgressChangeListener(progress ->
-                    sendCommand("DECAY:", progress));
+                    sendCommand(SynthCommand.DECAY, progress));
         }
 
         if (sustainKnob != null) {
@@ -629,7 +625,7 @@ public class PerformActivity extends AppCompatActivity {
             sustainKnob.setMax(255);
             sustainKnob.setCurrentProgress(180);
             sustainKnob.setProgressChangeListener(progress ->
-                    sendCommand("SUSTAIN:", progress));
+                    sendCommand(SynthCommand.SUSTAIN, progress));
         }
 
         if (releaseKnob != null) {
@@ -637,7 +633,7 @@ public class PerformActivity extends AppCompatActivity {
             releaseKnob.setMax(255);
             releaseKnob.setCurrentProgress(100);
             releaseKnob.setProgressChangeListener(progress ->
-                    sendCommand("RELEASE:", progress));
+                    sendCommand(SynthCommand.RELEASE, progress));
         }
     }
 
@@ -654,7 +650,7 @@ public class PerformActivity extends AppCompatActivity {
             filterKnob.setMax(255);
             filterKnob.setCurrentProgress(255);
             filterKnob.setProgressChangeListener(progress ->
-                    sendCommand("FILTER:", progress));
+                    sendCommand(SynthCommand.FILTER, progress));
         }
 
         if (detuneKnob != null) {
@@ -662,7 +658,7 @@ public class PerformActivity extends AppCompatActivity {
             detuneKnob.setMax(255);
             detuneKnob.setCurrentProgress(0);
             detuneKnob.setProgressChangeListener(progress ->
-                    sendCommand("DETUNE:", progress));
+                    sendCommand(SynthCommand.DETUNE, progress));
         }
 
 
@@ -671,7 +667,7 @@ public class PerformActivity extends AppCompatActivity {
             vibRateKnob.setMax(255);
             vibRateKnob.setCurrentProgress(0);
             vibRateKnob.setProgressChangeListener(progress ->
-                    sendCommand("VIB_RATE:", progress));
+                    sendCommand(SynthCommand.VIB_RATE, progress));
         }
 
         if (vibDepthKnob != null) {
@@ -679,7 +675,7 @@ public class PerformActivity extends AppCompatActivity {
             vibDepthKnob.setMax(255);
             vibDepthKnob.setCurrentProgress(0);
             vibDepthKnob.setProgressChangeListener(progress ->
-                    sendCommand("VIB_DEPTH:", progress));
+                    sendCommand(SynthCommand.VIB_DEPTH, progress));
         }
     }
 
@@ -780,18 +776,18 @@ public class PerformActivity extends AppCompatActivity {
             }
         }
 
-        // Send all parameters to the ESP32
-        sendCommand("MAIN_WAVE:", mainWaveform);
-        sendCommand("SUB_WAVE:", subWaveform);
-        sendCommand("ATTACK:", attackValue);
-        sendCommand("DECAY:", decayValue);
-        sendCommand("SUSTAIN:", sustainValue);
-        sendCommand("RELEASE:", releaseValue);
-        sendCommand("FILTER:", filterValue);
-        sendCommand("DETUNE:", detuneValue);
-        sendCommand("VIB_RATE:", vibRateValue);
-        sendCommand("VIB_DEPTH:", vibDepthValue);
-        sendCommand("OCTAVE:", currentOctave - 4);
+        // Only the parameters the ESP32 does not already hold actually go out
+        sendCommand(SynthCommand.MAIN_WAVE, mainWaveform);
+        sendCommand(SynthCommand.SUB_WAVE, subWaveform);
+        sendCommand(SynthCommand.ATTACK, attackValue);
+        sendCommand(SynthCommand.DECAY, decayValue);
+        sendCommand(SynthCommand.SUSTAIN, sustainValue);
+        sendCommand(SynthCommand.RELEASE, releaseValue);
+        sendCommand(SynthCommand.FILTER, filterValue);
+        sendCommand(SynthCommand.DETUNE, detuneValue);
+        sendCommand(SynthCommand.VIB_RATE, vibRateValue);
+        sendCommand(SynthCommand.VIB_DEPTH, vibDepthValue);
+        sendCommand(SynthCommand.OCTAVE, currentOctave - 4);
     }
 
     // Helper method to save knob values
@@ -810,12 +806,35 @@ public class PerformActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        metricsOverlay.attachIfEnabled();
+        journal = LinkPreferences.startJournal(this, "perform");
+        SynthEnsemble.getInstance().setJournal(journal);
+    }
+
+    @Override
+    protected void onPause() {
+        metricsOverlay.detach();
+        SynthEnsemble.getInstance().setJournal(null);
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing command journal: " + e.getMessage());
+            }
+            journal = null;
+        }
+        super.onPause();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // Send PANIC command to release all notes when activity is destroyed
-        if (BluetoothManager.getInstance().isConnected()) {
-            BluetoothManager.getInstance().sendCommand("PANIC");
-        }
+        BluetoothManager.getInstance().getConnectionManager().removeListener(linkStateListener);
+        // Send PANIC command to release all notes when activity is destroyed; boards that are
+        // not connected skip it
+        SynthEnsemble.getInstance().sendCommand(SynthCommand.PANIC, 0);
     }
 }
@@ -0,0 +1,122 @@
+package com.example.synthcontroller;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Paces a timed sequence of commands, e.g. a MIDI file, onto the boards of a
+ * {@link SynthEnsemble}, which spreads each batch's notes across them. With a lead time set
+ * and binary links whose clock offsets are known, each batch is sent that much ahead of its
+ * slot together with its play time on the synth's clock, and the synth holds it in its jitter
+ * buffer until then; link jitter up to the lead time no longer shows in the timing. Otherwise
+ * each batch is sent just in time, as before.
+ */
+public class PlaybackScheduler {
+    private static final String TAG = "PlaybackScheduler";
+
+    public static final int DEFAULT_LEAD_MS = 50;
+
+    private final SynthEnsemble ensemble;
+    private volatile long leadNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_LEAD_MS);
+    private volatile CommandJournal journal;
+
+    private volatile long scheduledBatches;
+    private volatile long immediateBatches;
+
+    public PlaybackScheduler(SynthEnsemble ensemble) {
+        this.ensemble = ensemble;
+    }
+
+    /**
+     * How far ahead of their time commands are sent, i.e. the depth of the synth's jitter
+     * buffer. 0 sends everything just in time.
+     */
+    public void setLeadTime(int millis) {
+        leadNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    public int getLeadTime() {
+        return (int) TimeUnit.NANOSECONDS.toMillis(leadNanos);
+    }
+
+    /** Records every batch as it is handed to the boards. Null stops. */
+    public void setJournal(CommandJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Plays {@code count} packed commands whose times, in milliseconds from the start, are
+     * sorted ascending. Commands with the same time go out as one batch. Returns false if the
+     * every board dropped, true once everything was sent or {@code playing} was cleared.
+     */
+    public boolean play(long[] timesMillis, long[] commands, int count, AtomicBoolean playing)
+            throws InterruptedException {
+        long lead = leadNanos;
+        long origin = System.nanoTime() + lead;
+        int index = 0;
+        while (index < count) {
+            if (!playing.get()) {
+                return true;
+            }
+            long time = timesMillis[index];
+            int end = index;
+            while (end < count && timesMillis[end] == time) {
+                end++;
+            }
+            long playAt = origin + TimeUnit.MILLISECONDS.toNanos(time);
+
+            boolean sent = false;
+            if (lead > 0 && ensemble.canSchedule()) {
+                sleepUntil(playAt - lead);
+                if (!playing.get()) {
+                    return true;
+                }
+                sent = ensemble.sendScheduled(commands, index, end - index, playAt);
+                if (sent) {
+                    record(commands, index, end - index);
+                    scheduledBatches++;
+                }
+            }
+            if (!sent) {
+                sleepUntil(playAt);
+                if (!playing.get()) {
+                    return true;
+                }
+                if (!ensemble.sendCommands(commands, index, end - index)) {
+                    Log.d(TAG, "Link lost during playback");
+                    return false;
+                }
+                record(commands, index, end - index);
+                immediateBatches++;
+            }
+            index = end;
+        }
+        return true;
+    }
+
+    private void record(long[] commands, int offset, int count) {
+        CommandJournal recording = journal;
+        if (recording != null) {
+            recording.record(commands, offset, count, System.nanoTime());
+        }
+    }
+
+    private static void sleepUntil(long nanos) throws InterruptedException {
+        long remaining = nanos - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    /** Batches sent ahead with a play time. */
+    public long getScheduledBatches() {
+        return scheduledBatches;
+    }
+
+    /** Batches sent just in time. */
+    public long getImmediateBatches() {
+        return immediateBatches;
+    }
+}
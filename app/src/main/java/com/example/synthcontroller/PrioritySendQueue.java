@@ -0,0 +1,211 @@
+package com.example.synthcontroller;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound commands sorted into priority lanes so that a PANIC or a note-off never waits
+ * behind a backlog. The writer always takes from the highest non-empty lane: emergency
+ * (PANIC), then note-offs, then note-ons and pings, then commands scheduled ahead of time
+ * for the synth's jitter buffer. Parameter changes form the lowest lane and live in
+ * {@link ParameterCoalescer}, where a newer value replaces a stale one.
+ *
+ * Note events are never dropped, but reordering them must not leave a note hanging. Every
+ * command gets a sequence number when it is queued, and the writer uses it to:
+ * - skip notes that were queued before a PANIC that has already gone out, and
+ * - follow a note-on with a fresh note-off when the off that was queued after it has
+ *   already overtaken it.
+ * Scheduled commands queued before a PANIC are dropped as well.
+ */
+public class PrioritySendQueue {
+    public static final int LANE_EMERGENCY = 0;
+    public static final int LANE_NOTE_OFF = 1;
+    public static final int LANE_NOTE_ON = 2;
+    public static final int LANE_SCHEDULED = 3;
+    public static final int LANE_PARAMETER = 4;
+    public static final int LANE_COUNT = 5;
+
+    private static final int EMERGENCY_CAPACITY = 16;
+    private static final int NOTE_CAPACITY = 256;
+    private static final int SCHEDULED_CAPACITY = 512;
+    // A note is identified by its number and channel (or lack of one)
+    private static final int NOTE_KEYS = 128 * 17;
+
+    private final CommandLane emergency = new CommandLane(EMERGENCY_CAPACITY);
+    private final CommandLane noteOffs = new CommandLane(NOTE_CAPACITY);
+    private final CommandLane noteOns = new CommandLane(NOTE_CAPACITY);
+    private final CommandLane scheduled = new CommandLane(SCHEDULED_CAPACITY);
+    private final AtomicLong sequence = new AtomicLong();
+    // Scheduled commands are tagged with their play time, plus how many panics had been
+    // queued before them in the upper half of the tag
+    private final AtomicInteger panicsQueued = new AtomicInteger();
+
+    // Writer thread only
+    private final long[] lastNoteOff = new long[NOTE_KEYS];
+    private long lastPanic;
+    private long reclose = CommandRingBuffer.EMPTY;
+    private int panicsSent;
+    private boolean polledScheduled;
+    private int polledTime;
+
+    private volatile long cancelledByPanic;
+    private volatile long reclosedNotes;
+
+    /** Queues a non-parameter command. Never fails and never blocks. */
+    public void offer(long packed) {
+        int command = SynthCommand.command(packed);
+        if (command == SynthCommand.PANIC) {
+            panicsQueued.incrementAndGet();
+        }
+        long tag = sequence.incrementAndGet();
+        laneFor(command).offer(packed, tag);
+    }
+
+    /** Queues a command the synth should play when its micros() clock reaches {@code deviceMicros}. */
+    public void offerScheduled(long packed, int deviceMicros) {
+        long tag = (long) panicsQueued.get() << 32 | (deviceMicros & 0xFFFFFFFFL);
+        scheduled.offer(packed, tag);
+    }
+
+    /** Writer only. Returns the most urgent command, or {@link CommandRingBuffer#EMPTY}. */
+    public long poll() {
+        polledScheduled = false;
+        if (reclose != CommandRingBuffer.EMPTY) {
+            long packed = reclose;
+            reclose = CommandRingBuffer.EMPTY;
+            return packed;
+        }
+        while (true) {
+            long packed = emergency.poll();
+            if (packed != CommandRingBuffer.EMPTY) {
+                lastPanic = emergency.polledTag();
+                panicsSent++;
+                return packed;
+            }
+
+            packed = noteOffs.poll();
+            if (packed != CommandRingBuffer.EMPTY) {
+                long tag = noteOffs.polledTag();
+                if (tag < lastPanic) {
+                    cancelledByPanic++;
+                    continue;
+                }
+                lastNoteOff[noteKey(SynthCommand.value(packed))] = tag;
+                return packed;
+            }
+
+            packed = noteOns.poll();
+            if (packed == CommandRingBuffer.EMPTY) {
+                return pollScheduled();
+            }
+            if (SynthCommand.command(packed) != SynthCommand.NOTE_ON) {
+                return packed;
+            }
+            long tag = noteOns.polledTag();
+            if (tag < lastPanic) {
+                cancelledByPanic++;
+                continue;
+            }
+            int value = SynthCommand.value(packed);
+            if (lastNoteOff[noteKey(value)] > tag) {
+                reclose = SynthCommand.pack(SynthCommand.NOTE_OFF, value);
+                reclosedNotes++;
+            }
+            return packed;
+        }
+    }
+
+    private long pollScheduled() {
+        while (true) {
+            long packed = scheduled.poll();
+            if (packed == CommandRingBuffer.EMPTY) {
+                return packed;
+            }
+            long tag = scheduled.polledTag();
+            if ((int) (tag >>> 32) < panicsSent) {
+                cancelledByPanic++;
+                continue;
+            }
+            polledScheduled = true;
+            polledTime = (int) tag;
+            return packed;
+        }
+    }
+
+    /** Writer only. Whether the command last returned by {@link #poll} is a scheduled one. */
+    public boolean isPolledScheduled() {
+        return polledScheduled;
+    }
+
+    /** Writer only. Play time of the scheduled command last returned by {@link #poll}. */
+    public int getPolledTime() {
+        return polledTime;
+    }
+
+    /** Writer only. */
+    public boolean isEmpty() {
+        return reclose == CommandRingBuffer.EMPTY && emergency.isEmpty() && noteOffs.isEmpty()
+                && noteOns.isEmpty() && scheduled.isEmpty();
+    }
+
+    public int size() {
+        return emergency.size() + noteOffs.size() + noteOns.size() + scheduled.size();
+    }
+
+    /** Depth of one of the queued lanes; the parameter lane is tracked by the coalescer. */
+    public int laneDepth(int lane) {
+        switch (lane) {
+            case LANE_EMERGENCY: return emergency.size();
+            case LANE_NOTE_OFF: return noteOffs.size();
+            case LANE_NOTE_ON: return noteOns.size();
+            case LANE_SCHEDULED: return scheduled.size();
+            default: return 0;
+        }
+    }
+
+    /** How many commands of a lane spilled into its overflow list because the ring was full. */
+    public long laneOverflowCount(int lane) {
+        switch (lane) {
+            case LANE_EMERGENCY: return emergency.getOverflowCount();
+            case LANE_NOTE_OFF: return noteOffs.getOverflowCount();
+            case LANE_NOTE_ON: return noteOns.getOverflowCount();
+            case LANE_SCHEDULED: return scheduled.getOverflowCount();
+            default: return 0;
+        }
+    }
+
+    /** Note events and scheduled commands skipped because a later PANIC overtook them. */
+    public long getCancelledByPanic() {
+        return cancelledByPanic;
+    }
+
+    /** Note-ons that had to be followed by an extra note-off to keep their order. */
+    public long getReclosedNotes() {
+        return reclosedNotes;
+    }
+
+    /** Writer only; called when a connection ends. */
+    public void clear() {
+        emergency.clear();
+        noteOffs.clear();
+        noteOns.clear();
+        scheduled.clear();
+        reclose = CommandRingBuffer.EMPTY;
+        Arrays.fill(lastNoteOff, 0);
+        lastPanic = 0;
+        panicsSent = panicsQueued.get();
+    }
+
+    private CommandLane laneFor(int command) {
+        switch (command) {
+            case SynthCommand.PANIC: return emergency;
+            case SynthCommand.NOTE_OFF: return noteOffs;
+            default: return noteOns;
+        }
+    }
+
+    private static int noteKey(int value) {
+        return SynthCommand.note(value) | (SynthCommand.channel(value) + 1) << 7;
+    }
+}
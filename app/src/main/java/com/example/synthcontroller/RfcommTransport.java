@@ -0,0 +1,102 @@
+package com.example.synthcontroller;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.UUID;
+
+/** Bluetooth Classic SPP link to a paired synth. */
+public class RfcommTransport implements SynthTransport {
+    private static final String TAG = "RfcommTransport";
+    private static final UUID BT_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    public static final String DEFAULT_DEVICE_NAME = "ESP32Synth";
+
+    private final String deviceName;
+    private final BluetoothAdapter bluetoothAdapter;
+    private BluetoothSocket bluetoothSocket;
+    private OutputStream outputStream;
+    private InputStream inputStream;
+
+    public RfcommTransport() {
+        this(DEFAULT_DEVICE_NAME);
+    }
+
+    public RfcommTransport(String deviceName) {
+        this.deviceName = deviceName;
+        bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            throw new IOException("Bluetooth not available or not enabled");
+        }
+
+        Set<BluetoothDevice> pairedDevices = bluetoothAdapter.getBondedDevices();
+        BluetoothDevice device = null;
+        for (BluetoothDevice pairedDevice : pairedDevices) {
+            if (deviceName.equals(pairedDevice.getName())) {
+                device = pairedDevice;
+                break;
+            }
+        }
+
+        if (device == null) {
+            throw new IOException("Device " + deviceName + " not found in paired devices");
+        }
+
+        try {
+            bluetoothSocket = device.createRfcommSocketToServiceRecord(BT_UUID);
+            bluetoothSocket.connect();
+            outputStream = bluetoothSocket.getOutputStream();
+            inputStream = bluetoothSocket.getInputStream();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (outputStream != null) {
+                outputStream.close();
+                outputStream = null;
+            }
+            if (bluetoothSocket != null) {
+                bluetoothSocket.close();
+                bluetoothSocket = null;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing Bluetooth resources", e);
+        }
+        inputStream = null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        BluetoothSocket socket = bluetoothSocket;
+        return socket != null && socket.isConnected() && outputStream != null;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public String getName() {
+        return deviceName;
+    }
+}
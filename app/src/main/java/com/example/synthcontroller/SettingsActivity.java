@@ -2,9 +2,16 @@ package com.example.synthcontroller;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.view.View;
+import android.view.inputmethod.EditorInfo;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
 import android.widget.ImageView;
+import android.widget.Spinner;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SwitchCompat;
 import androidx.appcompat.widget.Toolbar;
 
 import com.google.android.material.bottomnavigation.BottomNavigationView;
@@ -25,6 +32,75 @@ public class SettingsActivity extends AppCompatActivity {
         ImageView backButton = findViewById(R.id.backButton);
         backButton.setOnClickListener(v -> finish());
 
+        SwitchCompat binaryProtocolSwitch = findViewById(R.id.binaryProtocolSwitch);
+        binaryProtocolSwitch.setChecked(LinkPreferences.isBinaryProtocol(this));
+        binaryProtocolSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                LinkPreferences.setBinaryProtocol(this, isChecked));
+
+        SwitchCompat runningStatusSwitch = findViewById(R.id.runningStatusSwitch);
+        runningStatusSwitch.setChecked(LinkPreferences.isRunningStatus(this));
+        runningStatusSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                LinkPreferences.setRunningStatus(this, isChecked));
+
+        SwitchCompat bleMidiSwitch = findViewById(R.id.bleMidiSwitch);
+        bleMidiSwitch.setChecked(LinkPreferences.isBleMidi(this));
+        bleMidiSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                LinkPreferences.setBleMidi(this, isChecked));
+
+        SwitchCompat scheduledPlaybackSwitch = findViewById(R.id.scheduledPlaybackSwitch);
+        scheduledPlaybackSwitch.setChecked(LinkPreferences.isScheduledPlayback(this));
+        scheduledPlaybackSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                LinkPreferences.setScheduledPlayback(this, isChecked));
+
+        SwitchCompat metricsOverlaySwitch = findViewById(R.id.metricsOverlaySwitch);
+        metricsOverlaySwitch.setChecked(LinkPreferences.isMetricsOverlay(this));
+        metricsOverlaySwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                LinkPreferences.setMetricsOverlay(this, isChecked));
+
+        SwitchCompat recordJournalSwitch = findViewById(R.id.recordJournalSwitch);
+        recordJournalSwitch.setChecked(LinkPreferences.isRecordJournal(this));
+        recordJournalSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                LinkPreferences.setRecordJournal(this, isChecked));
+
+        EditText extraBoardsInput = findViewById(R.id.extraBoardsInput);
+        extraBoardsInput.setText(String.join(", ", LinkPreferences.getExtraBoards(this)));
+        onEditDone(extraBoardsInput, () -> LinkPreferences.setExtraBoards(
+                this, extraBoardsInput.getText().toString().split(",")));
+
+        Spinner allocationModeSpinner = findViewById(R.id.allocationModeSpinner);
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(this, R.layout.spinner_item_white_text,
+                new String[]{"Round robin", "Least loaded", "Key split"});
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        allocationModeSpinner.setAdapter(adapter);
+        // Spinner positions are the VoiceAllocator.MODE_ values
+        allocationModeSpinner.setSelection(LinkPreferences.getAllocationMode(this));
+        allocationModeSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (position != LinkPreferences.getAllocationMode(SettingsActivity.this)) {
+                    LinkPreferences.setAllocationMode(SettingsActivity.this, position);
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+
+        EditText splitPointsInput = findViewById(R.id.splitPointsInput);
+        int[] splitPoints = LinkPreferences.getSplitPoints(this);
+        if (splitPoints != null) {
+            StringBuilder text = new StringBuilder();
+            for (int point : splitPoints) {
+                text.append(text.length() > 0 ? ", " : "").append(point);
+            }
+            splitPointsInput.setText(text);
+        }
+        onEditDone(splitPointsInput, () -> {
+            if (!LinkPreferences.setSplitPoints(this, splitPointsInput.getText().toString())) {
+                splitPointsInput.setError("Rising note numbers, e.g. 48, 72");
+            }
+        });
+
         BottomNavigationView bottomNavigationView = findViewById(R.id.bottom_navigation);
         bottomNavigationView.setSelectedItemId(R.id.nav_settings);
         bottomNavigationView.setOnItemSelectedListener(item -> {
@@ -41,4 +117,20 @@ public class SettingsActivity extends AppCompatActivity {
             return false;
         });
     }
+
+    // Text settings are saved when the field loses focus, which Done also does, rather than on
+    // every keystroke
+    private static void onEditDone(EditText input, Runnable save) {
+        input.setOnEditorActionListener((v, actionId, event) -> {
+            if (actionId == EditorInfo.IME_ACTION_DONE) {
+                v.clearFocus();
+            }
+            return false;
+        });
+        input.setOnFocusChangeListener((v, hasFocus) -> {
+            if (!hasFocus) {
+                save.run();
+            }
+        });
+    }
 }
@@ -0,0 +1,366 @@
+package com.example.synthcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Puts a modelled serial-over-Bluetooth link in front of another transport, to reproduce bad
+ * radio conditions on purpose. What the phone writes is serialised at the profile's byte
+ * rate, then delivered after a base latency plus an exponentially distributed jitter, in
+ * order, as RFCOMM does. Bursts of interference (a two-state good/bad model) add latency and
+ * cut the rate; a stall blocks the writer as a socket whose buffer is full while the radio
+ * retransmits; a drop loses a whole write, as a synth with an overflowing input buffer would.
+ * Once more than the profile's buffer is in flight, writes block until it drains.
+ *
+ * Bytes coming back get the same latency and jitter. Every write's added delay, from write()
+ * to delivery, is kept in {@link #getDelays()}.
+ */
+public class SimulatedLinkTransport implements SynthTransport {
+
+    /** Link conditions. The setters return the profile so they chain. */
+    public static final class Profile {
+        final String name;
+        final int bytesPerSecond;
+        final long latencyMicros;
+        final long jitterMicros;
+        int bufferBytes = 2048;
+        double burstEnterProbability;
+        double burstExitProbability = 1;
+        long burstLatencyMicros;
+        double burstRateFactor = 1;
+        double stallProbability;
+        long stallMicros;
+        double dropProbability;
+
+        /** {@code jitterMicros} is the mean of the random part added to {@code latencyMicros}. */
+        public Profile(String name, int bytesPerSecond, long latencyMicros, long jitterMicros) {
+            this.name = name;
+            this.bytesPerSecond = bytesPerSecond;
+            this.latencyMicros = latencyMicros;
+            this.jitterMicros = jitterMicros;
+        }
+
+        /** Bytes in flight before writes block; the socket's send buffer. */
+        public Profile setBufferBytes(int bytes) {
+            bufferBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Each write enters a burst with {@code enter} probability and leaves it with
+         * {@code exit}; during one, latency grows by {@code extraMicros} and the rate is
+         * multiplied by {@code rateFactor}.
+         */
+        public Profile setBursts(double enter, double exit, long extraMicros, double rateFactor) {
+            burstEnterProbability = enter;
+            burstExitProbability = exit;
+            burstLatencyMicros = extraMicros;
+            burstRateFactor = rateFactor;
+            return this;
+        }
+
+        public Profile setStalls(double probability, long micros) {
+            stallProbability = probability;
+            stallMicros = micros;
+            return this;
+        }
+
+        public Profile setDropProbability(double probability) {
+            dropProbability = probability;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /** Close to the synth on a quiet stage: SPP at a comfortable rate, a few ms of jitter. */
+    public static Profile goodStage() {
+        return new Profile("good stage", 20_000, 6_000, 2_000);
+    }
+
+    /** A full room of phones and 2.4 GHz noise: slower, jittery, with bursts and short stalls. */
+    public static Profile crowdedVenue() {
+        return new Profile("crowded venue", 8_000, 15_000, 8_000)
+                .setBursts(0.02, 0.2, 30_000, 0.5)
+                .setStalls(0.002, 100_000);
+    }
+
+    /** At the edge of range behind bodies: little rate, long bursts and stalls, some loss. */
+    public static Profile worstCase() {
+        return new Profile("worst case", 2_500, 30_000, 20_000)
+                .setBursts(0.05, 0.1, 80_000, 0.25)
+                .setStalls(0.01, 300_000)
+                .setDropProbability(0.005);
+    }
+
+    private static final int INBOUND_CAPACITY = 4096;
+
+    private final SynthTransport inner;
+    private final Profile profile;
+    private final Random random;
+    private final LatencyHistogram delays = new LatencyHistogram(4096);
+
+    private volatile boolean open;
+    private OutputStream outputStream;
+    private BytePipe inbound;
+    private volatile Thread delivery;
+
+    // Outbound writes waiting for their delivery time; guarded by this queue
+    private final ArrayDeque<Delivery> queue = new ArrayDeque<>();
+    private long linkFreeNanos;
+    private long lastDueNanos;
+    private long inboundDueNanos;
+    private boolean inBurst;
+
+    private volatile long writes;
+    private volatile long dropped;
+    private volatile long stalls;
+    private volatile long bursts;
+
+    private static final class Delivery {
+        final long dueNanos;
+        final byte[] data;
+
+        Delivery(long dueNanos, byte[] data) {
+            this.dueNanos = dueNanos;
+            this.data = data;
+        }
+    }
+
+    public SimulatedLinkTransport(SynthTransport inner, Profile profile) {
+        this(inner, profile, new Random().nextLong());
+    }
+
+    /** The same seed gives the same sequence of jitter, bursts, stalls and drops. */
+    public SimulatedLinkTransport(SynthTransport inner, Profile profile, long seed) {
+        this.inner = inner;
+        this.profile = profile;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        inner.open();
+        synchronized (queue) {
+            queue.clear();
+            linkFreeNanos = System.nanoTime();
+            lastDueNanos = linkFreeNanos;
+            inboundDueNanos = linkFreeNanos;
+            inBurst = false;
+        }
+        outputStream = new SimulatedOutputStream();
+        open = true;
+        delivery = new Thread(this::deliver, "SimulatedLink-delivery");
+        delivery.setDaemon(true);
+        delivery.start();
+        InputStream in = inner.getInputStream();
+        if (in != null) {
+            inbound = new BytePipe(INBOUND_CAPACITY);
+            Thread receiver = new Thread(() -> receive(in, inbound), "SimulatedLink-receive");
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+        inner.close();
+        Thread deliveryThread = delivery;
+        delivery = null;
+        if (deliveryThread != null) {
+            LockSupport.unpark(deliveryThread);
+        }
+        synchronized (queue) {
+            queue.clear();
+            queue.notifyAll();
+        }
+        if (inbound != null) {
+            inbound.close();
+            inbound = null;
+        }
+        outputStream = null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open && inner.isOpen();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        BytePipe pipe = inbound;
+        return pipe != null ? pipe.getInputStream() : null;
+    }
+
+    @Override
+    public String getName() {
+        return inner.getName() + " (" + profile.name + ")";
+    }
+
+    @Override
+    public boolean carriesMidi() {
+        return inner.carriesMidi();
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /** Time from write() to delivery on the far side, per write. */
+    public LatencyHistogram getDelays() {
+        return delays;
+    }
+
+    public long getWriteCount() {
+        return writes;
+    }
+
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    public long getStallCount() {
+        return stalls;
+    }
+
+    public long getBurstCount() {
+        return bursts;
+    }
+
+    private long jitterNanos() {
+        double u = random.nextDouble();
+        double jitter = -Math.log(1 - u) * profile.jitterMicros;
+        return TimeUnit.MICROSECONDS.toNanos(profile.latencyMicros + (long) Math.min(jitter, 10.0 * profile.jitterMicros));
+    }
+
+    private void send(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        writes++;
+        long stallNanos = 0;
+        long dueNanos;
+        long freeNanos;
+        synchronized (queue) {
+            if (inBurst) {
+                inBurst = random.nextDouble() >= profile.burstExitProbability;
+            } else if (random.nextDouble() < profile.burstEnterProbability) {
+                inBurst = true;
+                bursts++;
+            }
+            if (random.nextDouble() < profile.dropProbability) {
+                dropped++;
+                return;
+            }
+            if (random.nextDouble() < profile.stallProbability) {
+                stalls++;
+                stallNanos = TimeUnit.MICROSECONDS.toNanos(profile.stallMicros);
+            }
+            double rate = profile.bytesPerSecond * (inBurst ? profile.burstRateFactor : 1);
+            long serialNanos = (long) (len * 1e9 / rate);
+            long now = start + stallNanos;
+            linkFreeNanos = Math.max(linkFreeNanos, now) + serialNanos;
+            long latency = jitterNanos() + (inBurst ? TimeUnit.MICROSECONDS.toNanos(profile.burstLatencyMicros) : 0);
+            dueNanos = Math.max(lastDueNanos, linkFreeNanos + latency);
+            lastDueNanos = dueNanos;
+            freeNanos = linkFreeNanos;
+        }
+        if (stallNanos > 0) {
+            sleepUntil(start + stallNanos);
+        }
+        // A full send buffer holds the writer until the radio has caught up
+        long bufferNanos = (long) (profile.bufferBytes * 1e9 / profile.bytesPerSecond);
+        sleepUntil(freeNanos - bufferNanos);
+        if (!open) {
+            throw new IOException("Link closed");
+        }
+        synchronized (queue) {
+            queue.add(new Delivery(dueNanos, Arrays.copyOfRange(b, off, off + len)));
+            queue.notifyAll();
+        }
+        delays.recordNanos(dueNanos - start);
+    }
+
+    private static void sleepUntil(long nanos) {
+        long remaining;
+        while ((remaining = nanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    // Ends when close() or a later open() replaces it
+    private void deliver() {
+        Thread self = Thread.currentThread();
+        try {
+            while (delivery == self) {
+                Delivery next;
+                synchronized (queue) {
+                    while (delivery == self && queue.isEmpty()) {
+                        queue.wait();
+                    }
+                    next = queue.peek();
+                }
+                if (next == null) {
+                    continue;
+                }
+                sleepUntil(next.dueNanos);
+                synchronized (queue) {
+                    if (delivery != self || queue.poll() != next) {
+                        return;
+                    }
+                }
+                OutputStream out = inner.getOutputStream();
+                if (out == null) {
+                    return;
+                }
+                out.write(next.data);
+                out.flush();
+            }
+        } catch (InterruptedException | IOException e) {
+            // link closed
+        }
+    }
+
+    private void receive(InputStream in, BytePipe pipe) {
+        byte[] buffer = new byte[256];
+        try {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                long due;
+                synchronized (queue) {
+                    due = Math.max(inboundDueNanos, System.nanoTime() + jitterNanos());
+                    inboundDueNanos = due;
+                }
+                sleepUntil(due);
+                pipe.getOutputStream().write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            // link closed
+        }
+        pipe.close();
+    }
+
+    private final class SimulatedOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            send(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            send(b, off, len);
+        }
+    }
+}
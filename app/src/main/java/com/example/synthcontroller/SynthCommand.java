@@ -0,0 +1,168 @@
+package com.example.synthcontroller;
+
+/**
+ * Command ids understood by the synth firmware, plus helpers to pack a command and its
+ * value into a single long so they can travel through the send queue without allocating.
+ */
+public final class SynthCommand {
+    public static final int NOTE_ON = 0;
+    public static final int NOTE_OFF = 1;
+    public static final int PANIC = 2;
+    public static final int ATTACK = 3;
+    public static final int DECAY = 4;
+    public static final int SUSTAIN = 5;
+    public static final int RELEASE = 6;
+    public static final int FILTER = 7;
+    public static final int DETUNE = 8;
+    public static final int VIB_RATE = 9;
+    public static final int VIB_DEPTH = 10;
+    public static final int MAIN_WAVE = 11;
+    public static final int SUB_WAVE = 12;
+    public static final int OCTAVE = 13;
+    public static final int TRANSPOSE = 14;
+    public static final int REVERB = 15;
+    // Link probes: the value is a sequence number the synth echoes back
+    public static final int PING = 16;
+    public static final int PONG = 17;
+    // Scheduled playback: the value is the synth's micros() at which the next command plays
+    public static final int AT = 18;
+    // A whole preset applied in one step; binary only, the values travel in the frame
+    public static final int PATCH = 19;
+
+    public static final int COUNT = 20;
+    public static final int UNKNOWN = -1;
+
+    // Layout of the value of a NOTE_ON/NOTE_OFF command: note in the low 7 bits, then an
+    // optional velocity and channel, each with a presence flag
+    private static final int NOTE_MASK = 0x7F;
+    private static final int VELOCITY_SHIFT = 8;
+    private static final int HAS_VELOCITY = 1 << 15;
+    private static final int CHANNEL_SHIFT = 16;
+    private static final int HAS_CHANNEL = 1 << 20;
+
+    // Text prefixes as parsed by processCommand() in the firmware, indexed by command id
+    private static final String[] PREFIXES = {
+            "DOWN:", "UP:", "PANIC:", "ATTACK:", "DECAY:", "SUSTAIN:", "RELEASE:", "FILTER:",
+            "DETUNE:", "VIB_RATE:", "VIB_DEPTH:", "MAIN_WAVE:", "SUB_WAVE:", "OCTAVE:",
+            "TRANSPOSE:", "REVERB:", "PING:", "PONG:", "AT:", "PATCH:"
+    };
+
+    private static final byte[][] PREFIX_BYTES = new byte[COUNT][];
+
+    static {
+        for (int i = 0; i < COUNT; i++) {
+            String prefix = PREFIXES[i];
+            byte[] bytes = new byte[prefix.length()];
+            for (int j = 0; j < bytes.length; j++) {
+                bytes[j] = (byte) prefix.charAt(j);
+            }
+            PREFIX_BYTES[i] = bytes;
+        }
+    }
+
+    private SynthCommand() {
+    }
+
+    public static long pack(int command, int value) {
+        return ((long) command << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    public static int command(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    public static int value(long packed) {
+        return (int) packed;
+    }
+
+    public static String prefix(int command) {
+        return PREFIXES[command];
+    }
+
+    static byte[] prefixBytes(int command) {
+        return PREFIX_BYTES[command];
+    }
+
+    /** Maps a text prefix such as "ATTACK:" (or "PANIC" without colon) to its command id. */
+    public static int fromPrefix(String prefix) {
+        switch (prefix) {
+            case "DOWN:": return NOTE_ON;
+            case "UP:": return NOTE_OFF;
+            case "PANIC":
+            case "PANIC:": return PANIC;
+            case "ATTACK:": return ATTACK;
+            case "DECAY:": return DECAY;
+            case "SUSTAIN:": return SUSTAIN;
+            case "RELEASE:": return RELEASE;
+            case "FILTER:": return FILTER;
+            case "DETUNE:": return DETUNE;
+            case "VIB_RATE:": return VIB_RATE;
+            case "VIB_DEPTH:": return VIB_DEPTH;
+            case "MAIN_WAVE:": return MAIN_WAVE;
+            case "SUB_WAVE:": return SUB_WAVE;
+            case "OCTAVE:": return OCTAVE;
+            case "TRANSPOSE:": return TRANSPOSE;
+            case "REVERB:": return REVERB;
+            case "PING:": return PING;
+            case "PONG:": return PONG;
+            case "AT:": return AT;
+            default: return UNKNOWN;
+        }
+    }
+
+    /**
+     * Parses a full text command such as "DOWN:60" or "PANIC" into a packed command,
+     * or returns -1 if the command is not recognised.
+     */
+    public static long parse(String text) {
+        int colon = text.indexOf(':');
+        String prefix = colon >= 0 ? text.substring(0, colon + 1) : text;
+        int command = fromPrefix(prefix);
+        if (command == UNKNOWN) {
+            return -1;
+        }
+        int value = 0;
+        if (colon >= 0 && colon + 1 < text.length()) {
+            try {
+                value = Integer.parseInt(text.substring(colon + 1).trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return pack(command, value);
+    }
+
+    public static boolean isNote(int command) {
+        return command == NOTE_ON || command == NOTE_OFF;
+    }
+
+    public static boolean isParameter(int command) {
+        return command >= ATTACK && command <= REVERB;
+    }
+
+    /** Builds a note value carrying a velocity and/or channel; pass -1 to leave either out. */
+    public static int noteValue(int note, int velocity, int channel) {
+        int value = note & NOTE_MASK;
+        if (velocity >= 0) {
+            value |= HAS_VELOCITY | ((velocity & 0x7F) << VELOCITY_SHIFT);
+        }
+        if (channel >= 0) {
+            value |= HAS_CHANNEL | ((channel & 0x0F) << CHANNEL_SHIFT);
+        }
+        return value;
+    }
+
+    public static int note(int value) {
+        return value & NOTE_MASK;
+    }
+
+    /** Returns the velocity of a note value, or -1 if it has none. */
+    public static int velocity(int value) {
+        return (value & HAS_VELOCITY) != 0 ? (value >> VELOCITY_SHIFT) & 0x7F : -1;
+    }
+
+    /** Returns the channel of a note value, or -1 if it has none. */
+    public static int channel(int value) {
+        return (value & HAS_CHANNEL) != 0 ? (value >> CHANNEL_SHIFT) & 0x0F : -1;
+    }
+}
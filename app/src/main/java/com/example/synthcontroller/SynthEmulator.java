@@ -0,0 +1,382 @@
+package com.example.synthcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The firmware's command handling in plain Java, so the whole phone-to-synth path can run in
+ * CI without a board. Bytes go through the same decoding as updateControl() (text lines, binary
+ * frames, running status after a v2 hello, AT scheduling via {@link JitterBufferReceiver}) and
+ * notes land on voices exactly as playNote()/stopNote() in WorkingVibrato.ino place them: a
+ * free voice if there is one, else the one started longest ago, releasing voices included. A
+ * released voice frees up once the release time has passed. Pings are answered in kind.
+ *
+ * Drive it with explicit times through {@link #receive} and {@link #advance}, or attach it to
+ * the device end of an {@link InMemoryTransport} or a TCP socket and it runs on the wall clock.
+ */
+public class SynthEmulator {
+    /** NUM_VOICES in WorkingVibrato.ino; WorkingESP32code.ino has 4. */
+    public static final int DEFAULT_VOICES = 8;
+    /** SCHEDULE_SIZE in the sketch. */
+    public static final int SCHEDULE_SIZE = 64;
+    /** Mozzi's default CONTROL_RATE; releases are checked this often when running live. */
+    public static final int CONTROL_RATE_HZ = 64;
+    public static final int DEFAULT_PORT = 5555;
+
+    private final JitterBufferReceiver receiver;
+    private final byte[] pong = new byte[SynthProtocol.PONG_LENGTH];
+    private OutputStream replies;
+
+    private final int[] notes;
+    private final int[] velocities;
+    private final long[] startMicros;
+    private final long[] releaseStartMicros;
+    private final boolean[] active;
+    private final boolean[] releasing;
+
+    // Firmware variables the voice handling depends on, at their sketch defaults
+    private int transpose = 0;
+    private int octave = 0;
+    private int releaseMillis = 300;
+    private final int[] parameters = new int[SynthCommand.COUNT];
+
+    private long nowMicros;
+    private long notesOn;
+    private long notesOff;
+    private long stolen;
+    private long panics;
+    private long pings;
+
+    public SynthEmulator() {
+        this(DEFAULT_VOICES);
+    }
+
+    public SynthEmulator(int voices) {
+        notes = new int[voices];
+        velocities = new int[voices];
+        startMicros = new long[voices];
+        releaseStartMicros = new long[voices];
+        active = new boolean[voices];
+        releasing = new boolean[voices];
+        Arrays.fill(parameters, -1);
+        receiver = new JitterBufferReceiver(SCHEDULE_SIZE, this::execute);
+    }
+
+    /** Bytes that reached the synth at {@code arrivalMicros}; replies go to {@code out}, if any. */
+    public synchronized void receive(byte[] data, int offset, int length, long arrivalMicros, OutputStream out) {
+        replies = out;
+        nowMicros = Math.max(nowMicros, arrivalMicros);
+        expireReleases();
+        receiver.receive(data, offset, length, nowMicros);
+        replies = null;
+    }
+
+    public void receive(byte[] data, int offset, int length, long arrivalMicros) {
+        receive(data, offset, length, arrivalMicros, null);
+    }
+
+    /** Lets time pass: scheduled commands play and released voices free up. */
+    public synchronized void advance(long deviceMicros) {
+        nowMicros = Math.max(nowMicros, deviceMicros);
+        receiver.advance(nowMicros);
+        expireReleases();
+    }
+
+    /** What the sketch does when the phone goes away: the next one starts without a protocol. */
+    public synchronized void disconnect() {
+        receiver.getDecoder().reset();
+    }
+
+    private void execute(long packed, long deviceMicros) {
+        int command = SynthCommand.command(packed);
+        int value = SynthCommand.value(packed);
+        switch (command) {
+            case SynthCommand.NOTE_ON: {
+                int velocity = SynthCommand.velocity(value);
+                playNote(SynthCommand.note(value), velocity >= 0 ? velocity : 127, deviceMicros);
+                break;
+            }
+            case SynthCommand.NOTE_OFF:
+                stopNote(SynthCommand.note(value), deviceMicros);
+                break;
+            case SynthCommand.PANIC:
+                panicAllNotes();
+                break;
+            case SynthCommand.PING:
+                sendPong(value, deviceMicros);
+                break;
+            case SynthCommand.PATCH:
+                for (int i = 0; i < SynthProtocol.PATCH_PARAMETERS; i++) {
+                    int parameter = SynthProtocol.commandForParameter(i);
+                    applyParameter(parameter, receiver.getDecoder().getPatchValue(parameter));
+                }
+                break;
+            default:
+                if (SynthCommand.isParameter(command)) {
+                    applyParameter(command, value);
+                }
+                break;
+        }
+    }
+
+    private void playNote(int note, int velocity, long micros) {
+        note = (note + transpose) & 0xFF; // a byte in the sketch
+        int voice = -1;
+        long oldest = micros;
+        for (int i = 0; i < notes.length; i++) {
+            if (!active[i]) {
+                voice = i;
+                break;
+            }
+            if (startMicros[i] < oldest) {
+                oldest = startMicros[i];
+                voice = i;
+            }
+        }
+        if (voice < 0) {
+            return; // "No available voices!": every voice started this very microsecond
+        }
+        if (active[voice]) {
+            stolen++;
+        }
+        notes[voice] = note;
+        velocities[voice] = velocity;
+        active[voice] = true;
+        releasing[voice] = false;
+        startMicros[voice] = micros;
+        releaseStartMicros[voice] = 0;
+        notesOn++;
+    }
+
+    private void stopNote(int note, long micros) {
+        note = (note + transpose) & 0xFF;
+        notesOff++;
+        for (int i = 0; i < notes.length; i++) {
+            if (active[i] && notes[i] == note && !releasing[i]) {
+                releasing[i] = true;
+                releaseStartMicros[i] = micros;
+                break;
+            }
+        }
+    }
+
+    private void panicAllNotes() {
+        panics++;
+        for (int i = 0; i < notes.length; i++) {
+            active[i] = false;
+            releasing[i] = false;
+        }
+    }
+
+    private void applyParameter(int command, int value) {
+        parameters[command] = value;
+        switch (command) {
+            case SynthCommand.RELEASE:
+                releaseMillis = 10 + value * (2000 - 10) / 255; // map(value, 0, 255, 10, 2000)
+                break;
+            case SynthCommand.OCTAVE:
+                octave = value;
+                break;
+            case SynthCommand.TRANSPOSE:
+                transpose = value;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void expireReleases() {
+        long releaseMicros = releaseMillis * 1000L;
+        for (int i = 0; i < notes.length; i++) {
+            if (releasing[i] && nowMicros - releaseStartMicros[i] > releaseMicros) {
+                active[i] = false;
+                releasing[i] = false;
+            }
+        }
+    }
+
+    private void sendPong(int sequence, long micros) {
+        pings++;
+        if (replies == null) {
+            return;
+        }
+        try {
+            if (receiver.getDecoder().getVersion() > 0) {
+                replies.write(pong, 0, SynthProtocol.writePong(sequence, (int) micros, pong, 0));
+            } else {
+                String line = "PONG:" + sequence + ":" + (micros & 0xFFFFFFFFL) + "\n";
+                replies.write(line.getBytes(StandardCharsets.US_ASCII));
+            }
+            replies.flush();
+        } catch (IOException e) {
+            replies = null; // the phone went away; the next read will tell
+        }
+    }
+
+    /**
+     * Plays what arrives on {@code in} on the wall clock until it ends, answering on
+     * {@code out}. Blocks.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        Thread control = new Thread(() -> {
+            long period = 1000 / CONTROL_RATE_HZ;
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(period);
+                    advance(clockMicros());
+                }
+            } catch (InterruptedException e) {
+                // serving ended
+            }
+        }, "SynthEmulator-control");
+        control.setDaemon(true);
+        control.start();
+        byte[] buffer = new byte[256];
+        try {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                receive(buffer, 0, n, clockMicros(), out);
+            }
+        } finally {
+            control.interrupt();
+            disconnect();
+        }
+    }
+
+    /** Serves the device end of an opened in-memory link on a daemon thread. */
+    public Thread start(InMemoryTransport transport) {
+        InputStream in = transport.getDeviceInputStream();
+        OutputStream out = transport.getDeviceOutputStream();
+        Thread thread = new Thread(() -> {
+            try {
+                serve(in, out);
+            } catch (IOException e) {
+                // link closed
+            }
+        }, "SynthEmulator");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /** Accepts one phone at a time, like the sketch's SerialBT, for a {@link TcpTransport}. */
+    public void listen(ServerSocket server) throws IOException {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                socket.setTcpNoDelay(true);
+                serve(socket.getInputStream(), socket.getOutputStream());
+            } catch (IOException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static long clockMicros() {
+        return System.nanoTime() / 1000;
+    }
+
+    public synchronized int getVoiceCount() {
+        return notes.length;
+    }
+
+    /** Voices sounding, including those still in their release. */
+    public synchronized int getActiveVoiceCount() {
+        int count = 0;
+        for (boolean a : active) {
+            if (a) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized boolean isVoiceActive(int voice) {
+        return active[voice];
+    }
+
+    public synchronized boolean isVoiceReleasing(int voice) {
+        return releasing[voice];
+    }
+
+    /** The note a voice plays, with the transpose at note-on already added, as the sketch stores it. */
+    public synchronized int getVoiceNote(int voice) {
+        return notes[voice];
+    }
+
+    public synchronized int getVoiceVelocity(int voice) {
+        return velocities[voice];
+    }
+
+    /** True if some voice holds {@code note} (as stored) and has not been released. */
+    public synchronized boolean isHeld(int note) {
+        for (int i = 0; i < notes.length; i++) {
+            if (active[i] && !releasing[i] && notes[i] == note) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The last value received for a parameter, or -1 if none has been. */
+    public synchronized int getParameter(int command) {
+        return parameters[command];
+    }
+
+    public synchronized int getOctave() {
+        return octave;
+    }
+
+    public synchronized int getTranspose() {
+        return transpose;
+    }
+
+    public synchronized int getReleaseMillis() {
+        return releaseMillis;
+    }
+
+    public synchronized int getProtocolVersion() {
+        return receiver.getDecoder().getVersion();
+    }
+
+    public synchronized int getScheduledCount() {
+        return receiver.getBuffered();
+    }
+
+    public synchronized long getNotesOnCount() {
+        return notesOn;
+    }
+
+    public synchronized long getNotesOffCount() {
+        return notesOff;
+    }
+
+    /** Note-ons that took a voice from a note still sounding. */
+    public synchronized long getStolenCount() {
+        return stolen;
+    }
+
+    public synchronized long getPanicCount() {
+        return panics;
+    }
+
+    public synchronized long getPingCount() {
+        return pings;
+    }
+
+    /** Runs an emulated synth for {@link TcpTransport}: {@code SynthEmulator [port] [voices]}. */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int voices = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_VOICES;
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.println("Emulated synth with " + voices + " voices on port " + port);
+            new SynthEmulator(voices).listen(server);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.example.synthcontroller;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several synth boards played as one instrument. Each board has its own
+ * {@link BluetoothManager} (and so its own queue, writer and reconnects); notes are spread
+ * across them by a {@link VoiceAllocator} so total polyphony grows with the number of boards,
+ * while PANIC and parameter changes go to every board.
+ *
+ * With a single board this behaves exactly like talking to its BluetoothManager directly.
+ */
+public class SynthEnsemble {
+    private static final String TAG = "SynthEnsemble";
+
+    /** Voices in WorkingVibrato.ino; WorkingESP32code.ino has 4. */
+    public static final int DEFAULT_VOICES = 8;
+
+    private static SynthEnsemble instance;
+
+    private final List<BluetoothManager> links = new ArrayList<>();
+    private final List<Integer> voices = new ArrayList<>();
+    private VoiceAllocator allocator;
+    private int mode = VoiceAllocator.MODE_ROUND_ROBIN;
+    private int[] splitPoints;
+    private volatile CommandJournal journal;
+
+    // Per-board batches being built by routeBatch, reused between batches
+    private long[][] routed = new long[0][];
+    private int[] routedCounts = new int[0];
+
+    public SynthEnsemble(BluetoothManager first, int firstVoices) {
+        addLink(first, firstVoices);
+    }
+
+    /** Starts out with just the default RFCOMM board. */
+    public static SynthEnsemble getInstance() {
+        if (instance == null) {
+            synchronized (SynthEnsemble.class) {
+                if (instance == null) {
+                    instance = new SynthEnsemble(BluetoothManager.getInstance(), DEFAULT_VOICES);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Adds a board and returns its index. Held notes are forgotten, so do this while nothing
+     * is playing.
+     */
+    public synchronized int addLink(BluetoothManager link, int boardVoices) {
+        links.add(link);
+        voices.add(boardVoices);
+        rebuildAllocator();
+        return links.size() - 1;
+    }
+
+    /** Removes a board after disconnecting it. Held notes are forgotten. */
+    public synchronized void removeLink(int index) {
+        if (links.size() == 1) {
+            throw new IllegalStateException("An ensemble needs at least one board");
+        }
+        links.remove(index).getConnectionManager().stop();
+        voices.remove(index);
+        rebuildAllocator();
+    }
+
+    private void rebuildAllocator() {
+        int[] perBoard = new int[voices.size()];
+        for (int i = 0; i < perBoard.length; i++) {
+            perBoard[i] = voices.get(i);
+        }
+        allocator = new VoiceAllocator(perBoard);
+        allocator.setMode(mode);
+        if (splitPoints != null && splitPoints.length == perBoard.length - 1) {
+            allocator.setSplitPoints(splitPoints);
+        }
+    }
+
+    /** One of the {@code VoiceAllocator.MODE_} constants. */
+    public synchronized void setAllocationMode(int mode) {
+        this.mode = mode;
+        allocator.setMode(mode);
+    }
+
+    /**
+     * Key ranges for {@link VoiceAllocator#MODE_KEY_SPLIT}, one point fewer than boards. They
+     * are kept across boards being added and removed, and used whenever their number fits;
+     * until then the keyboard is split evenly. Null goes back to the even split, forgetting
+     * held notes.
+     */
+    public synchronized void setSplitPoints(int[] points) {
+        splitPoints = points != null ? points.clone() : null;
+        if (splitPoints == null) {
+            rebuildAllocator();
+        } else if (splitPoints.length == links.size() - 1) {
+            allocator.setSplitPoints(splitPoints);
+        }
+    }
+
+    public synchronized int getAllocationMode() {
+        return mode;
+    }
+
+    /** Connects every board in the background, see {@link ConnectionManager#start}. */
+    public synchronized void connectAll() {
+        for (BluetoothManager link : links) {
+            link.getConnectionManager().start();
+        }
+    }
+
+    public synchronized void disconnectAll() {
+        for (BluetoothManager link : links) {
+            link.getConnectionManager().stop();
+        }
+    }
+
+    /**
+     * Sends a command to the board(s) it belongs to. Note-ons go to the board the allocator
+     * picks and note-offs follow them; PANIC goes to every connected board and everything else
+     * to every board. Returns false if no board took the command.
+     */
+    public synchronized boolean sendCommand(int command, int value) {
+        CommandJournal recording = journal;
+        if (recording != null) {
+            recording.record(command, value);
+        }
+        switch (command) {
+            case SynthCommand.NOTE_ON: {
+                for (int i = 0; i < links.size(); i++) {
+                    allocator.setAvailable(i, links.get(i).isConnected());
+                }
+                int board = allocator.noteOn(value);
+                if (board < 0) {
+                    // Nothing connected; the first board starts reconnecting
+                    return links.get(0).sendCommand(command, value);
+                }
+                if (!links.get(board).sendCommand(command, value)) {
+                    allocator.noteOff(value);
+                    return false;
+                }
+                return true;
+            }
+            case SynthCommand.NOTE_OFF: {
+                int board = allocator.noteOff(value);
+                if (board >= 0) {
+                    return links.get(board).sendCommand(command, value);
+                }
+                // Not held anywhere we know of, e.g. stolen; make sure it is off everywhere
+                return sendToAll(command, value);
+            }
+            case SynthCommand.PANIC: {
+                allocator.clear();
+                // A board that is not connected is skipped rather than made to reconnect just
+                // to be silenced
+                boolean sent = false;
+                for (BluetoothManager link : links) {
+                    sent |= link.isConnected() && link.sendCommand(command, value);
+                }
+                return sent;
+            }
+            default:
+                return sendToAll(command, value);
+        }
+    }
+
+    /**
+     * Sends packed commands that belong to the same moment, e.g. a chord, as one batch per
+     * board, routed like {@link #sendCommand}. Returns false if no board took them. Not
+     * journaled; the caller records the batch, see {@link PlaybackScheduler}.
+     */
+    public synchronized boolean sendCommands(long[] commands, int offset, int count) {
+        routeBatch(commands, offset, count);
+        boolean sent = false;
+        for (int i = 0; i < links.size(); i++) {
+            if (routedCounts[i] > 0) {
+                sent |= sendRouted(i, links.get(i).sendCommands(routed[i], 0, routedCounts[i]));
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Like {@link #sendCommands}, but each board holds its batch until the given local time,
+     * see {@link BluetoothManager#sendScheduled}. Returns false, sending nothing, unless every
+     * connected board {@link #canSchedule can schedule}.
+     */
+    public synchronized boolean sendScheduled(long[] commands, int offset, int count, long playAtNanos) {
+        if (!canSchedule()) {
+            return false;
+        }
+        routeBatch(commands, offset, count);
+        boolean sent = false;
+        for (int i = 0; i < links.size(); i++) {
+            if (routedCounts[i] > 0) {
+                sent |= sendRouted(i, links.get(i).sendScheduled(
+                        routed[i], 0, routedCounts[i], playAtNanos));
+            }
+        }
+        return sent;
+    }
+
+    /** Whether at least one board is connected and all connected boards can schedule. */
+    public synchronized boolean canSchedule() {
+        boolean any = false;
+        for (BluetoothManager link : links) {
+            if (link.isConnected()) {
+                if (!link.canSchedule()) {
+                    return false;
+                }
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    // Splits a batch into routed[board]: note-ons to the board the allocator picks, note-offs
+    // to the board holding the note, everything else to every board
+    private void routeBatch(long[] commands, int offset, int count) {
+        int boards = links.size();
+        if (routed.length != boards || routed[0].length < count) {
+            routed = new long[boards][Math.max(count, 16)];
+            routedCounts = new int[boards];
+        }
+        Arrays.fill(routedCounts, 0);
+        for (int i = 0; i < boards; i++) {
+            allocator.setAvailable(i, links.get(i).isConnected());
+        }
+        for (int i = offset; i < offset + count; i++) {
+            long packed = commands[i];
+            int command = SynthCommand.command(packed);
+            int board = -1;
+            if (command == SynthCommand.NOTE_ON) {
+                // Nothing connected: the first board takes it and starts reconnecting
+                board = Math.max(0, allocator.noteOn(SynthCommand.value(packed)));
+            } else if (command == SynthCommand.NOTE_OFF) {
+                board = allocator.noteOff(SynthCommand.value(packed));
+            } else if (command == SynthCommand.PANIC) {
+                allocator.clear();
+            }
+            if (board >= 0) {
+                routed[board][routedCounts[board]++] = packed;
+            } else {
+                for (int b = 0; b < boards; b++) {
+                    routed[b][routedCounts[b]++] = packed;
+                }
+            }
+        }
+    }
+
+    // A board that did not take its batch does not hold the notes it was given
+    private boolean sendRouted(int board, boolean sent) {
+        if (!sent) {
+            for (int i = 0; i < routedCounts[board]; i++) {
+                long packed = routed[board][i];
+                if (SynthCommand.command(packed) == SynthCommand.NOTE_ON) {
+                    allocator.noteOff(SynthCommand.value(packed));
+                }
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Sends a preset to every board, see {@link BluetoothManager#sendPreset}. A journal gets
+     * its parameters as separate commands.
+     */
+    public synchronized boolean sendPreset(SynthPreset preset) {
+        CommandJournal recording = journal;
+        if (recording != null) {
+            recording.record(SynthCommand.ATTACK, preset.getAttack());
+            recording.record(SynthCommand.DECAY, preset.getDecay());
+            recording.record(SynthCommand.SUSTAIN, preset.getSustain());
+            recording.record(SynthCommand.RELEASE, preset.getRelease());
+            recording.record(SynthCommand.FILTER, preset.getFilter());
+            recording.record(SynthCommand.DETUNE, preset.getDetune());
+            recording.record(SynthCommand.VIB_RATE, preset.getVibRate());
+            recording.record(SynthCommand.VIB_DEPTH, preset.getVibDepth());
+            recording.record(SynthCommand.MAIN_WAVE, preset.getMainWaveform());
+            recording.record(SynthCommand.SUB_WAVE, preset.getSubWaveform());
+        }
+        boolean sent = false;
+        for (BluetoothManager link : links) {
+            sent |= link.sendPreset(preset);
+        }
+        return sent;
+    }
+
+    /**
+     * Releases every note on every board: a note-off for each of the 128 notes, as one batch
+     * per board, then PANIC. Reaches notes the allocator no longer knows are held, e.g. after
+     * a reconnect. A journal gets the note-offs as one batch.
+     */
+    public synchronized boolean allNotesOff() {
+        long[] notesOff = new long[128];
+        for (int note = 0; note < notesOff.length; note++) {
+            notesOff[note] = SynthCommand.pack(SynthCommand.NOTE_OFF, note);
+        }
+        CommandJournal recording = journal;
+        if (recording != null) {
+            recording.record(notesOff, 0, notesOff.length, System.nanoTime());
+        }
+        boolean sent = false;
+        for (BluetoothManager link : links) {
+            sent |= link.sendCommands(notesOff, 0, notesOff.length);
+        }
+        return sendCommand(SynthCommand.PANIC, 1) | sent;
+    }
+
+    private boolean sendToAll(int command, int value) {
+        boolean sent = false;
+        for (int i = 0; i < links.size(); i++) {
+            sent |= links.get(i).sendCommand(command, value);
+        }
+        if (!sent) {
+            Log.d(TAG, "No board took " + SynthCommand.prefix(command) + value);
+        }
+        return sent;
+    }
+
+    /**
+     * Records every command given to {@link #sendCommand} from now on, before it is routed,
+     * so replaying the journal into an ensemble reproduces the allocation too. Null stops.
+     */
+    public synchronized void setJournal(CommandJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Stops recording into {@code journal}, unless another screen has set its own journal
+     * since; for a recording that may end after its screen went to the background.
+     */
+    public synchronized void clearJournal(CommandJournal journal) {
+        if (this.journal == journal) {
+            this.journal = null;
+        }
+    }
+
+    /** Index of the board whose transport has this name, or -1. */
+    public synchronized int indexOf(String name) {
+        for (int i = 0; i < links.size(); i++) {
+            if (links.get(i).getTransport().getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized int getLinkCount() {
+        return links.size();
+    }
+
+    public synchronized BluetoothManager getLink(int index) {
+        return links.get(index);
+    }
+
+    /** Notes the boards had to steal a voice for, as far as the allocator can tell. */
+    public synchronized long getStolenCount() {
+        return allocator.getStolenCount();
+    }
+
+    public synchronized int activeVoices(int board) {
+        return allocator.activeVoices(board);
+    }
+}
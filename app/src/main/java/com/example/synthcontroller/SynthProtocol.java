@@ -0,0 +1,133 @@
+package com.example.synthcontroller;
+
+/**
+ * Binary link protocol, version 2.
+ *
+ * Every frame starts with an opcode byte that has the high bit set, so the firmware can tell
+ * it apart from the 7-bit ASCII text commands. The opcode alone determines the frame length:
+ *
+ *   0x80|f note [velocity] [channel]   note off  (f bit0: velocity follows, bit1: channel follows)
+ *   0x90|f note [velocity] [channel]   note on
+ *   0xB0                               panic
+ *   0xC0|p value                       parameter p (see {@link #parameterIndex}), one byte;
+ *                                      OCTAVE and TRANSPOSE are signed
+ *   0xD0 micros[4]                     the next frame is to be played when the synth's
+ *                                      micros() reaches this value, big-endian; a panic
+ *                                      discards everything still waiting
+ *   0xE0 values[10]                    patch: ATTACK through SUB_WAVE (parameters 0-9) in
+ *                                      parameter order, applied together in one control tick
+ *   0xF0 version                       hello, sent once after connecting
+ *   0xF1 seq[4]                        ping; the synth answers with a pong
+ *   0xF2 seq[4] micros[4]              pong (synth to phone): the ping's sequence number and
+ *                                      the synth's micros() when it answered, big-endian
+ *
+ * Version 2 adds running status, as in MIDI files: after a note frame, a frame with the very
+ * same opcode may leave the opcode out and start with its note byte. Any other frame ends
+ * the run, and a new connection starts without one. A hello announcing version 1 keeps the
+ * synth from expecting it, since a v1 synth reads bytes below 0x80 as text.
+ */
+public final class SynthProtocol {
+    public static final int VERSION = 2;
+    /** First version with running status; earlier ones get every opcode. */
+    public static final int VERSION_RUNNING_STATUS = 2;
+
+    public static final int OP_NOTE_OFF = 0x80;
+    public static final int OP_NOTE_ON = 0x90;
+    public static final int OP_PANIC = 0xB0;
+    public static final int OP_PARAM = 0xC0;
+    public static final int OP_AT = 0xD0;
+    public static final int OP_PATCH = 0xE0;
+    public static final int OP_HELLO = 0xF0;
+    public static final int OP_PING = 0xF1;
+    public static final int OP_PONG = 0xF2;
+
+    public static final int AT_LENGTH = 5;
+    public static final int PATCH_PARAMETERS = 10;
+    public static final int PATCH_LENGTH = 1 + PATCH_PARAMETERS;
+    public static final int PING_LENGTH = 5;
+    public static final int PONG_LENGTH = 9;
+
+    public static final int FLAG_VELOCITY = 0x01;
+    public static final int FLAG_CHANNEL = 0x02;
+
+    private SynthProtocol() {
+    }
+
+    public static boolean isOpcode(int b) {
+        return (b & 0x80) != 0;
+    }
+
+    /** Whether a frame with this opcode may be followed by frames without one. */
+    public static boolean startsRun(int opcode) {
+        int type = opcode & 0xF0;
+        return type == OP_NOTE_OFF || type == OP_NOTE_ON;
+    }
+
+    /** Total frame length including the opcode, or 0 if the opcode is not defined. */
+    public static int frameLength(int opcode) {
+        switch (opcode & 0xF0) {
+            case OP_NOTE_OFF:
+            case OP_NOTE_ON:
+                if ((opcode & 0x0C) != 0) {
+                    return 0;
+                }
+                return 2 + (opcode & FLAG_VELOCITY) + ((opcode & FLAG_CHANNEL) >> 1);
+            case OP_PANIC:
+                return opcode == OP_PANIC ? 1 : 0;
+            case OP_PARAM:
+                return commandForParameter(opcode & 0x0F) != SynthCommand.UNKNOWN ? 2 : 0;
+            case OP_AT:
+                return opcode == OP_AT ? AT_LENGTH : 0;
+            case OP_PATCH:
+                return opcode == OP_PATCH ? PATCH_LENGTH : 0;
+            case 0xF0:
+                switch (opcode) {
+                    case OP_HELLO: return 2;
+                    case OP_PING: return PING_LENGTH;
+                    case OP_PONG: return PONG_LENGTH;
+                    default: return 0;
+                }
+            default:
+                return 0;
+        }
+    }
+
+    /** Parameter commands are numbered from ATTACK so they fit in the opcode's low nibble. */
+    public static int parameterIndex(int command) {
+        return command - SynthCommand.ATTACK;
+    }
+
+    public static int commandForParameter(int index) {
+        int command = index + SynthCommand.ATTACK;
+        return SynthCommand.isParameter(command) ? command : SynthCommand.UNKNOWN;
+    }
+
+    /** Bits (1 << command) of the parameters a patch frame carries. */
+    public static int patchMask() {
+        return ((1 << PATCH_PARAMETERS) - 1) << SynthCommand.ATTACK;
+    }
+
+    /** Writes a pong frame, as the firmware does; used by stand-ins for the synth. */
+    public static int writePong(int sequence, int deviceMicros, byte[] buffer, int offset) {
+        buffer[offset] = (byte) OP_PONG;
+        writeInt(sequence, buffer, offset + 1);
+        writeInt(deviceMicros, buffer, offset + 5);
+        return PONG_LENGTH;
+    }
+
+    static void writeInt(int value, byte[] buffer, int offset) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16
+                | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF);
+    }
+
+    public static boolean isSigned(int command) {
+        return command == SynthCommand.OCTAVE || command == SynthCommand.TRANSPOSE;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.synthcontroller;
+
+/**
+ * Reference decoder for the bytes the phone sends, mirroring updateControl() in the firmware:
+ * 7-bit ASCII lines are parsed as text commands and bytes with the high bit set start a
+ * {@link SynthProtocol} frame. Feed it one byte at a time; it returns a packed command
+ * whenever one completes. The same decoder reads the pongs coming back from the synth.
+ *
+ * After a version 2 hello, bytes below 0x80 that follow a note frame continue it with
+ * running status instead of starting a text line.
+ */
+public class SynthProtocolDecoder {
+    public static final long NONE = -1;
+
+    private static final int MAX_TEXT_LENGTH = 32;
+
+    private final byte[] frame = new byte[Math.max(SynthProtocol.PONG_LENGTH, SynthProtocol.PATCH_LENGTH)];
+    private int frameLength;
+    private int frameExpected;
+    private int runningOpcode;
+
+    private final char[] text = new char[MAX_TEXT_LENGTH];
+    private int textLength;
+
+    private int version;
+    private int pongMicros;
+    private final int[] patch = new int[SynthCommand.COUNT];
+
+    public long feed(int b) {
+        b &= 0xFF;
+
+        if (frameExpected > 0) {
+            frame[frameLength++] = (byte) b;
+            return frameLength == frameExpected ? completeFrame() : NONE;
+        }
+
+        if (SynthProtocol.isOpcode(b)) {
+            runningOpcode = 0;
+            int length = SynthProtocol.frameLength(b);
+            if (length == 0) {
+                return NONE; // unknown opcode, skip it
+            }
+            textLength = 0;
+            frame[0] = (byte) b;
+            frameLength = 1;
+            frameExpected = length;
+            return frameLength == frameExpected ? completeFrame() : NONE;
+        }
+
+        if (runningOpcode != 0) {
+            frame[0] = (byte) runningOpcode;
+            frame[1] = (byte) b;
+            frameLength = 2;
+            frameExpected = SynthProtocol.frameLength(runningOpcode);
+            return frameLength == frameExpected ? completeFrame() : NONE;
+        }
+
+        if (b == '\n') {
+            long command = textLength > 0 ? parseLine(new String(text, 0, textLength).trim()) : NONE;
+            textLength = 0;
+            return command;
+        }
+        if (textLength < MAX_TEXT_LENGTH) {
+            text[textLength++] = (char) b;
+        }
+        return NONE;
+    }
+
+    /** The synth's micros() carried by the last pong returned from {@link #feed}. */
+    public int getPongMicros() {
+        return pongMicros;
+    }
+
+    /** A parameter's value in the last patch returned from {@link #feed}. */
+    public int getPatchValue(int command) {
+        return patch[command];
+    }
+
+    /** Protocol version announced by the last hello frame, or 0 if none has been seen. */
+    public int getVersion() {
+        return version;
+    }
+
+    public void reset() {
+        frameLength = 0;
+        frameExpected = 0;
+        runningOpcode = 0;
+        textLength = 0;
+        version = 0;
+    }
+
+    // A text pong is "PONG:<seq>:<micros>"; everything else is "PREFIX:value"
+    private long parseLine(String line) {
+        if (line.startsWith("PONG:")) {
+            int colon = line.indexOf(':', 5);
+            if (colon < 0) {
+                return NONE;
+            }
+            try {
+                int sequence = Integer.parseInt(line.substring(5, colon));
+                pongMicros = (int) Long.parseLong(line.substring(colon + 1));
+                return SynthCommand.pack(SynthCommand.PONG, sequence);
+            } catch (NumberFormatException e) {
+                return NONE;
+            }
+        }
+        return SynthCommand.parse(line);
+    }
+
+    private long completeFrame() {
+        frameExpected = 0;
+        int opcode = frame[0] & 0xFF;
+        runningOpcode = version >= SynthProtocol.VERSION_RUNNING_STATUS && SynthProtocol.startsRun(opcode)
+                ? opcode : 0;
+
+        switch (opcode & 0xF0) {
+            case SynthProtocol.OP_NOTE_OFF:
+            case SynthProtocol.OP_NOTE_ON: {
+                int pos = 2;
+                int velocity = -1;
+                int channel = -1;
+                if ((opcode & SynthProtocol.FLAG_VELOCITY) != 0) {
+                    velocity = frame[pos++] & 0x7F;
+                }
+                if ((opcode & SynthProtocol.FLAG_CHANNEL) != 0) {
+                    channel = frame[pos] & 0x0F;
+                }
+                int command = (opcode & 0xF0) == SynthProtocol.OP_NOTE_ON
+                        ? SynthCommand.NOTE_ON : SynthCommand.NOTE_OFF;
+                return SynthCommand.pack(command, SynthCommand.noteValue(frame[1], velocity, channel));
+            }
+            case SynthProtocol.OP_PANIC:
+                return SynthCommand.pack(SynthCommand.PANIC, 0);
+            case SynthProtocol.OP_PARAM: {
+                int command = SynthProtocol.commandForParameter(opcode & 0x0F);
+                int value = SynthProtocol.isSigned(command) ? frame[1] : frame[1] & 0xFF;
+                return SynthCommand.pack(command, value);
+            }
+            case SynthProtocol.OP_AT:
+                return SynthCommand.pack(SynthCommand.AT, SynthProtocol.readInt(frame, 1));
+            case SynthProtocol.OP_PATCH:
+                for (int i = 0; i < SynthProtocol.PATCH_PARAMETERS; i++) {
+                    patch[SynthProtocol.commandForParameter(i)] = frame[1 + i] & 0xFF;
+                }
+                return SynthCommand.pack(SynthCommand.PATCH, 0);
+            case 0xF0:
+                if (opcode == SynthProtocol.OP_PING) {
+                    return SynthCommand.pack(SynthCommand.PING, SynthProtocol.readInt(frame, 1));
+                }
+                if (opcode == SynthProtocol.OP_PONG) {
+                    pongMicros = SynthProtocol.readInt(frame, 5);
+                    return SynthCommand.pack(SynthCommand.PONG, SynthProtocol.readInt(frame, 1));
+                }
+                version = frame[1] & 0xFF;
+                return NONE;
+            default:
+                return NONE;
+        }
+    }
+}
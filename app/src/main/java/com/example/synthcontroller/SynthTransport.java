@@ -0,0 +1,35 @@
+package com.example.synthcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A byte link to one synth. {@link BluetoothManager} runs its send pipeline over whichever
+ * transport it is given, so the same code drives the ESP32 over RFCOMM, a stand-in over TCP
+ * or an in-memory pipe in tests and benchmarks.
+ */
+public interface SynthTransport {
+    /** Blocks until the link is up. */
+    void open() throws IOException;
+
+    void close();
+
+    boolean isOpen();
+
+    /** Only valid while open. Written by the pipeline's writer thread only. */
+    OutputStream getOutputStream();
+
+    /** Bytes coming back from the synth; only valid while open. */
+    InputStream getInputStream();
+
+    String getName();
+
+    /**
+     * True if the link carries standard MIDI rather than the synth's own protocol; the
+     * pipeline then encodes with {@link MidiCommandEncoder} and sends no pings.
+     */
+    default boolean carriesMidi() {
+        return false;
+    }
+}
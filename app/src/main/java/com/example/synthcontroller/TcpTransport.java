@@ -0,0 +1,74 @@
+package com.example.synthcontroller;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/** Plain TCP link, for driving a stand-in synth on a development machine or emulator. */
+public class TcpTransport implements SynthTransport {
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+
+    private final String host;
+    private final int port;
+    private Socket socket;
+    private OutputStream outputStream;
+    private InputStream inputStream;
+
+    public TcpTransport(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        Socket s = new Socket();
+        try {
+            s.setTcpNoDelay(true);
+            s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            outputStream = new BufferedOutputStream(s.getOutputStream());
+            inputStream = s.getInputStream();
+            socket = s;
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+            socket = null;
+        }
+        outputStream = null;
+        inputStream = null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        Socket s = socket;
+        return s != null && s.isConnected() && !s.isClosed();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public String getName() {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.synthcontroller;
+
+/** The original "PREFIX:value\n" ASCII format understood by every firmware sketch. */
+public class TextCommandEncoder implements CommandEncoder {
+
+    @Override
+    public int encodeHandshake(byte[] buffer, int offset) {
+        return 0;
+    }
+
+    @Override
+    public int encode(long packed, byte[] buffer, int offset) {
+        int command = SynthCommand.command(packed);
+        int value = SynthCommand.value(packed);
+        if (SynthCommand.isNote(command)) {
+            value = SynthCommand.note(value); // text has no room for velocity or channel
+        } else if (command == SynthCommand.PONG) {
+            return 0; // only ever sent by the synth
+        } else if (command == SynthCommand.AT) {
+            return 0; // text firmware cannot schedule; BluetoothManager never sends AT in text
+        } else if (command == SynthCommand.PATCH) {
+            return 0; // see encodePatch
+        }
+
+        byte[] prefix = SynthCommand.prefixBytes(command);
+        int pos = offset;
+        for (byte b : prefix) {
+            buffer[pos++] = b;
+        }
+        if (value < 0) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int digitsStart = pos;
+        do {
+            buffer[pos++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = digitsStart, j = pos - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+        buffer[pos++] = '\n';
+        return pos - offset;
+    }
+
+    @Override
+    public int encodePatch(int[] values, byte[] buffer, int offset) {
+        return 0; // sent as separate parameter commands instead
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.synthcontroller;
+
+import java.util.Arrays;
+
+/**
+ * Decides which of several synth boards plays each note. Every board has a fixed number of
+ * voices and steals its oldest one when a note arrives while all are busy; the allocator keeps
+ * the same picture of who holds what, so it can spread notes to avoid that and can count the
+ * steals it could not avoid.
+ *
+ * Notes are identified by their note value (number and channel, see {@link SynthCommand}).
+ * Not thread-safe; {@link SynthEnsemble} serializes access.
+ */
+public class VoiceAllocator {
+    /** Each note goes to the next board in turn, skipping boards that are full if possible. */
+    public static final int MODE_ROUND_ROBIN = 0;
+    /** Each note goes to the board with the largest share of free voices. */
+    public static final int MODE_LEAST_LOADED = 1;
+    /** Each board owns a range of keys, see {@link #setSplitPoints}. */
+    public static final int MODE_KEY_SPLIT = 2;
+
+    private static final int NOTE_KEYS = 128 * 17;
+    private static final int NONE = -1;
+
+    private final int[] voices;
+    // Keys each board is holding, oldest first
+    private final int[][] held;
+    private final int[] heldCount;
+    private final int[] deviceOfKey = new int[NOTE_KEYS];
+    private final boolean[] available;
+    private int[] splitPoints;
+
+    private int mode = MODE_ROUND_ROBIN;
+    private int nextDevice;
+    private long stolen;
+
+    /** @param voicesPerDevice polyphony of each board, e.g. 8 for WorkingVibrato */
+    public VoiceAllocator(int[] voicesPerDevice) {
+        int devices = voicesPerDevice.length;
+        voices = voicesPerDevice.clone();
+        held = new int[devices][];
+        for (int i = 0; i < devices; i++) {
+            if (voices[i] < 1) {
+                throw new IllegalArgumentException("Board " + i + " has no voices");
+            }
+            held[i] = new int[voices[i]];
+        }
+        heldCount = new int[devices];
+        available = new boolean[devices];
+        Arrays.fill(available, true);
+        Arrays.fill(deviceOfKey, NONE);
+        splitPoints = evenSplit(devices);
+    }
+
+    public void setMode(int mode) {
+        this.mode = mode;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * Key ranges for {@link #MODE_KEY_SPLIT}: board i plays notes from {@code points[i - 1]}
+     * up to below {@code points[i]}, so there is one point fewer than there are boards.
+     */
+    public void setSplitPoints(int[] points) {
+        if (points.length != voices.length - 1) {
+            throw new IllegalArgumentException("Need " + (voices.length - 1) + " split points");
+        }
+        splitPoints = points.clone();
+    }
+
+    /** Boards that are not connected get no new notes. */
+    public void setAvailable(int device, boolean isAvailable) {
+        available[device] = isAvailable;
+    }
+
+    /** Returns the board that should play the note, or -1 if none is available. */
+    public int noteOn(int noteValue) {
+        int key = key(noteValue);
+        int device = deviceOfKey[key];
+        if (device != NONE) {
+            // Struck again while held: keep it on the same board
+            remove(device, key);
+        } else {
+            device = pick(SynthCommand.note(noteValue));
+            if (device == NONE) {
+                return NONE;
+            }
+        }
+        if (heldCount[device] == voices[device]) {
+            // The board will steal its oldest voice
+            deviceOfKey[held[device][0]] = NONE;
+            removeAt(device, 0);
+            stolen++;
+        }
+        held[device][heldCount[device]++] = key;
+        deviceOfKey[key] = device;
+        return device;
+    }
+
+    /** Returns the board holding the note, or -1 if it is not held (e.g. it was stolen). */
+    public int noteOff(int noteValue) {
+        int key = key(noteValue);
+        int device = deviceOfKey[key];
+        if (device != NONE) {
+            remove(device, key);
+            deviceOfKey[key] = NONE;
+        }
+        return device;
+    }
+
+    /** Forgets every held note, e.g. after a PANIC. */
+    public void clear() {
+        Arrays.fill(heldCount, 0);
+        Arrays.fill(deviceOfKey, NONE);
+    }
+
+    public int getDeviceCount() {
+        return voices.length;
+    }
+
+    public int activeVoices(int device) {
+        return heldCount[device];
+    }
+
+    /** Notes that cut off an older one because their board was full. */
+    public long getStolenCount() {
+        return stolen;
+    }
+
+    private int pick(int note) {
+        switch (mode) {
+            case MODE_KEY_SPLIT: {
+                int device = 0;
+                while (device < splitPoints.length && note >= splitPoints[device]) {
+                    device++;
+                }
+                return available[device] ? device : leastLoaded();
+            }
+            case MODE_LEAST_LOADED:
+                return leastLoaded();
+            default:
+                return roundRobin();
+        }
+    }
+
+    private int roundRobin() {
+        int devices = voices.length;
+        int fallback = NONE;
+        for (int i = 0; i < devices; i++) {
+            int device = (nextDevice + i) % devices;
+            if (!available[device]) {
+                continue;
+            }
+            if (heldCount[device] < voices[device]) {
+                nextDevice = device + 1;
+                return device;
+            }
+            if (fallback == NONE) {
+                fallback = device;
+            }
+        }
+        if (fallback != NONE) {
+            nextDevice = fallback + 1;
+        }
+        return fallback;
+    }
+
+    private int leastLoaded() {
+        int best = NONE;
+        for (int device = 0; device < voices.length; device++) {
+            if (!available[device]) {
+                continue;
+            }
+            // Compare free shares without division: free[d] / voices[d] > free[best] / voices[best]
+            if (best == NONE || (long) (voices[device] - heldCount[device]) * voices[best]
+                    > (long) (voices[best] - heldCount[best]) * voices[device]) {
+                best = device;
+            }
+        }
+        return best;
+    }
+
+    private void remove(int device, int key) {
+        int[] keys = held[device];
+        for (int i = 0; i < heldCount[device]; i++) {
+            if (keys[i] == key) {
+                removeAt(device, i);
+                return;
+            }
+        }
+    }
+
+    private void removeAt(int device, int index) {
+        int[] keys = held[device];
+        System.arraycopy(keys, index + 1, keys, index, heldCount[device] - index - 1);
+        heldCount[device]--;
+    }
+
+    private static int key(int noteValue) {
+        return SynthCommand.note(noteValue) | (SynthCommand.channel(noteValue) + 1) << 7;
+    }
+
+    private static int[] evenSplit(int devices) {
+        int[] points = new int[Math.max(0, devices - 1)];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = 128 * (i + 1) / devices;
+        }
+        return points;
+    }
+}
@@ -37,7 +37,7 @@ public class WaveformFragment extends Fragment {
         mainWaveSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                ((PerformActivity)getActivity()).sendCommand("MAIN_WAVE:", position);
+                ((PerformActivity)getActivity()).sendCommand(SynthCommand.MAIN_WAVE, position);
             }
 
             @Override
@@ -47,7 +47,7 @@ public class WaveformFragment extends Fragment {
         subWaveSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                ((PerformActivity)getActivity()).sendCommand("SUB_WAVE:", position);
+                ((PerformActivity)getActivity()).sendCommand(SynthCommand.SUB_WAVE, position);
             }
 
             @Override
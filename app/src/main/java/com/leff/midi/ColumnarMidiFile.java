@@ -0,0 +1,251 @@
+//////////////////////////////////////////////////////////////////////////////
+//	Copyright 2011 Alex Leffelman
+//
+//	Licensed under the Apache License, Version 2.0 (the "License");
+//	you may not use this file except in compliance with the License.
+//	You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+//	Unless required by applicable law or agreed to in writing, software
+//	distributed under the License is distributed on an "AS IS" BASIS,
+//	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//	See the License for the specific language governing permissions and
+//	limitations under the License.
+//////////////////////////////////////////////////////////////////////////////
+
+package com.leff.midi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import com.leff.midi.util.MidiUtil;
+
+/**
+ * Reads a Standard MIDI File into ColumnarTracks: one pass over the stream,
+ * no object per event and no sorting, since a track is already in tick
+ * order. Use toMidiFile() where the MidiEvent view is needed.
+ */
+public class ColumnarMidiFile
+{
+    private int mType;
+    private int mResolution;
+    private List<ColumnarTrack> mTracks;
+
+    public ColumnarMidiFile(File fileIn) throws IOException
+    {
+        this(MidiUtil.map(fileIn));
+    }
+
+    public ColumnarMidiFile(InputStream in) throws IOException
+    {
+        read(in);
+    }
+
+    /** Maps the whole file once; see ColumnarMidiFile(ByteBuffer). */
+    public ColumnarMidiFile(FileChannel channel) throws IOException
+    {
+        this(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+
+    /**
+     * Reads the file from the buffer's position to its limit, parsing the
+     * tracks in parallel on the common fork-join pool.
+     */
+    public ColumnarMidiFile(ByteBuffer data) throws IOException
+    {
+        this(data, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads the file from the buffer's position to its limit. Each track is
+     * handed a read-only slice of the buffer and keeps it for its payloads,
+     * so nothing is copied. Tracks are parsed on the given pool, or one
+     * after another on this thread if it is null. The buffer's own position
+     * is left alone.
+     */
+    public ColumnarMidiFile(ByteBuffer data, ForkJoinPool pool) throws IOException
+    {
+        mType = 0;
+        mResolution = MidiFile.DEFAULT_RESOLUTION;
+        mTracks = new ArrayList<ColumnarTrack>();
+
+        ByteBuffer in = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        byte[] id = new byte[4];
+        if(in.remaining() < 8 || !MidiUtil.bytesEqual(get(in, id), MidiFile.IDENTIFIER, 0, 4))
+        {
+            System.out.println("File identifier not MThd. Exiting");
+            return;
+        }
+        int headerLength = in.getInt();
+        if(headerLength < 6 || headerLength > in.remaining())
+        {
+            throw new IOException("Bad MThd chunk length: " + headerLength);
+        }
+        int header = in.position();
+        mType = in.getShort(header) & 0xFFFF;
+        int trackCount = in.getShort(header + 2) & 0xFFFF;
+        mResolution = in.getShort(header + 4) & 0xFFFF;
+        in.position(header + headerLength);
+
+        // Find every chunk first, so that each can be parsed on its own
+        List<Callable<ColumnarTrack>> parsers = new ArrayList<Callable<ColumnarTrack>>();
+        while(parsers.size() < trackCount && in.remaining() >= 8)
+        {
+            get(in, id);
+            int length = in.getInt();
+            if(length < 0)
+            {
+                throw new IOException("Chunk too long: " + (length & 0xFFFFFFFFL));
+            }
+            final ByteBuffer chunk = in.slice();
+            chunk.limit(Math.min(length, chunk.remaining()));
+            in.position(in.position() + chunk.limit());
+
+            // Chunks of other types may appear and are to be skipped
+            if(MidiUtil.bytesEqual(id, MidiTrack.IDENTIFIER, 0, 4))
+            {
+                parsers.add(new Callable<ColumnarTrack>()
+                {
+                    @Override
+                    public ColumnarTrack call()
+                    {
+                        return new ColumnarTrack(chunk);
+                    }
+                });
+            }
+            if(chunk.limit() < length)
+            {
+                System.err.println("File ends inside a chunk; keeping what was read.");
+                break;
+            }
+        }
+        mTracks = ParallelTracks.parse(parsers, pool);
+    }
+
+    private static byte[] get(ByteBuffer in, byte[] dst)
+    {
+        in.get(dst);
+        return dst;
+    }
+
+    private void read(InputStream in) throws IOException
+    {
+        mType = 0;
+        mResolution = MidiFile.DEFAULT_RESOLUTION;
+        mTracks = new ArrayList<ColumnarTrack>();
+
+        byte[] buffer = new byte[8];
+        if(MidiUtil.readFully(in, buffer, 0, 8) < 8 || !MidiUtil.bytesEqual(buffer, MidiFile.IDENTIFIER, 0, 4))
+        {
+            System.out.println("File identifier not MThd. Exiting");
+            return;
+        }
+        int headerLength = MidiUtil.bytesToInt(buffer, 4, 4);
+        if(headerLength < 6)
+        {
+            throw new IOException("MThd chunk too short: " + headerLength);
+        }
+        buffer = new byte[Math.max(headerLength, 256)];
+        if(MidiUtil.readFully(in, buffer, 0, headerLength) < headerLength)
+        {
+            throw new IOException("File ends inside the MThd chunk");
+        }
+        mType = MidiUtil.bytesToInt(buffer, 0, 2);
+        int trackCount = MidiUtil.bytesToInt(buffer, 2, 2);
+        mResolution = MidiUtil.bytesToInt(buffer, 4, 2);
+
+        // One buffer serves every chunk; the tracks copy what they keep
+        byte[] chunkHeader = new byte[8];
+        while(mTracks.size() < trackCount && MidiUtil.readFully(in, chunkHeader, 0, 8) == 8)
+        {
+            int length = MidiUtil.bytesToInt(chunkHeader, 4, 4);
+            if(length < 0)
+            {
+                throw new IOException("Chunk too long: " + (length & 0xFFFFFFFFL));
+            }
+            if(length > buffer.length)
+            {
+                buffer = new byte[length];
+            }
+            int read = MidiUtil.readFully(in, buffer, 0, length);
+
+            // Chunks of other types may appear and are to be skipped
+            if(MidiUtil.bytesEqual(chunkHeader, MidiTrack.IDENTIFIER, 0, 4))
+            {
+                mTracks.add(new ColumnarTrack(buffer, 0, read));
+            }
+            if(read < length)
+            {
+                System.err.println("File ends inside a chunk; keeping what was read.");
+                break;
+            }
+        }
+    }
+
+    public int getType()
+    {
+        return mType;
+    }
+
+    public int getResolution()
+    {
+        return mResolution;
+    }
+
+    public int getTrackCount()
+    {
+        return mTracks.size();
+    }
+
+    public List<ColumnarTrack> getTracks()
+    {
+        return mTracks;
+    }
+
+    public ColumnarTrack getTrack(int i)
+    {
+        return mTracks.get(i);
+    }
+
+    public int getEventCount()
+    {
+        int count = 0;
+        for(ColumnarTrack T : mTracks)
+        {
+            count += T.getEventCount();
+        }
+        return count;
+    }
+
+    public long getLengthInTicks()
+    {
+        long length = 0;
+        for(ColumnarTrack T : mTracks)
+        {
+            length = Math.max(length, T.getLengthInTicks());
+        }
+        return length;
+    }
+
+    /** The file as MidiFile would have read it. */
+    public MidiFile toMidiFile()
+    {
+        List<MidiTrack> tracks = new ArrayList<MidiTrack>();
+        for(ColumnarTrack T : mTracks)
+        {
+            tracks.add(T.toMidiTrack());
+        }
+        MidiFile file = new MidiFile(mResolution, tracks);
+        file.setType(mType);
+        return file;
+    }
+}
@@ -0,0 +1,394 @@
+//////////////////////////////////////////////////////////////////////////////
+//	Copyright 2011 Alex Leffelman
+//
+//	Licensed under the Apache License, Version 2.0 (the "License");
+//	you may not use this file except in compliance with the License.
+//	You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+//	Unless required by applicable law or agreed to in writing, software
+//	distributed under the License is distributed on an "AS IS" BASIS,
+//	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//	See the License for the specific language governing permissions and
+//	limitations under the License.
+//////////////////////////////////////////////////////////////////////////////
+
+package com.leff.midi;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.leff.midi.event.ChannelEvent;
+import com.leff.midi.event.MidiEvent;
+import com.leff.midi.event.SystemExclusiveEvent;
+import com.leff.midi.event.meta.MetaEvent;
+
+/**
+ * A track held as parallel primitive arrays instead of MidiEvent objects.
+ * Event i is at tick getTick(i) and its message is packed into one int as
+ * {@code status << 16 | data1 << 8 | data2}. Meta events have status 0xFF
+ * and their type in data1; meta and SysEx payloads are found through an
+ * offset table into the track's bytes. Events stay in file order, EndOfTrack
+ * excluded, as in MidiTrack.
+ */
+public class ColumnarTrack
+{
+    public static final int META = 0xFF;
+    public static final int SYSEX = 0xF0;
+    public static final int SYSEX_ESCAPE = 0xF7;
+
+    private int mCount;
+    private long[] mTicks;
+    private int[] mMessages;
+
+    // Payload k belongs to event mPayloadEvents[k] and is mPayloadLengths[k]
+    // bytes of mPayloads from mPayloadOffsets[k]
+    private int mPayloadCount;
+    private int[] mPayloadEvents;
+    private int[] mPayloadOffsets;
+    private int[] mPayloadLengths;
+    private ByteBuffer mPayloads;
+
+    private long mEndOfTrackDelta;
+    private int mSkipped;
+
+    /**
+     * Parses the body of an MTrk chunk, {@code length} bytes at
+     * {@code offset}. The payloads are copied out, so the array may be
+     * reused. A truncated last event is dropped.
+     */
+    public ColumnarTrack(byte[] data, int offset, int length)
+    {
+        this(ByteBuffer.wrap(data, offset, length));
+
+        int total = 0;
+        for(int k = 0; k < mPayloadCount; k++)
+        {
+            total += mPayloadLengths[k];
+        }
+        byte[] payloads = new byte[total];
+        int start = 0;
+        for(int k = 0; k < mPayloadCount; k++)
+        {
+            System.arraycopy(data, offset + mPayloadOffsets[k], payloads, start, mPayloadLengths[k]);
+            mPayloadOffsets[k] = start;
+            start += mPayloadLengths[k];
+        }
+        mPayloads = ByteBuffer.wrap(payloads).asReadOnlyBuffer();
+    }
+
+    /**
+     * Parses the body of an MTrk chunk, from the buffer's position to its
+     * limit. The track keeps a read-only slice of the buffer for the
+     * payloads instead of copying them. A truncated last event is dropped.
+     */
+    public ColumnarTrack(ByteBuffer track)
+    {
+        ByteBuffer data = track.asReadOnlyBuffer().slice();
+        int length = data.remaining();
+
+        // Two bytes is the smallest event (a delta and a running-status byte)
+        int capacity = Math.max(16, length / 3);
+        mTicks = new long[capacity];
+        mMessages = new int[capacity];
+        mPayloadEvents = new int[8];
+        mPayloadOffsets = new int[8];
+        mPayloadLengths = new int[8];
+        mPayloads = data;
+
+        parse(data, 0, length);
+    }
+
+    private void parse(ByteBuffer data, int pos, int end)
+    {
+        long tick = 0;
+        int status = -1;
+
+        while(pos < end)
+        {
+            int delta = 0;
+            int b;
+            int count = 0;
+            do
+            {
+                b = data.get(pos++) & 0xFF;
+                delta = (delta << 7) | (b & 0x7F);
+            }
+            while((b & 0x80) != 0 && ++count < 4 && pos < end);
+
+            if(pos >= end)
+            {
+                break;
+            }
+            tick += delta;
+
+            int first = data.get(pos) & 0xFF;
+            if(first >= 0x80)
+            {
+                pos++;
+                if(first < 0xF0)
+                {
+                    status = first;
+                }
+                else
+                {
+                    // Meta and SysEx events cancel running status
+                    status = -1;
+                }
+            }
+            else if(status < 0)
+            {
+                // A data byte with no running status: skip it, as MidiEvent
+                // does
+                pos++;
+                mSkipped++;
+                continue;
+            }
+            else
+            {
+                first = status;
+            }
+
+            if(first < 0xF0)
+            {
+                int type = first >> 4;
+                boolean twoBytes = type != ChannelEvent.PROGRAM_CHANGE && type != ChannelEvent.CHANNEL_AFTERTOUCH;
+                if(pos + (twoBytes ? 2 : 1) > end)
+                {
+                    break;
+                }
+                int data1 = data.get(pos++) & 0xFF;
+                int data2 = twoBytes ? data.get(pos++) & 0xFF : 0;
+                append(tick, first << 16 | data1 << 8 | data2);
+            }
+            else if(first == META || first == SYSEX || first == SYSEX_ESCAPE)
+            {
+                int metaType = 0;
+                if(first == META)
+                {
+                    if(pos >= end)
+                    {
+                        break;
+                    }
+                    metaType = data.get(pos++) & 0xFF;
+                }
+                int length = 0;
+                count = 0;
+                do
+                {
+                    if(pos >= end)
+                    {
+                        return;
+                    }
+                    b = data.get(pos++) & 0xFF;
+                    length = (length << 7) | (b & 0x7F);
+                }
+                while((b & 0x80) != 0 && ++count < 4);
+
+                if(length > end - pos)
+                {
+                    break;
+                }
+                if(first == META && metaType == MetaEvent.END_OF_TRACK)
+                {
+                    mEndOfTrackDelta = delta;
+                    break;
+                }
+                append(tick, first << 16 | metaType << 8);
+                appendPayload(pos, length);
+                pos += length;
+            }
+            else
+            {
+                // System common and real-time messages have no place in a
+                // file
+                mSkipped++;
+            }
+        }
+    }
+
+    private void append(long tick, int message)
+    {
+        if(mCount == mTicks.length)
+        {
+            int capacity = mCount * 2;
+            mTicks = Arrays.copyOf(mTicks, capacity);
+            mMessages = Arrays.copyOf(mMessages, capacity);
+        }
+        mTicks[mCount] = tick;
+        mMessages[mCount] = message;
+        mCount++;
+    }
+
+    private void appendPayload(int offset, int length)
+    {
+        if(mPayloadCount == mPayloadEvents.length)
+        {
+            int capacity = mPayloadCount * 2;
+            mPayloadEvents = Arrays.copyOf(mPayloadEvents, capacity);
+            mPayloadOffsets = Arrays.copyOf(mPayloadOffsets, capacity);
+            mPayloadLengths = Arrays.copyOf(mPayloadLengths, capacity);
+        }
+        mPayloadEvents[mPayloadCount] = mCount - 1;
+        mPayloadOffsets[mPayloadCount] = offset;
+        mPayloadLengths[mPayloadCount] = length;
+        mPayloadCount++;
+    }
+
+    public int getEventCount()
+    {
+        return mCount;
+    }
+
+    public long getTick(int i)
+    {
+        return mTicks[i];
+    }
+
+    public long getDelta(int i)
+    {
+        return i == 0 ? mTicks[0] : mTicks[i] - mTicks[i - 1];
+    }
+
+    /** The full status byte: type and channel, or META, SYSEX or SYSEX_ESCAPE. */
+    public int getStatus(int i)
+    {
+        return mMessages[i] >>> 16;
+    }
+
+    public boolean isChannelEvent(int i)
+    {
+        return getStatus(i) < 0xF0;
+    }
+
+    public boolean isMetaEvent(int i)
+    {
+        return getStatus(i) == META;
+    }
+
+    /** The ChannelEvent type of a channel event, e.g. ChannelEvent.NOTE_ON. */
+    public int getType(int i)
+    {
+        return getStatus(i) >> 4;
+    }
+
+    public int getChannel(int i)
+    {
+        return getStatus(i) & 0x0F;
+    }
+
+    /** The first data byte, or the type of a meta event. */
+    public int getData1(int i)
+    {
+        return (mMessages[i] >> 8) & 0xFF;
+    }
+
+    public int getData2(int i)
+    {
+        return mMessages[i] & 0xFF;
+    }
+
+    public int getMetaType(int i)
+    {
+        return isMetaEvent(i) ? getData1(i) : -1;
+    }
+
+    public int getMessage(int i)
+    {
+        return mMessages[i];
+    }
+
+    // Payloads are appended in event order, so the table is sorted by event
+    private int payloadIndex(int i)
+    {
+        if(isChannelEvent(i))
+        {
+            return -1;
+        }
+        int k = Arrays.binarySearch(mPayloadEvents, 0, mPayloadCount, i);
+        return k >= 0 ? k : -1;
+    }
+
+    /** The payload length of a meta or SysEx event, 0 for a channel event. */
+    public int getPayloadLength(int i)
+    {
+        int k = payloadIndex(i);
+        return k < 0 ? 0 : mPayloadLengths[k];
+    }
+
+    public byte[] getPayload(int i)
+    {
+        int k = payloadIndex(i);
+        if(k < 0)
+        {
+            return new byte[0];
+        }
+        byte[] payload = new byte[mPayloadLengths[k]];
+        ByteBuffer in = mPayloads.duplicate();
+        in.position(mPayloadOffsets[k]);
+        in.get(payload);
+        return payload;
+    }
+
+    /** The microseconds per quarter note of a Tempo event, or -1 if event i is not one. */
+    public int getTempoMpqn(int i)
+    {
+        if(getMetaType(i) != MetaEvent.TEMPO)
+        {
+            return -1;
+        }
+        int k = payloadIndex(i);
+        int offset = mPayloadOffsets[k];
+        if(mPayloadLengths[k] != 3)
+        {
+            return -1;
+        }
+        return (mPayloads.get(offset) & 0xFF) << 16 | (mPayloads.get(offset + 1) & 0xFF) << 8 | (mPayloads.get(offset + 2) & 0xFF);
+    }
+
+    public long getLengthInTicks()
+    {
+        return mCount == 0 ? 0 : mTicks[mCount - 1];
+    }
+
+    public long getEndOfTrackDelta()
+    {
+        return mEndOfTrackDelta;
+    }
+
+    /** Bytes that could not be read as events and were skipped. */
+    public int getSkippedCount()
+    {
+        return mSkipped;
+    }
+
+    /** Event i as the MidiEvent MidiTrack would have parsed. */
+    public MidiEvent getEvent(int i)
+    {
+        long tick = mTicks[i];
+        long delta = getDelta(i);
+        int status = getStatus(i);
+        if(status < 0xF0)
+        {
+            return ChannelEvent.createChannelEvent(tick, delta, status >> 4, status & 0x0F, getData1(i), getData2(i));
+        }
+        if(status == META)
+        {
+            return MetaEvent.createMetaEvent(tick, delta, getData1(i), getPayload(i));
+        }
+        return new SystemExclusiveEvent(status, tick, delta, getPayload(i));
+    }
+
+    /** The whole track as a MidiTrack, for code that works on MidiEvents. */
+    public MidiTrack toMidiTrack()
+    {
+        MidiTrack T = new MidiTrack();
+        for(int i = 0; i < mCount; i++)
+        {
+            T.appendParsedEvent(getEvent(i));
+        }
+        T.setEndOfTrackDelta(mEndOfTrackDelta);
+        return T;
+    }
+}
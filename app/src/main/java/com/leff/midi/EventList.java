@@ -0,0 +1,831 @@
+//////////////////////////////////////////////////////////////////////////////
+//	Copyright 2011 Alex Leffelman
+//
+//	Licensed under the Apache License, Version 2.0 (the "License");
+//	you may not use this file except in compliance with the License.
+//	You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+//	Unless required by applicable law or agreed to in writing, software
+//	distributed under the License is distributed on an "AS IS" BASIS,
+//	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//	See the License for the specific language governing permissions and
+//	limitations under the License.
+//////////////////////////////////////////////////////////////////////////////
+
+package com.leff.midi;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.function.Predicate;
+
+import com.leff.midi.event.MidiEvent;
+
+/**
+ * The events of a MidiTrack, kept sorted in a growable array. Behaves as the
+ * TreeSet it replaces: ordered by MidiEvent.compareTo(), with an event that
+ * compares equal to one already present not added again. Adding an event
+ * that sorts after the last one, as every event does while a track is read,
+ * is an array store; anything else is a binary search and a shift. On a
+ * large track that shift makes inserting in random order slower than a
+ * TreeSet was, so many events should go in through addAll().
+ *
+ * Like a TreeSet it is a NavigableSet, and its subsets and descending set
+ * are views backed by it.
+ */
+public class EventList extends AbstractSet<MidiEvent> implements NavigableSet<MidiEvent>
+{
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private MidiEvent[] mEvents;
+    private int mSize;
+    private int mModCount;
+
+    public EventList()
+    {
+        mEvents = new MidiEvent[DEFAULT_CAPACITY];
+        mSize = 0;
+    }
+
+    @Override
+    public int size()
+    {
+        return mSize;
+    }
+
+    public MidiEvent get(int index)
+    {
+        if(index < 0 || index >= mSize)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+        }
+        return mEvents[index];
+    }
+
+    @Override
+    public MidiEvent first()
+    {
+        if(mSize == 0)
+        {
+            throw new NoSuchElementException();
+        }
+        return mEvents[0];
+    }
+
+    @Override
+    public MidiEvent last()
+    {
+        if(mSize == 0)
+        {
+            throw new NoSuchElementException();
+        }
+        return mEvents[mSize - 1];
+    }
+
+    /** The greatest event less than E, or null. */
+    @Override
+    public MidiEvent lower(MidiEvent E)
+    {
+        int i = endIndex(E, false) - 1;
+        return i >= 0 ? mEvents[i] : null;
+    }
+
+    /** The greatest event less than or equal to E, or null. */
+    @Override
+    public MidiEvent floor(MidiEvent E)
+    {
+        int i = endIndex(E, true) - 1;
+        return i >= 0 ? mEvents[i] : null;
+    }
+
+    /** The least event greater than or equal to E, or null. */
+    @Override
+    public MidiEvent ceiling(MidiEvent E)
+    {
+        int i = startIndex(E, true);
+        return i < mSize ? mEvents[i] : null;
+    }
+
+    /** The least event greater than E, or null. */
+    @Override
+    public MidiEvent higher(MidiEvent E)
+    {
+        int i = startIndex(E, false);
+        return i < mSize ? mEvents[i] : null;
+    }
+
+    @Override
+    public MidiEvent pollFirst()
+    {
+        return mSize > 0 ? remove(0) : null;
+    }
+
+    @Override
+    public MidiEvent pollLast()
+    {
+        return mSize > 0 ? remove(mSize - 1) : null;
+    }
+
+    /** Null: events are in their natural order. */
+    @Override
+    public Comparator<? super MidiEvent> comparator()
+    {
+        return null;
+    }
+
+    @Override
+    public NavigableSet<MidiEvent> descendingSet()
+    {
+        return new SubSet(null, false, null, false, true);
+    }
+
+    @Override
+    public Iterator<MidiEvent> descendingIterator()
+    {
+        return new Itr(0, mSize, true);
+    }
+
+    @Override
+    public NavigableSet<MidiEvent> subSet(MidiEvent from, boolean fromInclusive, MidiEvent to, boolean toInclusive)
+    {
+        return new SubSet(from, fromInclusive, to, toInclusive, false);
+    }
+
+    @Override
+    public NavigableSet<MidiEvent> headSet(MidiEvent to, boolean inclusive)
+    {
+        return new SubSet(null, false, to, inclusive, false);
+    }
+
+    @Override
+    public NavigableSet<MidiEvent> tailSet(MidiEvent from, boolean inclusive)
+    {
+        return new SubSet(from, inclusive, null, false, false);
+    }
+
+    @Override
+    public SortedSet<MidiEvent> subSet(MidiEvent from, MidiEvent to)
+    {
+        return subSet(from, true, to, false);
+    }
+
+    @Override
+    public SortedSet<MidiEvent> headSet(MidiEvent to)
+    {
+        return headSet(to, false);
+    }
+
+    @Override
+    public SortedSet<MidiEvent> tailSet(MidiEvent from)
+    {
+        return tailSet(from, true);
+    }
+
+    @Override
+    public boolean add(MidiEvent E)
+    {
+        int i = search(E);
+        if(i >= 0)
+        {
+            return false;
+        }
+        insertAt(-i - 1, E);
+        return true;
+    }
+
+    /**
+     * Adds all the events at once: they are sorted among themselves and
+     * merged into the list in one pass, instead of being inserted one by
+     * one. Events comparing equal to one already present, or to another
+     * one being added, are left out as add() would.
+     */
+    @Override
+    public boolean addAll(Collection<? extends MidiEvent> events)
+    {
+        MidiEvent[] added = events.toArray(new MidiEvent[events.size()]);
+        if(added.length == 0)
+        {
+            return false;
+        }
+        sort(added);
+
+        MidiEvent[] merged = new MidiEvent[Math.max(mEvents.length, mSize + added.length)];
+        int i = 0, j = 0, n = 0;
+        while(j < added.length)
+        {
+            int c = i < mSize ? added[j].compareTo(mEvents[i]) : -1;
+            if(c > 0)
+            {
+                merged[n++] = mEvents[i++];
+            }
+            else if(c == 0 || (n > 0 && added[j].compareTo(merged[n - 1]) == 0))
+            {
+                j++;
+            }
+            else
+            {
+                merged[n++] = added[j++];
+            }
+        }
+        System.arraycopy(mEvents, i, merged, n, mSize - i);
+        n += mSize - i;
+
+        boolean changed = n != mSize;
+        mEvents = merged;
+        mSize = n;
+        mModCount++;
+        return changed;
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return o instanceof MidiEvent && indexOf((MidiEvent) o) >= 0;
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        if(!(o instanceof MidiEvent))
+        {
+            return false;
+        }
+        int i = indexOf((MidiEvent) o);
+        if(i < 0)
+        {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    public MidiEvent remove(int index)
+    {
+        MidiEvent E = get(index);
+        removeAt(index);
+        return E;
+    }
+
+    /** Removes the matching events, closing up the gaps in one pass. */
+    @Override
+    public boolean removeIf(Predicate<? super MidiEvent> filter)
+    {
+        // Decide for every event first, so that a failing filter removes nothing
+        BitSet removed = new BitSet(mSize);
+        for(int i = 0; i < mSize; i++)
+        {
+            if(filter.test(mEvents[i]))
+            {
+                removed.set(i);
+            }
+        }
+        if(removed.isEmpty())
+        {
+            return false;
+        }
+
+        int n = removed.nextSetBit(0);
+        for(int i = n; i < mSize; i++)
+        {
+            if(!removed.get(i))
+            {
+                mEvents[n++] = mEvents[i];
+            }
+        }
+        Arrays.fill(mEvents, n, mSize, null);
+        mSize = n;
+        mModCount++;
+        return true;
+    }
+
+    /** Removes the events from fromTick (inclusive) to toTick (exclusive). */
+    public int removeRange(long fromTick, long toTick)
+    {
+        int from = firstAtOrAfter(fromTick);
+        int to = Math.max(from, firstAtOrAfter(toTick));
+        if(from == to)
+        {
+            return 0;
+        }
+        System.arraycopy(mEvents, to, mEvents, from, mSize - to);
+        Arrays.fill(mEvents, mSize - (to - from), mSize, null);
+        mSize -= to - from;
+        mModCount++;
+        return to - from;
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(mEvents, 0, mSize, null);
+        mSize = 0;
+        mModCount++;
+    }
+
+    /**
+     * Where E is, or -1. An event compared equal to E is found by binary
+     * search as in a TreeSet. Since an event's delta takes part in the
+     * ordering and may have changed since it was added, E itself is also
+     * looked for among the events at its tick.
+     */
+    public int indexOf(MidiEvent E)
+    {
+        int i = search(E);
+        if(i >= 0)
+        {
+            return i;
+        }
+        long tick = E.getTick();
+        for(i = firstAtOrAfter(tick); i < mSize && mEvents[i].getTick() == tick; i++)
+        {
+            if(mEvents[i] == E)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** The index of the first event at or after the tick, or size(). */
+    public int firstAtOrAfter(long tick)
+    {
+        int lo = 0, hi = mSize;
+        while(lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if(mEvents[mid].getTick() < tick)
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public Iterator<MidiEvent> iterator()
+    {
+        return new Itr(0, mSize, false);
+    }
+
+    // Walks the events from index from (inclusive) to to (exclusive), either way
+    private class Itr implements Iterator<MidiEvent>
+    {
+        private final boolean mDescending;
+        private int mNext;
+        private int mBound;
+        private int mLast = -1;
+        private int mExpectedModCount = mModCount;
+
+        Itr(int from, int to, boolean descending)
+        {
+            mDescending = descending;
+            mNext = descending ? to - 1 : from;
+            mBound = descending ? from : to;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return mDescending ? mNext >= mBound : mNext < mBound;
+        }
+
+        @Override
+        public MidiEvent next()
+        {
+            checkForComodification();
+            if(!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            mLast = mNext;
+            mNext += mDescending ? -1 : 1;
+            return mEvents[mLast];
+        }
+
+        @Override
+        public void remove()
+        {
+            if(mLast < 0)
+            {
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            removeAt(mLast);
+            if(!mDescending)
+            {
+                // Everything after the removed event moved down by one
+                mNext = mLast;
+                mBound--;
+            }
+            mLast = -1;
+            mExpectedModCount = mModCount;
+        }
+
+        private void checkForComodification()
+        {
+            if(mModCount != mExpectedModCount)
+            {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * The events between two bounds, either of which may be open (null), in
+     * either order. Its indexes into the list are found again on every call,
+     * so it follows changes made through the list or any other view.
+     */
+    private class SubSet extends AbstractSet<MidiEvent> implements NavigableSet<MidiEvent>
+    {
+        private final MidiEvent mLo;
+        private final boolean mLoInclusive;
+        private final MidiEvent mHi;
+        private final boolean mHiInclusive;
+        private final boolean mDescending;
+
+        SubSet(MidiEvent lo, boolean loInclusive, MidiEvent hi, boolean hiInclusive, boolean descending)
+        {
+            mLo = lo;
+            mLoInclusive = loInclusive;
+            mHi = hi;
+            mHiInclusive = hiInclusive;
+            mDescending = descending;
+        }
+
+        private int from()
+        {
+            return mLo == null ? 0 : startIndex(mLo, mLoInclusive);
+        }
+
+        private int to()
+        {
+            return Math.max(from(), mHi == null ? mSize : endIndex(mHi, mHiInclusive));
+        }
+
+        private boolean inRange(MidiEvent E)
+        {
+            if(mLo != null)
+            {
+                int c = E.compareTo(mLo);
+                if(c < 0 || (c == 0 && !mLoInclusive))
+                {
+                    return false;
+                }
+            }
+            if(mHi != null)
+            {
+                int c = E.compareTo(mHi);
+                if(c > 0 || (c == 0 && !mHiInclusive))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int size()
+        {
+            return to() - from();
+        }
+
+        @Override
+        public Iterator<MidiEvent> iterator()
+        {
+            return new Itr(from(), to(), mDescending);
+        }
+
+        @Override
+        public Iterator<MidiEvent> descendingIterator()
+        {
+            return new Itr(from(), to(), !mDescending);
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            return indexIn(o) >= 0;
+        }
+
+        @Override
+        public boolean add(MidiEvent E)
+        {
+            if(!inRange(E))
+            {
+                throw new IllegalArgumentException("Event out of range");
+            }
+            return EventList.this.add(E);
+        }
+
+        @Override
+        public boolean remove(Object o)
+        {
+            int i = indexIn(o);
+            if(i < 0)
+            {
+                return false;
+            }
+            removeAt(i);
+            return true;
+        }
+
+        // Where o is in the list if it is in this view, else -1
+        private int indexIn(Object o)
+        {
+            if(!(o instanceof MidiEvent))
+            {
+                return -1;
+            }
+            int i = indexOf((MidiEvent) o);
+            return i >= from() && i < to() ? i : -1;
+        }
+
+        @Override
+        public Comparator<? super MidiEvent> comparator()
+        {
+            return mDescending ? Collections.reverseOrder() : null;
+        }
+
+        @Override
+        public MidiEvent first()
+        {
+            MidiEvent E = mDescending ? lastOrNull() : firstOrNull();
+            if(E == null)
+            {
+                throw new NoSuchElementException();
+            }
+            return E;
+        }
+
+        @Override
+        public MidiEvent last()
+        {
+            MidiEvent E = mDescending ? firstOrNull() : lastOrNull();
+            if(E == null)
+            {
+                throw new NoSuchElementException();
+            }
+            return E;
+        }
+
+        @Override
+        public MidiEvent pollFirst()
+        {
+            MidiEvent E = mDescending ? lastOrNull() : firstOrNull();
+            if(E != null)
+            {
+                remove(E);
+            }
+            return E;
+        }
+
+        @Override
+        public MidiEvent pollLast()
+        {
+            MidiEvent E = mDescending ? firstOrNull() : lastOrNull();
+            if(E != null)
+            {
+                remove(E);
+            }
+            return E;
+        }
+
+        private MidiEvent firstOrNull()
+        {
+            int i = from();
+            return i < to() ? mEvents[i] : null;
+        }
+
+        private MidiEvent lastOrNull()
+        {
+            int i = to() - 1;
+            return i >= from() ? mEvents[i] : null;
+        }
+
+        // The rest work in ascending order and are turned around for a
+        // descending view
+
+        @Override
+        public MidiEvent lower(MidiEvent E)
+        {
+            return mDescending ? after(E, false) : before(E, false);
+        }
+
+        @Override
+        public MidiEvent floor(MidiEvent E)
+        {
+            return mDescending ? after(E, true) : before(E, true);
+        }
+
+        @Override
+        public MidiEvent ceiling(MidiEvent E)
+        {
+            return mDescending ? before(E, true) : after(E, true);
+        }
+
+        @Override
+        public MidiEvent higher(MidiEvent E)
+        {
+            return mDescending ? before(E, false) : after(E, false);
+        }
+
+        private MidiEvent before(MidiEvent E, boolean inclusive)
+        {
+            int i = Math.min(endIndex(E, inclusive), to()) - 1;
+            return i >= from() ? mEvents[i] : null;
+        }
+
+        private MidiEvent after(MidiEvent E, boolean inclusive)
+        {
+            int i = Math.max(startIndex(E, inclusive), from());
+            return i < to() ? mEvents[i] : null;
+        }
+
+        @Override
+        public NavigableSet<MidiEvent> descendingSet()
+        {
+            return new SubSet(mLo, mLoInclusive, mHi, mHiInclusive, !mDescending);
+        }
+
+        @Override
+        public NavigableSet<MidiEvent> subSet(MidiEvent from, boolean fromInclusive, MidiEvent to, boolean toInclusive)
+        {
+            return mDescending ? narrowed(to, toInclusive, from, fromInclusive)
+                    : narrowed(from, fromInclusive, to, toInclusive);
+        }
+
+        @Override
+        public NavigableSet<MidiEvent> headSet(MidiEvent to, boolean inclusive)
+        {
+            return mDescending ? narrowed(to, inclusive, null, false) : narrowed(null, false, to, inclusive);
+        }
+
+        @Override
+        public NavigableSet<MidiEvent> tailSet(MidiEvent from, boolean inclusive)
+        {
+            return mDescending ? narrowed(null, false, from, inclusive) : narrowed(from, inclusive, null, false);
+        }
+
+        @Override
+        public SortedSet<MidiEvent> subSet(MidiEvent from, MidiEvent to)
+        {
+            return subSet(from, true, to, false);
+        }
+
+        @Override
+        public SortedSet<MidiEvent> headSet(MidiEvent to)
+        {
+            return headSet(to, false);
+        }
+
+        @Override
+        public SortedSet<MidiEvent> tailSet(MidiEvent from)
+        {
+            return tailSet(from, true);
+        }
+
+        // This view cut down to lo..hi, given in ascending order; a null
+        // bound, or one looser than this view's, leaves that side as it is
+        private SubSet narrowed(MidiEvent lo, boolean loInclusive, MidiEvent hi, boolean hiInclusive)
+        {
+            if(lo == null || (mLo != null && looser(lo.compareTo(mLo), -1, loInclusive, mLoInclusive)))
+            {
+                lo = mLo;
+                loInclusive = mLoInclusive;
+            }
+            if(hi == null || (mHi != null && looser(hi.compareTo(mHi), 1, hiInclusive, mHiInclusive)))
+            {
+                hi = mHi;
+                hiInclusive = mHiInclusive;
+            }
+            return new SubSet(lo, loInclusive, hi, hiInclusive, mDescending);
+        }
+
+        // Whether a bound compared c to the current one lets in more, where
+        // outward is the sign of c that points out of the range
+        private boolean looser(int c, int outward, boolean inclusive, boolean currentInclusive)
+        {
+            return Integer.signum(c) == outward || (c == 0 && inclusive && !currentInclusive);
+        }
+    }
+
+    // The index of the first event greater than E, or equal to it if inclusive
+    private int startIndex(MidiEvent E, boolean inclusive)
+    {
+        int i = search(E);
+        if(i < 0)
+        {
+            return -i - 1;
+        }
+        return inclusive ? i : i + 1;
+    }
+
+    // The index just past the last event less than E, or equal to it if inclusive
+    private int endIndex(MidiEvent E, boolean inclusive)
+    {
+        int i = search(E);
+        if(i < 0)
+        {
+            return -i - 1;
+        }
+        return inclusive ? i + 1 : i;
+    }
+
+    // Index of an event comparing equal to E, or -(insertion point) - 1
+    private int search(MidiEvent E)
+    {
+        // Checked first so that appending in order costs one comparison
+        if(mSize == 0 || E.compareTo(mEvents[mSize - 1]) > 0)
+        {
+            return -mSize - 1;
+        }
+        int lo = 0, hi = mSize - 1;
+        while(lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int c = E.compareTo(mEvents[mid]);
+            if(c > 0)
+            {
+                lo = mid + 1;
+            }
+            else if(c < 0)
+            {
+                hi = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -lo - 1;
+    }
+
+    // A stable merge sort: unlike Arrays.sort() it does not object to the
+    // few event types whose compareTo() is not symmetric
+    private static void sort(MidiEvent[] a)
+    {
+        mergeSort(a.clone(), a, 0, a.length);
+    }
+
+    // Sorts src[lo, hi) into dst; both start out holding the same events
+    private static void mergeSort(MidiEvent[] src, MidiEvent[] dst, int lo, int hi)
+    {
+        if(hi - lo < 2)
+        {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        mergeSort(dst, src, lo, mid);
+        mergeSort(dst, src, mid, hi);
+
+        if(src[mid - 1].compareTo(src[mid]) <= 0)
+        {
+            System.arraycopy(src, lo, dst, lo, hi - lo);
+            return;
+        }
+        for(int i = lo, p = lo, q = mid; i < hi; i++)
+        {
+            if(q >= hi || (p < mid && src[p].compareTo(src[q]) <= 0))
+            {
+                dst[i] = src[p++];
+            }
+            else
+            {
+                dst[i] = src[q++];
+            }
+        }
+    }
+
+    private void insertAt(int index, MidiEvent E)
+    {
+        if(mSize == mEvents.length)
+        {
+            mEvents = Arrays.copyOf(mEvents, mSize + (mSize >> 1) + 1);
+        }
+        System.arraycopy(mEvents, index, mEvents, index + 1, mSize - index);
+        mEvents[index] = E;
+        mSize++;
+        mModCount++;
+    }
+
+    private void removeAt(int index)
+    {
+        System.arraycopy(mEvents, index + 1, mEvents, index, mSize - index - 1);
+        mEvents[--mSize] = null;
+        mModCount++;
+    }
+}
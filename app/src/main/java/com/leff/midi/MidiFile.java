@@ -18,13 +18,17 @@ package com.leff.midi;
 
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 import com.leff.midi.util.MidiUtil;
 
@@ -62,7 +66,7 @@ public class MidiFile
 
     public MidiFile(File fileIn) throws FileNotFoundException, IOException
     {
-        this(new FileInputStream(fileIn));
+        this(MidiUtil.map(fileIn));
     }
 
     public MidiFile(InputStream rawIn) throws IOException
@@ -70,7 +74,7 @@ public class MidiFile
         BufferedInputStream in = new BufferedInputStream(rawIn);
 
         byte[] buffer = new byte[HEADER_SIZE];
-        in.read(buffer);
+        MidiUtil.readFully(in, buffer, 0, HEADER_SIZE);
 
         initFromBuffer(buffer);
 
@@ -81,6 +85,65 @@ public class MidiFile
         }
     }
 
+    /**
+     * Maps the whole file once; see MidiFile(ByteBuffer). The mapping stays
+     * valid after the channel is closed.
+     */
+    public MidiFile(FileChannel channel) throws IOException
+    {
+        this(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+
+    /**
+     * Reads the file from the buffer's position to its limit, parsing the
+     * tracks in parallel on the common fork-join pool.
+     */
+    public MidiFile(ByteBuffer data) throws IOException
+    {
+        this(data, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads the file from the buffer's position to its limit. Each track is
+     * parsed from a read-only slice of the buffer, without copying it, on
+     * the given pool; with a null pool they are parsed one after another on
+     * this thread. The buffer's own position is left alone.
+     */
+    public MidiFile(ByteBuffer data, ForkJoinPool pool) throws IOException
+    {
+        ByteBuffer in = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        byte[] buffer = new byte[HEADER_SIZE];
+        in.get(buffer, 0, Math.min(HEADER_SIZE, in.remaining()));
+
+        initFromBuffer(buffer);
+
+        // Find every chunk first, so that each can be parsed on its own
+        List<Callable<MidiTrack>> parsers = new ArrayList<Callable<MidiTrack>>();
+        for(int i = 0; i < mTrackCount; i++)
+        {
+            final ByteBuffer chunk = in.slice();
+            int length = chunk.remaining();
+            if(length >= 8)
+            {
+                long chunkLength = 8 + (in.getInt(in.position() + 4) & 0xFFFFFFFFL);
+                length = (int) Math.min(length, chunkLength);
+            }
+            chunk.limit(length);
+            in.position(in.position() + length);
+
+            parsers.add(new Callable<MidiTrack>()
+            {
+                @Override
+                public MidiTrack call() throws IOException
+                {
+                    return new MidiTrack(chunk);
+                }
+            });
+        }
+        mTracks = ParallelTracks.parse(parsers, pool);
+    }
+
     public void setType(int type)
     {
         if(type < 0)
@@ -16,19 +16,23 @@
 
 package com.leff.midi;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.function.Predicate;
 
 import com.leff.midi.event.MidiEvent;
 import com.leff.midi.event.NoteOn;
 import com.leff.midi.event.meta.EndOfTrack;
 import com.leff.midi.event.meta.Tempo;
 import com.leff.midi.event.meta.TimeSignature;
+import com.leff.midi.util.ByteBufferInputStream;
 import com.leff.midi.util.MidiUtil;
 import com.leff.midi.util.VariableLengthInt;
 
@@ -43,7 +47,7 @@ public class MidiTrack
     private boolean mClosed;
     private long mEndOfTrackDelta;
 
-    private TreeSet<MidiEvent> mEvents;
+    private EventList mEvents;
 
     public static MidiTrack createTempoTrack()
     {
@@ -57,7 +61,7 @@ public class MidiTrack
 
     public MidiTrack()
     {
-        mEvents = new TreeSet<MidiEvent>();
+        mEvents = new EventList();
         mSize = 0;
         mSizeNeedsRecalculating = false;
         mClosed = false;
@@ -69,7 +73,7 @@ public class MidiTrack
         this();
 
         byte[] buffer = new byte[4];
-        in.read(buffer);
+        MidiUtil.readFully(in, buffer, 0, 4);
 
         if(!MidiUtil.bytesEqual(buffer, IDENTIFIER, 0, 4))
         {
@@ -77,27 +81,61 @@ public class MidiTrack
             return;
         }
 
-        in.read(buffer);
+        MidiUtil.readFully(in, buffer, 0, 4);
         mSize = MidiUtil.bytesToInt(buffer, 0, 4);
-        
+
         buffer = new byte[mSize];
-        in.read(buffer);
-        
-        this.readTrackData(buffer);
+        int read = MidiUtil.readFully(in, buffer, 0, mSize);
+
+        this.readTrackData(new ByteBufferInputStream(ByteBuffer.wrap(buffer, 0, read)));
     }
-    
-    private void readTrackData(byte[] data) throws IOException
+
+    /**
+     * Reads the track chunk at the buffer's position and moves the position
+     * past it. Events are parsed straight out of a read-only slice of the
+     * buffer; nothing is copied.
+     */
+    public MidiTrack(ByteBuffer in) throws IOException
     {
-        InputStream in = new ByteArrayInputStream(data);
+        this();
+
+        if(in.remaining() < 8)
+        {
+            System.err.println("Track chunk is truncated!");
+            in.position(in.limit());
+            return;
+        }
+
+        byte[] buffer = new byte[4];
+        in.get(buffer);
+
+        if(!MidiUtil.bytesEqual(buffer, IDENTIFIER, 0, 4))
+        {
+            System.err.println("Track identifier did not match MTrk!");
+            return;
+        }
+
+        in.get(buffer);
+        mSize = MidiUtil.bytesToInt(buffer, 0, 4);
 
+        ByteBuffer data = in.asReadOnlyBuffer();
+        data.limit(data.position() + Math.min(mSize, data.remaining()));
+        in.position(data.limit());
+
+        this.readTrackData(new ByteBufferInputStream(data.slice()));
+    }
+
+    private void readTrackData(InputStream in) throws IOException
+    {
         long totalTicks = 0;
+        MidiEvent.ParseContext context = new MidiEvent.ParseContext();
         
         while(in.available() > 0)
         {
             VariableLengthInt delta = new VariableLengthInt(in);
             totalTicks += delta.getValue();
 
-            MidiEvent E = MidiEvent.parseEvent(totalTicks, delta.getValue(), in);
+            MidiEvent E = MidiEvent.parseEvent(totalTicks, delta.getValue(), in, context);
             if(E == null)
             {
                 System.out.println("Event skipped!");
@@ -121,7 +159,19 @@ public class MidiTrack
         }
     }
 
-    public TreeSet<MidiEvent> getEvents()
+    // For events that come with their delta already set, in order, as from a
+    // ColumnarTrack.
+    void appendParsedEvent(MidiEvent E)
+    {
+        mEvents.add(E);
+        mSizeNeedsRecalculating = true;
+    }
+
+    /**
+     * The events in order, as a set backed by the track. Add and remove
+     * events through the track instead, so that their delta times are kept.
+     */
+    public NavigableSet<MidiEvent> getEvents()
     {
         return mEvents;
     }
@@ -168,7 +218,6 @@ public class MidiTrack
         insertEvent(new NoteOn(tick + duration, channel, pitch, 0));
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
     public void insertEvent(MidiEvent newEvent)
     {
         if(newEvent == null)
@@ -182,38 +231,8 @@ public class MidiTrack
             return;
         }
 
-        MidiEvent prev = null, next = null;
-
-        // floor() and ceiling() are not supported on Android before API Level 9
-        // (Gingerbread)
-        try
-        {
-            Class treeSet = Class.forName("java.util.TreeSet");
-            Method floor = treeSet.getMethod("floor", Object.class);
-            Method ceiling = treeSet.getMethod("ceiling", Object.class);
-
-            prev = (MidiEvent) floor.invoke(mEvents, newEvent);
-            next = (MidiEvent) ceiling.invoke(mEvents, newEvent);
-
-        }
-        catch(Exception e)
-        {
-            // methods are not supported - must perform linear search
-            Iterator<MidiEvent> it = mEvents.iterator();
-
-            while(it.hasNext())
-            {
-                next = it.next();
-
-                if(next.getTick() > newEvent.getTick())
-                {
-                    break;
-                }
-
-                prev = next;
-                next = null;
-            }
-        }
+        MidiEvent prev = mEvents.floor(newEvent);
+        MidiEvent next = mEvents.ceiling(newEvent);
 
         mEvents.add(newEvent);
         mSizeNeedsRecalculating = true;
@@ -247,41 +266,63 @@ public class MidiTrack
         }
     }
 
-    public boolean removeEvent(MidiEvent E)
+    /**
+     * Inserts all the events at once. Unlike calling insertEvent() for each,
+     * the events are merged into the track in one pass and every delta time
+     * is then set in another, so recording or pasting a long passage does not
+     * take time proportional to the square of its length.
+     */
+    public void insertEvents(Collection<? extends MidiEvent> events)
     {
-        Iterator<MidiEvent> it = mEvents.iterator();
-        MidiEvent prev = null, curr = null, next = null;
-
-        while(it.hasNext())
+        if(mClosed)
         {
-            next = it.next();
+            System.err.println("Error: Cannot add an event to a closed track.");
+            return;
+        }
 
-            if(E.equals(curr))
+        List<MidiEvent> batch = new ArrayList<MidiEvent>(events.size());
+        MidiEvent eot = null;
+        for(MidiEvent E : events)
+        {
+            if(E == null)
             {
-                break;
+                continue;
             }
-
-            prev = curr;
-            curr = next;
-            next = null;
+            if(E.getClass().equals(EndOfTrack.class))
+            {
+                eot = E;
+                continue;
+            }
+            batch.add(E);
         }
 
-        if(next == null)
+        mEvents.addAll(batch);
+        recalculateDeltas();
+
+        // Goes in last, with the checks insertEvent() makes of it
+        insertEvent(eot);
+    }
+
+    public boolean removeEvent(MidiEvent E)
+    {
+        int i = mEvents.indexOf(E);
+        if(i < 0)
         {
-            // Either the event was not found in the track,
-            // or this is the last event in the track.
-            // Either way, we won't need to update any delta times
-            return mEvents.remove(curr);
+            return false;
         }
+        mEvents.remove(i);
+        mSizeNeedsRecalculating = true;
 
-        if(!mEvents.remove(curr))
+        if(i == mEvents.size())
         {
-            return false;
+            // This was the last event in the track, so no delta times change
+            return true;
         }
 
-        if(prev != null)
+        MidiEvent next = mEvents.get(i);
+        if(i > 0)
         {
-            next.setDelta(next.getTick() - prev.getTick());
+            next.setDelta(next.getTick() - mEvents.get(i - 1).getTick());
         }
         else
         {
@@ -290,6 +331,53 @@ public class MidiTrack
         return true;
     }
 
+    /**
+     * Removes every event the filter accepts, fixing up delta times once. The
+     * EndOfTrack of a closed track stays.
+     */
+    public boolean removeIf(Predicate<? super MidiEvent> filter)
+    {
+        final MidiEvent eot = closingEvent();
+        if(!mEvents.removeIf(E -> E != eot && filter.test(E)))
+        {
+            return false;
+        }
+        recalculateDeltas();
+        return true;
+    }
+
+    /**
+     * Removes the events from fromTick (inclusive) to toTick (exclusive) and
+     * returns how many there were. Later events keep their ticks, and the
+     * EndOfTrack of a closed track stays.
+     */
+    public int removeEvents(final long fromTick, final long toTick)
+    {
+        final MidiEvent eot = closingEvent();
+        int removed;
+        if(eot != null && eot.getTick() >= fromTick && eot.getTick() < toTick)
+        {
+            int before = mEvents.size();
+            mEvents.removeIf(E -> E != eot && E.getTick() >= fromTick && E.getTick() < toTick);
+            removed = before - mEvents.size();
+        }
+        else
+        {
+            removed = mEvents.removeRange(fromTick, toTick);
+        }
+        if(removed > 0)
+        {
+            recalculateDeltas();
+        }
+        return removed;
+    }
+
+    // The EndOfTrack that closed the track, always its last event, or null
+    private MidiEvent closingEvent()
+    {
+        return mClosed ? mEvents.last() : null;
+    }
+
     public void closeTrack()
     {
         long lastTick = 0;
@@ -311,6 +399,28 @@ public class MidiTrack
         }
     }
 
+    // Sets every delta time from the ticks, and the size along the way
+    private void recalculateDeltas()
+    {
+        mSize = 0;
+
+        MidiEvent last = null;
+        for(int i = 0; i < mEvents.size(); i++)
+        {
+            MidiEvent E = mEvents.get(i);
+            E.setDelta(last == null ? E.getTick() : E.getTick() - last.getTick());
+            mSize += E.getSize();
+
+            if(last != null && !E.requiresStatusByte(last))
+            {
+                mSize--;
+            }
+            last = E;
+        }
+
+        mSizeNeedsRecalculating = false;
+    }
+
     private void recalculateSize()
     {
         mSize = 0;
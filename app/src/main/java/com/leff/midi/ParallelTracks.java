@@ -0,0 +1,98 @@
+//////////////////////////////////////////////////////////////////////////////
+//	Copyright 2011 Alex Leffelman
+//	
+//	Licensed under the Apache License, Version 2.0 (the "License");
+//	you may not use this file except in compliance with the License.
+//	You may obtain a copy of the License at
+//	
+//	http://www.apache.org/licenses/LICENSE-2.0
+//	
+//	Unless required by applicable law or agreed to in writing, software
+//	distributed under the License is distributed on an "AS IS" BASIS,
+//	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//	See the License for the specific language governing permissions and
+//	limitations under the License.
+//////////////////////////////////////////////////////////////////////////////
+
+package com.leff.midi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs one parser per track chunk on a fork-join pool and collects the
+ * tracks in file order.
+ */
+final class ParallelTracks
+{
+    private ParallelTracks()
+    {
+    }
+
+    /** Without a pool, or with a single track, the parsers run on this thread. */
+    static <T> List<T> parse(List<Callable<T>> parsers, ForkJoinPool pool) throws IOException
+    {
+        List<T> tracks = new ArrayList<T>(parsers.size());
+        if(pool == null || parsers.size() < 2)
+        {
+            for(Callable<T> parser : parsers)
+            {
+                tracks.add(call(parser));
+            }
+            return tracks;
+        }
+
+        for(Future<T> future : pool.invokeAll(parsers))
+        {
+            try
+            {
+                tracks.add(future.get());
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while parsing tracks");
+            }
+            catch(ExecutionException e)
+            {
+                throw rethrow(e.getCause());
+            }
+        }
+        return tracks;
+    }
+
+    private static <T> T call(Callable<T> parser) throws IOException
+    {
+        try
+        {
+            return parser.call();
+        }
+        catch(Exception e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+    private static IOException rethrow(Throwable t) throws IOException
+    {
+        if(t instanceof IOException)
+        {
+            throw (IOException) t;
+        }
+        if(t instanceof RuntimeException)
+        {
+            throw (RuntimeException) t;
+        }
+        if(t instanceof Error)
+        {
+            throw (Error) t;
+        }
+        return new IOException(t);
+    }
+}
@@ -28,7 +28,8 @@ public class ChannelEvent extends MidiEvent
     protected int mValue1;
     protected int mValue2;
 
-    private static HashMap<Integer, Integer> mOrderMap;
+    // Built up front: tracks may be parsed, and so sorted, on several threads
+    private static final HashMap<Integer, Integer> mOrderMap = buildOrderMap();
 
     protected ChannelEvent(long tick, int type, int channel, int param1, int param2)
     {
@@ -100,11 +101,6 @@ public class ChannelEvent extends MidiEvent
         ChannelEvent o = (ChannelEvent) other;
         if(mType != o.getType())
         {
-            if(mOrderMap == null)
-            {
-                buildOrderMap();
-            }
-
             int order1 = mOrderMap.get(mType);
             int order2 = mOrderMap.get(o.getType());
 
@@ -168,6 +164,11 @@ public class ChannelEvent extends MidiEvent
             val2 = in.read();
         }
 
+        return createChannelEvent(tick, delta, type, channel, val1, val2);
+    }
+
+    public static ChannelEvent createChannelEvent(long tick, long delta, int type, int channel, int val1, int val2)
+    {
         switch(type)
         {
             case NOTE_OFF:
@@ -189,18 +190,18 @@ public class ChannelEvent extends MidiEvent
         }
     }
 
-    private static void buildOrderMap()
+    private static HashMap<Integer, Integer> buildOrderMap()
     {
-
-        mOrderMap = new HashMap<Integer, Integer>();
-
-        mOrderMap.put(PROGRAM_CHANGE, 0);
-        mOrderMap.put(CONTROLLER, 1);
-        mOrderMap.put(NOTE_ON, 2);
-        mOrderMap.put(NOTE_OFF, 3);
-        mOrderMap.put(NOTE_AFTERTOUCH, 4);
-        mOrderMap.put(CHANNEL_AFTERTOUCH, 5);
-        mOrderMap.put(PITCH_BEND, 6);
+        HashMap<Integer, Integer> orderMap = new HashMap<Integer, Integer>();
+
+        orderMap.put(PROGRAM_CHANGE, 0);
+        orderMap.put(CONTROLLER, 1);
+        orderMap.put(NOTE_ON, 2);
+        orderMap.put(NOTE_OFF, 3);
+        orderMap.put(NOTE_AFTERTOUCH, 4);
+        orderMap.put(CHANNEL_AFTERTOUCH, 5);
+        orderMap.put(PITCH_BEND, 6);
+        return orderMap;
     }
 
     public static final int NOTE_OFF = 0x8;
@@ -19,8 +19,10 @@ package com.leff.midi.event;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import com.leff.midi.event.meta.MetaEvent;
+import com.leff.midi.util.MidiUtil;
 import com.leff.midi.util.VariableLengthInt;
 
 public abstract class MidiEvent implements Comparable<MidiEvent>
@@ -78,40 +80,99 @@ public abstract class MidiEvent implements Comparable<MidiEvent>
         out.write(mDelta.getBytes());
     }
 
-    private static int sId = -1;
-    private static int sType = -1;
-    private static int sChannel = -1;
+    /**
+     * Running status while reading one track. Give each track its own, so
+     * that tracks and files can be parsed on several threads at once.
+     */
+    public static final class ParseContext
+    {
+        private int mId = -1;
+        private int mType = -1;
+        private int mChannel = -1;
+
+        private boolean verifyIdentifier(int id)
+        {
+            mId = id;
 
+            int type = id >> 4;
+            int channel = id & 0x0F;
+
+            if(type >= 0x8 && type <= 0xE)
+            {
+                mId = id;
+                mType = type;
+                mChannel = channel;
+            }
+            else if(id == 0xFF)
+            {
+                mId = id;
+                mType = -1;
+                mChannel = -1;
+            }
+            else if(type == 0xF)
+            {
+                mId = id;
+                mType = type;
+                mChannel = -1;
+            }
+            else
+            {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private static final ThreadLocal<ParseContext> sContext = new ThreadLocal<ParseContext>()
+    {
+        @Override
+        protected ParseContext initialValue()
+        {
+            return new ParseContext();
+        }
+    };
+
+    /**
+     * Parses with running status carried over from the last call on this
+     * thread, whatever track that was.
+     *
+     * @deprecated pass a ParseContext per track instead
+     */
+    @Deprecated
     public static final MidiEvent parseEvent(long tick, long delta, InputStream in) throws IOException
+    {
+        return parseEvent(tick, delta, in, sContext.get());
+    }
+
+    public static final MidiEvent parseEvent(long tick, long delta, InputStream in, ParseContext context) throws IOException
     {
         in.mark(1);
         boolean reset = false;
 
         int id = in.read();
-        if(!verifyIdentifier(id))
+        if(!context.verifyIdentifier(id))
         {
             in.reset();
             reset = true;
         }
 
-        if(sType >= 0x8 && sType <= 0xE)
+        if(context.mType >= 0x8 && context.mType <= 0xE)
         {
-            return ChannelEvent.parseChannelEvent(tick, delta, sType, sChannel, in);
+            return ChannelEvent.parseChannelEvent(tick, delta, context.mType, context.mChannel, in);
         }
-        else if(sId == 0xFF)
+        else if(context.mId == 0xFF)
         {
             return MetaEvent.parseMetaEvent(tick, delta, in);
         }
-        else if(sId == 0xF0 || sId == 0xF7)
+        else if(context.mId == 0xF0 || context.mId == 0xF7)
         {
             VariableLengthInt size = new VariableLengthInt(in);
-            byte[] data = new byte[size.getValue()];
-            in.read(data);
-            return new SystemExclusiveEvent(sId, tick, delta, data);
+            ByteBuffer data = MidiUtil.readBuffer(in, size.getValue());
+            return new SystemExclusiveEvent(context.mId, tick, delta, data);
         }
         else
         {
-            System.out.println("Unable to handle status byte, skipping: " + sId);
+            System.out.println("Unable to handle status byte, skipping: " + context.mId);
             if(reset)
             {
                 in.read();
@@ -121,38 +182,6 @@ public abstract class MidiEvent implements Comparable<MidiEvent>
         return null;
     }
 
-    private static boolean verifyIdentifier(int id)
-    {
-        sId = id;
-
-        int type = id >> 4;
-        int channel = id & 0x0F;
-
-        if(type >= 0x8 && type <= 0xE)
-        {
-            sId = id;
-            sType = type;
-            sChannel = channel;
-        }
-        else if(id == 0xFF)
-        {
-            sId = id;
-            sType = -1;
-            sChannel = -1;
-        }
-        else if(type == 0xF)
-        {
-            sId = id;
-            sType = type;
-            sChannel = -1;
-        }
-        else
-        {
-            return false;
-        }
-        return true;
-    }
-
     @Override
     public String toString()
     {
@@ -18,7 +18,9 @@ package com.leff.midi.event;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import com.leff.midi.util.MidiUtil;
 import com.leff.midi.util.VariableLengthInt;
 
 /**
@@ -30,6 +32,7 @@ public class SystemExclusiveEvent extends MidiEvent
     private int mType;
     private VariableLengthInt mLength;
     private byte[] mData;
+    private volatile ByteBuffer mRaw;
 
     public SystemExclusiveEvent(int type, long tick, byte[] data)
     {
@@ -50,8 +53,29 @@ public class SystemExclusiveEvent extends MidiEvent
         mData = data;
     }
 
+    // As parsed: the message stays in the file's buffer until asked for
+    SystemExclusiveEvent(int type, long tick, long delta, ByteBuffer raw)
+    {
+        super(tick, delta);
+
+        mType = type & 0xFF;
+        if(mType != 0xF0 && mType != 0xF7)
+        {
+            mType = 0xF0;
+        }
+
+        mLength = new VariableLengthInt(raw.remaining());
+        mRaw = raw;
+    }
+
     public byte[] getData()
     {
+        ByteBuffer raw = mRaw;
+        if(raw != null)
+        {
+            mData = MidiUtil.toBytes(raw);
+            mRaw = null;
+        }
         return mData;
     }
 
@@ -59,6 +83,7 @@ public class SystemExclusiveEvent extends MidiEvent
     {
         mLength.setValue(data.length);
         mData = data;
+        mRaw = null;
     }
 
     @Override
@@ -74,7 +99,7 @@ public class SystemExclusiveEvent extends MidiEvent
 
         out.write(mType);
         out.write(mLength.getBytes());
-        out.write(mData);
+        out.write(getData());
     }
 
     @Override
@@ -100,8 +125,8 @@ public class SystemExclusiveEvent extends MidiEvent
 
         if(other instanceof SystemExclusiveEvent)
         {
-            String curr = new String(mData);
-            String comp = new String(((SystemExclusiveEvent) other).mData);
+            String curr = new String(getData());
+            String comp = new String(((SystemExclusiveEvent) other).getData());
             return curr.compareTo(comp);
         }
 
@@ -111,7 +136,7 @@ public class SystemExclusiveEvent extends MidiEvent
     @Override
     protected int getEventSize()
     {
-        return 1 + mLength.getByteCount() + mData.length;
+        return 1 + mLength.getByteCount() + mLength.getValue();
     }
 
 }
@@ -16,6 +16,8 @@
 
 package com.leff.midi.event.meta;
 
+import java.nio.ByteBuffer;
+
 public class CopyrightNotice extends TextualMetaEvent
 {
     public CopyrightNotice(long tick, long delta, String text)
@@ -23,6 +25,11 @@ public class CopyrightNotice extends TextualMetaEvent
         super(tick, delta, MetaEvent.COPYRIGHT_NOTICE, text);
     }
 
+    CopyrightNotice(long tick, long delta, ByteBuffer raw)
+    {
+        super(tick, delta, MetaEvent.COPYRIGHT_NOTICE, raw);
+    }
+
     public void setNotice(String t)
     {
         setText(t);
@@ -16,6 +16,8 @@
 
 package com.leff.midi.event.meta;
 
+import java.nio.ByteBuffer;
+
 public class CuePoint extends TextualMetaEvent
 {
     public CuePoint(long tick, long delta, String marker)
@@ -23,6 +25,11 @@ public class CuePoint extends TextualMetaEvent
         super(tick, delta, MetaEvent.CUE_POINT, marker);
     }
 
+    CuePoint(long tick, long delta, ByteBuffer raw)
+    {
+        super(tick, delta, MetaEvent.CUE_POINT, raw);
+    }
+
     public void setCue(String name)
     {
         setText(name);
@@ -2,8 +2,10 @@ package com.leff.midi.event.meta;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 import com.leff.midi.event.MidiEvent;
+import com.leff.midi.util.MidiUtil;
 
 public class GenericMetaEvent extends MetaEvent
 {
@@ -14,6 +16,10 @@ public class GenericMetaEvent extends MetaEvent
         super(tick, delta, info.type, info.length);
 
         mData = info.data;
+        if(mData == null)
+        {
+            mData = Arrays.copyOf(MidiUtil.toBytes(info.payload), info.length.getValue());
+        }
 
         System.out.println("Warning: GenericMetaEvent used because type (" + info.type + ") wasn't recognized or unexpected data length (" + info.length.getValue() + ") for type.");
     }
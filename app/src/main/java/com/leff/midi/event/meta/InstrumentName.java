@@ -16,6 +16,8 @@
 
 package com.leff.midi.event.meta;
 
+import java.nio.ByteBuffer;
+
 public class InstrumentName extends TextualMetaEvent
 {
     public InstrumentName(long tick, long delta, String name)
@@ -23,6 +25,11 @@ public class InstrumentName extends TextualMetaEvent
         super(tick, delta, MetaEvent.INSTRUMENT_NAME, name);
     }
 
+    InstrumentName(long tick, long delta, ByteBuffer raw)
+    {
+        super(tick, delta, MetaEvent.INSTRUMENT_NAME, raw);
+    }
+
     public void setName(String name)
     {
         setText(name);
@@ -16,6 +16,8 @@
 
 package com.leff.midi.event.meta;
 
+import java.nio.ByteBuffer;
+
 public class Lyrics extends TextualMetaEvent
 {
     public Lyrics(long tick, long delta, String lyric)
@@ -23,6 +25,11 @@ public class Lyrics extends TextualMetaEvent
         super(tick, delta, MetaEvent.LYRICS, lyric);
     }
 
+    Lyrics(long tick, long delta, ByteBuffer raw)
+    {
+        super(tick, delta, MetaEvent.LYRICS, raw);
+    }
+
     public void setLyric(String t)
     {
         setText(t);
@@ -16,6 +16,8 @@
 
 package com.leff.midi.event.meta;
 
+import java.nio.ByteBuffer;
+
 public class Marker extends TextualMetaEvent
 {
     public Marker(long tick, long delta, String marker)
@@ -23,6 +25,11 @@ public class Marker extends TextualMetaEvent
         super(tick, delta, MetaEvent.MARKER, marker);
     }
 
+    Marker(long tick, long delta, ByteBuffer raw)
+    {
+        super(tick, delta, MetaEvent.MARKER, raw);
+    }
+
     public void setMarkerName(String name)
     {
         setText(name);
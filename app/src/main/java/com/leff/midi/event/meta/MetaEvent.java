@@ -19,8 +19,11 @@ package com.leff.midi.event.meta;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import com.leff.midi.event.MidiEvent;
+import com.leff.midi.util.MidiUtil;
 import com.leff.midi.util.VariableLengthInt;
 
 public abstract class MetaEvent extends MidiEvent
@@ -53,10 +56,18 @@ public abstract class MetaEvent extends MidiEvent
 
     public static MetaEvent parseMetaEvent(long tick, long delta, InputStream in) throws IOException
     {
-        MetaEventData eventData = new MetaEventData(in);
+        return createMetaEvent(tick, delta, new MetaEventData(in));
+    }
+
+    public static MetaEvent createMetaEvent(long tick, long delta, int type, byte[] data)
+    {
+        return createMetaEvent(tick, delta, new MetaEventData(type, data));
+    }
 
+    private static boolean isText(int type)
+    {
         boolean isText = false;
-        switch(eventData.type)
+        switch(type)
         {
             case SEQUENCE_NUMBER:
             case MIDI_CHANNEL_PREFIX:
@@ -79,29 +90,34 @@ public abstract class MetaEvent extends MidiEvent
                 isText = true;
                 break;
         }
+        return isText;
+    }
 
-        if(isText)
+    private static MetaEvent createMetaEvent(long tick, long delta, MetaEventData eventData)
+    {
+        if(isText(eventData.type))
         {
-            String text = new String(eventData.data);
+            // The payload is handed over as it is and decoded when asked for
+            ByteBuffer payload = eventData.payload;
 
             switch(eventData.type)
             {
                 case TEXT_EVENT:
-                    return new Text(tick, delta, text);
+                    return new Text(tick, delta, payload);
                 case COPYRIGHT_NOTICE:
-                    return new CopyrightNotice(tick, delta, text);
+                    return new CopyrightNotice(tick, delta, payload);
                 case TRACK_NAME:
-                    return new TrackName(tick, delta, text);
+                    return new TrackName(tick, delta, payload);
                 case INSTRUMENT_NAME:
-                    return new InstrumentName(tick, delta, text);
+                    return new InstrumentName(tick, delta, payload);
                 case LYRICS:
-                    return new Lyrics(tick, delta, text);
+                    return new Lyrics(tick, delta, payload);
                 case MARKER:
-                    return new Marker(tick, delta, text);
+                    return new Marker(tick, delta, payload);
                 case CUE_POINT:
-                    return new CuePoint(tick, delta, text);
+                    return new CuePoint(tick, delta, payload);
                 case SEQUENCER_SPECIFIC:
-                    return new SequencerSpecificEvent(tick, delta, eventData.data);
+                    return new SequencerSpecificEvent(tick, delta, payload);
                 default:
                     return new GenericMetaEvent(tick, delta, eventData);
             }
@@ -132,17 +148,26 @@ public abstract class MetaEvent extends MidiEvent
     {
         public final int type;
         public final VariableLengthInt length;
+        // Read-only; a view of the source buffer when parsing from a heap one
+        public final ByteBuffer payload;
+        // A copy of the payload, made only for the small fixed-size events;
+        // null for text, sequencer-specific and unknown events
         public final byte[] data;
 
         public MetaEventData(InputStream in) throws IOException
         {
             type = in.read();
             length = new VariableLengthInt(in);
-            data = new byte[length.getValue()];
-            if(length.getValue() > 0)
-            {
-                in.read(data);
-            }
+            payload = MidiUtil.readBuffer(in, length.getValue());
+            data = isText(type) ? null : Arrays.copyOf(MidiUtil.toBytes(payload), length.getValue());
+        }
+
+        public MetaEventData(int type, byte[] data)
+        {
+            this.type = type & 0xFF;
+            this.length = new VariableLengthInt(data.length);
+            this.payload = ByteBuffer.wrap(data).asReadOnlyBuffer();
+            this.data = data;
         }
     }
 
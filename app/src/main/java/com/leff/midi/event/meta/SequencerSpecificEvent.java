@@ -18,6 +18,7 @@ package com.leff.midi.event.meta;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import com.leff.midi.event.MidiEvent;
 import com.leff.midi.util.MidiUtil;
@@ -26,6 +27,7 @@ import com.leff.midi.util.VariableLengthInt;
 public class SequencerSpecificEvent extends MetaEvent
 {
     private byte[] mData;
+    private volatile ByteBuffer mRaw;
 
     public SequencerSpecificEvent(long tick, long delta, byte[] data)
     {
@@ -34,20 +36,35 @@ public class SequencerSpecificEvent extends MetaEvent
         mData = data;
     }
 
+    // Copied out of the file when first asked for
+    SequencerSpecificEvent(long tick, long delta, ByteBuffer raw)
+    {
+        super(tick, delta, MetaEvent.SEQUENCER_SPECIFIC, new VariableLengthInt(raw.remaining()));
+
+        mRaw = raw;
+    }
+
     public void setData(byte[] data)
     {
         mData = data;
         mLength.setValue(mData.length);
+        mRaw = null;
     }
 
     public byte[] getData()
     {
+        ByteBuffer raw = mRaw;
+        if(raw != null)
+        {
+            mData = MidiUtil.toBytes(raw);
+            mRaw = null;
+        }
         return mData;
     }
 
     protected int getEventSize()
     {
-        return 1 + 1 + mLength.getByteCount() + mData.length;
+        return 1 + 1 + mLength.getByteCount() + mLength.getValue();
     }
 
     @Override
@@ -56,7 +73,7 @@ public class SequencerSpecificEvent extends MetaEvent
         super.writeToFile(out);
 
         out.write(mLength.getBytes());
-        out.write(mData);
+        out.write(getData());
     }
 
     @Override
@@ -77,8 +94,9 @@ public class SequencerSpecificEvent extends MetaEvent
         }
 
         SequencerSpecificEvent o = (SequencerSpecificEvent) other;
+        byte[] data = getData();
 
-        if(MidiUtil.bytesEqual(mData, o.mData, 0, mData.length))
+        if(MidiUtil.bytesEqual(data, o.getData(), 0, data.length))
         {
             return 0;
         }
@@ -16,6 +16,8 @@
 
 package com.leff.midi.event.meta;
 
+import java.nio.ByteBuffer;
+
 public class Text extends TextualMetaEvent
 {
     public Text(long tick, long delta, String text)
@@ -23,6 +25,11 @@ public class Text extends TextualMetaEvent
         super(tick, delta, MetaEvent.TEXT_EVENT, text);
     }
 
+    Text(long tick, long delta, ByteBuffer raw)
+    {
+        super(tick, delta, MetaEvent.TEXT_EVENT, raw);
+    }
+
     public void setText(String t)
     {
         super.setText(t);
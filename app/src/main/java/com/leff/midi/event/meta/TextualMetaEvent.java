@@ -18,14 +18,20 @@ package com.leff.midi.event.meta;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import com.leff.midi.event.MidiEvent;
+import com.leff.midi.util.MidiUtil;
 import com.leff.midi.util.VariableLengthInt;
 
 public abstract class TextualMetaEvent extends MetaEvent
 {
     protected String mText;
 
+    // The text as read from the file, until it is first asked for. Written
+    // after mText, so a reader that sees it null also sees the text.
+    private volatile ByteBuffer mRaw;
+
     protected TextualMetaEvent(long tick, long delta, int type, String text)
     {
         super(tick, delta, type, new VariableLengthInt(text.length()));
@@ -33,14 +39,28 @@ public abstract class TextualMetaEvent extends MetaEvent
         setText(text);
     }
 
+    protected TextualMetaEvent(long tick, long delta, int type, ByteBuffer raw)
+    {
+        super(tick, delta, type, new VariableLengthInt(raw.remaining()));
+
+        mRaw = raw;
+    }
+
     protected void setText(String t)
     {
         mText = t;
         mLength.setValue(t.getBytes().length);
+        mRaw = null;
     }
 
     protected String getText()
     {
+        ByteBuffer raw = mRaw;
+        if(raw != null)
+        {
+            mText = new String(MidiUtil.toBytes(raw));
+            mRaw = null;
+        }
         return mText;
     }
 
@@ -56,7 +76,10 @@ public abstract class TextualMetaEvent extends MetaEvent
         super.writeToFile(out);
 
         out.write(mLength.getBytes());
-        out.write(mText.getBytes());
+
+        // Text that was never decoded goes back out byte for byte
+        ByteBuffer raw = mRaw;
+        out.write(raw != null ? MidiUtil.toBytes(raw) : mText.getBytes());
     }
 
     @Override
@@ -78,12 +101,12 @@ public abstract class TextualMetaEvent extends MetaEvent
 
         TextualMetaEvent o = (TextualMetaEvent) other;
 
-        return mText.compareTo(o.mText);
+        return getText().compareTo(o.getText());
     }
 
     @Override
     public String toString()
     {
-        return super.toString() + ": " + mText;
+        return super.toString() + ": " + getText();
     }
 }
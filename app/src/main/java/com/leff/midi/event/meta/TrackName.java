@@ -16,6 +16,8 @@
 
 package com.leff.midi.event.meta;
 
+import java.nio.ByteBuffer;
+
 public class TrackName extends TextualMetaEvent
 {
     public TrackName(long tick, long delta, String name)
@@ -23,6 +25,11 @@ public class TrackName extends TextualMetaEvent
         super(tick, delta, MetaEvent.TRACK_NAME, name);
     }
 
+    TrackName(long tick, long delta, ByteBuffer raw)
+    {
+        super(tick, delta, MetaEvent.TRACK_NAME, raw);
+    }
+
     public void setName(String name)
     {
         setText(name);
@@ -0,0 +1,104 @@
+//////////////////////////////////////////////////////////////////////////////
+//	Copyright 2011 Alex Leffelman
+//	
+//	Licensed under the Apache License, Version 2.0 (the "License");
+//	you may not use this file except in compliance with the License.
+//	You may obtain a copy of the License at
+//	
+//	http://www.apache.org/licenses/LICENSE-2.0
+//	
+//	Unless required by applicable law or agreed to in writing, software
+//	distributed under the License is distributed on an "AS IS" BASIS,
+//	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//	See the License for the specific language governing permissions and
+//	limitations under the License.
+//////////////////////////////////////////////////////////////////////////////
+
+package com.leff.midi.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a ByteBuffer, from its position to its limit, without copying it.
+ * Supports mark() and reset(), which MidiEvent.parseEvent relies on.
+ */
+public class ByteBufferInputStream extends InputStream
+{
+    private final ByteBuffer mBuffer;
+
+    public ByteBufferInputStream(ByteBuffer buffer)
+    {
+        mBuffer = buffer.duplicate();
+    }
+
+    @Override
+    public int read()
+    {
+        if(!mBuffer.hasRemaining())
+        {
+            return -1;
+        }
+        return mBuffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        if(len == 0)
+        {
+            return 0;
+        }
+        if(!mBuffer.hasRemaining())
+        {
+            return -1;
+        }
+        len = Math.min(len, mBuffer.remaining());
+        mBuffer.get(b, off, len);
+        return len;
+    }
+
+    /**
+     * The next length bytes (fewer if the buffer ends first) as a read-only
+     * view, without copying them. The stream moves past them.
+     */
+    public ByteBuffer slice(int length)
+    {
+        ByteBuffer slice = mBuffer.asReadOnlyBuffer();
+        slice.limit(slice.position() + Math.min(length, slice.remaining()));
+        mBuffer.position(slice.limit());
+        return slice.slice();
+    }
+
+    @Override
+    public long skip(long n)
+    {
+        int skipped = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+        mBuffer.position(mBuffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+        return mBuffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit)
+    {
+        mBuffer.mark();
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        mBuffer.reset();
+    }
+}
@@ -16,6 +16,14 @@
 
 package com.leff.midi.util;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
 public class MidiUtil
 {
     /**
@@ -91,6 +99,74 @@ public class MidiUtil
         return buffer;
     }
 
+    /**
+     * Reads until len bytes are in or the stream ends, since a single read()
+     * may return fewer. Returns how many bytes were read.
+     */
+    public static int readFully(InputStream in, byte[] buff, int off, int len) throws IOException
+    {
+        int total = 0;
+        while(total < len)
+        {
+            int n = in.read(buff, off + total, len - total);
+            if(n < 0)
+            {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Maps a whole file read-only. The mapping outlives the file, which is
+     * closed before this returns.
+     */
+    public static MappedByteBuffer map(File file) throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads len bytes of the stream as a buffer: a read-only view of the
+     * same bytes when the stream is a ByteBufferInputStream over a heap
+     * buffer, a copy otherwise. Bytes in a direct buffer are copied too:
+     * it may be a mapping of the file, which goes bad as soon as the file
+     * is truncated, as writing a MidiFile back over its own file does.
+     */
+    public static ByteBuffer readBuffer(InputStream in, int len) throws IOException
+    {
+        if(in instanceof ByteBufferInputStream)
+        {
+            ByteBuffer slice = ((ByteBufferInputStream) in).slice(len);
+            if(slice.isDirect())
+            {
+                return ByteBuffer.wrap(toBytes(slice)).asReadOnlyBuffer();
+            }
+            return slice;
+        }
+        byte[] data = new byte[len];
+        int read = readFully(in, data, 0, len);
+        return ByteBuffer.wrap(data, 0, read).slice().asReadOnlyBuffer();
+    }
+
+    /** A copy of the bytes from the buffer's position to its limit. */
+    public static byte[] toBytes(ByteBuffer buffer)
+    {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
     public static boolean bytesEqual(byte[] buf1, byte[] buf2, int off, int len)
     {
         for(int i = off; i < off + len; i++)
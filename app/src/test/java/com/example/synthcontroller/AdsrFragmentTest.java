@@ -43,15 +43,15 @@ public class AdsrFragmentTest {
         doReturn(mockActivity).when(fragment).getActivity();
 
         fragment.sendAttackCommand(75);
-        verify(mockActivity).sendCommand("ATTACK:", 75);
+        verify(mockActivity).sendCommand(SynthCommand.ATTACK, 75);
 
         fragment.sendDecayCommand(125);
-        verify(mockActivity).sendCommand("DECAY:", 125);
+        verify(mockActivity).sendCommand(SynthCommand.DECAY, 125);
 
         fragment.sendSustainCommand(180);
-        verify(mockActivity).sendCommand("SUSTAIN:", 180);
+        verify(mockActivity).sendCommand(SynthCommand.SUSTAIN, 180);
 
         fragment.sendReleaseCommand(100);
-        verify(mockActivity).sendCommand("RELEASE:", 100);
+        verify(mockActivity).sendCommand(SynthCommand.RELEASE, 100);
     }
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+package com.example.synthcontroller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BleMidiPacketizerTest {
+
+    private final List<byte[]> packets = new ArrayList<>();
+    private final BleMidiPacketizer.PacketSink sink =
+            (packet, length) -> packets.add(Arrays.copyOf(packet, length));
+
+    private static byte[] bytes(int... values) {
+        byte[] b = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            b[i] = (byte) values[i];
+        }
+        return b;
+    }
+
+    private void add(BleMidiPacketizer packetizer, int time, int... message) throws IOException {
+        packetizer.add(bytes(message), 0, message.length, time, sink);
+    }
+
+    // Each message as "time:hex hex hex"
+    private List<String> depacketize() {
+        BleMidiDepacketizer depacketizer = new BleMidiDepacketizer();
+        List<String> messages = new ArrayList<>();
+        for (byte[] packet : packets) {
+            depacketizer.feed(packet, 0, packet.length, (message, length, time) -> {
+                StringBuilder s = new StringBuilder().append(time).append(':');
+                for (int i = 0; i < length; i++) {
+                    s.append(String.format(" %02x", message[i] & 0xFF));
+                }
+                messages.add(s.toString());
+            });
+        }
+        assertEquals(0, depacketizer.getMalformedCount());
+        return messages;
+    }
+
+    @Test
+    public void chordSharesStatusAndTimestamp() throws IOException {
+        BleMidiPacketizer packetizer = new BleMidiPacketizer();
+        int time = 300; // high 2, low 44
+        for (int note : new int[]{60, 64, 67, 72}) {
+            add(packetizer, time, 0x90, note, 127);
+        }
+        packetizer.flush(sink);
+
+        assertEquals(1, packets.size());
+        assertArrayEquals(bytes(0x82, 0x80 | 44, 0x90, 60, 127, 64, 127, 67, 127, 72, 127), packets.get(0));
+        assertEquals(Arrays.asList("300: 90 3c 7f", "300: 90 40 7f", "300: 90 43 7f", "300: 90 48 7f"),
+                depacketize());
+    }
+
+    @Test
+    public void newTimeRepeatsTimestampButNotStatus() throws IOException {
+        BleMidiPacketizer packetizer = new BleMidiPacketizer();
+        add(packetizer, 10, 0x90, 60, 100);
+        add(packetizer, 12, 0x90, 62, 100);
+        add(packetizer, 12, 0xB0, 74, 5);
+        packetizer.flush(sink);
+
+        assertArrayEquals(bytes(0x80, 0x8A, 0x90, 60, 100, 0x8C, 62, 100, 0x8C, 0xB0, 74, 5), packets.get(0));
+        assertEquals(Arrays.asList("10: 90 3c 64", "12: 90 3e 64", "12: b0 4a 05"), depacketize());
+    }
+
+    @Test
+    public void packetsStayWithinTheMtu() throws IOException {
+        BleMidiPacketizer packetizer = new BleMidiPacketizer();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            // Alternating status defeats running status: 4 bytes per message
+            int status = i % 2 == 0 ? 0x90 : 0xB1;
+            add(packetizer, 1000, status, i, 100);
+            expected.add(String.format("1000: %02x %02x 64", status, i));
+        }
+        packetizer.flush(sink);
+        for (byte[] packet : packets) {
+            assertTrue(packet.length <= BleMidiPacketizer.DEFAULT_MTU - BleMidiPacketizer.ATT_HEADER_LENGTH);
+        }
+        assertEquals(10, packets.size());
+        assertEquals(expected, depacketize());
+
+        packets.clear();
+        packetizer.setMtu(247);
+        for (int i = 0; i < 40; i++) {
+            add(packetizer, 1000, i % 2 == 0 ? 0x90 : 0xB1, i, 100);
+        }
+        packetizer.flush(sink);
+        assertEquals(1, packets.size());
+        assertEquals(expected, depacketize());
+    }
+
+    @Test
+    public void lowTimestampWrapStaysInPacket() throws IOException {
+        BleMidiPacketizer packetizer = new BleMidiPacketizer();
+        add(packetizer, 126, 0x90, 60, 100);
+        add(packetizer, 130, 0x80, 60, 64);
+        // Past 8191 the 13-bit clock wraps; that needs a fresh header
+        add(packetizer, 8190, 0x90, 61, 100);
+        add(packetizer, 8194, 0x80, 61, 64);
+        packetizer.flush(sink);
+
+        assertEquals(3, packets.size());
+        assertEquals(Arrays.asList("126: 90 3c 64", "130: 80 3c 40", "8190: 90 3d 64", "2: 80 3d 40"),
+                depacketize());
+    }
+
+    @Test
+    public void sysExContinuesAcrossPackets() throws IOException {
+        BleMidiPacketizer packetizer = new BleMidiPacketizer();
+        byte[] sysEx = new byte[50];
+        sysEx[0] = (byte) 0xF0;
+        for (int i = 1; i < sysEx.length - 1; i++) {
+            sysEx[i] = (byte) i;
+        }
+        sysEx[sysEx.length - 1] = (byte) 0xF7;
+        add(packetizer, 5, 0x90, 60, 100);
+        packetizer.add(sysEx, 0, sysEx.length, 6, sink);
+        add(packetizer, 7, 0x90, 60, 0);
+        packetizer.flush(sink);
+
+        assertTrue(packets.size() >= 3);
+        List<String> messages = depacketize();
+        assertEquals(3, messages.size());
+        assertTrue(messages.get(1).startsWith("6: f0 01 02"));
+        assertTrue(messages.get(1).endsWith(" 30 f7"));
+        assertEquals("7: 90 3c 00", messages.get(2));
+    }
+
+    @Test
+    public void streamWithRunningStatusAndRealTime() throws IOException {
+        BleMidiPacketizer packetizer = new BleMidiPacketizer();
+        byte[] stream = bytes(0x90, 60, 100, 64, 100, 0xF8, 67, 100, 0xC2, 5);
+        packetizer.addStream(stream, 0, stream.length, 42, sink);
+        packetizer.flush(sink);
+
+        assertEquals(Arrays.asList("42: 90 3c 64", "42: 90 40 64", "42: f8", "42: 90 43 64", "42: c2 05"),
+                depacketize());
+    }
+
+    @Test
+    public void midiLinkSendsStandardMessages() throws IOException {
+        InMemoryTransport transport = new InMemoryTransport() {
+            @Override
+            public boolean carriesMidi() {
+                return true;
+            }
+        };
+        BluetoothManager link = new BluetoothManager(transport);
+        link.setBinaryProtocol(true);
+        try {
+            assertTrue(link.connect());
+            // One at a time, so the send queue's lanes keep them in this order
+            send(link, SynthCommand.NOTE_ON, SynthCommand.noteValue(60, 90, 3));
+            send(link, SynthCommand.NOTE_OFF, 60);
+            send(link, SynthCommand.PANIC, 1);
+            InputStream device = transport.getDeviceInputStream();
+            byte[] wire = new byte[6 + 16 * 6];
+            for (int i = 0; i < wire.length; i++) {
+                wire[i] = (byte) device.read();
+            }
+            // No hello, no ping: the first bytes are the notes
+            assertArrayEquals(bytes(0x93, 60, 90, 0x80, 60, 64), Arrays.copyOf(wire, 6));
+            // PANIC silences every channel, not only the default one the notes went out on
+            for (int channel = 0; channel < 16; channel++) {
+                assertArrayEquals(bytes(0xB0 | channel, 123, 0, 0xB0 | channel, 120, 0),
+                        Arrays.copyOfRange(wire, 6 + channel * 6, 12 + channel * 6));
+            }
+            assertEquals(100, MidiCommandEncoder.controllerValue(SynthCommand.ATTACK, 200));
+            assertEquals(63, MidiCommandEncoder.controllerValue(SynthCommand.OCTAVE, -1));
+        } finally {
+            link.disconnect();
+        }
+    }
+
+    private static void send(BluetoothManager link, int command, int value) {
+        assertTrue(link.sendCommand(command, value));
+        while (link.getQueueDepth() > 0) {
+            Thread.yield();
+        }
+    }
+}
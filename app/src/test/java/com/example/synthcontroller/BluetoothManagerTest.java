@@ -0,0 +1,115 @@
+package com.example.synthcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BluetoothManagerTest {
+
+    private InMemoryTransport transport;
+    private BluetoothManager manager;
+
+    @Before
+    public void setUp() {
+        transport = new InMemoryTransport();
+        manager = new BluetoothManager(transport);
+        manager.setPingInterval(0);
+    }
+
+    @After
+    public void tearDown() {
+        manager.getConnectionManager().stop();
+        manager.disconnect();
+    }
+
+    private long readCommand(InputStream in, SynthProtocolDecoder decoder) throws IOException {
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Link closed");
+            }
+            long packed = decoder.feed(b);
+            if (packed != SynthProtocolDecoder.NONE) {
+                return packed;
+            }
+        }
+    }
+
+    @Test
+    public void commandsArriveInOrder_text() throws IOException {
+        assertTrue(manager.connect());
+        InputStream device = transport.getDeviceInputStream();
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+
+        // One lane, so strictly first in, first out
+        for (int note = 40; note < 100; note++) {
+            assertTrue(manager.sendCommand(SynthCommand.NOTE_ON, note));
+        }
+        for (int note = 40; note < 100; note++) {
+            assertEquals(SynthCommand.pack(SynthCommand.NOTE_ON, note), readCommand(device, decoder));
+        }
+    }
+
+    @Test
+    public void commandsArriveInOrder_binary() throws IOException {
+        manager.setBinaryProtocol(true);
+        assertTrue(manager.connect());
+        InputStream device = transport.getDeviceInputStream();
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+
+        long[] chord = {
+                SynthCommand.pack(SynthCommand.NOTE_ON, 60),
+                SynthCommand.pack(SynthCommand.NOTE_ON, 64),
+                SynthCommand.pack(SynthCommand.NOTE_ON, 67)
+        };
+        assertTrue(manager.sendCommands(chord, 0, chord.length));
+        for (long expected : chord) {
+            assertEquals(expected, readCommand(device, decoder));
+        }
+        assertEquals(1, decoder.getVersion());
+    }
+
+    @Test
+    public void commandsArriveInOrder_runningStatus() throws IOException {
+        manager.setBinaryProtocol(true);
+        manager.setRunningStatus(true);
+        manager.setPingInterval(0);
+        assertTrue(manager.connect());
+        InputStream device = transport.getDeviceInputStream();
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+
+        long[] chord = {
+                SynthCommand.pack(SynthCommand.NOTE_ON, 60),
+                SynthCommand.pack(SynthCommand.NOTE_ON, 64),
+                SynthCommand.pack(SynthCommand.NOTE_ON, 67)
+        };
+        assertTrue(manager.sendCommands(chord, 0, chord.length));
+        for (long expected : chord) {
+            assertEquals(expected, readCommand(device, decoder));
+        }
+        assertEquals(SynthProtocol.VERSION, decoder.getVersion());
+    }
+
+    @Test
+    public void parametersSetWhileDownAreSentOnConnect() throws IOException, InterruptedException {
+        // Sending while down starts a background connect instead of blocking
+        assertFalse(manager.isConnected());
+        assertTrue(manager.sendCommand(SynthCommand.FILTER, 42));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!manager.isConnected() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(manager.isConnected());
+        assertEquals(SynthCommand.pack(SynthCommand.FILTER, 42),
+                readCommand(transport.getDeviceInputStream(), new SynthProtocolDecoder()));
+    }
+}
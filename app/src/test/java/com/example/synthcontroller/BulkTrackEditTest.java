@@ -0,0 +1,204 @@
+package com.example.synthcontroller;
+
+import com.leff.midi.MidiTrack;
+import com.leff.midi.event.MidiEvent;
+import com.leff.midi.event.NoteOn;
+import com.leff.midi.event.meta.EndOfTrack;
+import com.leff.midi.event.meta.Marker;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkTrackEditTest {
+
+    // A take as recorded: overlapping notes plus a marker every bar, in no particular order
+    private static List<MidiEvent> take(long seed) {
+        Random random = new Random(seed);
+        List<MidiEvent> events = new ArrayList<>();
+        Set<Long> keys = new HashSet<>();
+        while (events.size() < 1000) {
+            long tick = 1 + random.nextInt(48_000);
+            long off = tick + 1 + random.nextInt(480);
+            int pitch = 36 + random.nextInt(48);
+            // Identical events at one tick would be one event to the track
+            if (keys.add(tick << 8 | pitch) && keys.add(off << 8 | 0x80 | pitch)) {
+                events.add(new NoteOn(tick, 0, pitch, 1 + random.nextInt(127)));
+                events.add(new NoteOn(off, 0, pitch, 0));
+            }
+        }
+        for (long bar = 0; bar < 48_000; bar += 1920) {
+            events.add(new Marker(bar, 0, "bar " + bar / 1920));
+        }
+        Collections.shuffle(events, random);
+        return events;
+    }
+
+    private static byte[] written(MidiTrack track) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        track.writeToFile(out);
+        return out.toByteArray();
+    }
+
+    private static void assertChunkLengthMatches(byte[] chunk) {
+        int length = (chunk[4] & 0xFF) << 24 | (chunk[5] & 0xFF) << 16 | (chunk[6] & 0xFF) << 8 | chunk[7] & 0xFF;
+        assertEquals(chunk.length - 8, length);
+    }
+
+    // What each tick holds, whatever order the track keeps it in
+    private static Map<Long, Set<String>> contents(MidiTrack track) {
+        Map<Long, Set<String>> contents = new TreeMap<>();
+        for (MidiEvent event : track.getEvents()) {
+            String key = event instanceof NoteOn
+                    ? ((NoteOn) event).getNoteValue() + "/" + ((NoteOn) event).getVelocity()
+                    : event.getClass().getSimpleName() + event.getTick();
+            contents.computeIfAbsent(event.getTick(), t -> new HashSet<>()).add(key);
+        }
+        return contents;
+    }
+
+    // Events at one tick may be kept in another order, which costs or saves a status byte
+    private static void assertSameTrack(MidiTrack expected, MidiTrack actual) {
+        assertEquals(expected.getEventCount(), actual.getEventCount());
+        assertEquals(contents(expected), contents(actual));
+        assertDeltasFollowTicks(actual);
+    }
+
+    private static void assertDeltasFollowTicks(MidiTrack track) {
+        long previous = 0;
+        for (MidiEvent event : track.getEvents()) {
+            assertEquals(event.getTick() - previous, event.getDelta());
+            previous = event.getTick();
+        }
+    }
+
+    @Test
+    public void bulkInsertMatchesInsertingOneByOne() throws IOException {
+        MidiTrack single = new MidiTrack();
+        for (MidiEvent event : take(1)) {
+            single.insertEvent(event);
+        }
+        MidiTrack bulk = new MidiTrack();
+        bulk.insertEvents(take(1));
+        assertSameTrack(single, bulk);
+        assertChunkLengthMatches(written(bulk));
+    }
+
+    @Test
+    public void bulkInsertMergesIntoAnExistingTrack() throws IOException {
+        List<MidiEvent> events = take(2);
+        MidiTrack single = new MidiTrack();
+        MidiTrack bulk = new MidiTrack();
+        for (MidiEvent event : take(2).subList(0, 300)) {
+            single.insertEvent(event);
+        }
+        for (MidiEvent event : events.subList(0, 300)) {
+            bulk.insertEvent(event);
+        }
+        for (MidiEvent event : take(2).subList(300, events.size())) {
+            single.insertEvent(event);
+        }
+        List<MidiEvent> rest = new ArrayList<>(events.subList(300, events.size()));
+        rest.add(new EndOfTrack(60_000, 0));
+        bulk.insertEvents(rest);
+        single.insertEvent(new EndOfTrack(60_000, 0));
+        assertSameTrack(single, bulk);
+        assertChunkLengthMatches(written(bulk));
+    }
+
+    // What a reader of the written file sees: the same events with the same deltas, in a
+    // chunk as long as the size the track kept
+    private static void assertMatchesReparsed(MidiTrack track) throws IOException {
+        byte[] chunk = written(track);
+        assertChunkLengthMatches(chunk);
+        assertEquals(chunk.length - 8, track.getSize());
+
+        MidiTrack reparsed = new MidiTrack(ByteBuffer.wrap(chunk));
+        assertEquals(track.getSize(), reparsed.getSize());
+        List<MidiEvent> expected = new ArrayList<>(track.getEvents());
+        List<MidiEvent> actual = new ArrayList<>(reparsed.getEvents());
+        // A track read from a file keeps its EndOfTrack out of the events, so it can be edited
+        MidiEvent end = expected.remove(expected.size() - 1);
+        assertTrue(end instanceof EndOfTrack);
+        assertEquals(end.getDelta(), reparsed.getEndOfTrackDelta());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getClass(), actual.get(i).getClass());
+            assertEquals(expected.get(i).getTick(), actual.get(i).getTick());
+            assertEquals(expected.get(i).getDelta(), actual.get(i).getDelta());
+        }
+    }
+
+    @Test
+    public void removeIfAndRangeDeleteFixDeltas() throws IOException {
+        MidiTrack track = new MidiTrack();
+        track.insertEvents(take(3));
+        int count = track.getEventCount();
+
+        assertTrue(track.removeIf(event -> event instanceof Marker));
+        assertFalse(track.removeIf(event -> event instanceof Marker));
+        assertEquals(count - 25, track.getEventCount());
+        assertDeltasFollowTicks(track);
+        // Writing closes the track, which adds its EndOfTrack
+        assertMatchesReparsed(track);
+        assertEquals(count - 25 + 1, track.getEventCount());
+
+        int removed = track.removeEvents(9600, 19_200);
+        assertTrue(removed > 0);
+        assertEquals(count - 25 + 1 - removed, track.getEventCount());
+        for (MidiEvent event : track.getEvents()) {
+            assertTrue(event.getTick() < 9600 || event.getTick() >= 19_200);
+        }
+        assertDeltasFollowTicks(track);
+        assertMatchesReparsed(track);
+    }
+
+    // A closed track has to keep the EndOfTrack it was closed with, or it is written without one
+    @Test
+    public void bulkRemovalKeepsTheEndOfTrack() throws IOException {
+        MidiTrack track = new MidiTrack();
+        track.insertEvents(take(4));
+        track.closeTrack();
+        MidiEvent end = track.getEvents().last();
+
+        assertEquals(track.getEventCount() - 1, track.removeEvents(0, Long.MAX_VALUE));
+        assertEquals(1, track.getEventCount());
+        assertTrue(track.getEvents().contains(end));
+        assertMatchesReparsed(track);
+        assertEquals(0, new MidiTrack(ByteBuffer.wrap(written(track))).getEventCount());
+
+        assertFalse(track.removeIf(event -> true));
+        assertEquals(1, track.getEventCount());
+        assertMatchesReparsed(track);
+    }
+
+    @Test
+    public void removeEventLeavesOtherEventsAlone() {
+        MidiTrack track = new MidiTrack();
+        NoteOn first = new NoteOn(0, 0, 60, 100);
+        NoteOn second = new NoteOn(100, 0, 62, 100);
+        NoteOn third = new NoteOn(250, 0, 64, 100);
+        track.insertEvents(List.of(third, first, second));
+
+        assertFalse(track.removeEvent(new NoteOn(300, 0, 65, 100)));
+        assertEquals(3, track.getEventCount());
+        assertTrue(track.removeEvent(second));
+        assertEquals(250, third.getDelta());
+        assertTrue(track.removeEvent(third));
+        assertEquals(1, track.getEventCount());
+    }
+}
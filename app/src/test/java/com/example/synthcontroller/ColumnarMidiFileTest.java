@@ -0,0 +1,140 @@
+package com.example.synthcontroller;
+
+import com.leff.midi.ColumnarMidiFile;
+import com.leff.midi.ColumnarTrack;
+import com.leff.midi.MidiFile;
+import com.leff.midi.MidiTrack;
+import com.leff.midi.event.ChannelEvent;
+import com.leff.midi.event.meta.MetaEvent;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ColumnarMidiFileTest {
+
+    private static byte[] chunk(String id, byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(id.getBytes(StandardCharsets.US_ASCII), 0, 4);
+        out.write(body.length >>> 24);
+        out.write(body.length >>> 16);
+        out.write(body.length >>> 8);
+        out.write(body.length);
+        out.write(body, 0, body.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] b = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            b[i] = (byte) values[i];
+        }
+        return b;
+    }
+
+    private static byte[] file(byte[]... chunks) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] c : chunks) {
+            out.write(c, 0, c.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static final byte[] HEADER = chunk("MThd", bytes(0, 1, 0, 2, 0x01, 0xE0));
+
+    private static final byte[] TEMPO_TRACK = chunk("MTrk", bytes(
+            0x00, 0xFF, 0x03, 0x04, 'L', 'e', 'a', 'd',
+            0x00, 0xFF, 0x51, 0x03, 0x07, 0xA1, 0x20,
+            0x83, 0x60, 0xFF, 0x05, 0x02, 'l', 'a',
+            0x10, 0xFF, 0x2F, 0x00));
+
+    // Running status across a whole chord, a SysEx cancelling it, a program change
+    private static final byte[] NOTE_TRACK = chunk("MTrk", bytes(
+            0x00, 0x91, 60, 100,
+            0x00, 64, 90,
+            0x00, 67, 80,
+            0x81, 0x00, 0x81, 60, 64,
+            0x00, 0xF0, 0x03, 0x7E, 0x09, 0xF7,
+            0x00, 0xC1, 5,
+            0x00, 0x91, 64, 0,
+            0x00, 67, 0,
+            0x00, 0xFF, 0x2F, 0x00));
+
+    @Test
+    public void readsTracksIntoColumns() throws IOException {
+        ColumnarMidiFile midi = new ColumnarMidiFile(new ByteArrayInputStream(file(HEADER, TEMPO_TRACK, NOTE_TRACK)));
+        assertEquals(1, midi.getType());
+        assertEquals(480, midi.getResolution());
+        assertEquals(2, midi.getTrackCount());
+
+        ColumnarTrack tempo = midi.getTrack(0);
+        assertEquals(3, tempo.getEventCount());
+        assertEquals(MetaEvent.TRACK_NAME, tempo.getMetaType(0));
+        assertEquals("Lead", new String(tempo.getPayload(0), StandardCharsets.US_ASCII));
+        assertEquals(500000, tempo.getTempoMpqn(1));
+        assertEquals(480, tempo.getTick(2));
+        assertEquals(-1, tempo.getTempoMpqn(2));
+        assertEquals(0x10, tempo.getEndOfTrackDelta());
+
+        ColumnarTrack notes = midi.getTrack(1);
+        assertEquals(8, notes.getEventCount());
+        assertEquals(ChannelEvent.NOTE_ON, notes.getType(2));
+        assertEquals(1, notes.getChannel(2));
+        assertEquals(67, notes.getData1(2));
+        assertEquals(80, notes.getData2(2));
+        assertEquals(ChannelEvent.NOTE_OFF, notes.getType(3));
+        assertEquals(128, notes.getTick(3));
+        assertEquals(ColumnarTrack.SYSEX, notes.getStatus(4));
+        assertArrayEquals(bytes(0x7E, 0x09, 0xF7), notes.getPayload(4));
+        assertEquals(0, notes.getPayloadLength(5));
+        assertEquals(ChannelEvent.PROGRAM_CHANGE, notes.getType(5));
+        assertEquals(67, notes.getData1(7));
+        assertEquals(0, notes.getSkippedCount());
+        assertEquals(480, midi.getLengthInTicks());
+    }
+
+    @Test
+    public void adapterMatchesMidiFile() throws IOException {
+        byte[] smf = file(HEADER, TEMPO_TRACK, NOTE_TRACK);
+        MidiFile expected = new MidiFile(new ByteArrayInputStream(smf));
+        MidiFile actual = new ColumnarMidiFile(new ByteArrayInputStream(smf)).toMidiFile();
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getResolution(), actual.getResolution());
+        assertEquals(expected.getTrackCount(), actual.getTrackCount());
+        for (int t = 0; t < expected.getTrackCount(); t++) {
+            MidiTrack e = expected.getTracks().get(t);
+            MidiTrack a = actual.getTracks().get(t);
+            assertEquals(e.getEventCount(), a.getEventCount());
+            assertEquals(e.getEndOfTrackDelta(), a.getEndOfTrackDelta());
+            assertEquals(e.getEvents().toString(), a.getEvents().toString());
+            assertArrayEquals(written(e), written(a));
+        }
+    }
+
+    private static byte[] written(MidiTrack track) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        track.writeToFile(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void skipsForeignChunksAndKeepsTruncatedTracks() throws IOException {
+        byte[] smf = file(HEADER, chunk("XFIH", bytes(1, 2, 3)), TEMPO_TRACK, NOTE_TRACK);
+        // Cut the file in the middle of the second note-off
+        ColumnarMidiFile midi = new ColumnarMidiFile(new ByteArrayInputStream(Arrays.copyOf(smf, smf.length - 6)));
+        assertEquals(2, midi.getTrackCount());
+        assertEquals(3, midi.getTrack(0).getEventCount());
+        assertEquals(7, midi.getTrack(1).getEventCount());
+
+        ColumnarMidiFile notMidi = new ColumnarMidiFile(new ByteArrayInputStream(bytes('R', 'I', 'F', 'F')));
+        assertEquals(0, notMidi.getTrackCount());
+        assertEquals(0, notMidi.getEventCount());
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.synthcontroller;
+
+import com.leff.midi.ColumnarMidiFile;
+import com.leff.midi.MidiFile;
+import com.leff.midi.MidiTrack;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Parse time and retained heap per event for MidiFile and ColumnarMidiFile on the same
+ * {@link GeneratedMidiFile}. Heap is what is still reachable from the parsed file after a GC.
+ * Only prints what it measured; run it by hand.
+ */
+@Ignore("Benchmark: run by hand")
+public class ColumnarParseBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void columnarParsingAgainstObjects() throws IOException {
+        byte[] smf = GeneratedMidiFile.generate(new Random(11));
+        int events = new ColumnarMidiFile(new ByteArrayInputStream(smf)).getEventCount();
+        assertEquals(GeneratedMidiFile.EVENTS, events);
+
+        // Warm both up before timing
+        for (int i = 0; i < 2; i++) {
+            new MidiFile(new ByteArrayInputStream(smf));
+            new ColumnarMidiFile(new ByteArrayInputStream(smf));
+        }
+        long objectNanos = Long.MAX_VALUE;
+        long columnarNanos = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            new MidiFile(new ByteArrayInputStream(smf));
+            objectNanos = Math.min(objectNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            new ColumnarMidiFile(new ByteArrayInputStream(smf));
+            columnarNanos = Math.min(columnarNanos, System.nanoTime() - start);
+        }
+
+        long base = usedHeap();
+        MidiFile objects = new MidiFile(new ByteArrayInputStream(smf));
+        long objectBytes = usedHeap() - base;
+        assertEquals(events, objects.getTracks().stream().mapToInt(MidiTrack::getEventCount).sum());
+        objects = null;
+        base = usedHeap();
+        ColumnarMidiFile columns = new ColumnarMidiFile(new ByteArrayInputStream(smf));
+        long columnarBytes = usedHeap() - base;
+        assertEquals(events, columns.getEventCount());
+
+        System.out.printf("%-10s %9s %9s %10s%n", "parser", "ms", "ns/event", "bytes/event");
+        System.out.printf("%-10s %9.1f %9.0f %10.1f%n", "MidiFile", objectNanos / 1e6,
+                (double) objectNanos / events, (double) objectBytes / events);
+        System.out.printf("%-10s %9.1f %9.0f %10.1f%n", "columnar", columnarNanos / 1e6,
+                (double) columnarNanos / events, (double) columnarBytes / events);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
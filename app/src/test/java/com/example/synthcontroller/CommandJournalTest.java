@@ -0,0 +1,167 @@
+package com.example.synthcontroller;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommandJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static void recordSession(CommandJournal journal) {
+        long start = System.nanoTime();
+        journal.record(SynthCommand.ATTACK, 40, start);
+        journal.record(SynthCommand.NOTE_ON, SynthCommand.noteValue(60, 100, -1), start + 10 * MS);
+        journal.record(SynthCommand.NOTE_OFF, 60, start + 30 * MS);
+        journal.record(SynthCommand.PANIC, 1, start + 31 * MS);
+    }
+
+    private static List<Long> packed(CommandJournal.Reader reader) throws IOException {
+        List<Long> commands = new ArrayList<>();
+        while (reader.next()) {
+            commands.add(reader.getPacked());
+        }
+        return commands;
+    }
+
+    @Test
+    public void recordsRoundTripWithTheirTiming() throws IOException {
+        CommandJournal journal = new CommandJournal(1024);
+        recordSession(journal);
+        assertEquals(4, journal.getRecordCount());
+
+        CommandJournal.Reader reader = CommandJournal.read(journal.toByteArray());
+        long[] expectedGaps = {0, 10 * MS, 20 * MS, MS};
+        long previous = 0;
+        for (long gap : expectedGaps) {
+            assertTrue(reader.next());
+            if (previous > 0) {
+                assertEquals(gap, reader.getNanos() - previous);
+            }
+            previous = reader.getNanos();
+        }
+        assertEquals(SynthCommand.PANIC, reader.getCommand());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void fullJournalDropsInsteadOfGrowing() {
+        CommandJournal journal = new CommandJournal(64);
+        int recorded = 0;
+        for (int i = 0; i < 100; i++) {
+            if (journal.record(SynthCommand.NOTE_ON, i)) {
+                recorded++;
+            }
+        }
+        assertEquals(recorded, journal.getRecordCount());
+        assertEquals(100 - recorded, journal.getDroppedCount());
+        assertTrue(journal.getLength() <= 64);
+    }
+
+    @Test
+    public void mappedJournalIsReadableBeforeAndAfterClose() throws IOException {
+        File file = folder.newFile("session.journal");
+        CommandJournal journal = CommandJournal.create(file, 4096);
+        recordSession(journal);
+        // The header is kept current, so a journal left open by a crash still reads back
+        assertEquals(4, packed(CommandJournal.read(file)).size());
+
+        journal.close();
+        assertEquals(journal.getLength(), file.length());
+        assertEquals(packed(journal.reader()), packed(CommandJournal.read(file)));
+        assertFalse(journal.record(SynthCommand.NOTE_ON, 60));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        CommandJournal.read(new byte[]{'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 0, 0, 0, 0, 0, 0, 0});
+    }
+
+    @Test
+    public void replayKeepsTheOriginalPace() throws IOException, InterruptedException {
+        CommandJournal journal = new CommandJournal(1024);
+        recordSession(journal);
+        List<Long> received = new ArrayList<>();
+        CommandJournal.Sink sink = (command, value) -> received.add(SynthCommand.pack(command, value));
+        JournalReplayer replayer = new JournalReplayer();
+
+        long start = System.nanoTime();
+        assertEquals(4, replayer.replay(journal.reader(), sink, new AtomicBoolean(true)));
+        long elapsed = System.nanoTime() - start;
+        assertTrue("replay took " + elapsed, elapsed >= 31 * MS);
+        assertEquals(packed(journal.reader()), received);
+
+        replayer.setSpeed(JournalReplayer.AS_FAST_AS_POSSIBLE);
+        start = System.nanoTime();
+        replayer.replay(journal.reader(), sink, new AtomicBoolean(true));
+        assertTrue(System.nanoTime() - start < 31 * MS);
+    }
+
+    @Test
+    public void replayReproducesTheSessionOnTheWire() throws IOException, InterruptedException {
+        CommandJournal journal = new CommandJournal(4096);
+        String original = playThroughLink(ensemble -> {
+            ensemble.setJournal(journal);
+            for (int note = 60; note < 64; note++) {
+                ensemble.sendCommand(SynthCommand.NOTE_ON, note);
+                ensemble.sendCommand(SynthCommand.NOTE_OFF, note);
+            }
+            ensemble.sendCommand(SynthCommand.PANIC, 1);
+        });
+        JournalReplayer replayer = new JournalReplayer();
+        replayer.setSpeed(JournalReplayer.AS_FAST_AS_POSSIBLE);
+        String replayed = playThroughLink(ensemble ->
+                replayer.replay(journal.reader(), ensemble::sendCommand, new AtomicBoolean(true)));
+        assertEquals(9, replayer.getSentCount());
+        assertEquals(original, replayed);
+    }
+
+    private interface Session {
+        void play(SynthEnsemble ensemble) throws IOException, InterruptedException;
+    }
+
+    // Everything the session put on the wire. Each command is let through before the next so
+    // the send queue's priorities can't reorder them.
+    private static String playThroughLink(Session session) throws IOException, InterruptedException {
+        InMemoryTransport transport = new InMemoryTransport();
+        BluetoothManager link = new BluetoothManager(transport);
+        link.setPingInterval(0);
+        try {
+            assertTrue(link.connect());
+            SynthEnsemble ensemble = new SynthEnsemble(link, SynthEnsemble.DEFAULT_VOICES) {
+                @Override
+                public synchronized boolean sendCommand(int command, int value) {
+                    boolean sent = super.sendCommand(command, value);
+                    while (link.getQueueDepth() > 0) {
+                        Thread.yield();
+                    }
+                    return sent;
+                }
+            };
+            session.play(ensemble);
+            InputStream device = transport.getDeviceInputStream();
+            StringBuilder wire = new StringBuilder();
+            while (!wire.toString().endsWith("PANIC:1\n")) {
+                wire.append((char) device.read());
+            }
+            return wire.toString();
+        } finally {
+            link.disconnect();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.synthcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionManagerTest {
+
+    /** Refuses the first few opens, like a synth that is still booting. */
+    private static class FlakyTransport extends InMemoryTransport {
+        volatile int failuresLeft;
+
+        @Override
+        public synchronized void open() throws IOException {
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                throw new IOException("Connection refused");
+            }
+            super.open();
+        }
+    }
+
+    private FlakyTransport transport;
+    private BluetoothManager manager;
+    private ConnectionManager connection;
+    private final List<Integer> states = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        transport = new FlakyTransport();
+        manager = new BluetoothManager(transport);
+        manager.setPingInterval(0);
+        connection = manager.getConnectionManager();
+        connection.setBackoff(5, 20);
+        connection.addListener(states::add);
+    }
+
+    @After
+    public void tearDown() {
+        connection.stop();
+    }
+
+    private void awaitState(int state) throws InterruptedException {
+        CountDownLatch reached = new CountDownLatch(1);
+        ConnectionManager.LinkStateListener listener = s -> {
+            if (s == state) {
+                reached.countDown();
+            }
+        };
+        connection.addListener(listener);
+        if (connection.getState() == state) {
+            reached.countDown();
+        }
+        assertTrue("Timed out waiting for " + ConnectionManager.stateName(state),
+                reached.await(2, TimeUnit.SECONDS));
+        connection.removeListener(listener);
+    }
+
+    @Test
+    public void retriesWithBackoffUntilConnected() throws InterruptedException {
+        transport.failuresLeft = 3;
+        connection.start();
+        awaitState(ConnectionManager.STATE_CONNECTED);
+
+        assertTrue(manager.isConnected());
+        assertEquals(0, transport.failuresLeft);
+        assertEquals(Integer.valueOf(ConnectionManager.STATE_CONNECTING), states.get(0));
+        assertTrue(states.contains(ConnectionManager.STATE_BACKING_OFF));
+        assertEquals(Integer.valueOf(ConnectionManager.STATE_CONNECTED), states.get(states.size() - 1));
+    }
+
+    @Test
+    public void droppedLinkReconnectsAndReplaysParameters() throws Exception {
+        connection.start();
+        awaitState(ConnectionManager.STATE_CONNECTED);
+        manager.sendCommand(SynthCommand.ATTACK, 10);
+        manager.sendCommand(SynthCommand.REVERB, 99);
+        InputStream oldLink = transport.getDeviceInputStream();
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        assertEquals(SynthCommand.pack(SynthCommand.ATTACK, 10), readCommand(oldLink, decoder));
+        assertEquals(SynthCommand.pack(SynthCommand.REVERB, 99), readCommand(oldLink, decoder));
+
+        // Simulate the synth going away: the next write fails
+        transport.close();
+        states.clear();
+        manager.sendCommand(SynthCommand.NOTE_ON, 60);
+        manager.sendCommand(SynthCommand.ATTACK, 20);
+        awaitState(ConnectionManager.STATE_CONNECTED);
+        assertTrue(states.contains(ConnectionManager.STATE_CONNECTING));
+
+        // Without pings nothing says the synth kept REVERB through the outage, so it goes
+        // out again along with the changed ATTACK
+        InputStream device = transport.getDeviceInputStream();
+        assertTrue(device != oldLink);
+        decoder = new SynthProtocolDecoder();
+        assertEquals(SynthCommand.pack(SynthCommand.ATTACK, 20), readCommand(device, decoder));
+        assertEquals(SynthCommand.pack(SynthCommand.REVERB, 99), readCommand(device, decoder));
+
+        manager.forceFullResync();
+        assertEquals(SynthCommand.pack(SynthCommand.ATTACK, 20), readCommand(device, decoder));
+        assertEquals(SynthCommand.pack(SynthCommand.REVERB, 99), readCommand(device, decoder));
+        // Nothing was skipped against a shadow the reconnect cleared
+        assertEquals(0, manager.getUnchangedParameterCount());
+    }
+
+    @Test
+    public void lateReportOfAReplacedLinkDoesNotReconnectAgain() throws Exception {
+        connection.start();
+        awaitState(ConnectionManager.STATE_CONNECTED);
+        int first = manager.getConnectionNumber();
+        transport.close();
+        manager.sendCommand(SynthCommand.NOTE_ON, 60);
+        awaitState(ConnectionManager.STATE_CONNECTING);
+        awaitState(ConnectionManager.STATE_CONNECTED);
+        assertTrue(manager.getConnectionNumber() > first);
+
+        // The first link's writer only now gets round to reporting its failed write
+        states.clear();
+        connection.onConnectionLost(first);
+        assertEquals(ConnectionManager.STATE_CONNECTED, connection.getState());
+        assertTrue(states.isEmpty());
+        assertTrue(manager.isConnected());
+    }
+
+    @Test
+    public void stopDisconnects() throws InterruptedException {
+        connection.start();
+        awaitState(ConnectionManager.STATE_CONNECTED);
+        connection.stop();
+        assertEquals(ConnectionManager.STATE_DISCONNECTED, connection.getState());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (manager.isConnected() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(!manager.isConnected());
+    }
+
+    private long readCommand(InputStream in, SynthProtocolDecoder decoder) throws IOException {
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Link closed");
+            }
+            long packed = decoder.feed(b);
+            if (packed != SynthProtocolDecoder.NONE) {
+                return packed;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.synthcontroller;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceShadowTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final InMemoryTransport transport = new InMemoryTransport();
+    private final BluetoothManager manager = new BluetoothManager(transport);
+
+    @After
+    public void tearDown() {
+        manager.disconnect();
+    }
+
+    @Test
+    public void matchesOnlyRecordedValues() {
+        DeviceShadow shadow = new DeviceShadow();
+        assertFalse(shadow.matches(SynthCommand.FILTER, 0));
+        shadow.record(SynthCommand.FILTER, 200);
+        assertTrue(shadow.matches(SynthCommand.FILTER, 200));
+        assertFalse(shadow.matches(SynthCommand.FILTER, 201));
+
+        shadow.invalidate(1 << SynthCommand.FILTER);
+        assertFalse(shadow.matches(SynthCommand.FILTER, 200));
+    }
+
+    @Test
+    public void restartedClockForgetsEverything() {
+        DeviceShadow shadow = new DeviceShadow();
+        shadow.record(SynthCommand.ATTACK, 5);
+        assertFalse(shadow.onDeviceClock(90_000_000, 10 * SECOND));
+        // Ten seconds later the synth's clock has moved ten seconds, across its wrap
+        assertFalse(shadow.onDeviceClock(90_000_000 + 10_000_000, 20 * SECOND));
+        assertFalse(shadow.onDeviceClock(Integer.MAX_VALUE, 20 * SECOND));
+        assertFalse(shadow.onDeviceClock(Integer.MIN_VALUE + 999_999, 21 * SECOND));
+        assertTrue(shadow.matches(SynthCommand.ATTACK, 5));
+
+        // Two seconds later it reads three seconds since boot
+        assertTrue(shadow.onDeviceClock(3_000_000, 23 * SECOND));
+        assertEquals(0, shadow.getValidMask());
+    }
+
+    @Test
+    public void reconnectForgetsUnlessAPongCanVouch() {
+        DeviceShadow shadow = new DeviceShadow();
+        shadow.record(SynthCommand.ATTACK, 5);
+        // No pong has ever come, as with firmware that does not answer pings
+        assertFalse(shadow.onConnect(true));
+        assertEquals(0, shadow.getValidMask());
+
+        shadow.record(SynthCommand.ATTACK, 5);
+        assertFalse(shadow.onDeviceClock(90_000_000, 10 * SECOND));
+        // Pings off, or a BLE-MIDI link: there will be no pong to tell
+        assertFalse(shadow.onConnect(false));
+        assertEquals(0, shadow.getValidMask());
+    }
+
+    @Test
+    public void pongAfterReconnectSettlesTheDoubt() {
+        DeviceShadow shadow = new DeviceShadow();
+        shadow.record(SynthCommand.ATTACK, 5);
+        assertFalse(shadow.onDeviceClock(90_000_000, 10 * SECOND));
+
+        // The synth kept running through a five second outage
+        assertTrue(shadow.onConnect(true));
+        assertTrue(shadow.isInDoubt());
+        assertFalse(shadow.onDeviceClock(95_000_000, 15 * SECOND));
+        assertFalse(shadow.isInDoubt());
+        assertTrue(shadow.matches(SynthCommand.ATTACK, 5));
+
+        // This time it was power-cycled
+        assertTrue(shadow.onConnect(true));
+        assertTrue(shadow.onDeviceClock(1_000_000, 20 * SECOND));
+        assertFalse(shadow.isInDoubt());
+        assertEquals(0, shadow.getValidMask());
+
+        // And here the pong never came
+        shadow.record(SynthCommand.ATTACK, 5);
+        assertTrue(shadow.onConnect(true));
+        shadow.onDoubtExpired();
+        assertFalse(shadow.isInDoubt());
+        assertEquals(0, shadow.getValidMask());
+    }
+
+    @Test
+    public void unchangedParametersAreNotResent() throws IOException {
+        manager.setPingInterval(0);
+        manager.setBinaryProtocol(true);
+        assertTrue(manager.connect());
+        InputStream device = transport.getDeviceInputStream();
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+
+        manager.sendCommand(SynthCommand.FILTER, 100);
+        assertEquals(SynthCommand.pack(SynthCommand.FILTER, 100), readCommand(device, decoder));
+        // Like a rotation restoring the same values, then a preset that changes one
+        manager.sendCommand(SynthCommand.FILTER, 100);
+        manager.sendCommand(SynthCommand.DETUNE, 7);
+        assertEquals(SynthCommand.pack(SynthCommand.DETUNE, 7), readCommand(device, decoder));
+        assertEquals(1, manager.getUnchangedParameterCount());
+    }
+
+    private long readCommand(InputStream in, SynthProtocolDecoder decoder) throws IOException {
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Link closed");
+            }
+            long packed = decoder.feed(b);
+            if (packed != SynthProtocolDecoder.NONE) {
+                return packed;
+            }
+        }
+    }
+}
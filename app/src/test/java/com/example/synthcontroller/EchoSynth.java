@@ -0,0 +1,74 @@
+package com.example.synthcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for the firmware on the device side of an {@link InMemoryTransport}: decodes what
+ * the phone sends and answers pings like the sketch does, using a clock that can be offset
+ * from and drift against System.nanoTime().
+ */
+class EchoSynth extends Thread {
+    private final InputStream in;
+    private final OutputStream out;
+    private final long clockOffsetMicros;
+    private final double clockDriftPpm;
+    private final long replyDelayNanos;
+    private final long startNanos = System.nanoTime();
+
+    volatile int pings;
+    volatile int scheduled;
+    volatile int lastPlayAt;
+
+    EchoSynth(InMemoryTransport transport, long clockOffsetMicros, double clockDriftPpm, long replyDelayMicros) {
+        super("EchoSynth");
+        this.in = transport.getDeviceInputStream();
+        this.out = transport.getDeviceOutputStream();
+        this.clockOffsetMicros = clockOffsetMicros;
+        this.clockDriftPpm = clockDriftPpm;
+        this.replyDelayNanos = TimeUnit.MICROSECONDS.toNanos(replyDelayMicros);
+        setDaemon(true);
+    }
+
+    long deviceMicros(long nanos) {
+        long elapsed = nanos - startNanos;
+        return (nanos + (long) (elapsed * clockDriftPpm * 1e-6)) / 1000 + clockOffsetMicros;
+    }
+
+    @Override
+    public void run() {
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        byte[] pong = new byte[SynthProtocol.PONG_LENGTH];
+        try {
+            int b;
+            while ((b = in.read()) >= 0) {
+                long packed = decoder.feed(b);
+                if (packed != SynthProtocolDecoder.NONE && SynthCommand.command(packed) == SynthCommand.AT) {
+                    lastPlayAt = SynthCommand.value(packed);
+                    scheduled++;
+                }
+                if (packed == SynthProtocolDecoder.NONE || SynthCommand.command(packed) != SynthCommand.PING) {
+                    continue;
+                }
+                long due = System.nanoTime() + replyDelayNanos;
+                while (System.nanoTime() < due) {
+                    Thread.onSpinWait();
+                }
+                int sequence = SynthCommand.value(packed);
+                int micros = (int) deviceMicros(System.nanoTime());
+                if (decoder.getVersion() > 0) {
+                    out.write(pong, 0, SynthProtocol.writePong(sequence, micros, pong, 0));
+                } else {
+                    String line = "PONG:" + sequence + ":" + (micros & 0xFFFFFFFFL) + "\n";
+                    out.write(line.getBytes(StandardCharsets.US_ASCII));
+                }
+                pings++;
+            }
+        } catch (IOException e) {
+            // link closed
+        }
+    }
+}
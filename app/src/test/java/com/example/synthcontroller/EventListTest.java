@@ -0,0 +1,144 @@
+package com.example.synthcontroller;
+
+import com.leff.midi.EventList;
+import com.leff.midi.MidiTrack;
+import com.leff.midi.event.MidiEvent;
+import com.leff.midi.event.NoteOff;
+import com.leff.midi.event.NoteOn;
+import com.leff.midi.event.ProgramChange;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EventListTest {
+
+    private static MidiEvent randomEvent(Random random) {
+        long tick = random.nextInt(64) * 10L;
+        int channel = random.nextInt(2);
+        int pitch = 60 + random.nextInt(4);
+        switch (random.nextInt(3)) {
+            case 0:
+                return new NoteOff(tick, channel, pitch, 0);
+            case 1:
+                return new ProgramChange(tick, channel, random.nextInt(4));
+            default:
+                return new NoteOn(tick, channel, pitch, 1 + random.nextInt(2));
+        }
+    }
+
+    // Channel events only: a meta event and a channel event at the same tick and delta each
+    // claim to sort after the other, and no two containers need agree on such a pair
+    @Test
+    public void ordersAndDeduplicatesLikeATreeSet() {
+        Random random = new Random(7);
+        EventList list = new EventList();
+        TreeSet<MidiEvent> set = new TreeSet<>();
+        for (int i = 0; i < 2000; i++) {
+            MidiEvent event = randomEvent(random);
+            assertEquals(set.add(event), list.add(event));
+        }
+        assertEquals(set.size(), list.size());
+        assertEquals(new ArrayList<>(set), new ArrayList<>(list));
+        assertSame(set.first(), list.first());
+        assertSame(set.last(), list.last());
+    }
+
+    @Test
+    public void floorAndCeiling() {
+        EventList list = new EventList();
+        NoteOn a = new NoteOn(100, 0, 60, 100);
+        NoteOn b = new NoteOn(200, 0, 60, 100);
+        list.add(b);
+        list.add(a);
+        NoteOn between = new NoteOn(150, 0, 60, 100);
+        assertSame(a, list.floor(between));
+        assertSame(b, list.ceiling(between));
+        assertNull(list.floor(new NoteOn(50, 0, 60, 100)));
+        assertNull(list.ceiling(new NoteOn(250, 0, 60, 100)));
+        assertSame(a, list.floor(a));
+    }
+
+    @Test
+    public void navigatesAndViewsLikeATreeSet() {
+        Random random = new Random(9);
+        EventList list = new EventList();
+        TreeSet<MidiEvent> set = new TreeSet<>();
+        for (int i = 0; i < 500; i++) {
+            MidiEvent event = randomEvent(random);
+            set.add(event);
+            list.add(event);
+        }
+        for (int i = 0; i < 200; i++) {
+            MidiEvent probe = randomEvent(random);
+            assertSame(set.lower(probe), list.lower(probe));
+            assertSame(set.higher(probe), list.higher(probe));
+        }
+        MidiEvent from = set.ceiling(new NoteOff(150, 0, 60, 0));
+        MidiEvent to = set.floor(new NoteOn(450, 1, 63, 2));
+        assertEquals(new ArrayList<>(set.subSet(from, true, to, false)),
+                new ArrayList<>(list.subSet(from, true, to, false)));
+        assertEquals(new ArrayList<>(set.headSet(to, true).descendingSet()),
+                new ArrayList<>(list.headSet(to, true).descendingSet()));
+        assertEquals(new ArrayList<>(set.descendingSet().headSet(to)),
+                new ArrayList<>(list.descendingSet().headSet(to)));
+        assertEquals(new ArrayList<>(set.tailSet(from, true).subSet(from, false, to, true)),
+                new ArrayList<>(list.tailSet(from, true).subSet(from, false, to, true)));
+
+        // Views are backed by the list
+        int before = list.size();
+        int removed = list.subSet(from, to).size();
+        list.subSet(from, to).clear();
+        assertEquals(before - removed, list.size());
+        assertTrue(list.subSet(from, to).isEmpty());
+        assertSame(list.first(), list.descendingSet().pollLast());
+        assertEquals(before - removed - 1, list.size());
+    }
+
+    @Test
+    public void iteratorRemovesInPlace() {
+        EventList list = new EventList();
+        for (int i = 0; i < 10; i++) {
+            list.add(new NoteOn(i * 10L, 0, 60, 100));
+        }
+        for (Iterator<MidiEvent> it = list.iterator(); it.hasNext(); ) {
+            if (it.next().getTick() % 20 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(5, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(i * 20L + 10, list.get(i).getTick());
+        }
+    }
+
+    @Test
+    public void eventsAreFoundAfterTheirDeltaChanged() {
+        MidiTrack track = new MidiTrack();
+        List<MidiEvent> notes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            NoteOn note = new NoteOn(i * 10L, 0, 60 + i, 100);
+            notes.add(note);
+            track.insertEvent(note);
+        }
+        // Inserting in front of an event rewrites its delta, which it sorts by
+        track.insertEvent(new NoteOn(35, 0, 50, 100));
+        assertEquals(5, notes.get(4).getDelta());
+        for (MidiEvent note : notes) {
+            assertTrue(track.getEvents().contains(note));
+        }
+        assertTrue(track.removeEvent(notes.get(4)));
+        assertFalse(track.getEvents().contains(notes.get(4)));
+        assertEquals(15, notes.get(5).getDelta());
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.synthcontroller;
+
+import com.leff.midi.EventList;
+import com.leff.midi.MidiFile;
+import com.leff.midi.MidiTrack;
+import com.leff.midi.event.MidiEvent;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * TreeSet against EventList as a track's event storage, on the events of a
+ * {@link GeneratedMidiFile}: appending them in order as a parse does, iterating them as
+ * playback and writing do, and inserting a shuffled copy as an editor might. Best of several rounds.
+ * Only prints what it measured; run it by hand.
+ */
+@Ignore("Benchmark: run by hand")
+public class EventStorageBenchmark {
+
+    private static final int ROUNDS = 7;
+    private static final int SHUFFLED = 20_000;
+
+    private static long sink;
+
+    @Test
+    public void storageCosts() throws IOException {
+        MidiFile midi = new MidiFile(new ByteArrayInputStream(GeneratedMidiFile.generate(new Random(11))));
+        List<List<MidiEvent>> tracks = new ArrayList<>();
+        for (MidiTrack track : midi.getTracks()) {
+            tracks.add(new ArrayList<>(track.getEvents()));
+        }
+        List<MidiEvent> shuffled = new ArrayList<>(tracks.get(0).subList(0, SHUFFLED));
+        Collections.shuffle(shuffled, new Random(3));
+
+        Supplier<Collection<MidiEvent>> treeSet = TreeSet::new;
+        Supplier<Collection<MidiEvent>> eventList = EventList::new;
+        long[] tree = measure(treeSet, tracks, shuffled);
+        long[] array = measure(eventList, tracks, shuffled);
+
+        int events = tracks.stream().mapToInt(List::size).sum();
+        System.out.printf("%-10s %12s %12s %12s%n", "storage", "append ns/ev", "iterate ns/ev", "shuffled ns/ev");
+        print("TreeSet", tree, events);
+        print("EventList", array, events);
+    }
+
+    // Pasting a shuffled take into a track and then deleting every other note
+    @Test
+    public void bulkEditsAgainstOneAtATime() throws IOException {
+        MidiFile midi = new MidiFile(new ByteArrayInputStream(GeneratedMidiFile.generate(new Random(11))));
+        List<MidiEvent> take = new ArrayList<>(midi.getTracks().get(0).getEvents()).subList(0, SHUFFLED);
+        Collections.shuffle(take, new Random(5));
+
+        long single = Long.MAX_VALUE;
+        long bulk = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            MidiTrack track = new MidiTrack();
+            for (MidiEvent event : take) {
+                track.insertEvent(event);
+            }
+            List<MidiEvent> doomed = new ArrayList<>();
+            for (MidiEvent event : track.getEvents()) {
+                if (event.getTick() % 2 == 0) {
+                    doomed.add(event);
+                }
+            }
+            for (MidiEvent event : doomed) {
+                track.removeEvent(event);
+            }
+            single = Math.min(single, System.nanoTime() - start);
+            int remaining = track.getEventCount();
+
+            start = System.nanoTime();
+            track = new MidiTrack();
+            track.insertEvents(take);
+            track.removeIf(event -> event.getTick() % 2 == 0);
+            bulk = Math.min(bulk, System.nanoTime() - start);
+            assertEquals(remaining, track.getEventCount());
+        }
+
+        System.out.printf("%-12s %10s%n", "track edit", "ms");
+        System.out.printf("%-12s %10.1f%n", "one by one", single / 1e6);
+        System.out.printf("%-12s %10.1f%n", "bulk", bulk / 1e6);
+    }
+
+    private static long[] measure(Supplier<Collection<MidiEvent>> storage, List<List<MidiEvent>> tracks,
+                                  List<MidiEvent> shuffled) {
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int round = 0; round < ROUNDS; round++) {
+            List<Collection<MidiEvent>> built = new ArrayList<>();
+            long start = System.nanoTime();
+            for (List<MidiEvent> track : tracks) {
+                Collection<MidiEvent> events = storage.get();
+                for (MidiEvent event : track) {
+                    events.add(event);
+                }
+                built.add(events);
+            }
+            best[0] = Math.min(best[0], System.nanoTime() - start);
+
+            start = System.nanoTime();
+            long ticks = 0;
+            for (Collection<MidiEvent> events : built) {
+                for (MidiEvent event : events) {
+                    ticks += event.getTick();
+                }
+            }
+            best[1] = Math.min(best[1], System.nanoTime() - start);
+            sink += ticks;
+
+            start = System.nanoTime();
+            Collection<MidiEvent> events = storage.get();
+            for (MidiEvent event : shuffled) {
+                events.add(event);
+            }
+            best[2] = Math.min(best[2], System.nanoTime() - start);
+            assertEquals(shuffled.size(), events.size());
+        }
+        return best;
+    }
+
+    private static void print(String name, long[] nanos, int events) {
+        System.out.printf("%-10s %12.1f %12.1f %12.1f%n", name, (double) nanos[0] / events,
+                (double) nanos[1] / events, (double) nanos[2] / SHUFFLED);
+    }
+}
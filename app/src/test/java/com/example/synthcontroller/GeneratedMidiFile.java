@@ -0,0 +1,66 @@
+package com.example.synthcontroller;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * A generated standard MIDI file for parser tests and benchmarks: sixteen tracks of dense
+ * piano-like notes with running status, around half a million events.
+ */
+final class GeneratedMidiFile {
+    static final int TRACKS = 16;
+    static final int NOTES_PER_TRACK = 16_000;
+    static final int EVENTS = TRACKS * NOTES_PER_TRACK * 2;
+
+    private GeneratedMidiFile() {
+    }
+
+    // Notes as they come off a keyboard: overlapping, note-on with velocity 0 as the off
+    static byte[] generate(Random random) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        chunk(out, "MThd", new byte[]{0, 1, 0, (byte) TRACKS, 0x01, (byte) 0xE0});
+        for (int t = 0; t < TRACKS; t++) {
+            ByteArrayOutputStream track = new ByteArrayOutputStream();
+            int channel = t & 0x0F;
+            int pending = -1;
+            for (int n = 0; n < NOTES_PER_TRACK; n++) {
+                int note = 36 + random.nextInt(60);
+                writeDelta(track, random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(240));
+                if (n == 0) {
+                    track.write(0x90 | channel);
+                }
+                track.write(note);
+                track.write(1 + random.nextInt(127));
+                if (pending >= 0) {
+                    writeDelta(track, random.nextInt(60));
+                    track.write(pending);
+                    track.write(0);
+                }
+                pending = note;
+            }
+            track.write(0);
+            track.write(pending);
+            track.write(0);
+            track.write(new byte[]{0, (byte) 0xFF, 0x2F, 0}, 0, 4);
+            chunk(out, "MTrk", track.toByteArray());
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeDelta(ByteArrayOutputStream out, int delta) {
+        if (delta >= 0x80) {
+            out.write(0x80 | (delta >> 7));
+        }
+        out.write(delta & 0x7F);
+    }
+
+    private static void chunk(ByteArrayOutputStream out, String id, byte[] body) {
+        for (int i = 0; i < 4; i++) {
+            out.write(id.charAt(i));
+        }
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            out.write(body.length >>> shift);
+        }
+        out.write(body, 0, body.length);
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.synthcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyProbeTest {
+
+    private InMemoryTransport transport;
+    private BluetoothManager manager;
+
+    @Before
+    public void setUp() {
+        transport = new InMemoryTransport();
+        manager = new BluetoothManager(transport);
+        manager.setPingInterval(0);
+    }
+
+    @After
+    public void tearDown() {
+        manager.disconnect();
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram(1000);
+        for (int micros = 1; micros <= 1000; micros++) {
+            histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals(500, histogram.getP50Micros(), 500 * 0.04);
+        assertEquals(950, histogram.getP95Micros(), 950 * 0.04);
+        assertEquals(990, histogram.getP99Micros(), 990 * 0.04);
+    }
+
+    @Test
+    public void histogramOnlyKeepsWindow() {
+        LatencyHistogram histogram = new LatencyHistogram(10);
+        histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(50));
+        for (int i = 0; i < 10; i++) {
+            histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(20));
+        }
+        assertEquals(10, histogram.getCount());
+        assertEquals(20, histogram.getMaxMicros());
+        assertEquals(20, histogram.getP99Micros());
+    }
+
+    @Test
+    public void clockEstimatorFindsOffsetAndDrift() {
+        ClockOffsetEstimator clock = new ClockOffsetEstimator();
+        long offsetNanos = 3_000_000_000L;
+        double driftPpm = 50;
+        long step = TimeUnit.MILLISECONDS.toNanos(100);
+        for (int i = 0; i < 32; i++) {
+            long sent = 1_000_000_000L + i * step;
+            long roundTrip = TimeUnit.MILLISECONDS.toNanos(i % 3 == 0 ? 4 : 20);
+            long midpoint = sent + roundTrip / 2;
+            long device = midpoint + offsetNanos + (long) ((midpoint - 1_000_000_000L) * driftPpm * 1e-6);
+            clock.addSample(sent, sent + roundTrip, (int) (device / 1000));
+        }
+        assertEquals(driftPpm, clock.getDriftPpm(), 5);
+        long now = 1_000_000_000L + 31 * step;
+        long expected = (now + offsetNanos + (long) ((now - 1_000_000_000L) * driftPpm * 1e-6)) / 1000;
+        assertEquals(expected, clock.toDeviceMicros(now), 20);
+    }
+
+    @Test
+    public void clockEstimatorSurvivesDeviceWrap() {
+        ClockOffsetEstimator clock = new ClockOffsetEstimator();
+        long step = TimeUnit.MILLISECONDS.toNanos(10);
+        long deviceStart = 0xFFFFFF00L; // wraps after 256 us
+        for (int i = 0; i < 4; i++) {
+            long sent = i * step;
+            long device = deviceStart + TimeUnit.NANOSECONDS.toMicros(sent + 500);
+            clock.addSample(sent, sent + 1000, (int) device);
+        }
+        assertEquals(deviceStart * 1000, clock.getOffsetNanos(), 2000);
+        assertEquals(0, clock.getDriftPpm(), 1);
+    }
+
+    private void pingAndMeasure(boolean binary) throws InterruptedException {
+        manager.setBinaryProtocol(binary);
+        assertTrue(manager.connect());
+        long offsetMicros = 5_000_000;
+        EchoSynth synth = new EchoSynth(transport, offsetMicros, 0, 200);
+        synth.start();
+
+        LatencyProbe probe = manager.getLatencyProbe();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(manager.ping());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (probe.getPongsReceived() <= i && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        assertEquals(20, probe.getPingsSent());
+        assertEquals(20, probe.getPongsReceived());
+        assertEquals(20, probe.getRoundTrips().getCount());
+        assertTrue("p50 " + probe.getRoundTrips().getP50Micros(), probe.getRoundTrips().getP50Micros() >= 200);
+        assertTrue(probe.getRoundTrips().getMaxMicros() >= probe.getRoundTrips().getP99Micros());
+
+        long now = System.nanoTime();
+        // Compared as the synth sees it, 32 bits that wrap every ~71 minutes of uptime
+        int error = (int) probe.getClock().toDeviceMicros(now) - (int) synth.deviceMicros(now);
+        // Bounded by half the round trip asymmetry, well under a millisecond in memory
+        assertTrue("clock error " + error + " us", Math.abs(error) < 1000);
+    }
+
+    @Test
+    public void pingPongOverBinaryProtocol() throws InterruptedException {
+        pingAndMeasure(true);
+    }
+
+    @Test
+    public void pingPongOverTextProtocol() throws InterruptedException {
+        pingAndMeasure(false);
+    }
+
+    private void awaitPongs(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (manager.getLatencyProbe().getPongsReceived() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(manager.getLatencyProbe().getPongsReceived() >= count);
+    }
+
+    @Test
+    public void periodicPings() throws InterruptedException {
+        manager.setBinaryProtocol(true);
+        manager.setPingInterval(5);
+        assertTrue(manager.connect());
+        new EchoSynth(transport, 0, 0, 0).start();
+        awaitPongs(5);
+    }
+
+    // The stock text firmware does not answer pings, so they are not sent unasked
+    @Test
+    public void textLinksPingOnlyOnceAnswered() throws InterruptedException {
+        manager.setPingInterval(5);
+        assertTrue(manager.connect());
+        new EchoSynth(transport, 0, 0, 0).start();
+        Thread.sleep(100);
+        assertEquals(0, manager.getLatencyProbe().getPingsSent());
+
+        assertTrue(manager.ping());
+        awaitPongs(5);
+    }
+
+    @Test
+    public void textPingsCanBeTurnedOn() throws InterruptedException {
+        manager.setTextPings(true);
+        manager.setPingInterval(5);
+        assertTrue(manager.connect());
+        new EchoSynth(transport, 0, 0, 0).start();
+        awaitPongs(5);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.synthcontroller;
+
+import com.leff.midi.MidiFile;
+import com.leff.midi.MidiTrack;
+import com.leff.midi.event.MidiEvent;
+import com.leff.midi.event.SystemExclusiveEvent;
+import com.leff.midi.event.meta.Lyrics;
+import com.leff.midi.event.meta.SequencerSpecificEvent;
+import com.leff.midi.event.meta.TrackName;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LazyMetaEventTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final byte[] SYSEX = {0x43, 0x10, 0x4C, 0x00, 0x00, 0x7E, 0x00, (byte) 0xF7};
+    private static final byte[] VENDOR = {0x00, 0x00, 0x41, 0x01};
+
+    private static byte[] song() throws IOException {
+        MidiTrack track = new MidiTrack();
+        track.insertEvent(new TrackName(0, 0, "Verse"));
+        track.insertEvent(new SystemExclusiveEvent(0xF0, 0, SYSEX));
+        track.insertEvent(new SequencerSpecificEvent(0, 0, VENDOR));
+        for (int i = 0; i < 16; i++) {
+            track.insertNote(0, 60 + i, 100, i * 240L, 120);
+            track.insertEvent(new Lyrics(i * 240L, 0, "syl" + i));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 0, 0, 1, 0x01, (byte) 0xE0});
+        track.writeToFile(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] written(MidiFile midi) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 0, 0, 1, 0x01, (byte) 0xE0});
+        midi.getTracks().get(0).writeToFile(out);
+        return out.toByteArray();
+    }
+
+    private static ByteBuffer direct(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    @Test
+    public void undecodedEventsWriteBackUnchanged() throws IOException {
+        byte[] smf = song();
+        assertArrayEquals(smf, written(new MidiFile(direct(smf), null)));
+        assertArrayEquals(smf, written(new MidiFile(new ByteArrayInputStream(smf))));
+    }
+
+    @Test
+    public void payloadsDecodeWhenAskedFor() throws IOException {
+        byte[] smf = song();
+        MidiFile midi = new MidiFile(direct(smf), null);
+        int lyrics = 0;
+        for (MidiEvent event : midi.getTracks().get(0).getEvents()) {
+            if (event instanceof TrackName) {
+                assertEquals("Verse", ((TrackName) event).getTrackName());
+            } else if (event instanceof Lyrics) {
+                assertEquals("syl" + event.getTick() / 240, ((Lyrics) event).getLyric());
+                lyrics++;
+            } else if (event instanceof SystemExclusiveEvent) {
+                assertArrayEquals(SYSEX, ((SystemExclusiveEvent) event).getData());
+            } else if (event instanceof SequencerSpecificEvent) {
+                assertArrayEquals(VENDOR, ((SequencerSpecificEvent) event).getData());
+            }
+        }
+        assertEquals(16, lyrics);
+        // Decoded or not, an event writes the same bytes
+        assertArrayEquals(smf, written(midi));
+    }
+
+    // Writing truncates the file first, which would pull the bytes out from under events that
+    // still pointed into its mapping
+    @Test
+    public void fileWritesBackOverItself() throws IOException {
+        byte[] smf = song();
+        File file = folder.newFile("song.mid");
+        Files.write(file.toPath(), smf);
+
+        new MidiFile(file).writeToFile(file);
+        assertArrayEquals(smf, Files.readAllBytes(file.toPath()));
+        new MidiFile(file).writeToFile(file);
+        assertArrayEquals(smf, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void editedTextReplacesTheFileBytes() throws IOException {
+        MidiFile midi = new MidiFile(direct(song()), null);
+        MidiTrack track = midi.getTracks().get(0);
+        for (MidiEvent event : track.getEvents()) {
+            if (event instanceof TrackName) {
+                ((TrackName) event).setName("Chorus");
+            }
+        }
+        MidiFile reread = new MidiFile(ByteBuffer.wrap(written(midi)), null);
+        for (MidiEvent event : reread.getTracks().get(0).getEvents()) {
+            if (event instanceof TrackName) {
+                assertEquals("Chorus", ((TrackName) event).getTrackName());
+                return;
+            }
+        }
+        throw new AssertionError("No track name");
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.synthcontroller;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LinkMetricsTest {
+
+    private final InMemoryTransport transport = new InMemoryTransport();
+    private final BluetoothManager manager = new BluetoothManager(transport);
+
+    @After
+    public void tearDown() {
+        manager.disconnect();
+    }
+
+    @Test
+    public void countersGaugesAndHistogramsAppearInJson() throws InterruptedException {
+        LinkMetrics metrics = new LinkMetrics();
+        LinkMetrics.Counter sent = metrics.counter("sent");
+        assertSame(sent, metrics.counter("sent"));
+        metrics.gauge("depth", () -> 3);
+        LinkMetrics.Histogram latency = metrics.histogram("latency");
+
+        metrics.sample();
+        sent.add(100);
+        Thread.sleep(100);
+        metrics.sample();
+        assertTrue("rate " + sent.getRatePerSecond(), sent.getRatePerSecond() > 100 && sent.getRatePerSecond() < 1000);
+
+        for (int micros = 1; micros <= 100; micros++) {
+            latency.recordNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        assertEquals(100, latency.getCount());
+        assertEquals(100, latency.getMaxMicros());
+        assertEquals(50, latency.percentileMicros(50), 2);
+
+        String json = metrics.toJson();
+        assertTrue(json, json.startsWith("{\"counters\":{\"sent\":{\"value\":100,\"perSecond\":"));
+        assertTrue(json, json.contains("\"gauges\":{\"depth\":3}"));
+        assertTrue(json, json.contains("\"latency\":{\"count\":100,\"p50\":50,"));
+        assertTrue(json, json.endsWith(",\"max\":100}}}"));
+    }
+
+    @Test
+    public void histogramTakesSamplesFromManyThreads() throws InterruptedException {
+        LinkMetrics.Histogram histogram = new LinkMetrics().histogram("h");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(i % 500));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40_000, histogram.getCount());
+        assertEquals(499, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void sendPipelineFeedsTheMetrics() throws IOException, InterruptedException {
+        manager.setPingInterval(0);
+        assertTrue(manager.connect());
+        InputStream device = transport.getDeviceInputStream();
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        assertTrue(manager.sendCommand(SynthCommand.NOTE_ON, 60));
+        while (decoder.feed(device.read()) == SynthProtocolDecoder.NONE) {
+            // wait for the note
+        }
+
+        LinkMetrics metrics = manager.getMetrics();
+        // The note can be read before the writer has counted the flush that carried it; the
+        // commands written are counted last
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (metrics.counter("commands_written").get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, metrics.counter("commands_written").get());
+        assertEquals("DOWN:60\n".length(), metrics.counter("bytes_written").get());
+        assertEquals(1, metrics.histogram("flush_latency").getCount());
+        assertEquals(1, metrics.counter("connects").get());
+        assertEquals(0, metrics.counter("reconnects").get());
+        assertEquals(1, metrics.gaugeValue("connected"));
+
+        // Coming back after a dropped link counts as a reconnect
+        transport.close();
+        manager.disconnect();
+        assertTrue(manager.connect());
+        assertEquals(1, metrics.counter("reconnects").get());
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.synthcontroller;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The same song over {@link SimulatedLinkTransport}'s profiles, with and without batching
+ * chords into one write. Onset delay is the time from sendCommand() to the note-on being
+ * decodable on the synth side; chord spread is the gap between the first and the last note
+ * of a chord arriving.
+ *
+ * Plays for tens of seconds in real time and only prints what it measured, so it is left out
+ * of the unit tests; SimulatedLinkTransportTest checks the simulator itself.
+ */
+@Ignore("Benchmark: run by hand")
+public class LinkProfileBenchmark {
+
+    private static final int CHORDS = 60;
+    private static final long CHORD_INTERVAL_MS = 40;
+
+    private static final class Result {
+        final int[] indices = new int[CHORDS * 4];
+        final long[] arrivedNanos = new long[CHORDS * 4];
+        long[] onsetMicros = new long[CHORDS * 4];
+        long[] spreadMicros = new long[CHORDS];
+        volatile int received;
+
+        long percentile(long[] values, int count, double p) {
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return count == 0 ? 0 : sorted[Math.min(count - 1, (int) (p * count))];
+        }
+    }
+
+    @Test
+    public void noteTimingPerProfile() throws IOException, InterruptedException {
+        SimulatedLinkTransport.Profile[] profiles = {
+                SimulatedLinkTransport.goodStage(),
+                SimulatedLinkTransport.crowdedVenue(),
+                SimulatedLinkTransport.worstCase(),
+        };
+        System.out.printf("%-14s %-8s %6s %9s %9s %9s %10s%n", "profile", "chords", "notes",
+                "p50", "p99", "max", "spread p99");
+        for (int i = 0; i < profiles.length; i++) {
+            for (boolean batched : new boolean[]{false, true}) {
+                Result result = play(profiles[i], batched);
+                int count = result.received;
+                long onsetP99 = result.percentile(result.onsetMicros, count, 0.99);
+                System.out.printf("%-14s %-8s %6d %7dus %7dus %7dus %8dus%n", profiles[i].getName(),
+                        batched ? "batched" : "single", count,
+                        result.percentile(result.onsetMicros, count, 0.5), onsetP99,
+                        result.percentile(result.onsetMicros, count, 1.0),
+                        result.percentile(result.spreadMicros, CHORDS, 0.99));
+                if (profiles[i].dropProbability == 0) {
+                    assertEquals(CHORDS * 4, count);
+                }
+            }
+        }
+    }
+
+    // Plays the song in real time through a fresh link with a seeded simulator
+    private static Result play(SimulatedLinkTransport.Profile profile, boolean batched)
+            throws IOException, InterruptedException {
+        InMemoryTransport inner = new InMemoryTransport();
+        SimulatedLinkTransport simulated = new SimulatedLinkTransport(inner, profile, 7);
+        BluetoothManager link = new BluetoothManager(simulated);
+        link.setBinaryProtocol(true);
+        link.setPingInterval(0);
+        Result result = new Result();
+        long[] sentNanos = new long[CHORDS * 4];
+        try {
+            assertTrue(link.connect());
+            Thread device = new Thread(() -> {
+                InputStream in = inner.getDeviceInputStream();
+                SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+                try {
+                    int b;
+                    while ((b = in.read()) >= 0 && result.received < sentNanos.length) {
+                        long packed = decoder.feed(b);
+                        if (packed != SynthProtocolDecoder.NONE && SynthCommand.command(packed) == SynthCommand.NOTE_ON) {
+                            int value = SynthCommand.value(packed);
+                            result.indices[result.received] = SynthCommand.velocity(value) << 7 | SynthCommand.note(value);
+                            result.arrivedNanos[result.received] = System.nanoTime();
+                            result.received++;
+                        }
+                    }
+                } catch (IOException e) {
+                    // link closed
+                }
+            });
+            device.setDaemon(true);
+            device.start();
+
+            long[] chord = new long[4];
+            long start = System.nanoTime();
+            for (int c = 0; c < CHORDS; c++) {
+                long due = start + TimeUnit.MILLISECONDS.toNanos(c * CHORD_INTERVAL_MS);
+                while (System.nanoTime() < due) {
+                    Thread.sleep(1);
+                }
+                // Each note is numbered by its place in the song, carried as note and velocity
+                for (int v = 0; v < 4; v++) {
+                    int index = c * 4 + v;
+                    chord[v] = SynthCommand.pack(SynthCommand.NOTE_ON,
+                            SynthCommand.noteValue(index & 0x7F, index >> 7, -1));
+                    sentNanos[index] = System.nanoTime();
+                    if (!batched) {
+                        link.sendCommand(SynthCommand.NOTE_ON, SynthCommand.value(chord[v]));
+                    }
+                }
+                if (batched) {
+                    link.sendCommands(chord, 0, 4);
+                }
+                for (int v = 0; c > 0 && v < 4; v++) {
+                    link.sendCommand(SynthCommand.NOTE_OFF, ((c - 1) * 4 + v) & 0x7F);
+                }
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (result.received < sentNanos.length && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            // Give a lossy link a moment for stragglers, then take what arrived
+            Thread.sleep(profile.dropProbability > 0 ? 500 : 0);
+        } finally {
+            link.disconnect();
+        }
+
+        int count = result.received;
+        long[] firstOfChord = new long[CHORDS];
+        long[] lastOfChord = new long[CHORDS];
+        Arrays.fill(firstOfChord, Long.MAX_VALUE);
+        for (int i = 0; i < count; i++) {
+            int index = result.indices[i];
+            long arrived = result.arrivedNanos[i];
+            result.onsetMicros[i] = (arrived - sentNanos[index]) / 1000;
+            int c = index / 4;
+            firstOfChord[c] = Math.min(firstOfChord[c], arrived);
+            lastOfChord[c] = Math.max(lastOfChord[c], arrived);
+        }
+        for (int c = 0; c < CHORDS; c++) {
+            result.spreadMicros[c] = lastOfChord[c] > 0 ? (lastOfChord[c] - firstOfChord[c]) / 1000 : 0;
+        }
+        return result;
+    }
+}
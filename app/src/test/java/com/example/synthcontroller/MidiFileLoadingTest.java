@@ -0,0 +1,135 @@
+package com.example.synthcontroller;
+
+import com.leff.midi.ColumnarMidiFile;
+import com.leff.midi.ColumnarTrack;
+import com.leff.midi.MidiFile;
+import com.leff.midi.MidiTrack;
+import com.leff.midi.event.SystemExclusiveEvent;
+import com.leff.midi.event.meta.Lyrics;
+import com.leff.midi.event.meta.Tempo;
+import com.leff.midi.event.meta.TrackName;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MidiFileLoadingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File song() throws IOException {
+        MidiTrack tempo = MidiTrack.createTempoTrack();
+        tempo.insertEvent(new TrackName(0, 0, "Song"));
+        MidiTrack notes = new MidiTrack();
+        notes.insertEvent(new SystemExclusiveEvent(0xF0, 0, new byte[]{0x7E, 0x7F, 0x09, 0x01, (byte) 0xF7}));
+        for (int i = 0; i < 200; i++) {
+            notes.insertNote(0, 48 + i % 24, 90, i * 120L, 100);
+            if (i % 8 == 0) {
+                notes.insertEvent(new Lyrics(i * 120L, 0, "la" + i));
+            }
+        }
+        List<MidiTrack> tracks = new ArrayList<>();
+        tracks.add(tempo);
+        tracks.add(notes);
+        File file = folder.newFile("song.mid");
+        new MidiFile(MidiFile.DEFAULT_RESOLUTION, tracks).writeToFile(file);
+        return file;
+    }
+
+    // Hands out at most three bytes per read, as a network or provider stream may
+    private static InputStream trickle(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+    }
+
+    private static List<byte[]> written(MidiFile midi) throws IOException {
+        List<byte[]> tracks = new ArrayList<>();
+        for (MidiTrack track : midi.getTracks()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            track.writeToFile(out);
+            tracks.add(out.toByteArray());
+        }
+        return tracks;
+    }
+
+    @Test
+    public void everyLoaderReadsTheSameFile() throws IOException {
+        File file = song();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        List<byte[]> expected = written(new MidiFile(new FileInputStream(file)));
+        assertEquals(2, expected.size());
+
+        List<byte[]> fromShortReads = written(new MidiFile(trickle(new FileInputStream(file))));
+        List<byte[]> fromBuffer = written(new MidiFile(ByteBuffer.wrap(bytes)));
+        List<byte[]> fromMapping = written(new MidiFile(file));
+        for (int t = 0; t < expected.size(); t++) {
+            assertArrayEquals(expected.get(t), fromShortReads.get(t));
+            assertArrayEquals(expected.get(t), fromBuffer.get(t));
+            assertArrayEquals(expected.get(t), fromMapping.get(t));
+        }
+    }
+
+    @Test
+    public void columnarTracksReadPayloadsFromTheMapping() throws IOException {
+        File file = song();
+        ColumnarMidiFile streamed = new ColumnarMidiFile(trickle(new FileInputStream(file)));
+        ColumnarMidiFile mapped;
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            mapped = new ColumnarMidiFile(channel);
+        }
+        assertEquals(streamed.getTrackCount(), mapped.getTrackCount());
+        int payloads = 0;
+        for (int t = 0; t < streamed.getTrackCount(); t++) {
+            ColumnarTrack a = streamed.getTrack(t);
+            ColumnarTrack b = mapped.getTrack(t);
+            assertEquals(a.getEventCount(), b.getEventCount());
+            for (int i = 0; i < a.getEventCount(); i++) {
+                assertEquals(a.getTick(i), b.getTick(i));
+                assertEquals(a.getMessage(i), b.getMessage(i));
+                assertArrayEquals(a.getPayload(i), b.getPayload(i));
+                payloads += b.getPayloadLength(i) > 0 ? 1 : 0;
+            }
+        }
+        // Track name, time signature, tempo, SysEx and 25 lyrics
+        assertEquals(29, payloads);
+        ColumnarTrack tempo = mapped.getTrack(0);
+        int mpqn = -1;
+        for (int i = 0; i < tempo.getEventCount() && mpqn < 0; i++) {
+            mpqn = tempo.getTempoMpqn(i);
+        }
+        assertEquals(Tempo.DEFAULT_MPQN, mpqn);
+    }
+
+    @Test
+    public void bufferPositionIsLeftAlone() throws IOException {
+        byte[] bytes = Files.readAllBytes(song().toPath());
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 16);
+        direct.position(16);
+        direct.put(bytes);
+        direct.position(16);
+        ColumnarMidiFile midi = new ColumnarMidiFile(direct);
+        assertEquals(16, direct.position());
+        assertEquals(2, midi.getTrackCount());
+        assertEquals(400 + 25 + 1, midi.getTrack(1).getEventCount());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.synthcontroller;
+
+import com.leff.midi.ColumnarMidiFile;
+import com.leff.midi.MidiFile;
+import com.leff.midi.MidiTrack;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParallelMidiParsingTest {
+
+    private static byte[] written(MidiFile midi) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (MidiTrack track : midi.getTracks()) {
+            track.writeToFile(out);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void parallelTracksMatchSequentialOnes() throws IOException {
+        byte[] smf = GeneratedMidiFile.generate(new Random(3));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MidiFile sequential = new MidiFile(ByteBuffer.wrap(smf), null);
+            MidiFile parallel = new MidiFile(ByteBuffer.wrap(smf), pool);
+            ColumnarMidiFile columns = new ColumnarMidiFile(ByteBuffer.wrap(smf), pool);
+            assertEquals(sequential.getTrackCount(), parallel.getTrackCount());
+            assertEquals(sequential.getTrackCount(), columns.getTrackCount());
+            for (int t = 0; t < columns.getTrackCount(); t++) {
+                assertEquals(sequential.getTracks().get(t).getEventCount(), columns.getTrack(t).getEventCount());
+            }
+            assertArrayEquals(written(sequential), written(parallel));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Running status used to live in static fields, so concurrent parses corrupted each other
+    @Test
+    public void filesParseConcurrently() throws Exception {
+        byte[] smf = GeneratedMidiFile.generate(new Random(5));
+        byte[] expected = written(new MidiFile(new ByteArrayInputStream(smf)));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit((Callable<byte[]>) () -> written(new MidiFile(new ByteArrayInputStream(smf)))));
+            }
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void runningStatusStaysInItsTrack() throws IOException {
+        byte[] smf = {
+                'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 1, 0, 2, 0x01, (byte) 0xE0,
+                // No EndOfTrack, which would have cancelled running status
+                'M', 'T', 'r', 'k', 0, 0, 0, 4, 0, (byte) 0x90, 60, 100,
+                // Starts with a data byte: nothing to run on, so it is skipped
+                'M', 'T', 'r', 'k', 0, 0, 0, 7, 0, 62, 100, 0, (byte) 0xFF, 0x2F, 0,
+        };
+        MidiFile midi = new MidiFile(ByteBuffer.wrap(smf), null);
+        assertEquals(1, midi.getTracks().get(0).getEventCount());
+        assertEquals(0, midi.getTracks().get(1).getEventCount());
+    }
+}
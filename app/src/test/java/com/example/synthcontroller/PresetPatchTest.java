@@ -0,0 +1,88 @@
+package com.example.synthcontroller;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PresetPatchTest {
+
+    private final InMemoryTransport transport = new InMemoryTransport();
+    private final BluetoothManager manager = new BluetoothManager(transport);
+    private final SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+    private int bytesRead;
+
+    @After
+    public void tearDown() {
+        manager.disconnect();
+    }
+
+    private InputStream connect(boolean binary) {
+        manager.setPingInterval(0);
+        manager.setBinaryProtocol(binary);
+        assertTrue(manager.connect());
+        return transport.getDeviceInputStream();
+    }
+
+    private static SynthPreset preset(int filter) {
+        SynthPreset preset = new SynthPreset();
+        preset.setAttack(10);
+        preset.setFilter(filter);
+        preset.setVibDepth(40);
+        preset.setSubWaveform(3);
+        return preset;
+    }
+
+    @Test
+    public void presetGoesOutAsOnePatchFrame() throws IOException {
+        InputStream device = connect(true);
+        assertTrue(manager.sendPreset(preset(200)));
+        assertEquals(SynthCommand.pack(SynthCommand.PATCH, 0), readCommand(device));
+        assertEquals(10, decoder.getPatchValue(SynthCommand.ATTACK));
+        assertEquals(180, decoder.getPatchValue(SynthCommand.SUSTAIN));
+        assertEquals(200, decoder.getPatchValue(SynthCommand.FILTER));
+        assertEquals(40, decoder.getPatchValue(SynthCommand.VIB_DEPTH));
+        assertEquals(3, decoder.getPatchValue(SynthCommand.SUB_WAVE));
+        // The hello, then a single 11 byte frame instead of ten 2 byte ones
+        assertEquals(2 + SynthProtocol.PATCH_LENGTH, bytesRead);
+
+        // The same preset again costs nothing; one that changes a value sends just that value
+        manager.sendPreset(preset(200));
+        manager.sendPreset(preset(90));
+        assertEquals(SynthCommand.pack(SynthCommand.FILTER, 90), readCommand(device));
+        assertEquals(1, manager.getMetrics().counter("patches_written").get());
+    }
+
+    @Test
+    public void textLinkGetsSeparateParameters() throws IOException {
+        InputStream device = connect(false);
+        manager.sendPreset(preset(200));
+        int parameters = 0;
+        int mask = 0;
+        while (parameters < SynthProtocol.PATCH_PARAMETERS) {
+            int command = SynthCommand.command(readCommand(device));
+            assertTrue(SynthCommand.isParameter(command));
+            mask |= 1 << command;
+            parameters++;
+        }
+        assertEquals(SynthProtocol.patchMask(), mask);
+    }
+
+    private long readCommand(InputStream in) throws IOException {
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Link closed");
+            }
+            bytesRead++;
+            long packed = decoder.feed(b);
+            if (packed != SynthProtocolDecoder.NONE) {
+                return packed;
+            }
+        }
+    }
+}
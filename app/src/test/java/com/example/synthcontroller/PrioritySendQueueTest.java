@@ -0,0 +1,140 @@
+package com.example.synthcontroller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrioritySendQueueTest {
+
+    private static long on(int note) {
+        return SynthCommand.pack(SynthCommand.NOTE_ON, note);
+    }
+
+    private static long off(int note) {
+        return SynthCommand.pack(SynthCommand.NOTE_OFF, note);
+    }
+
+    private static final long PANIC = SynthCommand.pack(SynthCommand.PANIC, 0);
+
+    @Test
+    public void noteOffOvertakesNoteOnsOfOtherNotes() {
+        PrioritySendQueue queue = new PrioritySendQueue();
+        queue.offer(on(60));
+        queue.offer(on(62));
+        queue.offer(off(64));
+
+        assertEquals(off(64), queue.poll());
+        assertEquals(on(60), queue.poll());
+        assertEquals(on(62), queue.poll());
+        assertEquals(CommandRingBuffer.EMPTY, queue.poll());
+    }
+
+    @Test
+    public void overtakenNoteOnIsClosedAgain() {
+        PrioritySendQueue queue = new PrioritySendQueue();
+        queue.offer(on(60));
+        queue.offer(off(60));
+
+        // The off jumps ahead, so the note-on is followed by another off and cannot hang
+        assertEquals(off(60), queue.poll());
+        assertEquals(on(60), queue.poll());
+        assertEquals(off(60), queue.poll());
+        assertTrue(queue.isEmpty());
+        assertEquals(1, queue.getReclosedNotes());
+    }
+
+    @Test
+    public void noteOnQueuedAfterItsOffIsLeftAlone() {
+        PrioritySendQueue queue = new PrioritySendQueue();
+        queue.offer(off(60));
+        queue.offer(on(60));
+
+        assertEquals(off(60), queue.poll());
+        assertEquals(on(60), queue.poll());
+        assertEquals(CommandRingBuffer.EMPTY, queue.poll());
+    }
+
+    @Test
+    public void panicGoesFirstAndCancelsOlderNotes() {
+        PrioritySendQueue queue = new PrioritySendQueue();
+        queue.offer(on(60));
+        queue.offer(on(64));
+        queue.offer(off(60));
+        queue.offer(PANIC);
+        queue.offer(on(67));
+
+        assertEquals(PANIC, queue.poll());
+        assertEquals(on(67), queue.poll());
+        assertEquals(CommandRingBuffer.EMPTY, queue.poll());
+        assertEquals(3, queue.getCancelledByPanic());
+    }
+
+    @Test
+    public void pingsAreNotCancelledByPanic() {
+        PrioritySendQueue queue = new PrioritySendQueue();
+        long ping = SynthCommand.pack(SynthCommand.PING, 7);
+        queue.offer(ping);
+        queue.offer(PANIC);
+
+        assertEquals(PANIC, queue.poll());
+        assertEquals(ping, queue.poll());
+    }
+
+    @Test
+    public void notesAreNeverDroppedWhenTheRingIsFull() {
+        PrioritySendQueue queue = new PrioritySendQueue();
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            queue.offer(on(i & 0x7F));
+        }
+        assertEquals(count, queue.size());
+        assertEquals(count, queue.laneDepth(PrioritySendQueue.LANE_NOTE_ON));
+        assertTrue(queue.laneOverflowCount(PrioritySendQueue.LANE_NOTE_ON) > 0);
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(on(i & 0x7F), queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+
+        // Back on the ring once the overflow has drained
+        queue.offer(on(1));
+        assertEquals(on(1), queue.poll());
+    }
+
+    @Test
+    public void scheduledCommandsYieldToLiveNotesAndPanic() {
+        PrioritySendQueue queue = new PrioritySendQueue();
+        queue.offerScheduled(on(60), 1000);
+        queue.offerScheduled(off(60), 2000);
+        queue.offer(on(64));
+
+        assertEquals(on(64), queue.poll());
+        assertFalse(queue.isPolledScheduled());
+        assertEquals(on(60), queue.poll());
+        assertTrue(queue.isPolledScheduled());
+        assertEquals(1000, queue.getPolledTime());
+
+        // A panic drops what was scheduled before it, but not what comes after
+        queue.offer(PANIC);
+        queue.offerScheduled(on(67), 3000);
+        assertEquals(PANIC, queue.poll());
+        assertEquals(on(67), queue.poll());
+        assertEquals(3000, queue.getPolledTime());
+        assertEquals(CommandRingBuffer.EMPTY, queue.poll());
+        assertEquals(1, queue.getCancelledByPanic());
+    }
+
+    @Test
+    public void staleParametersAreCounted() {
+        ParameterCoalescer parameters = new ParameterCoalescer();
+        for (int value = 0; value < 10; value++) {
+            parameters.offer(SynthCommand.FILTER, value);
+        }
+        parameters.offer(SynthCommand.DETUNE, 1);
+        assertEquals(2, parameters.pendingCount());
+        assertEquals(9, parameters.getSupersededCount());
+        assertEquals(9, parameters.value(SynthCommand.FILTER));
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.synthcontroller;
+
+import com.leff.midi.MidiFile;
+import com.leff.midi.MidiTrack;
+import com.leff.midi.event.MidiEvent;
+import com.leff.midi.event.NoteOff;
+import com.leff.midi.event.NoteOn;
+import com.leff.midi.event.meta.Tempo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bytes on the link and worst-case chord onset skew with and without running status, over a
+ * corpus of MIDI files. Point -Dsynth.midiCorpus at a directory of .mid files to measure real
+ * material; otherwise a few typical textures are generated and written as .mid first.
+ *
+ * Commands are batched by tick and note-offs go before note-ons, as the send queue's lanes
+ * do. Skew is the time between the first and the last note-on of a batch becoming decodable,
+ * at 115200 baud; it grows with the bytes in between, whatever the real link speed.
+ */
+public class RunningStatusBenchmark {
+
+    private static final double MICROS_PER_BYTE = 10 * 1e6 / 115_200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void runningStatusSavesBytesAndSkew() throws IOException {
+        File[] corpus = corpus();
+        System.out.printf("%-16s %7s %8s %8s %8s %6s %10s %10s%n", "file", "cmds", "text",
+                "binary", "running", "saved", "skew bin", "skew run");
+        for (boolean velocity : new boolean[]{false, true}) {
+            System.out.println(velocity ? "-- with velocity --" : "-- note only (MIDI screen today) --");
+            for (File file : corpus) {
+                long[][] batches = batches(new MidiFile(file), velocity);
+                Result text = encode(new TextCommandEncoder(), batches);
+                Result binary = encode(new BinaryCommandEncoder(), batches);
+                Result running = encode(new BinaryCommandEncoder(true), batches);
+                System.out.printf("%-16s %7d %8d %8d %8d %5.1f%% %8.0fus %8.0fus%n", file.getName(),
+                        binary.commands, text.bytes, binary.bytes, running.bytes,
+                        100.0 * (binary.bytes - running.bytes) / binary.bytes,
+                        binary.worstSkewMicros, running.worstSkewMicros);
+
+                assertTrue(running.bytes < binary.bytes);
+                assertTrue(running.worstSkewMicros <= binary.worstSkewMicros);
+                assertEquals(binary.commands, decodedCommands(running.stream));
+            }
+        }
+    }
+
+    private static final class Result {
+        int commands;
+        int bytes;
+        double worstSkewMicros;
+        byte[] stream;
+    }
+
+    private static Result encode(CommandEncoder encoder, long[][] batches) {
+        Result result = new Result();
+        byte[] stream = new byte[1 << 16];
+        int length = encoder.encodeHandshake(stream, 0);
+        for (long[] batch : batches) {
+            if (stream.length - length < batch.length * CommandEncoder.MAX_FRAME_LENGTH) {
+                stream = Arrays.copyOf(stream, Math.max(stream.length * 2, length + batch.length * 32));
+            }
+            int firstOnset = -1;
+            int lastOnset = -1;
+            for (long packed : batch) {
+                length += encoder.encode(packed, stream, length);
+                if (SynthCommand.command(packed) == SynthCommand.NOTE_ON) {
+                    if (firstOnset < 0) {
+                        firstOnset = length;
+                    }
+                    lastOnset = length;
+                }
+            }
+            result.commands += batch.length;
+            if (firstOnset >= 0) {
+                result.worstSkewMicros = Math.max(result.worstSkewMicros,
+                        (lastOnset - firstOnset) * MICROS_PER_BYTE);
+            }
+        }
+        result.bytes = length;
+        result.stream = Arrays.copyOf(stream, length);
+        return result;
+    }
+
+    private static int decodedCommands(byte[] stream) {
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        int commands = 0;
+        for (byte b : stream) {
+            if (decoder.feed(b) != SynthProtocolDecoder.NONE) {
+                commands++;
+            }
+        }
+        return commands;
+    }
+
+    // Notes grouped by tick, note-offs first within each group
+    private static long[][] batches(MidiFile midi, boolean withVelocity) {
+        List<long[]> events = new ArrayList<>(); // {tick, order, packed}
+        for (MidiTrack track : midi.getTracks()) {
+            for (MidiEvent event : track.getEvents()) {
+                int command;
+                int value;
+                if (event instanceof NoteOn && ((NoteOn) event).getVelocity() > 0) {
+                    NoteOn on = (NoteOn) event;
+                    command = SynthCommand.NOTE_ON;
+                    value = SynthCommand.noteValue(on.getNoteValue(), withVelocity ? on.getVelocity() : -1, -1);
+                } else if (event instanceof NoteOn) {
+                    command = SynthCommand.NOTE_OFF;
+                    value = ((NoteOn) event).getNoteValue();
+                } else if (event instanceof NoteOff) {
+                    command = SynthCommand.NOTE_OFF;
+                    value = ((NoteOff) event).getNoteValue();
+                } else {
+                    continue;
+                }
+                events.add(new long[]{event.getTick(), command == SynthCommand.NOTE_OFF ? 0 : 1,
+                        SynthCommand.pack(command, value)});
+            }
+        }
+        events.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        List<long[]> batches = new ArrayList<>();
+        int start = 0;
+        while (start < events.size()) {
+            int end = start;
+            while (end < events.size() && events.get(end)[0] == events.get(start)[0]) {
+                end++;
+            }
+            long[] batch = new long[end - start];
+            for (int i = start; i < end; i++) {
+                batch[i - start] = events.get(i)[2];
+            }
+            batches.add(batch);
+            start = end;
+        }
+        return batches.toArray(new long[0][]);
+    }
+
+    private File[] corpus() throws IOException {
+        String directory = System.getProperty("synth.midiCorpus");
+        if (directory != null) {
+            File[] files = new File(directory).listFiles((dir, name) -> name.toLowerCase().endsWith(".mid"));
+            if (files != null && files.length > 0) {
+                Arrays.sort(files);
+                return files;
+            }
+        }
+        Random random = new Random(7);
+        return new File[]{
+                write("chorale.mid", chorale()),
+                write("piano.mid", piano(random)),
+                write("drums.mid", drums(random)),
+                write("arpeggios.mid", arpeggios()),
+        };
+    }
+
+    private File write(String name, List<MidiTrack> tracks) throws IOException {
+        MidiTrack tempo = new MidiTrack();
+        Tempo bpm = new Tempo();
+        bpm.setBpm(120);
+        tempo.insertEvent(bpm);
+        tracks.add(0, tempo);
+        File file = folder.newFile(name);
+        new MidiFile(MidiFile.DEFAULT_RESOLUTION, tracks).writeToFile(file);
+        return file;
+    }
+
+    private static final int QUARTER = MidiFile.DEFAULT_RESOLUTION;
+    private static final int[][] CHORDS = {{48, 55, 64, 72}, {45, 57, 64, 72}, {41, 57, 65, 69}, {43, 55, 62, 71}};
+
+    // Four voices on four tracks moving together in quarter notes
+    private static List<MidiTrack> chorale() {
+        List<MidiTrack> tracks = new ArrayList<>();
+        for (int voice = 0; voice < 4; voice++) {
+            MidiTrack track = new MidiTrack();
+            for (int beat = 0; beat < 256; beat++) {
+                int[] chord = CHORDS[beat / 4 % CHORDS.length];
+                track.insertNote(voice, chord[voice], 80, (long) beat * QUARTER, QUARTER);
+            }
+            tracks.add(track);
+        }
+        return tracks;
+    }
+
+    // Left hand block chords on the beat, right hand eighths, human velocities
+    private static List<MidiTrack> piano(Random random) {
+        MidiTrack left = new MidiTrack();
+        MidiTrack right = new MidiTrack();
+        for (int beat = 0; beat < 256; beat++) {
+            int[] chord = CHORDS[beat / 4 % CHORDS.length];
+            for (int i = 0; i < 3; i++) {
+                left.insertNote(0, chord[i], 60 + random.nextInt(20), (long) beat * QUARTER, QUARTER - 20);
+            }
+            for (int eighth = 0; eighth < 2; eighth++) {
+                int note = chord[3] + (random.nextInt(5) - 2) * 2;
+                right.insertNote(0, note, 70 + random.nextInt(40), (long) beat * QUARTER + eighth * QUARTER / 2,
+                        QUARTER / 2 - 10);
+            }
+        }
+        List<MidiTrack> tracks = new ArrayList<>();
+        tracks.add(left);
+        tracks.add(right);
+        return tracks;
+    }
+
+    // Sixteenth hats with kick and snare, accents on the beat
+    private static List<MidiTrack> drums(Random random) {
+        MidiTrack track = new MidiTrack();
+        for (int step = 0; step < 1024; step++) {
+            long tick = (long) step * QUARTER / 4;
+            track.insertNote(9, 42, step % 4 == 0 ? 110 : 60 + random.nextInt(20), tick, QUARTER / 8);
+            if (step % 8 == 0) {
+                track.insertNote(9, 36, 120, tick, QUARTER / 8);
+            }
+            if (step % 8 == 4) {
+                track.insertNote(9, 38, 110, tick, QUARTER / 8);
+            }
+        }
+        List<MidiTrack> tracks = new ArrayList<>();
+        tracks.add(track);
+        return tracks;
+    }
+
+    // Two overlapping 32nd-note arpeggios on separate tracks
+    private static List<MidiTrack> arpeggios() {
+        List<MidiTrack> tracks = new ArrayList<>();
+        for (int hand = 0; hand < 2; hand++) {
+            MidiTrack track = new MidiTrack();
+            for (int step = 0; step < 2048; step++) {
+                int[] chord = CHORDS[step / 32 % CHORDS.length];
+                int note = chord[step % 4] + 12 * hand;
+                track.insertNote(hand, note, 90, (long) step * QUARTER / 8, QUARTER / 4);
+            }
+            tracks.add(track);
+        }
+        return tracks;
+    }
+}
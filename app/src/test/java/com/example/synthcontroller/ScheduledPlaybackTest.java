@@ -0,0 +1,161 @@
+package com.example.synthcontroller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScheduledPlaybackTest {
+
+    private static final int EVENTS = 500;
+    private static final long STEP_MICROS = 10_000;
+    private static final long BASE_DELAY_MICROS = 5_000;
+
+    private InMemoryTransport transport;
+    private BluetoothManager manager;
+
+    @Before
+    public void setUp() {
+        transport = new InMemoryTransport();
+        manager = new BluetoothManager(transport);
+        manager.setPingInterval(0);
+    }
+
+    @After
+    public void tearDown() {
+        manager.disconnect();
+    }
+
+    /** Link delay with occasional stalls that hold up everything behind them, like a radio retry. */
+    private static long[] arrivals(long[] sendTimes, long seed) {
+        Random random = new Random(seed);
+        long[] arrival = new long[sendTimes.length];
+        long previous = 0;
+        for (int i = 0; i < sendTimes.length; i++) {
+            long delay = BASE_DELAY_MICROS + random.nextInt(2_000);
+            if (random.nextInt(20) == 0) {
+                delay += 20_000 + random.nextInt(10_000);
+            }
+            arrival[i] = Math.max(previous, sendTimes[i] + delay);
+            previous = arrival[i];
+        }
+        return arrival;
+    }
+
+    /** Plays a note every 10 ms through the receiver model; returns the worst timing error. */
+    private static long simulate(long leadMicros, int depth, JitterBufferReceiver[] out) {
+        long[] intended = new long[EVENTS];
+        long[] sendTimes = new long[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            intended[i] = 1_000_000 + i * STEP_MICROS + BASE_DELAY_MICROS;
+            sendTimes[i] = intended[i] - BASE_DELAY_MICROS - leadMicros;
+        }
+        long[] arrival = arrivals(sendTimes, 42);
+
+        long[] played = new long[EVENTS];
+        JitterBufferReceiver receiver = new JitterBufferReceiver(depth,
+                (packed, micros) -> played[SynthCommand.note(SynthCommand.value(packed))
+                        + 128 * (SynthCommand.velocity(SynthCommand.value(packed)))] = micros);
+        out[0] = receiver;
+        BinaryCommandEncoder encoder = new BinaryCommandEncoder();
+        byte[] frame = new byte[16];
+        for (int i = 0; i < EVENTS; i++) {
+            // Encode the event index into note and velocity so the player can find it
+            int value = SynthCommand.noteValue(i % 128, i / 128, -1);
+            int length = 0;
+            if (leadMicros > 0) {
+                length += encoder.encode(SynthCommand.pack(SynthCommand.AT, (int) intended[i]), frame, 0);
+            }
+            length += encoder.encode(SynthCommand.pack(SynthCommand.NOTE_ON, value), frame, length);
+            receiver.receive(frame, 0, length, arrival[i]);
+        }
+        receiver.advance(Long.MAX_VALUE / 2);
+
+        long worst = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            worst = Math.max(worst, Math.abs(played[i] - intended[i]));
+        }
+        return worst;
+    }
+
+    @Test
+    public void jitterBufferAbsorbsLinkStalls() {
+        JitterBufferReceiver[] receiver = new JitterBufferReceiver[1];
+        long justInTime = simulate(0, 64, receiver);
+        assertEquals(EVENTS, receiver[0].getPlayedCount());
+        assertTrue("just in time error " + justInTime + " us", justInTime > 20_000);
+
+        long buffered = simulate(50_000, 64, receiver);
+        assertEquals(EVENTS, receiver[0].getPlayedCount());
+        assertEquals(0, receiver[0].getLateCount());
+        assertEquals(0, receiver[0].getOverflowCount());
+        assertEquals(0, buffered);
+    }
+
+    @Test
+    public void tooShallowBufferPlaysLateAndCountsIt() {
+        JitterBufferReceiver[] receiver = new JitterBufferReceiver[1];
+        long error = simulate(10_000, 64, receiver);
+        assertTrue(receiver[0].getLateCount() > 0);
+        assertEquals(error, receiver[0].getLateness().getMaxMicros(), error * 0.04);
+
+        simulate(200_000, 4, receiver);
+        assertTrue(receiver[0].getOverflowCount() > 0);
+        assertEquals(EVENTS, receiver[0].getPlayedCount());
+    }
+
+    @Test
+    public void panicDropsBufferedCommands() {
+        int[] played = new int[1];
+        JitterBufferReceiver receiver = new JitterBufferReceiver(8, (packed, micros) -> played[0]++);
+        BinaryCommandEncoder encoder = new BinaryCommandEncoder();
+        byte[] frames = new byte[32];
+        int length = encoder.encode(SynthCommand.pack(SynthCommand.AT, 5000), frames, 0);
+        length += encoder.encode(SynthCommand.pack(SynthCommand.NOTE_ON, 60), frames, length);
+        receiver.receive(frames, 0, length, 1000);
+        assertEquals(1, receiver.getBuffered());
+
+        length = encoder.encode(SynthCommand.pack(SynthCommand.PANIC, 0), frames, 0);
+        receiver.receive(frames, 0, length, 2000);
+        receiver.advance(10_000);
+        assertEquals(0, receiver.getBuffered());
+        assertEquals(1, played[0]);
+    }
+
+    @Test
+    public void sendScheduledStampsDeviceTime() throws InterruptedException {
+        manager.setBinaryProtocol(true);
+        assertTrue(manager.connect());
+        EchoSynth synth = new EchoSynth(transport, 7_000_000, 0, 0);
+        synth.start();
+        assertTrue(manager.ping());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!manager.canSchedule() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        long playAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+        long[] chord = {SynthCommand.pack(SynthCommand.NOTE_ON, 60), SynthCommand.pack(SynthCommand.NOTE_ON, 64)};
+        assertTrue(manager.sendScheduled(chord, 0, chord.length, playAt));
+        while (synth.scheduled < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(2, synth.scheduled);
+        long error = synth.lastPlayAt - (int) synth.deviceMicros(playAt);
+        assertTrue("play time off by " + error + " us", Math.abs(error) < 1000);
+    }
+
+    @Test
+    public void textLinkCannotSchedule() {
+        assertTrue(manager.connect());
+        long[] note = {SynthCommand.pack(SynthCommand.NOTE_ON, 60)};
+        assertFalse(manager.canSchedule());
+        assertFalse(manager.sendScheduled(note, 0, 1, System.nanoTime()));
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.synthcontroller;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** The per-note send path must not allocate: no Strings, no boxing, no temporary arrays. */
+public class SendPathAllocationTest {
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 10_000;
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long allocationsPerRun(Runnable run) {
+        for (int i = 0; i < WARMUP; i++) {
+            run.run();
+        }
+        // Calibrate away whatever the measurement itself costs
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead;
+        long before = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            run.run();
+        }
+        return allocatedBytes() - before - overhead;
+    }
+
+    private static void assertEncoderDoesNotAllocate(CommandEncoder encoder) {
+        byte[] buffer = new byte[CommandEncoder.MAX_FRAME_LENGTH];
+        long[] commands = {
+                SynthCommand.pack(SynthCommand.NOTE_ON, 60),
+                SynthCommand.pack(SynthCommand.NOTE_OFF, SynthCommand.noteValue(60, 100, 3)),
+                SynthCommand.pack(SynthCommand.FILTER, 255),
+                SynthCommand.pack(SynthCommand.TRANSPOSE, -12),
+                SynthCommand.pack(SynthCommand.PANIC, 0),
+                SynthCommand.pack(SynthCommand.PING, 123456)
+        };
+        int[] sink = new int[1];
+        long allocated = allocationsPerRun(() -> {
+            for (long packed : commands) {
+                sink[0] += encoder.encode(packed, buffer, 0);
+            }
+        });
+        assertTrue(sink[0] > 0);
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void textEncoderDoesNotAllocate() {
+        assertEncoderDoesNotAllocate(new TextCommandEncoder());
+    }
+
+    @Test
+    public void binaryEncoderDoesNotAllocate() {
+        assertEncoderDoesNotAllocate(new BinaryCommandEncoder());
+    }
+
+    @Test
+    public void queueingDoesNotAllocate() {
+        PrioritySendQueue queue = new PrioritySendQueue();
+        ParameterCoalescer parameters = new ParameterCoalescer();
+        long allocated = allocationsPerRun(() -> {
+            queue.offer(SynthCommand.pack(SynthCommand.NOTE_ON, 60));
+            queue.offer(SynthCommand.pack(SynthCommand.NOTE_OFF, 60));
+            parameters.offer(SynthCommand.FILTER, 10);
+            while (queue.poll() != CommandRingBuffer.EMPTY) {
+                // drain
+            }
+            parameters.takePending();
+        });
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void sendCommandDoesNotAllocateOnCallerThread() {
+        InMemoryTransport transport = new InMemoryTransport();
+        BluetoothManager manager = new BluetoothManager(transport);
+        manager.setPingInterval(0);
+        assertTrue(manager.connect());
+        // Keep the device side drained so the writer never stalls
+        Thread sink = new Thread(() -> {
+            byte[] buffer = new byte[1024];
+            try {
+                while (transport.getDeviceInputStream().read(buffer) > 0) {
+                    // discard
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        });
+        sink.setDaemon(true);
+        sink.start();
+        try {
+            long allocated = allocationsPerRun(() -> {
+                manager.sendCommand(SynthCommand.NOTE_ON, 60);
+                manager.sendCommand(SynthCommand.NOTE_OFF, 60);
+                manager.sendCommand(SynthCommand.FILTER, 99);
+                // Let the writer keep up so the lanes never spill into their overflow lists
+                while (manager.getQueueDepth() > 0) {
+                    Thread.onSpinWait();
+                }
+            });
+            assertEquals(0, allocated);
+        } finally {
+            manager.disconnect();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.synthcontroller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimulatedLinkTransportTest {
+
+    private static long readAll(InputStream in, int bytes) throws IOException {
+        byte[] buffer = new byte[256];
+        int total = 0;
+        while (total < bytes) {
+            int n = in.read(buffer, 0, Math.min(buffer.length, bytes - total));
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    @Test
+    public void capsTheByteRate() throws IOException {
+        InMemoryTransport inner = new InMemoryTransport();
+        SimulatedLinkTransport link = new SimulatedLinkTransport(inner,
+                new SimulatedLinkTransport.Profile("test", 10_000, 0, 0).setBufferBytes(100_000), 1);
+        link.open();
+        OutputStream out = link.getOutputStream();
+        long start = System.nanoTime();
+        byte[] chunk = new byte[100];
+        for (int i = 0; i < 10; i++) {
+            out.write(chunk);
+            out.flush();
+        }
+        long written = System.nanoTime() - start;
+        assertEquals(1000, readAll(inner.getDeviceInputStream(), 1000));
+        long delivered = System.nanoTime() - start;
+
+        // 1000 bytes at 10 kB/s take 100 ms; the big buffer lets the writer move on at once
+        assertTrue("delivered after " + delivered, delivered >= TimeUnit.MILLISECONDS.toNanos(95));
+        assertTrue("written in " + written, written < TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(10, link.getDelays().getCount());
+        link.close();
+    }
+
+    @Test
+    public void fullBufferBlocksTheWriter() throws IOException {
+        InMemoryTransport inner = new InMemoryTransport();
+        SimulatedLinkTransport link = new SimulatedLinkTransport(inner,
+                new SimulatedLinkTransport.Profile("test", 10_000, 0, 0).setBufferBytes(100), 1);
+        link.open();
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            link.getOutputStream().write(new byte[100]);
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(85));
+        link.close();
+    }
+
+    @Test
+    public void dropsWholeWritesAndDelaysReplies() throws IOException {
+        InMemoryTransport inner = new InMemoryTransport();
+        SimulatedLinkTransport link = new SimulatedLinkTransport(inner,
+                new SimulatedLinkTransport.Profile("lossy", 100_000, 20_000, 0).setDropProbability(0.3), 42);
+        link.open();
+        byte[] chunk = new byte[10];
+        for (int i = 0; i < 100; i++) {
+            link.getOutputStream().write(chunk);
+        }
+        assertTrue(link.getDroppedCount() > 10);
+        long expected = (100 - link.getDroppedCount()) * chunk.length;
+        assertEquals(expected, readAll(inner.getDeviceInputStream(), (int) expected));
+        assertEquals(0, inner.getDeviceInputStream().available());
+
+        long start = System.nanoTime();
+        inner.getDeviceOutputStream().write(new byte[]{1, 2, 3});
+        assertEquals(3, readAll(link.getInputStream(), 3));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(19));
+        link.close();
+    }
+
+    // What the radio does to each write depends only on the seed and the write's place in
+    // the sequence, never on timing, so the same seed gives the same counts on any machine
+    @Test
+    public void seedFixesDropsStallsAndBursts() throws IOException {
+        for (int run = 0; run < 2; run++) {
+            SimulatedLinkTransport link = new SimulatedLinkTransport(new InMemoryTransport(),
+                    new SimulatedLinkTransport.Profile("test", 1_000_000, 0, 0).setBufferBytes(100_000)
+                            .setBursts(0.05, 0.2, 0, 1).setStalls(0.02, 100).setDropProbability(0.05), 7);
+            link.open();
+            byte[] chunk = new byte[10];
+            for (int i = 0; i < 1000; i++) {
+                link.getOutputStream().write(chunk);
+            }
+            assertEquals(1000, link.getWriteCount());
+            assertEquals(47, link.getDroppedCount());
+            assertEquals(21, link.getStallCount());
+            assertEquals(37, link.getBurstCount());
+            link.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.synthcontroller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SynthEmulatorTest {
+
+    private static final long MS = 1000;
+
+    private static void text(SynthEmulator synth, long micros, String lines) {
+        byte[] bytes = lines.getBytes(StandardCharsets.US_ASCII);
+        synth.receive(bytes, 0, bytes.length, micros);
+    }
+
+    @Test
+    public void stealsTheOldestVoice() {
+        SynthEmulator synth = new SynthEmulator(4);
+        for (int i = 0; i < 4; i++) {
+            text(synth, i * MS, "DOWN:" + (60 + i) + "\n");
+        }
+        assertEquals(4, synth.getActiveVoiceCount());
+        text(synth, 10 * MS, "DOWN:72\n");
+        assertEquals(1, synth.getStolenCount());
+        assertEquals(72, synth.getVoiceNote(0));
+        assertFalse(synth.isHeld(60));
+        assertTrue(synth.isHeld(61));
+
+        // A released voice keeps sounding, and can still be stolen, until the release is over
+        text(synth, 20 * MS, "UP:61\n");
+        assertTrue(synth.isVoiceReleasing(1));
+        synth.advance(20 * MS + 300 * MS);
+        assertTrue(synth.isVoiceActive(1));
+        synth.advance(20 * MS + 301 * MS);
+        assertFalse(synth.isVoiceActive(1));
+        assertEquals(3, synth.getActiveVoiceCount());
+
+        text(synth, 400 * MS, "PANIC\n");
+        assertEquals(0, synth.getActiveVoiceCount());
+    }
+
+    @Test
+    public void transposeAndReleaseFollowTheSketch() {
+        SynthEmulator synth = new SynthEmulator();
+        text(synth, 0, "TRANSPOSE:2\nRELEASE:0\nDOWN:60\n");
+        assertTrue(synth.isHeld(62));
+        assertEquals(10, synth.getReleaseMillis());
+        // Changing the transpose between on and off strands the note, as on the board
+        text(synth, MS, "TRANSPOSE:0\nUP:60\n");
+        assertTrue(synth.isHeld(62));
+        text(synth, 2 * MS, "TRANSPOSE:2\nUP:60\n");
+        assertFalse(synth.isHeld(62));
+    }
+
+    @Test
+    public void decodesBinaryFramesWithRunningStatusAndPatches() {
+        SynthEmulator synth = new SynthEmulator();
+        BinaryCommandEncoder encoder = new BinaryCommandEncoder(true);
+        byte[] wire = new byte[256];
+        int length = encoder.encodeHandshake(wire, 0);
+        for (int note = 60; note < 64; note++) {
+            length += encoder.encode(SynthCommand.pack(SynthCommand.NOTE_ON, SynthCommand.noteValue(note, 90, -1)),
+                    wire, length);
+        }
+        int[] patch = new int[SynthCommand.COUNT];
+        for (int command = SynthCommand.ATTACK; command <= SynthCommand.SUB_WAVE; command++) {
+            patch[command] = command;
+        }
+        patch[SynthCommand.RELEASE] = 255;
+        length += encoder.encodePatch(patch, wire, length);
+        synth.receive(wire, 0, length, 0);
+
+        assertEquals(SynthProtocol.VERSION, synth.getProtocolVersion());
+        assertEquals(4, synth.getActiveVoiceCount());
+        assertEquals(90, synth.getVoiceVelocity(3));
+        assertEquals(2000, synth.getReleaseMillis());
+        assertEquals(SynthCommand.FILTER, synth.getParameter(SynthCommand.FILTER));
+
+        // The next phone has to say hello again
+        synth.disconnect();
+        assertEquals(0, synth.getProtocolVersion());
+    }
+
+    @Test
+    public void sustainedPlaybackOverTheLink() throws IOException, InterruptedException {
+        InMemoryTransport transport = new InMemoryTransport();
+        BluetoothManager link = new BluetoothManager(transport);
+        link.setBinaryProtocol(true);
+        link.setRunningStatus(true);
+        link.setPingInterval(20);
+        SynthEmulator synth = new SynthEmulator();
+        try {
+            assertTrue(link.connect());
+            Thread emulator = synth.start(transport);
+            // Four-note legato: each step starts a note and ends the one from four steps back
+            int notes = 2000;
+            for (int i = 0; i < notes + 4; i++) {
+                if (i < notes) {
+                    assertTrue(link.sendCommand(SynthCommand.NOTE_ON, SynthCommand.noteValue(36 + i % 48, 100, -1)));
+                }
+                if (i >= 4) {
+                    assertTrue(link.sendCommand(SynthCommand.NOTE_OFF, 36 + (i - 4) % 48));
+                }
+                while (link.getQueueDepth() > 0) {
+                    Thread.yield();
+                }
+            }
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while ((synth.getNotesOffCount() < notes || synth.getPingCount() == 0)
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(notes, synth.getNotesOnCount());
+            assertEquals(notes, synth.getNotesOffCount());
+            assertTrue(synth.getPingCount() > 0);
+
+            // Every note was released, so after the release time nothing sounds
+            Thread.sleep(synth.getReleaseMillis() + 100);
+            assertEquals(0, synth.getActiveVoiceCount());
+            assertTrue(emulator.isAlive());
+        } finally {
+            link.disconnect();
+        }
+    }
+
+    @Test
+    public void servesTcpLinks() throws IOException, InterruptedException {
+        SynthEmulator synth = new SynthEmulator();
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread listener = new Thread(() -> {
+                try {
+                    synth.listen(server);
+                } catch (IOException e) {
+                    // server closed
+                }
+            });
+            listener.setDaemon(true);
+            listener.start();
+            BluetoothManager link = new BluetoothManager(new TcpTransport("127.0.0.1", server.getLocalPort()));
+            try {
+                assertTrue(link.connect());
+                link.sendCommand(SynthCommand.NOTE_ON, 64);
+                assertTrue(link.ping()); // a text link does not ping on its own
+                long deadline = System.nanoTime() + 2_000_000_000L;
+                while ((!synth.isHeld(64) || link.getLatencyProbe().getPongsReceived() == 0)
+                        && System.nanoTime() < deadline) {
+                    Thread.sleep(5);
+                }
+                assertTrue(synth.isHeld(64));
+                assertTrue(link.getLatencyProbe().getPongsReceived() > 0);
+            } finally {
+                link.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void answersTextPings() throws IOException {
+        InMemoryTransport transport = new InMemoryTransport();
+        transport.open();
+        SynthEmulator synth = new SynthEmulator();
+        byte[] ping = "PING:7\n".getBytes(StandardCharsets.US_ASCII);
+        synth.receive(ping, 0, ping.length, 123, transport.getDeviceOutputStream());
+
+        InputStream phone = transport.getInputStream();
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        long packed = SynthProtocolDecoder.NONE;
+        while (packed == SynthProtocolDecoder.NONE) {
+            packed = decoder.feed(phone.read());
+        }
+        assertEquals(SynthCommand.pack(SynthCommand.PONG, 7), packed);
+        assertEquals(123, decoder.getPongMicros());
+        transport.close();
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.synthcontroller;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SynthEnsembleTest {
+
+    private final List<BluetoothManager> links = new ArrayList<>();
+    private final List<VoiceCountingSynth> boards = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (BluetoothManager link : links) {
+            link.disconnect();
+        }
+    }
+
+    private SynthEnsemble ensemble(int... voices) {
+        SynthEnsemble ensemble = null;
+        for (int boardVoices : voices) {
+            BluetoothManager link = board(boardVoices);
+            if (ensemble == null) {
+                ensemble = new SynthEnsemble(link, boardVoices);
+            } else {
+                ensemble.addLink(link, boardVoices);
+            }
+        }
+        return ensemble;
+    }
+
+    private BluetoothManager board(int voices) {
+        InMemoryTransport transport = new InMemoryTransport();
+        BluetoothManager link = new BluetoothManager(transport);
+        link.setPingInterval(0);
+        assertTrue(link.connect());
+        VoiceCountingSynth board = new VoiceCountingSynth(transport, voices);
+        board.start();
+        links.add(link);
+        boards.add(board);
+        return link;
+    }
+
+    private void play(SynthEnsemble ensemble, int command, int firstNote, int count) throws InterruptedException {
+        for (int note = firstNote; note < firstNote + count; note++) {
+            assertTrue(ensemble.sendCommand(command, note));
+        }
+        awaitBoards();
+    }
+
+    // Waits until every board has seen everything sent so far
+    private void awaitBoards() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        for (BluetoothManager link : links) {
+            while (link.getQueueDepth() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        Thread.sleep(50);
+    }
+
+    private int boardSteals() {
+        int stolen = 0;
+        for (VoiceCountingSynth board : boards) {
+            stolen += board.stolen;
+        }
+        return stolen;
+    }
+
+    @Test
+    public void singleBoardStealsBeyondItsVoices() throws InterruptedException {
+        SynthEnsemble ensemble = ensemble(4);
+        play(ensemble, SynthCommand.NOTE_ON, 60, 12);
+        assertEquals(8, boardSteals());
+        assertEquals(8, ensemble.getStolenCount());
+    }
+
+    @Test
+    public void roundRobinScalesPolyphonyWithBoards() throws InterruptedException {
+        SynthEnsemble ensemble = ensemble(4, 4, 4);
+        play(ensemble, SynthCommand.NOTE_ON, 60, 12);
+        assertEquals(0, boardSteals());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(4, boards.get(i).activeVoices());
+            assertEquals(4, ensemble.activeVoices(i));
+        }
+
+        // Note-offs go only to the board holding the note
+        play(ensemble, SynthCommand.NOTE_OFF, 60, 12);
+        for (VoiceCountingSynth board : boards) {
+            assertEquals(0, board.activeVoices());
+            assertEquals(4, board.notesOff);
+        }
+    }
+
+    @Test
+    public void leastLoadedFollowsEachBoardsVoiceCount() throws InterruptedException {
+        SynthEnsemble ensemble = ensemble(8, 4);
+        ensemble.setAllocationMode(VoiceAllocator.MODE_LEAST_LOADED);
+        play(ensemble, SynthCommand.NOTE_ON, 60, 12);
+        assertEquals(0, boardSteals());
+        assertEquals(8, boards.get(0).activeVoices());
+        assertEquals(4, boards.get(1).activeVoices());
+
+        // A 13th note has to steal somewhere, and the allocator knows it
+        play(ensemble, SynthCommand.NOTE_ON, 72, 1);
+        assertEquals(1, boardSteals());
+        assertEquals(1, ensemble.getStolenCount());
+    }
+
+    @Test
+    public void keySplitKeepsRangesApart() throws InterruptedException {
+        SynthEnsemble ensemble = ensemble(4, 4);
+        ensemble.setAllocationMode(VoiceAllocator.MODE_KEY_SPLIT);
+        ensemble.setSplitPoints(new int[]{60});
+        play(ensemble, SynthCommand.NOTE_ON, 48, 5); // bass crowds the lower board
+        play(ensemble, SynthCommand.NOTE_ON, 72, 3);
+        assertEquals(1, boards.get(0).stolen);
+        assertEquals(0, boards.get(1).stolen);
+        assertEquals(3, boards.get(1).activeVoices());
+        assertEquals(boardSteals(), ensemble.getStolenCount());
+    }
+
+    @Test
+    public void splitPointsWaitForTheBoardsTheyNeed() throws InterruptedException {
+        SynthEnsemble ensemble = ensemble(4);
+        ensemble.setAllocationMode(VoiceAllocator.MODE_KEY_SPLIT);
+        ensemble.setSplitPoints(new int[]{72}); // saved until a second board joins
+        ensemble.addLink(board(4), 4);
+        play(ensemble, SynthCommand.NOTE_ON, 62, 3); // above an even split, below the saved one
+        assertEquals(3, boards.get(0).activeVoices());
+        assertEquals(0, boards.get(1).activeVoices());
+    }
+
+    @Test
+    public void scheduledPlaybackSpreadsChordsAcrossBoards() throws InterruptedException {
+        SynthEnsemble ensemble = ensemble(4, 4);
+        long[] times = {0, 0, 0, 0, 0, 0, 20, 40, 40, 40, 40, 40, 40};
+        long[] commands = new long[times.length];
+        for (int i = 0; i < 6; i++) {
+            commands[i] = SynthCommand.pack(SynthCommand.NOTE_ON, 60 + i);
+            commands[i + 7] = SynthCommand.pack(SynthCommand.NOTE_OFF, 60 + i);
+        }
+        commands[6] = SynthCommand.pack(SynthCommand.FILTER, 40);
+        PlaybackScheduler scheduler = new PlaybackScheduler(ensemble);
+        scheduler.setLeadTime(0);
+
+        assertTrue(scheduler.play(times, commands, times.length, new AtomicBoolean(true)));
+        awaitBoards();
+        assertEquals(3, scheduler.getImmediateBatches());
+        for (VoiceCountingSynth board : boards) {
+            assertEquals(3, board.notesOn); // a six-note chord needs both boards
+            assertEquals(3, board.notesOff); // each release only where the note is held
+            assertEquals(0, board.activeVoices());
+        }
+        assertEquals(0, boardSteals());
+    }
+
+    @Test
+    public void panicReachesEveryBoard() throws InterruptedException {
+        SynthEnsemble ensemble = ensemble(4, 4);
+        play(ensemble, SynthCommand.NOTE_ON, 60, 6);
+        assertTrue(ensemble.sendCommand(SynthCommand.PANIC, 0));
+        awaitBoards();
+        for (int i = 0; i < 2; i++) {
+            assertEquals(1, boards.get(i).panics);
+            assertEquals(0, ensemble.activeVoices(i));
+        }
+    }
+
+    @Test
+    public void panicSkipsBoardsThatAreNotConnected() throws InterruptedException {
+        SynthEnsemble ensemble = ensemble(4, 4);
+        links.get(1).disconnect();
+        assertTrue(ensemble.sendCommand(SynthCommand.PANIC, 0));
+        awaitBoards();
+        assertEquals(1, boards.get(0).panics);
+        assertEquals(ConnectionManager.STATE_DISCONNECTED,
+                links.get(1).getConnectionManager().getState());
+    }
+
+    @Test
+    public void allNotesOffReachesEveryBoardAndTheJournal() throws InterruptedException {
+        SynthEnsemble ensemble = ensemble(4, 4);
+        CommandJournal journal = new CommandJournal(4096);
+        ensemble.setJournal(journal);
+        play(ensemble, SynthCommand.NOTE_ON, 60, 6);
+        assertTrue(ensemble.allNotesOff());
+        awaitBoards();
+        // The PANIC may overtake note-offs still queued; either way the boards fall silent
+        for (int i = 0; i < 2; i++) {
+            assertEquals(1, boards.get(i).panics);
+            assertEquals(0, boards.get(i).activeVoices());
+            assertEquals(0, ensemble.activeVoices(i));
+        }
+        assertEquals(6 + 128 + 1, journal.getRecordCount());
+    }
+
+    @Test
+    public void clearingAReplacedJournalKeepsTheNewOne() {
+        SynthEnsemble ensemble = ensemble(4);
+        CommandJournal playback = new CommandJournal(1024);
+        CommandJournal perform = new CommandJournal(1024);
+        ensemble.setJournal(playback);
+        // Another screen took over before the playback ended
+        ensemble.setJournal(perform);
+        ensemble.clearJournal(playback);
+        ensemble.sendCommand(SynthCommand.ATTACK, 10);
+        assertEquals(0, playback.getRecordCount());
+        assertEquals(1, perform.getRecordCount());
+
+        ensemble.clearJournal(perform);
+        ensemble.sendCommand(SynthCommand.ATTACK, 20);
+        assertEquals(1, perform.getRecordCount());
+    }
+
+    @Test
+    public void disconnectedBoardGetsNoNotes() throws InterruptedException {
+        SynthEnsemble ensemble = ensemble(4, 4);
+        links.get(1).disconnect();
+        play(ensemble, SynthCommand.NOTE_ON, 60, 3);
+        assertEquals(3, boards.get(0).notesOn);
+        assertEquals(0, boards.get(1).notesOn);
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.synthcontroller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SynthProtocolTest {
+
+    private final byte[] buffer = new byte[CommandEncoder.MAX_FRAME_LENGTH];
+
+    private long roundTrip(CommandEncoder encoder, long packed) {
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        int length = encoder.encode(packed, buffer, 0);
+        long decoded = SynthProtocolDecoder.NONE;
+        for (int i = 0; i < length; i++) {
+            long result = decoder.feed(buffer[i]);
+            if (result != SynthProtocolDecoder.NONE) {
+                assertEquals("command must complete on the last byte", length - 1, i);
+                decoded = result;
+            }
+        }
+        return decoded;
+    }
+
+    @Test
+    public void binary_roundTripsEveryParameter() {
+        BinaryCommandEncoder encoder = new BinaryCommandEncoder();
+        for (int command = SynthCommand.ATTACK; command <= SynthCommand.REVERB; command++) {
+            int[] values = SynthProtocol.isSigned(command) ? new int[]{-4, 0, 4} : new int[]{0, 127, 255};
+            for (int value : values) {
+                long packed = SynthCommand.pack(command, value);
+                assertEquals(packed, roundTrip(encoder, packed));
+            }
+        }
+    }
+
+    @Test
+    public void binary_patchCarriesTenParametersInOneFrame() {
+        int[] values = new int[SynthCommand.COUNT];
+        for (int i = 0; i < SynthProtocol.PATCH_PARAMETERS; i++) {
+            values[SynthProtocol.commandForParameter(i)] = 250 - i;
+        }
+        int length = new BinaryCommandEncoder().encodePatch(values, buffer, 0);
+        assertEquals(SynthProtocol.PATCH_LENGTH, length);
+
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        for (int i = 0; i < length - 1; i++) {
+            assertEquals(SynthProtocolDecoder.NONE, decoder.feed(buffer[i]));
+        }
+        assertEquals(SynthCommand.pack(SynthCommand.PATCH, 0), decoder.feed(buffer[length - 1]));
+        for (int command = SynthCommand.ATTACK; command <= SynthCommand.SUB_WAVE; command++) {
+            assertEquals(values[command], decoder.getPatchValue(command));
+        }
+        assertEquals(0, new TextCommandEncoder().encodePatch(values, buffer, 0));
+    }
+
+    @Test
+    public void binary_notesAreTwoToFourBytes() {
+        BinaryCommandEncoder encoder = new BinaryCommandEncoder();
+
+        long plain = SynthCommand.pack(SynthCommand.NOTE_ON, SynthCommand.noteValue(60, -1, -1));
+        assertEquals(2, encoder.encode(plain, buffer, 0));
+        assertEquals(plain, roundTrip(encoder, plain));
+
+        long withVelocity = SynthCommand.pack(SynthCommand.NOTE_OFF, SynthCommand.noteValue(61, 90, -1));
+        assertEquals(3, encoder.encode(withVelocity, buffer, 0));
+        assertEquals(withVelocity, roundTrip(encoder, withVelocity));
+
+        long full = SynthCommand.pack(SynthCommand.NOTE_ON, SynthCommand.noteValue(127, 1, 15));
+        assertEquals(4, encoder.encode(full, buffer, 0));
+        assertEquals(full, roundTrip(encoder, full));
+
+        long panic = SynthCommand.pack(SynthCommand.PANIC, 0);
+        assertEquals(1, encoder.encode(panic, buffer, 0));
+        assertEquals(panic, roundTrip(encoder, panic));
+    }
+
+    @Test
+    public void text_matchesFirmwareFormat() {
+        TextCommandEncoder encoder = new TextCommandEncoder();
+        int length = encoder.encode(SynthCommand.parse("VIB_DEPTH:255"), buffer, 0);
+        assertEquals("VIB_DEPTH:255\n", new String(buffer, 0, length));
+
+        length = encoder.encode(SynthCommand.parse("OCTAVE:-1"), buffer, 0);
+        assertEquals("OCTAVE:-1\n", new String(buffer, 0, length));
+
+        long note = SynthCommand.parse("DOWN:60");
+        assertEquals(note, roundTrip(encoder, note));
+    }
+
+    @Test
+    public void decoder_handlesMixedStreamAfterHello() {
+        BinaryCommandEncoder binary = new BinaryCommandEncoder();
+        TextCommandEncoder text = new TextCommandEncoder();
+        long[] commands = {
+                SynthCommand.parse("DOWN:60"),
+                SynthCommand.parse("FILTER:200"),
+                SynthCommand.parse("UP:60"),
+                SynthCommand.parse("OCTAVE:-2"),
+        };
+
+        byte[] stream = new byte[256];
+        int length = binary.encodeHandshake(stream, 0);
+        for (int i = 0; i < commands.length; i++) {
+            CommandEncoder encoder = i % 2 == 0 ? binary : text;
+            length += encoder.encode(commands[i], stream, length);
+        }
+
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        int decoded = 0;
+        for (int i = 0; i < length; i++) {
+            long result = decoder.feed(stream[i]);
+            if (result != SynthProtocolDecoder.NONE) {
+                assertEquals(commands[decoded++], result);
+            }
+        }
+        assertEquals(commands.length, decoded);
+        // Without running status the encoder announces version 1, so text may follow notes
+        assertEquals(1, decoder.getVersion());
+    }
+
+    @Test
+    public void runningStatus_dropsRepeatedNoteOpcodes() {
+        BinaryCommandEncoder encoder = new BinaryCommandEncoder(true);
+        long[] commands = {
+                SynthCommand.pack(SynthCommand.NOTE_ON, SynthCommand.noteValue(60, 100, -1)),
+                SynthCommand.pack(SynthCommand.NOTE_ON, SynthCommand.noteValue(64, 90, -1)),
+                SynthCommand.pack(SynthCommand.NOTE_ON, SynthCommand.noteValue(67, 80, -1)),
+                SynthCommand.pack(SynthCommand.NOTE_ON, SynthCommand.noteValue(72, -1, -1)),
+                SynthCommand.pack(SynthCommand.FILTER, 10),
+                SynthCommand.pack(SynthCommand.NOTE_ON, SynthCommand.noteValue(48, 70, -1)),
+                SynthCommand.pack(SynthCommand.NOTE_OFF, SynthCommand.noteValue(60, -1, -1)),
+                SynthCommand.pack(SynthCommand.NOTE_OFF, SynthCommand.noteValue(64, -1, -1)),
+        };
+        byte[] stream = new byte[256];
+        int length = encoder.encodeHandshake(stream, 0);
+        for (long packed : commands) {
+            length += encoder.encode(packed, stream, length);
+        }
+        // hello 2, notes 3+2+2, flag change 2, parameter 2, notes 3, offs 2+1
+        assertEquals(19, length);
+
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        int decoded = 0;
+        for (int i = 0; i < length; i++) {
+            long result = decoder.feed(stream[i]);
+            if (result != SynthProtocolDecoder.NONE) {
+                assertEquals(commands[decoded++], result);
+            }
+        }
+        assertEquals(commands.length, decoded);
+        assertEquals(SynthProtocol.VERSION, decoder.getVersion());
+
+        // A new connection starts with a full opcode again
+        length = encoder.encodeHandshake(stream, 0);
+        assertEquals(2, encoder.encode(commands[7], stream, length));
+    }
+
+    @Test
+    public void decoder_skipsUndefinedOpcodes() {
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        assertEquals(SynthProtocolDecoder.NONE, decoder.feed(0xFF));
+        assertEquals(SynthProtocolDecoder.NONE, decoder.feed(0x9C));
+        assertEquals(SynthProtocolDecoder.NONE, decoder.feed(SynthProtocol.OP_NOTE_ON));
+        long result = decoder.feed(64);
+        assertTrue(result != SynthProtocolDecoder.NONE);
+        assertEquals(SynthCommand.NOTE_ON, SynthCommand.command(result));
+        assertEquals(64, SynthCommand.note(SynthCommand.value(result)));
+    }
+}
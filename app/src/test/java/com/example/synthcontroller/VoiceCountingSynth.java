@@ -0,0 +1,75 @@
+package com.example.synthcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Device-side stand-in for one synth board on an {@link InMemoryTransport}: plays notes on a
+ * fixed number of voices and, like the sketches, steals the oldest one when all are busy.
+ */
+class VoiceCountingSynth extends Thread {
+    private final InputStream in;
+    private final int[] voices;
+    private int active;
+
+    volatile int notesOn;
+    volatile int notesOff;
+    volatile int stolen;
+    volatile int panics;
+
+    VoiceCountingSynth(InMemoryTransport transport, int voices) {
+        super("VoiceCountingSynth");
+        this.in = transport.getDeviceInputStream();
+        this.voices = new int[voices];
+        setDaemon(true);
+    }
+
+    synchronized int activeVoices() {
+        return active;
+    }
+
+    @Override
+    public void run() {
+        SynthProtocolDecoder decoder = new SynthProtocolDecoder();
+        try {
+            int b;
+            while ((b = in.read()) >= 0) {
+                long packed = decoder.feed(b);
+                if (packed != SynthProtocolDecoder.NONE) {
+                    apply(SynthCommand.command(packed), SynthCommand.note(SynthCommand.value(packed)));
+                }
+            }
+        } catch (IOException e) {
+            // link closed
+        }
+    }
+
+    private synchronized void apply(int command, int note) {
+        switch (command) {
+            case SynthCommand.NOTE_ON:
+                if (active == voices.length) {
+                    System.arraycopy(voices, 1, voices, 0, --active);
+                    stolen++;
+                }
+                voices[active++] = note;
+                notesOn++;
+                break;
+            case SynthCommand.NOTE_OFF:
+                for (int i = 0; i < active; i++) {
+                    if (voices[i] == note) {
+                        System.arraycopy(voices, i + 1, voices, i, active - i - 1);
+                        active--;
+                        break;
+                    }
+                }
+                notesOff++;
+                break;
+            case SynthCommand.PANIC:
+                active = 0;
+                panics++;
+                break;
+            default:
+                break;
+        }
+    }
+}